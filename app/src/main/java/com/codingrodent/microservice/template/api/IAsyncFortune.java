@@ -27,11 +27,11 @@ package com.codingrodent.microservice.template.api;
 import com.codingrodent.microservice.template.model.ModelBase;
 import io.swagger.annotations.*;
 import org.springframework.hateoas.Resource;
-import org.springframework.http.MediaType;
+import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.context.request.async.DeferredResult;
 
-import java.util.List;
+import java.util.*;
 
 /**
  * Specific implementation methods for the fortune service
@@ -76,4 +76,41 @@ public interface IAsyncFortune<K, V extends ModelBase> extends IAsyncREST<K, V>
         throw new UnsupportedOperationException("List anonymous not implemented");
     }
 
+    /**
+     * GET - Requests named entities in key order, resuming after the entity identified by a continuation token
+     *
+     * @param continuation Token from the previous page (if any)
+     * @param size         Size of page
+     * @return Return selected entities
+     */
+    @RequestMapping(path = "/list/named", params = {"size", "!page"}, method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+    @ApiOperation(value = "Read all entities", notes = "Retrieve all named entities in key order, resuming from a continuation token", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ApiResponses(value = { //
+            @ApiResponse(code = 200, message = "OK, response entity in body"), //
+            @ApiResponse(code = 400, message = "Invalid continuation token")})
+    default DeferredResult<ResponseEntity<List<Resource<V>>>> listNamedFrom(@ApiParam(name = "continuation", value = "Continuation token") @RequestParam(required = false)
+                                                                                    Optional<String> continuation, //
+                                                                            @ApiParam(name = "size", value = "Items per page", required = true) @RequestParam int size) {
+        throw new UnsupportedOperationException("List named not implemented");
+    }
+
+    /**
+     * GET - Requests anonymous entities in key order, resuming after the entity identified by a continuation token
+     *
+     * @param continuation Token from the previous page (if any)
+     * @param size         Size of page
+     * @return Return selected entities
+     */
+    @RequestMapping(path = "/list/anon", params = {"size", "!page"}, method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+    @ApiOperation(value = "Read all entities", notes = "Retrieve all anonymous entities in key order, resuming from a continuation token", produces = MediaType
+            .APPLICATION_JSON_VALUE)
+    @ApiResponses(value = { //
+            @ApiResponse(code = 200, message = "OK, response entity in body"), //
+            @ApiResponse(code = 400, message = "Invalid continuation token")})
+    default DeferredResult<ResponseEntity<List<Resource<V>>>> listAnonFrom(@ApiParam(name = "continuation", value = "Continuation token") @RequestParam(required = false)
+                                                                                   Optional<String> continuation, //
+                                                                           @ApiParam(name = "size", value = "Items per page", required = true) @RequestParam int size) {
+        throw new UnsupportedOperationException("List anonymous not implemented");
+    }
+
 }
@@ -27,6 +27,7 @@ package com.codingrodent.microservice.template.api;
 import com.codingrodent.microservice.template.controller.SaveStateOperator;
 import com.codingrodent.microservice.template.exception.ApplicationFaultException;
 import com.codingrodent.microservice.template.model.ModelBase;
+import com.codingrodent.microservice.template.utility.Continuation;
 import io.swagger.annotations.*;
 import org.springframework.hateoas.*;
 import org.springframework.http.*;
@@ -36,6 +37,7 @@ import rx.Observable;
 
 import java.util.*;
 
+import static com.codingrodent.microservice.template.constants.SystemConstants.CONTINUATION_HEADER;
 import static org.springframework.hateoas.mvc.ControllerLinkBuilder.*;
 
 /**
@@ -143,6 +145,24 @@ public interface IAsyncREST<K, V extends ModelBase> {
         throw new UnsupportedOperationException("List not implemented");
     }
 
+    /**
+     * GET - Requests entities in key order, resuming after the entity identified by a continuation token
+     *
+     * @param continuation Token from the previous page (if any)
+     * @param size         Size of page
+     * @return Return selected entities
+     */
+    @RequestMapping(path = "/list", params = {"size", "!page"}, method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+    @ApiOperation(value = "Read all entities", notes = "Retrieve all entities in key order, resuming from a continuation token", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ApiResponses(value = { //
+            @ApiResponse(code = 200, message = "OK, response entity in body"), //
+            @ApiResponse(code = 400, message = "Invalid continuation token")})
+    default DeferredResult<ResponseEntity<List<Resource<V>>>> listAllFrom(@ApiParam(name = "continuation", value = "Continuation token") @RequestParam(required = false)
+                                                                                  Optional<String> continuation, //
+                                                                          @ApiParam(name = "size", value = "Items per page", required = true) @RequestParam int size) {
+        throw new UnsupportedOperationException("List not implemented");
+    }
+
     // Default
 
     /**
@@ -160,6 +180,28 @@ public interface IAsyncREST<K, V extends ModelBase> {
         return result;
     }
 
+    /**
+     * Add recovered data to a list, add HATEOAS links and pass back a continuation token for the next page if the page is full
+     *
+     * @param data Observable returning results in key order
+     * @param size Requested page size
+     * @return Deferred result subscribing to the list observable
+     */
+    default DeferredResult<ResponseEntity<List<Resource<V>>>> getContinuationDeferredResult(final Observable<V> data, final int size) {
+        DeferredResult<ResponseEntity<List<Resource<V>>>> result = new DeferredResult<>();
+        data.lift(new SaveStateOperator<>()).
+                map(f -> new Resource<>(f, getRelLink(f))).
+                collect(() -> new LinkedList<Resource<V>>(), LinkedList::add).
+                map(list -> {
+                    HttpHeaders headers = new HttpHeaders();
+                    if (!list.isEmpty() && (list.size() == size))
+                        list.getLast().getContent().getUUID().ifPresent(uuid -> headers.set(CONTINUATION_HEADER, Continuation.encode(uuid.toString())));
+                    return new ResponseEntity<List<Resource<V>>>(list, headers, HttpStatus.OK);
+                }).
+                subscribe(result::setResult, result::setErrorResult);
+        return result;
+    }
+
     /**
      * Generate self reference link to a document - use for HATEOAS
      *
@@ -29,7 +29,7 @@ import org.springframework.hateoas.Resource;
 import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.List;
+import java.util.*;
 
 /**
  * Specific implementation methods for the fortune service
@@ -43,16 +43,20 @@ public interface IFortune<K, V> extends IREST<K, V> {
      *
      * @param page Data page to read
      * @param size Size of page
+     * @param sort Sort order (if any) - property names, optionally followed by asc or desc, comma separated
      * @return Return selected entities
      */
     @RequestMapping(path = "/list/named", params = {"page", "size"}, method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
     @ApiOperation(value = "Read all entities", notes = "Retrieve all named entities in a paged manner if required", produces = MediaType.APPLICATION_JSON_VALUE)
     @ApiResponses(value = { //
             @ApiResponse(code = 200, message = "OK, response entity in body"), //
+            @ApiResponse(code = 400, message = "Invalid sort order"), //
             @ApiResponse(code = 410, message = "No matching entity exists"), //
             @ApiResponse(code = 412, message = "Precondition Failed")})
     default ResponseEntity<List<Resource<V>>> listNamed(@ApiParam(name = "page", value = "Page to retrieve", required = true) @RequestParam int page, //
-                                                        @ApiParam(name = "size", value = "Items per page", required = true) @RequestParam int size) {
+                                                        @ApiParam(name = "size", value = "Items per page", required = true) @RequestParam int size, //
+                                                        @ApiParam(name = "sort", value = "Sort order - property names then optional asc or desc, comma separated") @RequestParam(required = false)
+                                                                Optional<String> sort) {
         throw new UnsupportedOperationException("List named not implemented");
     }
 
@@ -61,16 +65,59 @@ public interface IFortune<K, V> extends IREST<K, V> {
      *
      * @param page Data page to read
      * @param size Size of page
+     * @param sort Sort order (if any) - property names, optionally followed by asc or desc, comma separated
      * @return Return selected entities
      */
     @RequestMapping(path = "/list/anon", params = {"page", "size"}, method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
     @ApiOperation(value = "Read all entities", notes = "Retrieve all anonymous entities in a paged manner if required", produces = MediaType.APPLICATION_JSON_VALUE)
     @ApiResponses(value = { //
             @ApiResponse(code = 200, message = "OK, response entity in body"), //
+            @ApiResponse(code = 400, message = "Invalid sort order"), //
             @ApiResponse(code = 410, message = "No matching entity exists"), //
             @ApiResponse(code = 412, message = "Precondition Failed")})
     default ResponseEntity<List<Resource<V>>> listAnon(@ApiParam(name = "page", value = "Page to retrieve", required = true) @RequestParam int page, //
-                                                       @ApiParam(name = "size", value = "Items per page", required = true) @RequestParam int size) {
+                                                       @ApiParam(name = "size", value = "Items per page", required = true) @RequestParam int size, //
+                                                       @ApiParam(name = "sort", value = "Sort order - property names then optional asc or desc, comma separated") @RequestParam(required = false)
+                                                               Optional<String> sort) {
+        throw new UnsupportedOperationException("List anonymous not implemented");
+    }
+
+    /**
+     * GET - Requests named entities in key order, resuming after the entity identified by a continuation token. The token for the next page is returned in
+     * the X-Continuation header and is absent when no more entities are available
+     *
+     * @param continuation Token from the previous page (if any)
+     * @param size         Size of page
+     * @return Return selected entities
+     */
+    @RequestMapping(path = "/list/named", params = {"size", "!page"}, method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+    @ApiOperation(value = "Read all entities", notes = "Retrieve all named entities in key order, resuming from a continuation token", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ApiResponses(value = { //
+            @ApiResponse(code = 200, message = "OK, response entity in body"), //
+            @ApiResponse(code = 400, message = "Invalid continuation token")})
+    default ResponseEntity<List<Resource<V>>> listNamedFrom(@ApiParam(name = "continuation", value = "Continuation token") @RequestParam(required = false) Optional<String>
+            continuation, //
+                                                            @ApiParam(name = "size", value = "Items per page", required = true) @RequestParam int size) {
+        throw new UnsupportedOperationException("List named not implemented");
+    }
+
+    /**
+     * GET - Requests anonymous entities in key order, resuming after the entity identified by a continuation token. The token for the next page is returned in
+     * the X-Continuation header and is absent when no more entities are available
+     *
+     * @param continuation Token from the previous page (if any)
+     * @param size         Size of page
+     * @return Return selected entities
+     */
+    @RequestMapping(path = "/list/anon", params = {"size", "!page"}, method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+    @ApiOperation(value = "Read all entities", notes = "Retrieve all anonymous entities in key order, resuming from a continuation token", produces = MediaType
+            .APPLICATION_JSON_VALUE)
+    @ApiResponses(value = { //
+            @ApiResponse(code = 200, message = "OK, response entity in body"), //
+            @ApiResponse(code = 400, message = "Invalid continuation token")})
+    default ResponseEntity<List<Resource<V>>> listAnonFrom(@ApiParam(name = "continuation", value = "Continuation token") @RequestParam(required = false) Optional<String>
+            continuation, //
+                                                           @ApiParam(name = "size", value = "Items per page", required = true) @RequestParam int size) {
         throw new UnsupportedOperationException("List anonymous not implemented");
     }
 
@@ -104,9 +104,10 @@ public interface IREST<K, V> {
     /**
      * PUT - Create or update an entity
      *
-     * @param uuid  Identifier of entity to write
-     * @param etag  Entity version identifier
-     * @param value Entity to write
+     * @param uuid   Identifier of entity to write
+     * @param etag   Entity version identifier
+     * @param value  Entity to write
+     * @param expiry Time to live in seconds (if any) - the entity is removed once it has passed
      * @return Written entity
      */
     @RequestMapping(path = "/{uuid}", method = RequestMethod.PUT, consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
@@ -115,12 +116,15 @@ public interface IREST<K, V> {
     @ApiResponses(value = { //
             @ApiResponse(code = 200, message = "OK, response entity in body"), //
             @ApiResponse(code = 201, message = "Created, response entity in body"), //
+            @ApiResponse(code = 400, message = "Invalid expiry"), //
             @ApiResponse(code = 409, message = "Conflict, can't update"), //
-            @ApiResponse(code = 412, message = "Precondition Failed")})
+            @ApiResponse(code = 412, message = "Precondition Failed"), //
+            @ApiResponse(code = 501, message = "Expiry not supported")})
     default ResponseEntity<Resource<V>> upsert(@ApiParam(name = "uuid", value = "Unique identifier UUID", required = true) @PathVariable UUID uuid, //
                                                @ApiParam(name = HttpHeaders.IF_MATCH, value = "ETag Value") @RequestHeader(value = HttpHeaders.IF_MATCH, required = false)
                                                        Optional<String> etag, //
-                                               @ApiParam(name = "Entity", value = "Entity Value", required = true) @RequestBody V value) {
+                                               @ApiParam(name = "Entity", value = "Entity Value", required = true) @RequestBody V value, //
+                                               @ApiParam(name = "expiry", value = "Time to live in seconds") @RequestParam(required = false) Optional<Long> expiry) {
         throw new UnsupportedOperationException("Update  or create an entity not implemented");
     }
 
@@ -184,19 +188,45 @@ public interface IREST<K, V> {
     /**
      * GET - Requests data from a specified resource
      *
-     * @param page Data page to read
-     * @param size Size of page
+     * @param page     Data page to read
+     * @param size     Size of page
+     * @param sort     Sort order (if any) - property names, optionally followed by asc or desc, comma separated
+     * @param snapshot Snapshot to read from (if any) - 'new' to take one. The snapshot read from is returned in the X-Snapshot header
      * @return Return Return selected entities
      */
     @RequestMapping(path = "/list", params = {"page", "size"}, method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
     @ApiOperation(value = "Read all entities", notes = "Retrieve all entities in a paged manner if required", produces = MediaType.APPLICATION_JSON_VALUE)
     @ApiResponses(value = { //
             @ApiResponse(code = 200, message = "OK, response entity in body"), //
+            @ApiResponse(code = 400, message = "Invalid sort order or snapshot"), //
             @ApiResponse(code = 304, message = "Not modified"), //
-            @ApiResponse(code = 410, message = "No matching entity exists"), //
+            @ApiResponse(code = 410, message = "No matching entity exists or snapshot expired"), //
             @ApiResponse(code = 412, message = "Precondition Failed")})
     default ResponseEntity<List<Resource<V>>> listAll(@ApiParam(name = "page", value = "Page to retrieve", required = true) @RequestParam int page, //
-                                                      @ApiParam(name = "size", value = "Items per page", required = true) @RequestParam int size) {
+                                                      @ApiParam(name = "size", value = "Items per page", required = true) @RequestParam int size, //
+                                                      @ApiParam(name = "sort", value = "Sort order - property names then optional asc or desc, comma separated") @RequestParam(required = false)
+                                                              Optional<String> sort, //
+                                                      @ApiParam(name = "snapshot", value = "Snapshot to read from, or 'new' to take one") @RequestParam(required = false)
+                                                              Optional<String> snapshot) {
+        throw new UnsupportedOperationException("List not implemented");
+    }
+
+    /**
+     * GET - Requests entities in key order, resuming after the entity identified by a continuation token. The token for the next page is returned in
+     * the X-Continuation header and is absent when no more entities are available
+     *
+     * @param continuation Token from the previous page (if any)
+     * @param size         Size of page
+     * @return Return selected entities
+     */
+    @RequestMapping(path = "/list", params = {"size", "!page"}, method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+    @ApiOperation(value = "Read all entities", notes = "Retrieve all entities in key order, resuming from a continuation token", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ApiResponses(value = { //
+            @ApiResponse(code = 200, message = "OK, response entity in body"), //
+            @ApiResponse(code = 400, message = "Invalid continuation token")})
+    default ResponseEntity<List<Resource<V>>> listAllFrom(@ApiParam(name = "continuation", value = "Continuation token") @RequestParam(required = false) Optional<String>
+            continuation, //
+                                                          @ApiParam(name = "size", value = "Items per page", required = true) @RequestParam int size) {
         throw new UnsupportedOperationException("List not implemented");
     }
 
@@ -0,0 +1,77 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.config;
+
+import com.couchbase.client.java.env.DefaultCouchbaseEnvironment;
+import org.springframework.boot.autoconfigure.couchbase.*;
+import org.springframework.context.annotation.*;
+import org.springframework.core.env.Environment;
+
+import javax.inject.Inject;
+
+import static com.codingrodent.microservice.template.constants.SystemConstants.*;
+
+/**
+ * The one Couchbase environment shared by every cluster connection in the application - Spring Data's and the async repository's. The
+ * environment owns the IO and computation thread pools and the request ring buffer, so these are sized here once.
+ * <p>
+ * Everything Spring Boot supports under spring.couchbase.env (timeouts, endpoints per node, ssl) is applied as usual. On top of that
+ * {@value com.codingrodent.microservice.template.constants.SystemConstants#PROPERTY_COUCHBASE_IO_POOL},
+ * {@value com.codingrodent.microservice.template.constants.SystemConstants#PROPERTY_COUCHBASE_COMPUTATION_POOL} and
+ * {@value com.codingrodent.microservice.template.constants.SystemConstants#PROPERTY_COUCHBASE_REQUEST_BUFFER} override the client defaults.
+ * The environment is shut down with the application context
+ */
+@Configuration
+@Profile({"prod"})
+public class CouchbaseConfig extends CouchbaseAutoConfiguration.CouchbaseConfiguration {
+
+    private final Environment environment;
+
+    @Inject
+    public CouchbaseConfig(final CouchbaseProperties properties, final Environment environment) {
+        super(properties);
+        this.environment = environment;
+    }
+
+    @Override
+    protected DefaultCouchbaseEnvironment.Builder initializeEnvironmentBuilder(final CouchbaseProperties properties) {
+        DefaultCouchbaseEnvironment.Builder builder = super.initializeEnvironmentBuilder(properties);
+        Integer io = environment.getProperty(PROPERTY_COUCHBASE_IO_POOL, Integer.class);
+        if (null != io)
+            builder.ioPoolSize(io);
+        Integer computation = environment.getProperty(PROPERTY_COUCHBASE_COMPUTATION_POOL, Integer.class);
+        if (null != computation)
+            builder.computationPoolSize(computation);
+        Integer buffer = environment.getProperty(PROPERTY_COUCHBASE_REQUEST_BUFFER, Integer.class);
+        if (null != buffer) {
+            // The ring buffer is indexed by mask
+            if ((buffer <= 0) || (0 != (buffer & (buffer - 1))))
+                throw new IllegalArgumentException(PROPERTY_COUCHBASE_REQUEST_BUFFER + " must be a power of two");
+            builder.requestBufferSize(buffer);
+        }
+        return builder;
+    }
+
+}
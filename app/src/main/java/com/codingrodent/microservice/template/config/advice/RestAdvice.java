@@ -62,6 +62,11 @@ public class RestAdvice extends ResponseEntityExceptionHandler {
         return getResponseEntity(req, ex, HttpStatus.GONE);
     }
 
+    @ExceptionHandler(SnapshotExpiredException.class)
+    public ResponseEntity<Object> fault(HttpServletRequest req, SnapshotExpiredException ex) {
+        return getResponseEntity(req, ex, HttpStatus.GONE);
+    }
+
     @ExceptionHandler(PreconditionFailedException.class)
     public ResponseEntity<Object> fault(HttpServletRequest req, PreconditionFailedException ex) {
         return getResponseEntity(req, ex, HttpStatus.PRECONDITION_FAILED);
@@ -82,6 +87,11 @@ public class RestAdvice extends ResponseEntityExceptionHandler {
         return getResponseEntity(req, ex, HttpStatus.SERVICE_UNAVAILABLE);
     }
 
+    @ExceptionHandler(TransientDataAccessException.class)
+    public ResponseEntity<Object> fault(HttpServletRequest req, TransientDataAccessException ex) {
+        return getResponseEntity(req, ex, HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
     @ExceptionHandler(IllegalArgumentException.class)
     public ResponseEntity<Object> fault(HttpServletRequest req, IllegalArgumentException ex) {
         return getResponseEntity(req, ex, HttpStatus.BAD_REQUEST);
@@ -39,9 +39,58 @@ public class SystemConstants {
     // Encoding
     public final static String CHAR_ENCODING = "UTF-8";
     public final static String CONTENT_TYPE = MediaType.APPLICATION_JSON_VALUE + ";charset=" + CHAR_ENCODING;
+    // Profiles
+    public final static String PROFILE_OFF_HEAP = "offheap";
+    public final static String PROFILE_DURABLE = "durable";
+    // Properties
+    public final static String PROPERTY_DURABLE_PATH = "repository.durable.path";
+    public final static String PROPERTY_SHARDS = "repository.shards";
+    public final static String PROPERTY_CACHE_CAPACITY = "repository.cache.capacity";
+    public final static String PROPERTY_VIEW_FETCH = "repository.view.fetch";
+    public final static String PROPERTY_NEAR_CACHE_STALENESS = "repository.near.staleness";
+    public final static String PROPERTY_NEAR_CACHE_SIZE = "repository.near.size";
+    public final static String PROPERTY_NEAR_CACHE_REVALIDATE = "repository.near.revalidate";
+    public final static String PROPERTY_HEDGE_PERCENTILE = "repository.hedge.percentile";
+    public final static String PROPERTY_HEDGE_BUDGET = "repository.hedge.budget";
+    public final static String PROPERTY_RETRY_ATTEMPTS = "repository.retry.attempts";
+    public final static String PROPERTY_RETRY_BUDGET = "repository.retry.budget";
+    public final static String PROPERTY_COUCHBASE_IO_POOL = "couchbase.env.io-pool-size";
+    public final static String PROPERTY_COUCHBASE_COMPUTATION_POOL = "couchbase.env.computation-pool-size";
+    public final static String PROPERTY_COUCHBASE_REQUEST_BUFFER = "couchbase.env.request-buffer-size";
+    public final static String PROPERTY_SIMULATED_LATENCY = "repository.simulated.latency";
+    public final static String PROPERTY_SIMULATED_SIGMA = "repository.simulated.sigma";
+    public final static String PROPERTY_SIMULATED_FAILURE = "repository.simulated.failure";
+    public final static String PROPERTY_BATCH_SIZE = "service.batch.size";
+    public final static String PROPERTY_BATCH_WAIT = "service.batch.wait";
+    // Headers
+    public final static String CONTINUATION_HEADER = "X-Continuation";
+    public final static String SNAPSHOT_HEADER = "X-Snapshot";
+    public final static String SNAPSHOT_NEW = "new";
     // Metrics
     public final static String METRIC_VERSION_GET = "com.codingrodent.microservice.template.get";
     public final static String METRIC_VERSION_OPTIONS = "com.codingrodent.microservice.template.options";
+    public final static String METRIC_REPOSITORY_SAVE = "com.codingrodent.microservice.template.repository.save";
+    public final static String METRIC_REPOSITORY_CONFLICT = "com.codingrodent.microservice.template.repository.conflict";
+    public final static String METRIC_REPOSITORY_HEAP = "com.codingrodent.microservice.template.repository.heap.bytes";
+    public final static String METRIC_REPOSITORY_OFF_HEAP = "com.codingrodent.microservice.template.repository.offheap.bytes";
+    public final static String METRIC_REPOSITORY_EXPIRED = "com.codingrodent.microservice.template.repository.expired";
+    public final static String METRIC_REPOSITORY_EXPIRY_LAG = "com.codingrodent.microservice.template.repository.expiry.lag";
+    public final static String METRIC_CACHE_HIT = "com.codingrodent.microservice.template.repository.cache.hit";
+    public final static String METRIC_CACHE_MISS = "com.codingrodent.microservice.template.repository.cache.miss";
+    public final static String METRIC_CACHE_EVICTION = "com.codingrodent.microservice.template.repository.cache.eviction";
+    public final static String METRIC_CACHE_WEIGHT = "com.codingrodent.microservice.template.repository.cache.weight";
+    public final static String METRIC_REPOSITORY_STORE = "com.codingrodent.microservice.template.repository.store";
+    public final static String METRIC_NEAR_CACHE_HIT = "com.codingrodent.microservice.template.repository.near.hit";
+    public final static String METRIC_NEAR_CACHE_MISS = "com.codingrodent.microservice.template.repository.near.miss";
+    public final static String METRIC_NEAR_CACHE_REVALIDATED = "com.codingrodent.microservice.template.repository.near.revalidated";
+    public final static String METRIC_NEAR_CACHE_STALENESS = "com.codingrodent.microservice.template.repository.near.staleness";
+    public final static String METRIC_NEAR_CACHE_SIZE = "com.codingrodent.microservice.template.repository.near.size";
+    public final static String METRIC_HEDGE_SENT = "com.codingrodent.microservice.template.repository.hedge.sent";
+    public final static String METRIC_HEDGE_WON = "com.codingrodent.microservice.template.repository.hedge.won";
+    public final static String METRIC_HEDGE_DELAY = "com.codingrodent.microservice.template.repository.hedge.delay";
+    public final static String METRIC_RETRY = "com.codingrodent.microservice.template.repository.retry";
+    public final static String METRIC_BATCH_SIZE = "com.codingrodent.microservice.template.service.batch.size";
+    public final static String METRIC_BATCH_WAIT = "com.codingrodent.microservice.template.service.batch.wait";
 
     private SystemConstants() {
         // Never need to make an instance of this class
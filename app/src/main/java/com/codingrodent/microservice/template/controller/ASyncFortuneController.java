@@ -27,9 +27,10 @@ package com.codingrodent.microservice.template.controller;
 import com.codingrodent.microservice.template.api.IAsyncFortune;
 import com.codingrodent.microservice.template.model.*;
 import com.codingrodent.microservice.template.service.api.IAsyncFortuneService;
+import com.codingrodent.microservice.template.utility.Continuation;
 import io.swagger.annotations.Api;
 import org.springframework.hateoas.Resource;
-import org.springframework.http.HttpHeaders;
+import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.context.request.async.DeferredResult;
 
@@ -67,7 +68,7 @@ public class ASyncFortuneController implements IAsyncFortune<UUID, Fortune> {
                 lift(new SaveStateOperator<>()).
                 map(ModelVersion::getModel).
                 map(fortune -> new Resource<>(fortune, getRelLink(fortune))).
-                subscribe(result::setResult, (t) -> result.setErrorResult(new RuntimeException(t)));
+                subscribe(result::setResult, result::setErrorResult);
         return result;
     }
 
@@ -103,4 +104,41 @@ public class ASyncFortuneController implements IAsyncFortune<UUID, Fortune> {
         return getListDeferredResult(fortuneService.findNamed(page, size));
     }
 
+
+    /**
+     * GET - Requests data from a specified resource, resuming from a continuation token
+     *
+     * @param continuation Token from the previous page (if any)
+     * @param size         Size of page
+     * @return Return selected entities
+     */
+    @Override
+    public DeferredResult<ResponseEntity<List<Resource<Fortune>>>> listAllFrom(final Optional<String> continuation, final int size) {
+        return getContinuationDeferredResult(fortuneService.findAllAfter(Continuation.decode(continuation), size), size);
+    }
+
+    /**
+     * GET - Requests data from a specified resource, resuming from a continuation token
+     *
+     * @param continuation Token from the previous page (if any)
+     * @param size         Size of page
+     * @return Return selected entities
+     */
+    @Override
+    public DeferredResult<ResponseEntity<List<Resource<Fortune>>>> listNamedFrom(final Optional<String> continuation, final int size) {
+        return getContinuationDeferredResult(fortuneService.findNamedAfter(Continuation.decode(continuation), size), size);
+    }
+
+    /**
+     * GET - Requests data from a specified resource, resuming from a continuation token
+     *
+     * @param continuation Token from the previous page (if any)
+     * @param size         Size of page
+     * @return Return selected entities
+     */
+    @Override
+    public DeferredResult<ResponseEntity<List<Resource<Fortune>>>> listAnonFrom(final Optional<String> continuation, final int size) {
+        return getContinuationDeferredResult(fortuneService.findAnonAfter(Continuation.decode(continuation), size), size);
+    }
+
 }
@@ -28,6 +28,7 @@ import com.codingrodent.microservice.template.api.IFortune;
 import com.codingrodent.microservice.template.exception.*;
 import com.codingrodent.microservice.template.model.*;
 import com.codingrodent.microservice.template.service.api.IFortuneService;
+import com.codingrodent.microservice.template.utility.*;
 import io.swagger.annotations.*;
 import org.springframework.hateoas.*;
 import org.springframework.http.*;
@@ -35,10 +36,11 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.context.request.RequestContextHolder;
 
 import javax.inject.Inject;
+import java.time.Duration;
 import java.util.*;
 import java.util.function.Supplier;
 
-import static com.codingrodent.microservice.template.constants.SystemConstants.API_VERSION;
+import static com.codingrodent.microservice.template.constants.SystemConstants.*;
 import static org.springframework.hateoas.mvc.ControllerLinkBuilder.*;
 import static org.springframework.http.HttpMethod.*;
 
@@ -71,7 +73,7 @@ public class FortuneController extends RestBase<Fortune> implements IFortune<UUI
                                                   @ApiParam(name = HttpHeaders.IF_NONE_MATCH, value = "ETag Value") @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required =
                                                           false) Optional<String> version) {
 
-        Optional<ModelVersion<Fortune>> modelVersion = fortuneService.load(uuid.toString());
+        Optional<ModelVersion<Fortune>> modelVersion = fortuneService.load(uuid);
         if (modelVersion.isPresent()) {
             if (!version.isPresent() || ifNoneMatch(version, modelVersion)) {
                 // Its changed, return new value
@@ -99,7 +101,7 @@ public class FortuneController extends RestBase<Fortune> implements IFortune<UUI
     public ResponseEntity<Optional> head(@ApiParam(name = "uuid", value = "Unique identifier UUID", required = true) @PathVariable UUID uuid, //
                                          @ApiParam(name = HttpHeaders.IF_NONE_MATCH, value = "ETag Value") @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false)
                                                  Optional<String> version) {
-        Optional<ModelVersion<Fortune>> modelVersion = fortuneService.load(uuid.toString());
+        Optional<ModelVersion<Fortune>> modelVersion = fortuneService.load(uuid);
         if (!version.isPresent() || ifNoneMatch(version, modelVersion)) {
             // Exists, so just return empty response
             return modelVersion.map(mv -> new ResponseEntity<Optional>(Optional.empty(), getETagAndHeaders(mv), HttpStatus.NO_CONTENT)).orElseThrow
@@ -142,17 +144,23 @@ public class FortuneController extends RestBase<Fortune> implements IFortune<UUI
      * @param uuid    Identifier of fortune to write
      * @param etag    Fortune version identifier
      * @param fortune Fortune to write
+     * @param expiry  Time to live in seconds (if any)
      * @return Written fortune
      */
     @Override
     public ResponseEntity<Resource<Fortune>> upsert(@ApiParam(name = "uuid", value = "Unique identifier UUID", required = true) @PathVariable UUID uuid, //
                                                     @ApiParam(name = HttpHeaders.IF_MATCH, value = "ETag Value") @RequestHeader(value = HttpHeaders.IF_MATCH, required = false)
                                                             Optional<String> etag, //
-                                                    @ApiParam(name = "Entity", value = "Fortune Value", required = true) @RequestBody Fortune fortune) {
+                                                    @ApiParam(name = "Entity", value = "Fortune Value", required = true) @RequestBody Fortune fortune, //
+                                                    @ApiParam(name = "expiry", value = "Time to live in seconds") @RequestParam(required = false) Optional<Long>
+                                                            expiry) {
         final String key = uuid.toString();
+        if (expiry.isPresent() && (expiry.get() <= 0))
+            throw new IllegalArgumentException("Expiry must be a positive number of seconds");
         // If no etag is supplied then this must be a create, as an etag implies we are doing version matching
-        etag.ifPresent(s -> fortuneService.load(key).orElseThrow(() -> new PreconditionFailedException("PUT If-Match")));
-        ModelVersion<Fortune> written = fortuneService.save(key, fortune, etag.map(extractCAS));
+        etag.ifPresent(s -> fortuneService.load(uuid).orElseThrow(() -> new PreconditionFailedException("PUT If-Match")));
+        ModelVersion<Fortune> written = expiry.isPresent() ? fortuneService.save(key, fortune, etag.map(extractCAS), Duration.ofSeconds(expiry.get()))
+                                                           : fortuneService.save(key, fortune, etag.map(extractCAS));
         if (null == written) {
             throw new ApplicationFaultException("PUT failed to return a document");
         } else {
@@ -176,7 +184,7 @@ public class FortuneController extends RestBase<Fortune> implements IFortune<UUI
 
         if (version.isPresent()) {
             // Only need  to check if record exists when doing an If-Match
-            Optional<ModelVersion<Fortune>> modelVersion = fortuneService.load(uuid.toString());
+            Optional<ModelVersion<Fortune>> modelVersion = fortuneService.load(uuid);
             if (!ifMatch(version, modelVersion))
                 throw new PreconditionFailedException("DELETE If-Match");
         }
@@ -198,14 +206,28 @@ public class FortuneController extends RestBase<Fortune> implements IFortune<UUI
     /**
      * GET - Requests data from a specified resource
      *
-     * @param page Data page to read
-     * @param size Size of page
+     * @param page     Data page to read
+     * @param size     Size of page
+     * @param sort     Sort order (if any) - property names, optionally followed by asc or desc, comma separated
+     * @param snapshot Snapshot to read from (if any) - 'new' to take one
      * @return Return selected entity or 'Not Modified' if version matched
      */
     @Override
     public ResponseEntity<List<Resource<Fortune>>> listAll(@ApiParam(name = "page", value = "Page to retrieve", required = true) @RequestParam int page, //
-                                                           @ApiParam(name = "size", value = "Items per page", required = true) @RequestParam int size) {
-        return getListResponseEntity(fortuneService.listAll(page, size));
+                                                           @ApiParam(name = "size", value = "Items per page", required = true) @RequestParam int size, //
+                                                           @ApiParam(name = "sort", value = "Sort order") @RequestParam(required = false) Optional<String> sort, //
+                                                           @ApiParam(name = "snapshot", value = "Snapshot to read from") @RequestParam(required = false)
+                                                                   Optional<String> snapshot) {
+        if (!snapshot.isPresent())
+            return getListResponseEntity(fortuneService.listAll(page, size, Sorting.parse(sort)));
+        if (sort.isPresent())
+            throw new IllegalArgumentException("Snapshot reads can not be sorted");
+        // A malformed snapshot fails to parse with a NumberFormatException - a bad request
+        long version = SNAPSHOT_NEW.equals(snapshot.get()) ? fortuneService.snapshot() : Long.parseLong(snapshot.get());
+        ResponseEntity<List<Resource<Fortune>>> list = getListResponseEntity(fortuneService.listAllAt(page, size, version));
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(SNAPSHOT_HEADER, Long.toString(version));
+        return new ResponseEntity<>(list.getBody(), headers, HttpStatus.OK);
     }
 
     /**
@@ -213,12 +235,14 @@ public class FortuneController extends RestBase<Fortune> implements IFortune<UUI
      *
      * @param page Data page to read
      * @param size Size of page
+     * @param sort Sort order (if any) - property names, optionally followed by asc or desc, comma separated
      * @return Return selected entity or 'Not Modified' if version matched
      */
     @Override
     public ResponseEntity<List<Resource<Fortune>>> listNamed(@ApiParam(name = "page", value = "Page to retrieve", required = true) @RequestParam int page, //
-                                                             @ApiParam(name = "size", value = "Items per page", required = true) @RequestParam int size) {
-        return getListResponseEntity(fortuneService.listNamed(page, size));
+                                                             @ApiParam(name = "size", value = "Items per page", required = true) @RequestParam int size, //
+                                                             @ApiParam(name = "sort", value = "Sort order") @RequestParam(required = false) Optional<String> sort) {
+        return getListResponseEntity(fortuneService.listNamed(page, size, Sorting.parse(sort)));
     }
 
     /**
@@ -226,12 +250,56 @@ public class FortuneController extends RestBase<Fortune> implements IFortune<UUI
      *
      * @param page Data page to read
      * @param size Size of page
+     * @param sort Sort order (if any) - property names, optionally followed by asc or desc, comma separated
      * @return Return selected entity or 'Not Modified' if version matched
      */
     @Override
     public ResponseEntity<List<Resource<Fortune>>> listAnon(@ApiParam(name = "page", value = "Page to retrieve", required = true) @RequestParam int page, //
-                                                            @ApiParam(name = "size", value = "Items per page", required = true) @RequestParam int size) {
-        return getListResponseEntity(fortuneService.listAnon(page, size));
+                                                            @ApiParam(name = "size", value = "Items per page", required = true) @RequestParam int size, //
+                                                            @ApiParam(name = "sort", value = "Sort order") @RequestParam(required = false) Optional<String> sort) {
+        return getListResponseEntity(fortuneService.listAnon(page, size, Sorting.parse(sort)));
+    }
+
+    /**
+     * GET - Requests data from a specified resource, resuming from a continuation token
+     *
+     * @param continuation Token from the previous page (if any)
+     * @param size         Size of page
+     * @return Return selected entities
+     */
+    @Override
+    public ResponseEntity<List<Resource<Fortune>>> listAllFrom(@ApiParam(name = "continuation", value = "Continuation token") @RequestParam(required = false) Optional<String>
+            continuation, //
+                                                               @ApiParam(name = "size", value = "Items per page", required = true) @RequestParam int size) {
+        return getListResponseEntity(fortuneService.listAllAfter(Continuation.decode(continuation), size), size);
+    }
+
+    /**
+     * GET - Requests data from a specified resource, resuming from a continuation token
+     *
+     * @param continuation Token from the previous page (if any)
+     * @param size         Size of page
+     * @return Return selected entities
+     */
+    @Override
+    public ResponseEntity<List<Resource<Fortune>>> listNamedFrom(@ApiParam(name = "continuation", value = "Continuation token") @RequestParam(required = false) Optional<String>
+            continuation, //
+                                                                 @ApiParam(name = "size", value = "Items per page", required = true) @RequestParam int size) {
+        return getListResponseEntity(fortuneService.listNamedAfter(Continuation.decode(continuation), size), size);
+    }
+
+    /**
+     * GET - Requests data from a specified resource, resuming from a continuation token
+     *
+     * @param continuation Token from the previous page (if any)
+     * @param size         Size of page
+     * @return Return selected entities
+     */
+    @Override
+    public ResponseEntity<List<Resource<Fortune>>> listAnonFrom(@ApiParam(name = "continuation", value = "Continuation token") @RequestParam(required = false) Optional<String>
+            continuation, //
+                                                                @ApiParam(name = "size", value = "Items per page", required = true) @RequestParam int size) {
+        return getListResponseEntity(fortuneService.listAnonAfter(Continuation.decode(continuation), size), size);
     }
 
     /**
@@ -259,5 +327,20 @@ public class FortuneController extends RestBase<Fortune> implements IFortune<UUI
         return new ResponseEntity<>(response, HttpStatus.OK);
     }
 
+    /**
+     * Add HATEOAS links to a list for results and return HTTP response with a continuation token for the next page if the page is full
+     *
+     * @param fortunes List of results in key order
+     * @param size     Requested page size
+     * @return HTTP response for list
+     */
+    private ResponseEntity<List<Resource<Fortune>>> getListResponseEntity(final List<Fortune> fortunes, final int size) {
+        ResponseEntity<List<Resource<Fortune>>> list = getListResponseEntity(fortunes);
+        HttpHeaders headers = new HttpHeaders();
+        if (!fortunes.isEmpty() && (fortunes.size() == size))
+            headers.set(CONTINUATION_HEADER, Continuation.encode(fortunes.get(fortunes.size() - 1).getUUID().orElseThrow(badRecordCreation).toString()));
+        return new ResponseEntity<>(list.getBody(), headers, HttpStatus.OK);
+    }
+
     private final Supplier<ApplicationFaultException> badRecordCreation = () -> new ApplicationFaultException("Database did not return UUID on record creation");
 }
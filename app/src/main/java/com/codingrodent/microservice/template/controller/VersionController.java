@@ -90,7 +90,7 @@ public class VersionController {
     public DeferredResult<Map<String, String>> readAsync() {
         metrics.inc(METRIC_VERSION_GET);
         DeferredResult<Map<String, String>> result = new DeferredResult<>();
-        Observable.just(versions).subscribe(result::setResult, (t) -> result.setErrorResult(new RuntimeException(t)));
+        Observable.just(versions).subscribe(result::setResult, result::setErrorResult);
         return result;
     }
 
@@ -0,0 +1,86 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.entity;
+
+/**
+ * Container class for one change made to a repository, as published on its change feed
+ */
+public class ChangeEvent<T> {
+
+    public enum Type {
+        INSERT, UPDATE, DELETE,
+        // Written without knowing whether the key already existed
+        UPSERT,
+        // Events were lost before this one because the subscriber fell too far behind
+        GAP
+    }
+
+    private final long sequence;
+    private final Type type;
+    private final String key;
+    private final long version;
+    private final T entity;
+
+    public ChangeEvent(final long sequence, final Type type, final String key, final long version, final T entity) {
+        this.sequence = sequence;
+        this.type = type;
+        this.key = key;
+        this.version = version;
+        this.entity = entity;
+    }
+
+    /**
+     * @return Position on the feed - the next event has the next number. For a gap, the first event still available
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return Key changed - null for a gap
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return Version written, or the version of the removal for a delete
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return Entity written - null for a delete or a gap
+     */
+    public T getEntity() {
+        return entity;
+    }
+
+}
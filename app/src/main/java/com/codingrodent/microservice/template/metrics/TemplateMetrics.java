@@ -24,9 +24,12 @@
  */
 package com.codingrodent.microservice.template.metrics;
 
+import com.codahale.metrics.Gauge;
 import com.codingrodent.microservice.template.metrics.api.ITemplateMetrics;
 import org.springframework.stereotype.Service;
 
+import java.util.function.Supplier;
+
 /**
  * Service to handle custom application metrics
  */
@@ -49,4 +52,37 @@ public class TemplateMetrics implements ITemplateMetrics {
         registry.counter(name).inc();
     }
 
+    /**
+     * Mark an event on a named meter metric.  Create if necessary
+     *
+     * @param name Name of metric
+     */
+    @Override
+    public void mark(final String name) {
+        registry.meter(name).mark();
+    }
+
+    /**
+     * Register a named gauge metric read on demand from a supplier.  Replaces any existing gauge of the same name
+     *
+     * @param name  Name of metric
+     * @param value Source of the gauge value
+     */
+    @Override
+    public void gauge(final String name, final Supplier<Long> value) {
+        registry.remove(name);
+        registry.register(name, (Gauge<Long>) value::get);
+    }
+
+    /**
+     * Add a value to a named histogram metric.  Create if necessary
+     *
+     * @param name  Name of metric
+     * @param value Value to record
+     */
+    @Override
+    public void update(final String name, final long value) {
+        registry.histogram(name).update(value);
+    }
+
 }
@@ -1,5 +1,7 @@
 package com.codingrodent.microservice.template.metrics.api;
 
+import java.util.function.Supplier;
+
 public interface ITemplateMetrics {
 
     /**
@@ -9,4 +11,27 @@ public interface ITemplateMetrics {
      */
     void inc(final String name);
 
+    /**
+     * Mark an event on a named meter metric, giving both a count and a rate.  Create if necessary
+     *
+     * @param name Name of metric
+     */
+    void mark(final String name);
+
+    /**
+     * Register a named gauge metric read on demand from a supplier.  Replaces any existing gauge of the same name
+     *
+     * @param name  Name of metric
+     * @param value Source of the gauge value
+     */
+    void gauge(final String name, final Supplier<Long> value);
+
+    /**
+     * Add a value to a named histogram metric.  Create if necessary
+     *
+     * @param name  Name of metric
+     * @param value Value to record
+     */
+    void update(final String name, final long value);
+
 }
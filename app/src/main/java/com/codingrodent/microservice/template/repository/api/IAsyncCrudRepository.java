@@ -24,6 +24,7 @@
  */
 package com.codingrodent.microservice.template.repository.api;
 
+import com.codingrodent.microservice.template.entity.ChangeEvent;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.repository.*;
 import rx.Observable;
@@ -61,6 +62,15 @@ public interface IAsyncCrudRepository<T> extends Repository<T, String> {
      */
     Observable<T> findOne(String id);
 
+    /**
+     * Retrieves the current version of an entity without reading the entity itself. Used to check whether a copy is still current
+     *
+     * @param id must not be {@literal null}.
+     * @return the version or empty if none found
+     * @throws IllegalArgumentException if {@code id} is {@literal null}
+     */
+    Observable<Long> version(String id);
+
     /**
      * Returns whether an entity with the given id exists.
      *
@@ -78,6 +88,15 @@ public interface IAsyncCrudRepository<T> extends Repository<T, String> {
      */
     Observable<T> findAll(Pageable pageable);
 
+    /**
+     * Returns instances of the type whose keys follow the supplied key, in key order. Used to resume a keyset scan from the last key seen
+     *
+     * @param id   Last key seen - {@literal null} to start from the beginning
+     * @param size Maximum number of entities to return
+     * @return entities following the key
+     */
+    Observable<T> findAllAfter(String id, int size);
+
     /**
      * Returns all instances of the type with the given IDs.
      *
@@ -94,32 +113,46 @@ public interface IAsyncCrudRepository<T> extends Repository<T, String> {
      */
     Observable<Long> count();
 
+    /**
+     * Stream of the changes made to entities, starting at a position on the change feed. A subscriber that falls too far behind is sent a gap
+     * event before the oldest change still held
+     *
+     * @param from Sequence of the first change wanted - 1 for the oldest held, or one past the last seen to resume
+     * @return Changes in the order they were made
+     */
+    Observable<ChangeEvent<T>> changes(long from);
+
     /**
      * Deletes the entity with the given id.
      *
      * @param id must not be {@literal null}.
+     * @return the number of entities deleted - 0 if none found
      * @throws IllegalArgumentException in case the given {@code id} is {@literal null}
      */
-    void delete(String id);
+    Observable<Long> delete(String id);
 
     /**
      * Deletes a given entity.
      *
      * @param entity Entity to delete
+     * @return the number of entities deleted - 0 if none found
      * @throws IllegalArgumentException in case the given entity is {@literal null}.
      */
-    void delete(T entity);
+    Observable<Long> delete(T entity);
 
     /**
      * Deletes the given entities.
      *
      * @param entities Entities to delete
+     * @return the number of entities deleted
      * @throws IllegalArgumentException in case the given {@link Iterable} is {@literal null}.
      */
-    void delete(Iterable<? extends T> entities);
+    Observable<Long> delete(Iterable<? extends T> entities);
 
     /**
      * Deletes all entities managed by the repository.
+     *
+     * @return the number of entities deleted
      */
-    void deleteAll();
+    Observable<Long> deleteAll();
 }
@@ -58,5 +58,22 @@ public interface IAsyncFortuneRepository<T> extends IAsyncCrudRepository<T> {
      * @return a list of entities
      */
     Observable<T> findAllAnon(Pageable pageable);
-}
 
+    /**
+     * Returns entities from the 'named' view whose keys follow the supplied key, in key order
+     *
+     * @param id   Last key seen - {@literal null} to start from the beginning
+     * @param size Maximum number of entities to return
+     * @return entities following the key
+     */
+    Observable<T> findAllNamedAfter(String id, int size);
+
+    /**
+     * Returns entities from the 'anon' view whose keys follow the supplied key, in key order
+     *
+     * @param id   Last key seen - {@literal null} to start from the beginning
+     * @param size Maximum number of entities to return
+     * @return entities following the key
+     */
+    Observable<T> findAllAnonAfter(String id, int size);
+}
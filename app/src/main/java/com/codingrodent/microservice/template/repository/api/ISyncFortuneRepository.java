@@ -24,12 +24,16 @@
  */
 package com.codingrodent.microservice.template.repository.api;
 
-import com.codingrodent.microservice.template.entity.EntityBase;
+import com.codingrodent.microservice.template.entity.*;
 import org.springframework.data.couchbase.core.query.View;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.repository.*;
+import rx.Observable;
 
-import java.util.List;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 /**
  * Additional sync repository access methods based on Couchbase views
@@ -39,6 +43,78 @@ public interface ISyncFortuneRepository<T extends EntityBase> extends PagingAndS
 
     String VIEW_ANON = "anon";
     String VIEW_NAMED = "named";
+    String VIEW_ALL = "all";
+
+    /**
+     * Retrieves an entity by its UUID. Stores able to index UUIDs directly can avoid building the key string
+     *
+     * @param id Entity id
+     * @return The entity or {@literal null} if none found
+     */
+    default T findOne(final UUID id) {
+        return findOne(id.toString());
+    }
+
+    /**
+     * Saves an entity that is removed once its time to live has passed
+     *
+     * @param entity Entity to save
+     * @param ttl    Time to live
+     * @param <S>    Entity type
+     * @return the saved entity
+     */
+    default <S extends T> S save(final S entity, final Duration ttl) {
+        throw new UnsupportedOperationException("Expiry not supported by this repository");
+    }
+
+    /**
+     * Take a snapshot for a series of reads that must agree with each other
+     *
+     * @return Snapshot version
+     */
+    default long pinSnapshot() {
+        throw new UnsupportedOperationException("Snapshots not supported by this repository");
+    }
+
+    /**
+     * Give up a snapshot
+     *
+     * @param snapshot Snapshot version
+     */
+    default void releaseSnapshot(final long snapshot) {
+        throw new UnsupportedOperationException("Snapshots not supported by this repository");
+    }
+
+    /**
+     * Returns a {@link List} of entities, in key order, as they were at a snapshot
+     *
+     * @param pageable Pagination information
+     * @param snapshot Snapshot version
+     * @return a list of entities
+     */
+    default List<T> findAllAt(final Pageable pageable, final long snapshot) {
+        throw new UnsupportedOperationException("Snapshots not supported by this repository");
+    }
+
+    /**
+     * Stream of the changes made to entities, starting at a position on the change feed
+     *
+     * @param from Sequence of the first change wanted
+     * @return Changes in the order they were made
+     */
+    default Observable<ChangeEvent<T>> changes(final long from) {
+        throw new UnsupportedOperationException("Change feed not supported by this repository");
+    }
+
+    /**
+     * Whether the 'named' and 'anon' views can be read in the order of a {@link org.springframework.data.domain.Sort}. A Couchbase view is only
+     * ever read in key order, and would silently ignore the sort
+     *
+     * @return True if view reads honour a sort
+     */
+    default boolean supportsSort() {
+        return false;
+    }
 
     /**
      * Returns a {@link List} of entities meeting the paging restriction provided in the {@code Pageable} object.
@@ -61,5 +137,60 @@ public interface ISyncFortuneRepository<T extends EntityBase> extends PagingAndS
      */
     @View(viewName = VIEW_ANON)
     List<T> findAllAnon(Pageable pageable);
-}
 
+    /**
+     * Returns a {@link List} of entities whose keys follow the supplied key, in key order. Used to resume a keyset scan from the last key seen.
+     * <p>
+     * This returns entities from the 'all' view
+     *
+     * @param id       Last key seen
+     * @param pageable Pagination information - normally page zero of the required size
+     * @return a list of entities
+     */
+    @View(viewName = VIEW_ALL)
+    List<T> findAllByIdGreaterThan(String id, Pageable pageable);
+
+    /**
+     * Returns a {@link List} of entities whose keys follow the supplied key, in key order. Used to resume a keyset scan from the last key seen.
+     * <p>
+     * This returns entities from the 'named' view
+     *
+     * @param id       Last key seen
+     * @param pageable Pagination information - normally page zero of the required size
+     * @return a list of entities
+     */
+    @View(viewName = VIEW_NAMED)
+    List<T> findNamedByIdGreaterThan(String id, Pageable pageable);
+
+    /**
+     * Returns a {@link List} of entities whose keys follow the supplied key, in key order. Used to resume a keyset scan from the last key seen.
+     * <p>
+     * This returns entities from the 'anon' view
+     *
+     * @param id       Last key seen
+     * @param pageable Pagination information - normally page zero of the required size
+     * @return a list of entities
+     */
+    @View(viewName = VIEW_ANON)
+    List<T> findAnonByIdGreaterThan(String id, Pageable pageable);
+
+    /**
+     * Save a batch of entities. Each entity is saved independently - a version conflict on one does not stop the others. Repositories able to
+     * commit several changes together override this to do so
+     *
+     * @param entities Entities to save
+     * @param <S>      Entity type
+     * @return One result per entity, in order - each completed with the saved entity or with the reason it could not be saved
+     */
+    default <S extends T> List<CompletableFuture<S>> saveEach(final List<S> entities) {
+        return entities.stream().map(entity -> {
+            CompletableFuture<S> result = new CompletableFuture<>();
+            try {
+                result.complete(save(entity));
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+            return result;
+        }).collect(Collectors.toList());
+    }
+}
@@ -25,25 +25,139 @@
 package com.codingrodent.microservice.template.repository.impl;
 
 import com.codingrodent.microservice.template.entity.FortuneEntity;
+import com.codingrodent.microservice.template.metrics.api.ITemplateMetrics;
 import com.codingrodent.microservice.template.repository.api.IAsyncFortuneRepository;
+import com.codingrodent.microservice.template.service.api.ILogger;
+import com.codingrodent.microservice.template.utility.Utility;
 import com.couchbase.client.java.*;
+import com.couchbase.client.java.env.CouchbaseEnvironment;
+import org.springframework.boot.autoconfigure.couchbase.CouchbaseProperties;
 import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import rx.Observable;
 
+import javax.annotation.*;
+import javax.inject.Inject;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static com.codingrodent.microservice.template.constants.SystemConstants.*;
+
 /**
  * Manually built async repository - Sprint Data can't auto build this at the moment
  * <p>
- * Repository to be used when Couchbase is  present and selected
+ * Repository to be used when Couchbase is  present and selected. It connects through the application's shared Couchbase environment to the
+ * cluster and bucket named by the spring.couchbase properties, and warms up its connections before the application starts taking requests
+ * <p>
+ * {@value com.codingrodent.microservice.template.constants.SystemConstants#PROPERTY_VIEW_FETCH} selects how view queries read documents - row,
+ * bulk (the default) or covered
+ * <p>
+ * Setting {@value com.codingrodent.microservice.template.constants.SystemConstants#PROPERTY_HEDGE_PERCENTILE} hedges reads by id that take
+ * longer than that percentile with a replica read, for at most
+ * {@value com.codingrodent.microservice.template.constants.SystemConstants#PROPERTY_HEDGE_BUDGET} percent of reads
  */
 
 @Profile({"prod"})
 @Service
 public class AsyncFortuneRepository extends AsyncRepository<FortuneEntity> implements IAsyncFortuneRepository<FortuneEntity> {
 
-    private final Cluster cluster = CouchbaseCluster.create("localhost");
-    private final Bucket bucket = cluster.openBucket("template", "bucketpassword");
+    // The only class documents in this bucket may be read as
+    final static TypeRegistry TYPES = new TypeRegistry(Utility.getObjectMapper(), FortuneEntity.class);
+    // Percentage of reads that may be hedged unless configured
+    private final static int DEFAULT_HEDGE_BUDGET = 5;
+    // Retries allowed unless configured - attempts per operation and percentage of operations
+    private final static int DEFAULT_RETRY_ATTEMPTS = 3;
+    private final static int DEFAULT_RETRY_BUDGET = 10;
+    // Reads made to open connections to every node, about one per vbucket
+    private final static int WARM_UP_READS = 1024;
+    private final static int WARM_UP_CONCURRENCY = 64;
+
+    private final ILogger logger;
+    private final CouchbaseProperties.Bucket settings;
+    private final Cluster cluster;
+    private volatile Bucket bucket;
+
+    @Inject
+    public AsyncFortuneRepository(final Environment environment, final ITemplateMetrics metrics, final ILogger logger, final CouchbaseEnvironment
+            couchbase, final CouchbaseProperties properties) {
+        super(fetch(environment), TYPES, hedge(environment, metrics), retries(environment, metrics, couchbase.kvTimeout(), couchbase
+                .viewTimeout()));
+        this.logger = logger;
+        this.settings = properties.getBucket();
+        // The cluster shares the environment but does not own it, so disconnecting leaves the environment up for the rest of the application
+        this.cluster = CouchbaseCluster.create(couchbase, properties.getBootstrapHosts());
+    }
+
+    /**
+     * Open the bucket, then make enough reads to bring up the key-value connections to every node. Missing documents are all the reads find, but
+     * the first real request no longer pays for connecting
+     */
+    @PostConstruct
+    public void connect() {
+        bucket = cluster.openBucket(settings.getName(), settings.getPassword(), Collections.singletonList(new EntityTranscoder(TYPES)));
+        long start = System.nanoTime();
+        Observable.range(0, WARM_UP_READS).
+                flatMap(i -> bucket.async().exists("warm-up::" + i).onErrorReturn(e -> false), WARM_UP_CONCURRENCY).
+                toBlocking().
+                lastOrDefault(false);
+        logger.info("Couchbase bucket " + settings.getName() + " warmed up in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+    }
+
+    /**
+     * Close the bucket and the cluster connection on shut down
+     */
+    @PreDestroy
+    public void disconnect() {
+        if (null != bucket)
+            bucket.close();
+        cluster.disconnect();
+    }
+
+    /**
+     * The configured fetch mode for view queries
+     *
+     * @param environment Application properties
+     * @return Fetch mode
+     */
+    static Fetch fetch(final Environment environment) {
+        return Fetch.valueOf(environment.getProperty(PROPERTY_VIEW_FETCH, Fetch.BULK.name()).toUpperCase());
+    }
+
+    /**
+     * Build the hedging policy, if one is configured
+     *
+     * @param environment Application properties
+     * @param metrics     Metrics service
+     * @return Policy, or {@literal null} to never hedge
+     */
+    static HedgePolicy hedge(final Environment environment, final ITemplateMetrics metrics) {
+        double percentile = environment.getProperty(PROPERTY_HEDGE_PERCENTILE, Double.class, 0.0);
+        if (0 == percentile)
+            return null;
+        return new HedgePolicy(percentile, environment.getProperty(PROPERTY_HEDGE_BUDGET, Integer.class, DEFAULT_HEDGE_BUDGET), metrics);
+    }
+
+    /**
+     * Build the timeout and retry policies
+     *
+     * @param environment Application properties
+     * @param metrics     Metrics service
+     * @param kv          Longest timeout for reads and writes in milliseconds - the environment's key-value timeout
+     * @param view        Longest timeout for view queries in milliseconds - the environment's view timeout
+     * @return Policy for each type of operation
+     */
+    static Map<RetryPolicy.Operation, RetryPolicy> retries(final Environment environment, final ITemplateMetrics metrics, final long kv, final
+    long view) {
+        int attempts = environment.getProperty(PROPERTY_RETRY_ATTEMPTS, Integer.class, DEFAULT_RETRY_ATTEMPTS);
+        int budget = environment.getProperty(PROPERTY_RETRY_BUDGET, Integer.class, DEFAULT_RETRY_BUDGET);
+        Map<RetryPolicy.Operation, RetryPolicy> retries = new EnumMap<>(RetryPolicy.Operation.class);
+        retries.put(RetryPolicy.Operation.READ, new RetryPolicy(RetryPolicy.Operation.READ, kv, attempts, budget, metrics));
+        retries.put(RetryPolicy.Operation.WRITE, new RetryPolicy(RetryPolicy.Operation.WRITE, kv, attempts, budget, metrics));
+        retries.put(RetryPolicy.Operation.VIEW, new RetryPolicy(RetryPolicy.Operation.VIEW, view, attempts, budget, metrics));
+        return retries;
+    }
 
     protected Bucket getBucket() {
         return bucket;
@@ -51,12 +165,22 @@ public class AsyncFortuneRepository extends AsyncRepository<FortuneEntity> imple
 
     @Override
     public Observable<FortuneEntity> findAllNamed(final Pageable pageable) {
-        return findByView(VIEW_NAMED).skip(pageable.getPageNumber() * pageable.getPageSize()).take(pageable.getPageSize());
+        return findByView(VIEW_NAMED, pageable);
     }
 
     @Override
     public Observable<FortuneEntity> findAllAnon(final Pageable pageable) {
-        return findByView(VIEW_ANON).skip(pageable.getPageNumber() * pageable.getPageSize()).take(pageable.getPageSize());
+        return findByView(VIEW_ANON, pageable);
+    }
+
+    @Override
+    public Observable<FortuneEntity> findAllNamedAfter(final String id, final int size) {
+        return findByViewAfter(VIEW_NAMED, id, size);
+    }
+
+    @Override
+    public Observable<FortuneEntity> findAllAnonAfter(final String id, final int size) {
+        return findByViewAfter(VIEW_ANON, id, size);
     }
 
 }
@@ -24,11 +24,11 @@
  */
 package com.codingrodent.microservice.template.repository.impl;
 
-import com.codingrodent.microservice.template.entity.FortuneEntity;
+import com.codingrodent.microservice.template.entity.*;
 import com.codingrodent.microservice.template.repository.api.*;
 import com.couchbase.client.java.Bucket;
 import org.springframework.context.annotation.Profile;
-import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.*;
 import org.springframework.stereotype.Service;
 import rx.Observable;
 
@@ -60,7 +60,92 @@ public class AsyncInMemoryFortuneRepository extends AsyncRepository<FortuneEntit
 
     @Override
     public Observable<FortuneEntity> findAll(final Pageable pageable) {
-        return Observable.from(repository.findAll());
+        return Observable.from(repository.findAll(pageable));
+    }
+
+    @Override
+    public Observable<FortuneEntity> findAllAfter(final String id, final int size) {
+        return Observable.from(repository.findAllByIdGreaterThan(id, new PageRequest(0, size)));
+    }
+
+    @Override
+    public Observable<FortuneEntity> findAllNamedAfter(final String id, final int size) {
+        return Observable.from(repository.findNamedByIdGreaterThan(id, new PageRequest(0, size)));
+    }
+
+    @Override
+    public Observable<FortuneEntity> findAllAnonAfter(final String id, final int size) {
+        return Observable.from(repository.findAnonByIdGreaterThan(id, new PageRequest(0, size)));
+    }
+
+    @Override
+    public Observable<FortuneEntity> save(final FortuneEntity entity) {
+        return Observable.fromCallable(() -> repository.save(entity));
+    }
+
+    @Override
+    public Observable<FortuneEntity> findOne(final String id) {
+        if (null == id)
+            throw new IllegalArgumentException();
+        return Observable.fromCallable(() -> repository.findOne(id)).filter(entity -> null != entity);
+    }
+
+    @Override
+    public Observable<Boolean> exists(final String id) {
+        if (null == id)
+            throw new IllegalArgumentException();
+        return Observable.fromCallable(() -> repository.exists(id));
+    }
+
+    @Override
+    public Observable<Long> version(final String id) {
+        if (null == id)
+            throw new IllegalArgumentException();
+        return Observable.fromCallable(() -> repository.findOne(id)).filter(entity -> null != entity).map(FortuneEntity::getVersion);
+    }
+
+    @Override
+    public Observable<Long> count() {
+        return Observable.fromCallable(repository::count);
+    }
+
+    @Override
+    public Observable<Long> delete(final String id) {
+        if (null == id)
+            throw new IllegalArgumentException();
+        return Observable.fromCallable(() -> {
+            boolean exists = repository.exists(id);
+            repository.delete(id);
+            return exists ? 1L : 0L;
+        });
+    }
+
+    @Override
+    public Observable<Long> delete(final FortuneEntity entity) {
+        if ((null == entity) || (null == entity.getId()))
+            throw new IllegalArgumentException();
+        return delete(entity.getId());
+    }
+
+    @Override
+    public Observable<Long> delete(final Iterable<? extends FortuneEntity> entities) {
+        if (null == entities)
+            throw new IllegalArgumentException();
+        return Observable.from(entities).concatMap(this::delete).reduce(0L, Long::sum);
+    }
+
+    @Override
+    public Observable<Long> deleteAll() {
+        return Observable.fromCallable(() -> {
+            long count = repository.count();
+            repository.deleteAll();
+            return count;
+        });
+    }
+
+    @Override
+    public Observable<ChangeEvent<FortuneEntity>> changes(final long from) {
+        return repository.changes(from);
     }
 
     @Override
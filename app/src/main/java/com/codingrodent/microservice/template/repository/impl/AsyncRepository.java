@@ -24,23 +24,32 @@
  */
 package com.codingrodent.microservice.template.repository.impl;
 
-import com.codingrodent.microservice.template.entity.EntityBase;
+import com.codingrodent.microservice.template.entity.*;
 import com.codingrodent.microservice.template.exception.ApplicationFaultException;
 import com.codingrodent.microservice.template.repository.api.IAsyncCrudRepository;
 import com.codingrodent.microservice.template.utility.Utility;
-import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.*;
 import com.couchbase.client.java.document.JsonDocument;
 import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.error.DocumentDoesNotExistException;
+import com.couchbase.client.java.subdoc.DocumentFragment;
 import com.couchbase.client.java.view.*;
+import com.fasterxml.jackson.databind.ObjectReader;
 import org.springframework.dao.InvalidDataAccessResourceUsageException;
 import org.springframework.data.domain.Pageable;
 import rx.Observable;
+import rx.functions.Func0;
 
 import java.io.IOException;
-import java.util.function.Function;
+import java.util.*;
 
 /**
  * Simple example async repository
+ * <p>
+ * Saves made through the repository are published on its change feed. Couchbase itself is not watched, so writes made elsewhere are not seen
+ * <p>
+ * How view queries turn rows into entities is set by the {@link Fetch} mode. Reads by id may be hedged with a read from a replica, see
+ * {@link HedgePolicy}. Each bucket operation is run under the {@link RetryPolicy} for its type, if one is given
  */
 public abstract class AsyncRepository<T extends EntityBase> implements IAsyncCrudRepository<T> {
 
@@ -49,19 +58,66 @@ public abstract class AsyncRepository<T extends EntityBase> implements IAsyncCru
     private static final String VERSION = "version";
     private static final String _CLASS = "_class";
     private static final String VIEW_ALL = "all";
+    // Most removes in flight at once for a multi-key delete
+    static final int DELETE_CONCURRENCY = 32;
+    // Documents fetched together in bulk mode, and most batches in flight at once
+    static final int FETCH_BATCH = 32;
+    static final int FETCH_CONCURRENCY = 4;
+
+    /**
+     * How the documents behind view rows are read
+     */
+    public enum Fetch {
+        // One get per row as the row arrives
+        ROW,
+        // Gets for a batch of rows issued together, with a bounded number of batches in flight
+        BULK,
+        // No gets - the entity is built from the value the view emits with each row. Views can not supply the CAS, so entities have version 0
+        COVERED
+    }
+
+    private final ChangeFeed<T> feed = new ChangeFeed<>();
+    private final Fetch fetch;
+    private final TypeRegistry types;
+    private final HedgePolicy hedge;
+    private final Map<RetryPolicy.Operation, RetryPolicy> retries;
+
+    protected AsyncRepository() {
+        this(Fetch.BULK, new TypeRegistry(Utility.getObjectMapper()));
+    }
+
+    AsyncRepository(final Fetch fetch, final TypeRegistry types) {
+        this(fetch, types, null, Collections.emptyMap());
+    }
+
+    /**
+     * Build a repository
+     *
+     * @param fetch   How view queries read documents
+     * @param types   Entity classes documents may be read as - the bucket's {@link EntityTranscoder} should share it
+     * @param hedge   Policy for hedging reads by id with replica reads - {@literal null} to never hedge
+     * @param retries Timeout and retry policy for each type of operation. Operations without one are run once with only the client's timeout
+     */
+    AsyncRepository(final Fetch fetch, final TypeRegistry types, final HedgePolicy hedge, final Map<RetryPolicy.Operation, RetryPolicy> retries) {
+        this.fetch = fetch;
+        this.types = types;
+        this.hedge = hedge;
+        this.retries = retries;
+    }
 
     protected abstract Bucket getBucket();
 
+    /**
+     * Save an entity, streamed straight into the request buffer. As with Spring Data the entity saved is stamped with the new CAS and returned
+     *
+     * @param entity Entity to save
+     * @return Observable enclosing the saved entity
+     */
     @Override
     public Observable<T> save(final T entity) {
-        JsonObject jsonEntity;
-        try {
-            jsonEntity = JsonObject.fromJson(Utility.getObjectMapper().writeValueAsString(entity));
-            JsonDocument jsonDocument = JsonDocument.create(entity.getId(), jsonEntity);
-            return getBucket().async().upsert(jsonDocument).map(docToEntity::apply);
-        } catch (IOException e) {
-            throw new InvalidDataAccessResourceUsageException("Entity serialization failed", e);
-        }
+        return run(RetryPolicy.Operation.WRITE, () -> getBucket().async().upsert(EntityDocument.create(entity))).
+                map(doc -> Versioned.withVersion(entity, doc.cas())).
+                doOnNext(saved -> feed.publish(ChangeEvent.Type.UPSERT, saved.getId(), saved.getVersion(), saved));
     }
 
     @Override
@@ -69,80 +125,251 @@ public abstract class AsyncRepository<T extends EntityBase> implements IAsyncCru
         return Observable.from(entities).flatMap(this::save);
     }
 
+    /**
+     * Read an entity. If hedging, a slow read is raced against a read from any replica, which may be a little behind the active copy
+     *
+     * @param id Document key
+     * @return Observable enclosing the entity, or empty if there is none
+     */
     @Override
     public Observable<T> findOne(final String id) {
-        return getBucket().async().get(id).map(docToEntity::apply);
+        return run(RetryPolicy.Operation.READ, () -> {
+            Observable<EntityDocument> read = getBucket().async().get(id, EntityDocument.class);
+            if (null != hedge)
+                read = hedge.apply(read, () -> getBucket().async().getFromReplica(id, ReplicaMode.ALL, EntityDocument.class));
+            return read;
+        }).map(this::toEntity);
+    }
+
+    /**
+     * Read the CAS of a document with a sub-document existence check, so the body is not sent back
+     *
+     * @param id Document key
+     * @return Observable enclosing the CAS, or empty if there is no document
+     */
+    @Override
+    public Observable<Long> version(final String id) {
+        if (null == id)
+            throw new IllegalArgumentException();
+        return run(RetryPolicy.Operation.READ, () -> getBucket().async().lookupIn(id).exists(_CLASS).execute()).
+                map(DocumentFragment::cas).
+                onErrorResumeNext(e -> (e instanceof DocumentDoesNotExistException) ? Observable.empty() : Observable.error(e));
     }
 
     @Override
     public Observable<Boolean> exists(final String id) {
-        return getBucket().async().exists(id);
+        return run(RetryPolicy.Operation.READ, () -> getBucket().async().exists(id));
     }
 
     @Override
     public Observable<T> findAll(final Pageable pageable) {
-        return findByView(VIEW_ALL).skip(pageable.getPageNumber() * pageable.getPageSize()).take(pageable.getPageSize());
+        return findByView(VIEW_ALL, pageable);
+    }
+
+    @Override
+    public Observable<T> findAllAfter(final String id, final int size) {
+        return findByViewAfter(VIEW_ALL, id, size);
     }
 
     @Override
     public Observable<T> findAll(final Pageable pageable, final Iterable<String> keys) {
-        return Observable.from(keys).flatMap(this::findOne);
+        // Only the keys on the page are fetched
+        return Observable.from(keys).skip(pageable.getOffset()).take(pageable.getPageSize()).concatMapEager(this::findOne);
     }
 
+    /**
+     * Count from the _count reduce of the 'all' view, so no rows are read. An empty bucket reduces to no rows at all
+     *
+     * @return Observable enclosing the number of entities
+     */
     @Override
     public Observable<Long> count() {
-        return null;
+        return query(ViewQuery.from(DESIGN, VIEW_ALL).reduce()).
+                flatMap(AsyncViewResult::rows).
+                map(row -> ((Number) row.value()).longValue()).
+                firstOrDefault(0L);
     }
 
     @Override
-    public void delete(final String key) {
-
+    public Observable<ChangeEvent<T>> changes(final long from) {
+        return feed.changes(from);
     }
 
     @Override
-    public void delete(final T entity) {
-
+    public Observable<Long> delete(final String key) {
+        if (null == key)
+            throw new IllegalArgumentException();
+        return remove(key).countLong();
     }
 
     @Override
-    public void delete(final Iterable<? extends T> entities) {
-
+    public Observable<Long> delete(final T entity) {
+        if ((null == entity) || (null == entity.getId()))
+            throw new IllegalArgumentException();
+        return delete(entity.getId());
     }
 
     @Override
-    public void deleteAll() {
+    public Observable<Long> delete(final Iterable<? extends T> entities) {
+        if (null == entities)
+            throw new IllegalArgumentException();
+        return deleteKeys(Observable.from(entities).map(EntityBase::getId));
+    }
 
+    /**
+     * Delete everything listed by the 'all' view. Only the keys are read from the view, never the documents
+     *
+     * @return Observable enclosing the number of entities deleted
+     */
+    @Override
+    public Observable<Long> deleteAll() {
+        return deleteKeys(query(ViewQuery.from(DESIGN, VIEW_ALL).reduce(false)).flatMap(AsyncViewResult::rows).map(AsyncViewRow::id));
     }
 
     // Utilities
 
     /**
-     * General form of all view based find queries
+     * General form of all view based find queries. The page is cut out of the view by the server with skip / limit, so only the rows and
+     * documents on the page cross the network. The server still walks the skipped rows, so deep scans should resume from a key instead, see
+     * {@link #findByViewAfter(String, String, int)}. Documents are emitted in key order
+     *
+     * @param view     The view to be used to identify documents
+     * @param pageable Pagination information
+     * @return Observable enclosing the documents on the page
+     */
+    Observable<T> findByView(final String view, final Pageable pageable) {
+        if (null == pageable)
+            throw new IllegalArgumentException();
+        ViewQuery query = ViewQuery.from(DESIGN, view).reduce(false).skip(pageable.getOffset()).limit(pageable.getPageSize());
+        return fetch(query(query).flatMap(AsyncViewResult::rows));
+    }
+
+    /**
+     * View query resuming from a key. The view is entered at the key with startKey / startKeyDocId so no earlier rows are read, and one extra row
+     * is requested in case the key itself is still present. Documents are emitted in key order
      *
      * @param view The view to be used to identify documents
-     * @return Observable enclosing all return values
+     * @param id   Last key seen - {@literal null} to start from the beginning
+     * @param size Maximum number of documents to return
+     * @return Observable enclosing the following documents
+     */
+    Observable<T> findByViewAfter(final String view, final String id, final int size) {
+        ViewQuery query = ViewQuery.from(DESIGN, view).reduce(false).limit(size + 1);
+        if (null != id)
+            query.startKey(id).startKeyDocId(id);
+        return fetch(query(query).
+                flatMap(AsyncViewResult::rows).
+                filter(row -> !row.id().equals(id)).
+                take(size));
+    }
+
+    /**
+     * Turn view rows into entities according to the fetch mode. Entities are emitted in row order whatever order the gets complete in. Rows
+     * whose document has been removed since the view was indexed are dropped
+     *
+     * @param rows View rows
+     * @return Observable enclosing the entities
+     */
+    private Observable<T> fetch(final Observable<AsyncViewRow> rows) {
+        switch (fetch) {
+            case COVERED:
+                return rows.map(row -> toEntity((JsonObject) row.value(), row.id(), 0));
+            case BULK:
+                return rows.map(AsyncViewRow::id).buffer(FETCH_BATCH).concatMapEager(this::get, FETCH_CONCURRENCY, FETCH_CONCURRENCY).map
+                        (this::toEntity);
+            default:
+                return rows.concatMapEager(row -> run(RetryPolicy.Operation.READ, () -> row.document(EntityDocument.class))).map(this::toEntity);
+        }
+    }
+
+    /**
+     * Read a batch of documents, all requested at once
+     *
+     * @param keys Document keys
+     * @return Observable enclosing the documents found, in key order
      */
-    Observable<T> findByView(final String view) {
-        return getBucket().async().query(ViewQuery.from(DESIGN, view)).flatMap(AsyncViewResult::rows).flatMap(AsyncViewRow::document).map(docToEntity::apply);
+    private Observable<EntityDocument> get(final List<String> keys) {
+        return Observable.from(keys).concatMapEager(key -> run(RetryPolicy.Operation.READ, () -> getBucket().async().get(key, EntityDocument
+                .class)), keys.size());
     }
 
     /**
-     * Function to convert a Couchbase JsonDocument to an entity.
-     * <p>
-     * The function also lifts the documents ID and CAS values from the containing document and inserts them in the json ready for deserialization
+     * Remove a document, publishing the removal on the change feed. A document already gone is not an error
+     *
+     * @param key Document key
+     * @return Observable enclosing the removed document, or empty if there was none
+     */
+    private Observable<JsonDocument> remove(final String key) {
+        return run(RetryPolicy.Operation.WRITE, () -> getBucket().async().remove(key)).
+                doOnNext(doc -> feed.publish(ChangeEvent.Type.DELETE, doc.id(), doc.cas(), null)).
+                onErrorResumeNext(e -> (e instanceof DocumentDoesNotExistException) ? Observable.empty() : Observable.error(e));
+    }
+
+    /**
+     * Delete a stream of keys, with at most {@link #DELETE_CONCURRENCY} removes outstanding so a large delete does not flood the client's
+     * request queue
+     *
+     * @param keys Keys to delete
+     * @return Observable enclosing the number of entities deleted
      */
-    private final Function<JsonDocument, T> docToEntity = doc -> {
-        JsonObject entity = doc.content();
-        entity.put(ID, doc.id());
-        entity.put(VERSION, doc.cas());
+    private Observable<Long> deleteKeys(final Observable<String> keys) {
+        return keys.flatMap(this::remove, DELETE_CONCURRENCY).countLong();
+    }
+
+    /**
+     * Run a bucket operation under the retry policy for its type
+     *
+     * @param operation Type of operation
+     * @param call      Source of the operation, called again for each attempt
+     * @param <R>       Result type
+     * @return Observable enclosing the result
+     */
+    private <R> Observable<R> run(final RetryPolicy.Operation operation, final Func0<Observable<R>> call) {
+        RetryPolicy policy = retries.get(operation);
+        return (null == policy) ? Observable.defer(call) : policy.apply(call);
+    }
+
+    /**
+     * Run a view query. Only the query result is covered by the retry policy, not the rows streamed from it
+     *
+     * @param query View query
+     * @return Observable enclosing the query result
+     */
+    private Observable<AsyncViewResult> query(final ViewQuery query) {
+        return run(RetryPolicy.Operation.VIEW, () -> getBucket().async().query(query));
+    }
+
+    /**
+     * Unwrap the entity read by the {@link EntityTranscoder}, which has already filled in its ID and CAS
+     *
+     * @param document Document read
+     * @return Entity
+     */
+    @SuppressWarnings("unchecked")
+    private T toEntity(final EntityDocument document) {
+        return (T) document.content();
+    }
+
+    /**
+     * Build an entity from json content, such as a covered view row, inserting the ID and CAS values ready for deserialization
+     *
+     * @param entity Content
+     * @param id     Document ID
+     * @param cas    Document CAS
+     * @return Entity
+     */
+    private T toEntity(final JsonObject entity, final String id, final long cas) {
+        ObjectReader reader = types.reader(entity.getString(_CLASS));
+        if (null == reader)
+            throw new ApplicationFaultException("Unable to find class for deserialization");
+        entity.put(ID, id);
+        entity.put(VERSION, cas);
         try {
-            return Utility.getObjectMapper().readValue(entity.toString(), (Class<T>) Class.forName(entity.getString(_CLASS)));
+            return reader.readValue(entity.toString());
         } catch (IOException e) {
             throw new InvalidDataAccessResourceUsageException("JSON deerialization failed", e);
-        } catch (ClassNotFoundException e) {
-            throw new ApplicationFaultException("Unable to find class for deserialization", e);
         }
-    };
+    }
 
 }
 
@@ -0,0 +1,142 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import com.codingrodent.microservice.template.entity.*;
+import rx.Observable;
+import rx.Scheduler;
+import rx.schedulers.Schedulers;
+import rx.subjects.*;
+
+import java.util.*;
+
+/**
+ * Change feed holding the most recent changes to a repository in a fixed size ring, each numbered with its position on the feed. Subscribers read
+ * from the ring at their own pace on a background scheduler, so publishing never waits for them. A subscriber that falls so far behind that the
+ * changes it needs have been overwritten is sent a gap event and carries on from the oldest change still held
+ *
+ * @param <T> Entity type
+ */
+final class ChangeFeed<T extends EntityBase> {
+
+    final static int DEFAULT_CAPACITY = 1 << 12;
+    // Most events handed to a subscriber in one go, so one subscriber catching up does not hold the scheduler
+    private final static int BATCH = 256;
+
+    private final ChangeEvent<T>[] ring;
+    private final int mask;
+    private final Scheduler scheduler;
+    // Ticks on every change to wake subscribers - they then read the ring themselves
+    private final Subject<Long, Long> published = PublishSubject.<Long>create().toSerialized();
+    // Sequence of the last change published, guarded by this
+    private long head;
+
+    /**
+     * Build a feed
+     *
+     * @param capacity  Number of changes held - rounded up to a power of two
+     * @param scheduler Scheduler subscribers read on
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    ChangeFeed(final int capacity, final Scheduler scheduler) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        ring = new ChangeEvent[size];
+        mask = size - 1;
+        this.scheduler = scheduler;
+    }
+
+    ChangeFeed() {
+        this(DEFAULT_CAPACITY, Schedulers.computation());
+    }
+
+    /**
+     * Publish a change. Changes to one key must be published in the order they were made, for example while the key is locked
+     *
+     * @param type    Type of change
+     * @param key     Key changed
+     * @param version Version written
+     * @param entity  Entity written - null for a delete
+     */
+    void publish(final ChangeEvent.Type type, final String key, final long version, final T entity) {
+        long sequence;
+        synchronized (this) {
+            sequence = ++head;
+            ring[(int) (sequence & mask)] = new ChangeEvent<>(sequence, type, key, version, entity);
+        }
+        published.onNext(sequence);
+    }
+
+    /**
+     * @return Sequence of the last change published - 0 if none
+     */
+    synchronized long head() {
+        return head;
+    }
+
+    /**
+     * Stream of changes starting at a position on the feed. Each subscriber reads independently
+     *
+     * @param from Sequence of the first change wanted
+     * @return Changes in feed order, preceded by a gap event if some have already been overwritten
+     */
+    Observable<ChangeEvent<T>> changes(final long from) {
+        return Observable.defer(() -> {
+            long[] next = {Math.max(1, from)};
+            Scheduler.Worker worker = scheduler.createWorker();
+            // Holds the first tick until subscribed, which is after the subscription to published changes, so none can slip between them
+            Subject<Long, Long> more = BehaviorSubject.create(0L).toSerialized();
+            // Only the latest tick matters as each read carries on from where the last one stopped
+            return published.mergeWith(more).onBackpressureLatest().observeOn(scheduler).concatMapIterable(tick -> {
+                List<ChangeEvent<T>> batch = read(next, BATCH);
+                // A full batch may have left changes behind - come back for them in a later task rather than hold the scheduler
+                if (BATCH == batch.size())
+                    worker.schedule(() -> more.onNext(0L));
+                return batch;
+            }).doOnUnsubscribe(worker::unsubscribe);
+        });
+    }
+
+    /**
+     * Read changes from a position, moving the position on past them
+     *
+     * @param next  Sequence of the next change wanted - updated
+     * @param limit Most changes to read
+     * @return Changes, starting with a gap event if the next change wanted has been overwritten
+     */
+    synchronized List<ChangeEvent<T>> read(final long[] next, final int limit) {
+        List<ChangeEvent<T>> events = new ArrayList<>();
+        long oldest = Math.max(1, head - ring.length + 1);
+        if (next[0] < oldest) {
+            events.add(new ChangeEvent<>(oldest, ChangeEvent.Type.GAP, null, 0, null));
+            next[0] = oldest;
+        }
+        while ((next[0] <= head) && (events.size() < limit)) {
+            events.add(ring[(int) (next[0] & mask)]);
+            next[0]++;
+        }
+        return events;
+    }
+
+}
@@ -0,0 +1,559 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import com.codingrodent.microservice.template.entity.EntityBase;
+import com.codingrodent.microservice.template.exception.ApplicationFaultException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.*;
+import java.util.zip.CRC32;
+
+/**
+ * Store decorator that makes every change durable in a local write ahead log before the write returns. The entities themselves are held by the
+ * wrapped store, so reads run at memory speed
+ * <p>
+ * Log records are appended to an in memory batch while the key is locked. The writer then waits outside the lock until the batch holding its
+ * record is on disk. The first waiter writes and syncs everything appended so far and any writers arriving meanwhile queue for the next batch, so
+ * one sync covers many writes under load (group commit)
+ * <p>
+ * When the active log segment grows past a threshold a new segment is started and a compact snapshot of every live entity is written in the
+ * background, after which older segments are deleted. On start up the snapshot is loaded and the remaining segments replayed. A record that fails
+ * its checksum, is cut short or claims more bytes than a record may hold or the segment has left marks the end of its segment - the write it held
+ * was never acknowledged - and the segment is truncated there
+ * <p>
+ * Record layout is [int length][int crc32][byte operation][long version][int key length][key][encoded entity] where the length and checksum
+ * cover everything after the checksum, and the entity is only present for a put
+ *
+ * @param <T> Entity type
+ */
+final class DurableEntityStore<T extends EntityBase> implements IEntityStore<T> {
+
+    final static long DEFAULT_SNAPSHOT_THRESHOLD = 64L << 20;
+    // Largest record body written, so a damaged length is never trusted with an allocation
+    final static int MAX_RECORD = 16 << 20;
+    private final static int MAGIC = 0x53594C47;
+    private final static byte PUT = 1;
+    private final static byte DELETE = 2;
+    private final static String SNAPSHOT = "snapshot";
+    private final static String SEGMENT = "log.";
+
+    private final IEntityStore<T> delegate;
+    private final IEntityCodec<T> codec;
+    private final Path directory;
+    private final long snapshotThreshold;
+    private final AtomicLong highestVersion = new AtomicLong();
+    // Writers share the gate, starting a segment for a snapshot takes it exclusively so no write straddles the switch
+    private final ReentrantReadWriteLock gate = new ReentrantReadWriteLock();
+    private final AtomicBoolean snapshotting = new AtomicBoolean();
+    // Set while the thread runs a batch - holds the furthest log position the batch has to wait for
+    private final ThreadLocal<long[]> deferred = new ThreadLocal<>();
+    private final ExecutorService snapshotter = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "snapshot");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Log state - guarded by log
+    private final Object log = new Object();
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private FileChannel channel;
+    private int segment;
+    private long segmentBytes;
+    private long appended;
+    private long durable;
+    private boolean syncing;
+    private IOException failure;
+
+    /**
+     * Open a durable store, replaying any existing snapshot and log into the wrapped store
+     *
+     * @param delegate          Empty store to hold the entities
+     * @param codec             Codec for the entity type
+     * @param directory         Directory holding the snapshot and log segments - created if necessary
+     * @param snapshotThreshold Segment size in bytes that triggers a snapshot
+     */
+    DurableEntityStore(final IEntityStore<T> delegate, final IEntityCodec<T> codec, final Path directory, final long snapshotThreshold) {
+        this.delegate = delegate;
+        this.codec = codec;
+        this.directory = directory;
+        this.snapshotThreshold = snapshotThreshold;
+        try {
+            Files.createDirectories(directory);
+            segment = recover();
+            // Never append after a possibly torn tail - always start a new segment
+            channel = open(++segment);
+        } catch (IOException e) {
+            throw new ApplicationFaultException("Unable to open repository log: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public Versioned<T> get(final String key) {
+        return delegate.get(key);
+    }
+
+    @Override
+    public Versioned<T> get(final UUID key) {
+        return delegate.get(key);
+    }
+
+    @Override
+    public boolean containsKey(final String key) {
+        return delegate.containsKey(key);
+    }
+
+    @Override
+    public Versioned<T> compute(final String key, final BiFunction<String, Versioned<T>, Versioned<T>> remapping) {
+        return compute(key, remapping, (previous, next) -> {});
+    }
+
+    @Override
+    public Versioned<T> compute(final String key, final BiFunction<String, Versioned<T>, Versioned<T>> remapping, final BiConsumer<Versioned<T>,
+            Versioned<T>> changed) {
+        final long[] position = new long[1];
+        Versioned<T> result;
+        gate.readLock().lock();
+        try {
+            result = delegate.compute(key, (k, previous) -> {
+                Versioned<T> next = remapping.apply(k, previous);
+                if (next != previous) {
+                    // A change the log refuses, too large or after a log failure, throws here before anything has acted on it
+                    position[0] = append(k, previous, next);
+                    changed.accept(previous, next);
+                }
+                return next;
+            });
+        } finally {
+            gate.readLock().unlock();
+        }
+        long[] batch = deferred.get();
+        if (null != batch)
+            batch[0] = Math.max(batch[0], position[0]);
+        else if (0 != position[0])
+            awaitDurable(position[0]);
+        return result;
+    }
+
+    /**
+     * Run a group of updates with one wait for the log at the end rather than one per update. Nested batches join the outer one
+     *
+     * @param work Updates to run
+     * @param <R>  Result type
+     * @return Result of the work
+     */
+    @Override
+    public <R> R batch(final Supplier<R> work) {
+        if (null != deferred.get())
+            return work.get();
+        long[] position = new long[1];
+        deferred.set(position);
+        R result;
+        try {
+            result = work.get();
+        } finally {
+            deferred.remove();
+        }
+        if (0 != position[0])
+            awaitDurable(position[0]);
+        return result;
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    @Override
+    public void clear() {
+        // Log each removal so a replay also ends up empty
+        List<String> keys = new ArrayList<>();
+        delegate.forEach((key, versioned) -> keys.add(key));
+        keys.forEach(key -> compute(key, (k, previous) -> null));
+    }
+
+    @Override
+    public void forEach(final BiConsumer<String, Versioned<T>> action) {
+        delegate.forEach(action);
+    }
+
+    @Override
+    public <R> List<R> scan(final BiFunction<String, Versioned<T>, R> mapper) {
+        return delegate.scan(mapper);
+    }
+
+    @Override
+    public Map<String, Supplier<Long>> statistics() {
+        return delegate.statistics();
+    }
+
+    @Override
+    public long heapBytes() {
+        return delegate.heapBytes();
+    }
+
+    @Override
+    public long offHeapBytes() {
+        return delegate.offHeapBytes();
+    }
+
+    @Override
+    public long highestVersion() {
+        return highestVersion.get();
+    }
+
+    @Override
+    public boolean isDurable() {
+        return true;
+    }
+
+    /**
+     * Sync any outstanding log records and close the log. Writes after closing fail
+     */
+    @Override
+    public void close() {
+        snapshotter.shutdown();
+        try {
+            snapshotter.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (log) {
+            awaitIdle();
+            try {
+                flush();
+                channel.close();
+            } catch (IOException e) {
+                throw new ApplicationFaultException("Unable to close repository log: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Start a new log segment, write a snapshot of every live entity and delete the log segments it replaces. The snapshot is written to a
+     * temporary file and renamed into place so a crash part way through leaves the previous snapshot and log intact
+     */
+    void snapshot() {
+        final int first;
+        gate.writeLock().lock();
+        try {
+            synchronized (log) {
+                awaitIdle();
+                flush();
+                channel.close();
+                first = ++segment;
+                segmentBytes = 0;
+                channel = open(segment);
+            }
+        } catch (IOException e) {
+            throw new ApplicationFaultException("Unable to start repository log segment: " + e.getMessage());
+        } finally {
+            gate.writeLock().unlock();
+        }
+        // Writes made during the snapshot may or may not be included. They are all in the new segment so replaying it on top is correct either way
+        Path temporary = directory.resolve(SNAPSHOT + ".tmp");
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(Integer.BYTES * 2 + Long.BYTES);
+            header.putInt(MAGIC).putInt(first).putLong(highestVersion.get()).flip();
+            writeFully(out, header);
+            BufferedChannel buffered = new BufferedChannel(out);
+            delegate.forEach((key, versioned) -> buffered.write(record(PUT, key, versioned)));
+            buffered.flush();
+            out.force(true);
+        } catch (IOException | UncheckedIOException e) {
+            throw new ApplicationFaultException("Unable to write repository snapshot: " + e.getMessage());
+        }
+        try {
+            Files.move(temporary, directory.resolve(SNAPSHOT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            for (int old : segments())
+                if (old < first)
+                    Files.delete(segment(old));
+        } catch (IOException e) {
+            throw new ApplicationFaultException("Unable to replace repository snapshot: " + e.getMessage());
+        }
+    }
+
+    // Helper methods
+
+    /**
+     * Encode a change and add it to the pending batch
+     *
+     * @param key      Entity key
+     * @param previous Entity being replaced (null if none)
+     * @param next     Replacement entity (null if deleted)
+     * @return Log position just after the record
+     */
+    private long append(final String key, final Versioned<T> previous, final Versioned<T> next) {
+        byte[] record = (null == next) ? record(DELETE, key, previous) : record(PUT, key, next);
+        synchronized (log) {
+            if (null != failure)
+                throw new ApplicationFaultException("Repository log failed: " + failure.getMessage());
+            pending.write(record, 0, record.length);
+            appended = appended + record.length;
+            return appended;
+        }
+    }
+
+    /**
+     * Wait until the log is synced at least as far as a position. If no sync is running this thread runs one for every record appended so far
+     *
+     * @param position Log position to wait for
+     */
+    private void awaitDurable(final long position) {
+        byte[] batch;
+        long target;
+        FileChannel out;
+        synchronized (log) {
+            while ((durable < position) && syncing && (null == failure))
+                waitOnLog();
+            if (null != failure)
+                throw new ApplicationFaultException("Repository log failed: " + failure.getMessage());
+            if (durable >= position)
+                return;
+            syncing = true;
+            batch = pending.toByteArray();
+            pending = new ByteArrayOutputStream();
+            target = appended;
+            out = channel;
+        }
+        IOException error = null;
+        try {
+            writeFully(out, ByteBuffer.wrap(batch));
+            out.force(false);
+        } catch (IOException e) {
+            error = e;
+        }
+        boolean full;
+        synchronized (log) {
+            syncing = false;
+            if (null == error) {
+                durable = target;
+                segmentBytes = segmentBytes + batch.length;
+            } else
+                failure = error;
+            full = segmentBytes > snapshotThreshold;
+            log.notifyAll();
+        }
+        if (null != error)
+            throw new ApplicationFaultException("Unable to write repository log: " + error.getMessage());
+        if (full && snapshotting.compareAndSet(false, true))
+            try {
+                snapshotter.execute(() -> {
+                    try {
+                        snapshot();
+                    } finally {
+                        snapshotting.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Closing - the log is synced on close so no snapshot is needed
+                snapshotting.set(false);
+            }
+    }
+
+    /**
+     * Write and sync the pending batch directly. Caller holds the log lock with no sync running
+     *
+     * @throws IOException On write failure
+     */
+    private void flush() throws IOException {
+        if (null != failure)
+            return;
+        byte[] batch = pending.toByteArray();
+        pending = new ByteArrayOutputStream();
+        writeFully(channel, ByteBuffer.wrap(batch));
+        channel.force(false);
+        durable = appended;
+    }
+
+    private void awaitIdle() {
+        while (syncing)
+            waitOnLog();
+    }
+
+    private void waitOnLog() {
+        try {
+            log.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApplicationFaultException("Interrupted waiting for repository log");
+        }
+    }
+
+    private byte[] record(final byte operation, final String key, final Versioned<T> versioned) {
+        byte[] id = key.getBytes(StandardCharsets.UTF_8);
+        byte[] entity = (PUT == operation) ? codec.encode(versioned.getEntity()) : new byte[0];
+        int length = 1 + Long.BYTES + Integer.BYTES + id.length + entity.length;
+        if (length > MAX_RECORD)
+            throw new IllegalArgumentException("Entity too large to log: " + key);
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES * 2 + length);
+        buffer.putInt(length).putInt(0).put(operation).putLong(versioned.getVersion()).putInt(id.length).put(id).put(entity);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), Integer.BYTES * 2, length);
+        buffer.putInt(Integer.BYTES, (int) crc.getValue());
+        highestVersion.accumulateAndGet(versioned.getVersion(), Math::max);
+        return buffer.array();
+    }
+
+    /**
+     * Load the snapshot then replay every later log segment in order
+     *
+     * @return Highest segment number seen
+     * @throws IOException On read failure
+     */
+    private int recover() throws IOException {
+        int first = 0;
+        Path snapshot = directory.resolve(SNAPSHOT);
+        if (Files.exists(snapshot))
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+                if (MAGIC != in.readInt())
+                    throw new ApplicationFaultException("Not a repository snapshot: " + snapshot);
+                first = in.readInt();
+                highestVersion.set(in.readLong());
+                replay(in, Files.size(snapshot) - Integer.BYTES * 2 - Long.BYTES);
+            }
+        int last = first;
+        for (int number : segments())
+            if (number >= first) {
+                long size = Files.size(segment(number));
+                long good;
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment(number))))) {
+                    good = replay(in, size);
+                }
+                if (good < size)
+                    try (FileChannel damaged = FileChannel.open(segment(number), StandardOpenOption.WRITE)) {
+                        damaged.truncate(good);
+                    }
+                last = number;
+            }
+        return last;
+    }
+
+    /**
+     * Apply records to the wrapped store until the end of the stream or the first damaged record
+     *
+     * @param in        Stream positioned at a record
+     * @param available Bytes left in the stream
+     * @return Bytes read as whole, undamaged records
+     * @throws IOException On read failure
+     */
+    private long replay(final DataInputStream in, final long available) throws IOException {
+        CRC32 crc = new CRC32();
+        long position = 0;
+        while (true) {
+            byte[] body;
+            int checksum;
+            try {
+                int length = in.readInt();
+                checksum = in.readInt();
+                if ((length <= 0) || (length > MAX_RECORD) || (length > available - position - Integer.BYTES * 2))
+                    return position;
+                body = new byte[length];
+                in.readFully(body);
+            } catch (EOFException e) {
+                return position;
+            }
+            crc.reset();
+            crc.update(body, 0, body.length);
+            if (checksum != (int) crc.getValue())
+                return position;
+            position = position + Integer.BYTES * 2 + body.length;
+            ByteBuffer buffer = ByteBuffer.wrap(body);
+            byte operation = buffer.get();
+            long version = buffer.getLong();
+            byte[] id = new byte[buffer.getInt()];
+            buffer.get(id);
+            String key = new String(id, StandardCharsets.UTF_8);
+            highestVersion.accumulateAndGet(version, Math::max);
+            if (PUT == operation) {
+                Versioned<T> entity = new Versioned<>(Versioned.withVersion(codec.decode(buffer), version), version);
+                delegate.compute(key, (k, previous) -> entity);
+            } else
+                delegate.compute(key, (k, previous) -> null);
+        }
+    }
+
+    private List<Integer> segments() throws IOException {
+        List<Integer> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT + "*")) {
+            for (Path file : files)
+                numbers.add(Integer.parseInt(file.getFileName().toString().substring(SEGMENT.length())));
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    private Path segment(final int number) {
+        return directory.resolve(SEGMENT + number);
+    }
+
+    private FileChannel open(final int number) throws IOException {
+        return FileChannel.open(segment(number), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static void writeFully(final FileChannel out, final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            out.write(buffer);
+    }
+
+    /**
+     * Buffers small record writes into larger channel writes while a snapshot is written
+     */
+    private static final class BufferedChannel {
+        private final FileChannel out;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+
+        BufferedChannel(final FileChannel out) {
+            this.out = out;
+        }
+
+        void write(final byte[] bytes) {
+            try {
+                if (bytes.length > buffer.remaining())
+                    flush();
+                if (bytes.length > buffer.capacity())
+                    writeFully(out, ByteBuffer.wrap(bytes));
+                else
+                    buffer.put(bytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            writeFully(out, buffer);
+            buffer.clear();
+        }
+    }
+
+}
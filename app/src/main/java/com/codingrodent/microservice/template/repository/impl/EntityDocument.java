@@ -0,0 +1,50 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import com.codingrodent.microservice.template.entity.EntityBase;
+import com.couchbase.client.core.message.kv.MutationToken;
+import com.couchbase.client.java.document.AbstractDocument;
+
+/**
+ * Couchbase document holding an entity, read and written by the {@link EntityTranscoder} with no intermediate json tree or string
+ */
+final class EntityDocument extends AbstractDocument<EntityBase> {
+
+    EntityDocument(final String id, final int expiry, final EntityBase content, final long cas, final MutationToken mutationToken) {
+        super(id, expiry, content, cas, mutationToken);
+    }
+
+    /**
+     * Wrap an entity ready to be written
+     *
+     * @param entity Entity
+     * @return Document keyed by the entity id
+     */
+    static EntityDocument create(final EntityBase entity) {
+        return new EntityDocument(entity.getId(), 0, entity, 0, null);
+    }
+
+}
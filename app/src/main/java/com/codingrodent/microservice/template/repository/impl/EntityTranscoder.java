@@ -0,0 +1,201 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import com.codingrodent.microservice.template.entity.EntityBase;
+import com.codingrodent.microservice.template.utility.Utility;
+import com.couchbase.client.core.lang.*;
+import com.couchbase.client.core.message.ResponseStatus;
+import com.couchbase.client.core.message.kv.MutationToken;
+import com.couchbase.client.deps.io.netty.buffer.*;
+import com.couchbase.client.java.error.TranscodingException;
+import com.couchbase.client.java.transcoder.*;
+import com.fasterxml.jackson.annotation.*;
+import com.fasterxml.jackson.core.*;
+import com.fasterxml.jackson.core.util.*;
+import com.fasterxml.jackson.databind.*;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.*;
+
+/**
+ * Transcoder streaming entities straight between Jackson and the Couchbase buffers.
+ * <p>
+ * The entity is written with its class as the first field and without its id and version, which are the document key and CAS. When reading, the
+ * class is taken from the first field and the id and CAS are fed to Jackson as leading tokens, so the document is parsed once and no json tree
+ * or string is built. Documents written by other clients, with the class elsewhere, are buffered as tokens until the class has been found.
+ * Only classes in the {@link TypeRegistry} are read
+ */
+final class EntityTranscoder extends AbstractTranscoder<EntityDocument, EntityBase> {
+
+    final static String ID = "id";
+    final static String VERSION = "version";
+    final static String CLASS = "_class";
+    // Starting size of an encode buffer - grown as needed
+    private final static int ENCODE_SIZE = 256;
+
+    /**
+     * How entities are stored - led by their class, with the id and version left to the document metadata
+     */
+    @JsonTypeInfo(use = JsonTypeInfo.Id.CLASS, include = JsonTypeInfo.As.PROPERTY, property = CLASS)
+    @JsonIgnoreProperties({ID, VERSION})
+    private interface Stored {
+    }
+
+    private final ObjectMapper mapper = Utility.getObjectMapper();
+    private final TypeRegistry types;
+    // Not a copy of the shared mapper, which would carry the mixin over to all its other readers and writers
+    private final ObjectWriter writer = new ObjectMapper().addMixIn(EntityBase.class, Stored.class).writerFor(EntityBase.class);
+
+    /**
+     * Build a transcoder
+     *
+     * @param types Entity classes that may be read
+     */
+    EntityTranscoder(final TypeRegistry types) {
+        this.types = types;
+    }
+
+    @Override
+    public Class<EntityDocument> documentType() {
+        return EntityDocument.class;
+    }
+
+    /**
+     * @deprecated Deprecated by the transcoder interface - use the overload taking a {@link MutationToken}
+     */
+    @Deprecated
+    @Override
+    public EntityDocument newDocument(final String id, final int expiry, final EntityBase content, final long cas) {
+        return newDocument(id, expiry, content, cas, null);
+    }
+
+    @Override
+    public EntityDocument newDocument(final String id, final int expiry, final EntityBase content, final long cas, final MutationToken mutationToken) {
+        return new EntityDocument(id, expiry, content, cas, mutationToken);
+    }
+
+    @Override
+    protected Tuple2<ByteBuf, Integer> doEncode(final EntityDocument document) throws Exception {
+        // The client releases the buffer once written, so it can come from the pool
+        ByteBuf buffer = PooledByteBufAllocator.DEFAULT.heapBuffer(ENCODE_SIZE);
+        try (OutputStream out = new ByteBufOutputStream(buffer)) {
+            writer.writeValue(out, document.content());
+        } catch (IOException | RuntimeException e) {
+            buffer.release();
+            throw e;
+        }
+        return Tuple.create(buffer, TranscoderUtils.JSON_COMPAT_FLAGS);
+    }
+
+    @Override
+    protected EntityDocument doDecode(final String id, final ByteBuf content, final long cas, final int expiry, final int flags, final
+    ResponseStatus status) throws Exception {
+        if (!TranscoderUtils.hasJsonFlags(flags))
+            throw new TranscodingException("Flags (0x" + Integer.toHexString(flags) + ") indicate non-JSON document for id " + id);
+        return newDocument(id, expiry, decode(parser(content), id, cas), cas, null);
+    }
+
+    /**
+     * Open a parser on a buffer, reading its backing array in place where it has one
+     *
+     * @param content Buffer
+     * @return Parser
+     * @throws IOException if the parser can not be created
+     */
+    private JsonParser parser(final ByteBuf content) throws IOException {
+        if (content.hasArray())
+            return mapper.getFactory().createParser(content.array(), content.arrayOffset() + content.readerIndex(), content.readableBytes());
+        return mapper.getFactory().createParser((InputStream) new ByteBufInputStream(content));
+    }
+
+    /**
+     * Read an entity from a document
+     *
+     * @param parser Parser positioned before the document
+     * @param id     Document key
+     * @param cas    Document CAS
+     * @return Entity
+     * @throws IOException if the document is not a valid entity
+     */
+    EntityBase decode(final JsonParser parser, final String id, final long cas) throws IOException {
+        if (JsonToken.START_OBJECT != parser.nextToken())
+            throw new TranscodingException("Document " + id + " is not a json object");
+        String type = null;
+        JsonParser body = parser;
+        if ((JsonToken.FIELD_NAME == parser.nextToken()) && CLASS.equals(parser.getCurrentName())) {
+            parser.nextToken();
+            type = parser.getText();
+        } else {
+            // Not written by us - keep the other fields until the class turns up
+            TokenBuffer buffered = new TokenBuffer(parser);
+            buffered.writeStartObject();
+            for (; JsonToken.FIELD_NAME == parser.getCurrentToken(); parser.nextToken()) {
+                if (CLASS.equals(parser.getCurrentName())) {
+                    parser.nextToken();
+                    type = parser.getText();
+                } else
+                    buffered.copyCurrentStructure(parser);
+            }
+            buffered.writeEndObject();
+            body = buffered.asParser(parser.getCodec());
+            body.nextToken();
+        }
+        ObjectReader reader = types.reader(type);
+        if (null == reader)
+            throw new TranscodingException("Document " + id + " class " + type + " is not a known entity");
+        TokenBuffer metadata = new TokenBuffer(parser);
+        metadata.writeStartObject();
+        metadata.writeStringField(ID, id);
+        metadata.writeNumberField(VERSION, cas);
+        return reader.readValue(JsonParserSequence.createFlattened(false, metadata.asParser(parser.getCodec()), new WithoutMetadata(body)));
+    }
+
+    /**
+     * Document fields after the first, less any stored copies of the metadata which would replace the values fed in ahead of them
+     */
+    private static final class WithoutMetadata extends JsonParserDelegate {
+
+        WithoutMetadata(final JsonParser parser) {
+            super(parser);
+        }
+
+        @Override
+        public JsonToken nextToken() throws IOException {
+            JsonToken token = delegate.nextToken();
+            while ((JsonToken.FIELD_NAME == token) && delegate.getParsingContext().getParent().inRoot() && metadata(delegate.getCurrentName())) {
+                delegate.nextToken();
+                delegate.skipChildren();
+                token = delegate.nextToken();
+            }
+            return token;
+        }
+
+        private static boolean metadata(final String name) {
+            return ID.equals(name) || VERSION.equals(name) || CLASS.equals(name);
+        }
+    }
+
+}
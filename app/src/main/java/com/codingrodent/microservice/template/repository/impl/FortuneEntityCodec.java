@@ -0,0 +1,67 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import com.codingrodent.microservice.template.entity.FortuneEntity;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static com.codingrodent.microservice.template.repository.impl.IEntityCodec.*;
+
+/**
+ * Binary form of a fortune - id, text and author as length prefixed UTF-8 strings
+ */
+final class FortuneEntityCodec implements IEntityCodec<FortuneEntity> {
+
+    // Object header, three references and the version - rounded to the allocation unit
+    private final static long ENTITY_SIZE = 40;
+
+    @Override
+    public byte[] encode(final FortuneEntity entity) {
+        byte[] id = entity.getId().getBytes(StandardCharsets.UTF_8);
+        byte[] text = entity.getText().getBytes(StandardCharsets.UTF_8);
+        byte[] author = entity.getAuthor().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(encodedSize(id) + encodedSize(text) + encodedSize(author));
+        put(buffer, id);
+        put(buffer, text);
+        put(buffer, author);
+        return buffer.array();
+    }
+
+    @Override
+    public FortuneEntity decode(final ByteBuffer buffer) {
+        String id = getString(buffer);
+        String text = getString(buffer);
+        String author = getString(buffer);
+        return new FortuneEntity(id, text, author);
+    }
+
+    @Override
+    public long heapSize(final FortuneEntity entity) {
+        return ENTITY_SIZE + stringSize(entity.getId()) + stringSize(entity.getText()) + stringSize(entity.getAuthor());
+    }
+
+}
@@ -25,23 +25,93 @@
 package com.codingrodent.microservice.template.repository.impl;
 
 import com.codingrodent.microservice.template.entity.FortuneEntity;
+import com.codingrodent.microservice.template.metrics.*;
+import com.codingrodent.microservice.template.metrics.api.ITemplateMetrics;
 import com.codingrodent.microservice.template.repository.api.ISyncFortuneRepository;
 import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 
+import javax.inject.Inject;
+import java.nio.file.Paths;
 import java.util.List;
-import java.util.stream.Collectors;
+
+import static com.codingrodent.microservice.template.constants.SystemConstants.*;
 
 /**
  * In memory version of repository for when Couchbase is unavailable in the environment - minimal implementation of required methods
+ * <p>
+ * Fortunes are held on the heap unless the {@value com.codingrodent.microservice.template.constants.SystemConstants#PROFILE_OFF_HEAP} profile is
+ * active, in which case they are serialized into off-heap slabs. With the
+ * {@value com.codingrodent.microservice.template.constants.SystemConstants#PROFILE_DURABLE} profile every change is also written to a local log
+ * in the directory named by {@value com.codingrodent.microservice.template.constants.SystemConstants#PROPERTY_DURABLE_PATH} and reloaded on start
+ * up. Setting {@value com.codingrodent.microservice.template.constants.SystemConstants#PROPERTY_SHARDS} above one splits the store into that many
+ * partitions. Setting {@value com.codingrodent.microservice.template.constants.SystemConstants#PROPERTY_CACHE_CAPACITY} bounds the total text
+ * length held, evicting the fortunes least worth keeping. A durable store can not be bounded
  */
 @Profile({"test", "integration", "aws"})
 @Service
 public class FortuneInMemoryRepository extends InMemoryRepository<FortuneEntity> implements ISyncFortuneRepository<FortuneEntity> {
 
+    // Typical fortune text length, used to size the eviction policy
+    private final static int AVERAGE_WEIGHT = 64;
+
     public FortuneInMemoryRepository() {
-        super();
+        this(new TemplateMetrics(new AppMetricsRegistry()), false);
+    }
+
+    @Inject
+    public FortuneInMemoryRepository(final ITemplateMetrics metrics, final Environment environment) {
+        this(metrics, store(environment));
+        long capacity = environment.getProperty(PROPERTY_CACHE_CAPACITY, Long.class, 0L);
+        if (capacity > 0)
+            bound(capacity, (int) Math.min(Integer.MAX_VALUE, capacity / AVERAGE_WEIGHT), FortuneInMemoryRepository::weight);
+    }
+
+    public FortuneInMemoryRepository(final ITemplateMetrics metrics, final boolean offHeap) {
+        this(metrics, store(offHeap));
+    }
+
+    FortuneInMemoryRepository(final ITemplateMetrics metrics, final IEntityStore<FortuneEntity> store) {
+        // Fortune entities are immutable so stored instances can be shared with readers
+        super(true, store, metrics);
+        defineIndex(VIEW_NAMED, entity -> !"".equals(entity.getAuthor()));
+        defineIndex(VIEW_ANON, entity -> "".equals(entity.getAuthor()));
+        defineSortedView("author", FortuneEntity::getAuthor);
+        defineSortedView("text", FortuneEntity::getText);
+    }
+
+    /**
+     * Build the store selected by the active profiles
+     *
+     * @param environment Spring environment
+     * @return Store
+     */
+    private static IEntityStore<FortuneEntity> store(final Environment environment) {
+        boolean offHeap = environment.acceptsProfiles(PROFILE_OFF_HEAP);
+        int shards = environment.getProperty(PROPERTY_SHARDS, Integer.class, 1);
+        IEntityStore<FortuneEntity> store = (shards > 1) ? new ShardedEntityStore<>(shards, () -> store(offHeap)) : store(offHeap);
+        if (environment.acceptsProfiles(PROFILE_DURABLE))
+            return new DurableEntityStore<>(store, new FortuneEntityCodec(), Paths.get(environment.getProperty(PROPERTY_DURABLE_PATH, "data")),
+                    DurableEntityStore.DEFAULT_SNAPSHOT_THRESHOLD);
+        return store;
+    }
+
+    private static IEntityStore<FortuneEntity> store(final boolean offHeap) {
+        if (offHeap)
+            return new OffHeapEntityStore<>(new FortuneEntityCodec(), OffHeapEntityStore.DEFAULT_SLAB_SIZE);
+        return new HeapEntityStore<>(new FortuneEntityCodec());
+    }
+
+    /**
+     * Weight of a fortune when the repository is bounded - its text length
+     *
+     * @param entity Fortune
+     * @return Weight
+     */
+    static int weight(final FortuneEntity entity) {
+        return Math.max(1, entity.getText().length());
     }
 
     @Override
@@ -49,20 +119,34 @@ public class FortuneInMemoryRepository extends InMemoryRepository<FortuneEntity>
         return new FortuneEntity(original.getId(), original.getText(), original.getAuthor());
     }
 
+    @Override
+    public boolean supportsSort() {
+        return true;
+    }
+
     @Override
     public List<FortuneEntity> findAllNamed(final Pageable pageable) {
-        List<FortuneEntity> list = getStore().keySet().
-                stream().
-                map(getStore()::get).
-                filter(model -> !"".equals(model.getAuthor())).
-                collect(Collectors.toList());
-        return getPage(pageable.getPageNumber(), pageable.getPageSize(), list).getContent();
+        return findIndexed(VIEW_NAMED, pageable);
     }
 
     @Override
     public List<FortuneEntity> findAllAnon(final Pageable pageable) {
-        List<FortuneEntity> list = getStore().keySet().stream().map(getStore()::get).filter(model -> model.getAuthor().equals("")).collect(Collectors.toList());
-        return getPage(pageable.getPageNumber(), pageable.getPageSize(), list).getContent();
+        return findIndexed(VIEW_ANON, pageable);
+    }
+
+    @Override
+    public List<FortuneEntity> findAllByIdGreaterThan(final String id, final Pageable pageable) {
+        return findIndexedAfter(null, id, pageable);
+    }
+
+    @Override
+    public List<FortuneEntity> findNamedByIdGreaterThan(final String id, final Pageable pageable) {
+        return findIndexedAfter(VIEW_NAMED, id, pageable);
+    }
+
+    @Override
+    public List<FortuneEntity> findAnonByIdGreaterThan(final String id, final Pageable pageable) {
+        return findIndexedAfter(VIEW_ANON, id, pageable);
     }
 
 }
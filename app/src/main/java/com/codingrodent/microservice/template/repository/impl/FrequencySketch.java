@@ -0,0 +1,107 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+/**
+ * Count-min sketch of 4 bit counters estimating how often each key has been seen recently. Once the number of increments reaches ten times the
+ * width every counter is halved, so the estimate follows recent popularity rather than all time totals
+ * <p>
+ * Not thread safe - the owner serializes access
+ */
+final class FrequencySketch {
+
+    private final static int DEPTH = 4;
+    private final static int MAXIMUM = 15;
+    private final static long HALF_MASK = 0x7777777777777777L;
+
+    private final long[][] rows;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * Build a sketch
+     *
+     * @param width Counters per row - rounded up to a power of two, at least 64. Around the number of distinct keys expected to be tracked
+     */
+    FrequencySketch(final int width) {
+        int counters = Integer.highestOneBit(Math.max(64, Math.min(width, 1 << 26)) - 1) << 1;
+        mask = counters - 1;
+        sampleSize = 10 * counters;
+        rows = new long[DEPTH][counters >>> 4];
+    }
+
+    /**
+     * Count one occurrence of a key
+     *
+     * @param key Key
+     */
+    void increment(final String key) {
+        int hash = spread(UuidKeyMap.hash(key));
+        int step = spread(hash) | 1;
+        boolean added = false;
+        for (int row = 0; row < DEPTH; row++) {
+            int counter = (hash + row * step) & mask;
+            int shift = (counter & 15) << 2;
+            long word = rows[row][counter >>> 4];
+            if (((word >>> shift) & MAXIMUM) != MAXIMUM) {
+                rows[row][counter >>> 4] = word + (1L << shift);
+                added = true;
+            }
+        }
+        if (added && (++additions == sampleSize))
+            halve();
+    }
+
+    /**
+     * Estimate how often a key has been seen
+     *
+     * @param key Key
+     * @return Estimate, 0 to 15
+     */
+    int frequency(final String key) {
+        int hash = spread(UuidKeyMap.hash(key));
+        int step = spread(hash) | 1;
+        int frequency = MAXIMUM;
+        for (int row = 0; row < DEPTH; row++) {
+            int counter = (hash + row * step) & mask;
+            frequency = Math.min(frequency, (int) ((rows[row][counter >>> 4] >>> ((counter & 15) << 2)) & MAXIMUM));
+        }
+        return frequency;
+    }
+
+    private void halve() {
+        for (long[] row : rows)
+            for (int i = 0; i < row.length; i++)
+                row[i] = (row[i] >>> 1) & HALF_MASK;
+        additions = additions / 2;
+    }
+
+    private static int spread(final int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+}
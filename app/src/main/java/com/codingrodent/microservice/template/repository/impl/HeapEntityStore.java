@@ -0,0 +1,110 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import com.codingrodent.microservice.template.entity.EntityBase;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.*;
+
+/**
+ * Store holding entity instances on the heap in a map keyed by UUID
+ *
+ * @param <T> Entity type
+ */
+final class HeapEntityStore<T extends EntityBase> implements IEntityStore<T> {
+
+    // Version holder - the key is costed by the map
+    private final static long ENTRY_SIZE = 24;
+
+    private final UuidKeyMap<Versioned<T>> store = new UuidKeyMap<>();
+    private final IEntityCodec<T> codec;
+    private final AtomicLong heapBytes = new AtomicLong();
+
+    /**
+     * Build a heap store
+     *
+     * @param codec Codec for the entity type - only used to estimate footprint
+     */
+    HeapEntityStore(final IEntityCodec<T> codec) {
+        this.codec = codec;
+    }
+
+    @Override
+    public Versioned<T> get(final String key) {
+        return store.get(key);
+    }
+
+    @Override
+    public Versioned<T> get(final UUID key) {
+        return store.get(key);
+    }
+
+    @Override
+    public boolean containsKey(final String key) {
+        return store.containsKey(key);
+    }
+
+    @Override
+    public Versioned<T> compute(final String key, final BiFunction<String, Versioned<T>, Versioned<T>> remapping) {
+        return store.compute(key, (k, previous) -> {
+            Versioned<T> current = remapping.apply(k, previous);
+            heapBytes.addAndGet(footprint(k, current) - footprint(k, previous));
+            return current;
+        });
+    }
+
+    @Override
+    public int size() {
+        return store.size();
+    }
+
+    @Override
+    public void clear() {
+        store.clear();
+        heapBytes.set(0);
+    }
+
+    @Override
+    public void forEach(final BiConsumer<String, Versioned<T>> action) {
+        store.forEach(action);
+    }
+
+    @Override
+    public long heapBytes() {
+        return heapBytes.get();
+    }
+
+    @Override
+    public long offHeapBytes() {
+        return 0;
+    }
+
+    private long footprint(final String key, final Versioned<T> versioned) {
+        return (null == versioned) ? 0 : ENTRY_SIZE + UuidKeyMap.footprint(key) + codec.heapSize(versioned.getEntity());
+    }
+
+}
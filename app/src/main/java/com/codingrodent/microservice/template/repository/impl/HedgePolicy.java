@@ -0,0 +1,141 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import com.codingrodent.microservice.template.metrics.api.ITemplateMetrics;
+import rx.*;
+import rx.Observable;
+import rx.functions.*;
+import rx.schedulers.Schedulers;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+import static com.codingrodent.microservice.template.constants.SystemConstants.*;
+
+/**
+ * Hedged reads. If the primary read has not answered within the chosen percentile of recent read latencies a backup read is issued as well, and
+ * whichever answers first is used. A read slower than the percentile is most likely stuck behind a slow node, so the backup usually wins.
+ * <p>
+ * Hedges are paid for from a budget earned by reads, so at most the given percentage of reads are ever hedged, with a small allowance for
+ * bursts. When a node is slow for everyone the budget runs dry and load on the cluster stays bounded. Nothing is hedged until enough reads have
+ * been timed to estimate the percentile
+ */
+final class HedgePolicy {
+
+    // Most hedges that may be saved up for a burst
+    static final int BURST = 10;
+
+    private final ITemplateMetrics metrics;
+    private final Scheduler scheduler;
+    private final LongSupplier clock;
+    private final LatencyWindow latency;
+    private final TokenBudget budget;
+
+    /**
+     * Build a hedging policy timed by the system clock
+     *
+     * @param percentile Percentile of read latency after which a backup read is issued
+     * @param percent    Most reads that may be hedged, as a percentage of all reads
+     * @param metrics    Metrics service used to report hedges sent and won, and the current delay
+     */
+    HedgePolicy(final double percentile, final int percent, final ITemplateMetrics metrics) {
+        this(percentile, percent, metrics, Schedulers.computation(), System::nanoTime);
+    }
+
+    /**
+     * Build a hedging policy
+     *
+     * @param percentile Percentile of read latency after which a backup read is issued
+     * @param percent    Most reads that may be hedged, as a percentage of all reads
+     * @param metrics    Metrics service used to report hedges sent and won, and the current delay
+     * @param scheduler  Scheduler backup reads are issued on
+     * @param clock      Current time in nanoseconds
+     */
+    HedgePolicy(final double percentile, final int percent, final ITemplateMetrics metrics, final Scheduler scheduler, final LongSupplier clock) {
+        this.latency = new LatencyWindow(percentile);
+        this.budget = new TokenBudget(percent, BURST);
+        this.metrics = metrics;
+        this.scheduler = scheduler;
+        this.clock = clock;
+        // Microseconds
+        metrics.gauge(METRIC_HEDGE_DELAY, () -> Math.max(0, latency.percentile()) / 1000);
+    }
+
+    /**
+     * Hedge a read
+     *
+     * @param primary Primary read
+     * @param backup  Source of the backup read, only called if a hedge is sent. Its first answer is used, and if it fails or finds nothing the
+     *                primary read is left to answer
+     * @param <R>     Result type
+     * @return Observable enclosing the first answer
+     */
+    <R> Observable<R> apply(final Observable<R> primary, final Func0<Observable<R>> backup) {
+        return Observable.defer(() -> {
+            long start = clock.getAsLong();
+            AtomicBoolean done = new AtomicBoolean();
+            // Reads cut short by a winning hedge are timed up to then, which is still past the delay
+            Action0 timed = () -> {
+                if (done.compareAndSet(false, true))
+                    latency.record(clock.getAsLong() - start);
+            };
+            Observable<R> read = primary.doOnTerminate(timed).doOnUnsubscribe(timed);
+            budget.earn();
+            long wait = latency.percentile();
+            if (wait < 0)
+                return read;
+            Observable<R> hedge = Observable.timer(wait, TimeUnit.NANOSECONDS, scheduler).
+                    flatMap(tick -> spend() ? backup.call().onErrorResumeNext(e -> Observable.empty()) : Observable.<R>empty()).
+                    concatWith(Observable.never()).
+                    take(1).
+                    doOnNext(result -> metrics.inc(METRIC_HEDGE_WON));
+            return Observable.amb(read, hedge);
+        });
+    }
+
+    /**
+     * Pay for a hedge from the budget
+     *
+     * @return True if the hedge can be afforded
+     */
+    private boolean spend() {
+        if (!budget.spend())
+            return false;
+        metrics.inc(METRIC_HEDGE_SENT);
+        return true;
+    }
+
+    /**
+     * Current delay before a backup read is issued
+     *
+     * @return Nanoseconds, or -1 if there is no estimate yet
+     */
+    long delay() {
+        return latency.percentile();
+    }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import com.codingrodent.microservice.template.entity.EntityBase;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary form of an entity for stores that hold entities outside the heap. The version is not part of the encoding, it is held by the store
+ *
+ * @param <T> Entity type
+ */
+interface IEntityCodec<T extends EntityBase> {
+
+    /**
+     * Encode an entity
+     *
+     * @param entity Entity to encode
+     * @return Encoded bytes
+     */
+    byte[] encode(T entity);
+
+    /**
+     * Decode an entity. The buffer position is advanced past the entity
+     *
+     * @param buffer Buffer positioned at the start of an encoded entity
+     * @return New entity instance
+     */
+    T decode(ByteBuffer buffer);
+
+    /**
+     * Estimate the heap retained by an entity instance, used for footprint reporting only
+     *
+     * @param entity Entity
+     * @return Estimated size in bytes
+     */
+    long heapSize(T entity);
+
+    /**
+     * Length prefixed UTF-8 string size
+     *
+     * @param bytes Encoded string
+     * @return Size in bytes
+     */
+    static int encodedSize(final byte[] bytes) {
+        return Integer.BYTES + bytes.length;
+    }
+
+    /**
+     * Write a length prefixed UTF-8 string
+     *
+     * @param buffer Target buffer
+     * @param bytes  Encoded string
+     */
+    static void put(final ByteBuffer buffer, final byte[] bytes) {
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    /**
+     * Read a length prefixed UTF-8 string
+     *
+     * @param buffer Source buffer
+     * @return String
+     */
+    static String getString(final ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Estimate the heap retained by a string - object header and fields plus the backing character array
+     *
+     * @param value String
+     * @return Estimated size in bytes
+     */
+    static long stringSize(final String value) {
+        return 40 + 2L * value.length();
+    }
+
+}
@@ -0,0 +1,187 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import com.codingrodent.microservice.template.entity.EntityBase;
+
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * Storage engine behind an in memory repository. Holds each entity with its version against its key, and applies updates to one key atomically
+ *
+ * @param <T> Entity type
+ */
+interface IEntityStore<T extends EntityBase> {
+
+    /**
+     * Read the stored entity for a key
+     *
+     * @param key Entity key
+     * @return Stored entity or {@literal null} if not present
+     */
+    Versioned<T> get(String key);
+
+    /**
+     * Read the stored entity for a key given as a UUID, without building the key string if the store can avoid it
+     *
+     * @param key Entity key
+     * @return Stored entity or {@literal null} if not present
+     */
+    default Versioned<T> get(final UUID key) {
+        return get(key.toString());
+    }
+
+    /**
+     * Test if a key is present without reading its entity
+     *
+     * @param key Entity key
+     * @return True if present
+     */
+    boolean containsKey(String key);
+
+    /**
+     * Atomically replace the entity for a key. The function is called at most once, with no other update to the same key in progress. An exception
+     * thrown by the function leaves the stored entity unchanged
+     *
+     * @param key       Entity key
+     * @param remapping Function from the current entity (null if none) to its replacement (null to remove)
+     * @return The replacement entity
+     */
+    Versioned<T> compute(String key, BiFunction<String, Versioned<T>, Versioned<T>> remapping);
+
+    /**
+     * Atomically replace the entity for a key, then act on the change with the key still locked. A store that can refuse a change once its
+     * replacement is known, such as one that logs it, acts only after accepting it, so a refused change has no effects
+     *
+     * @param key       Entity key
+     * @param remapping Function from the current entity (null if none) to its replacement (null to remove) - returning the current entity
+     *                  changes nothing
+     * @param changed   Called with the current entity and its replacement once the change is accepted. Not called if nothing changed
+     * @return The replacement entity
+     */
+    default Versioned<T> compute(final String key, final BiFunction<String, Versioned<T>, Versioned<T>> remapping, final BiConsumer<Versioned<T>,
+            Versioned<T>> changed) {
+        return compute(key, (k, previous) -> {
+            Versioned<T> next = remapping.apply(k, previous);
+            if (next != previous)
+                changed.accept(previous, next);
+            return next;
+        });
+    }
+
+    /**
+     * @return Number of stored entities
+     */
+    int size();
+
+    /**
+     * Remove all entities
+     */
+    void clear();
+
+    /**
+     * Visit every stored entity. Not a snapshot - concurrent updates may or may not be seen
+     *
+     * @param action Action to apply
+     */
+    void forEach(BiConsumer<String, Versioned<T>> action);
+
+    /**
+     * Map every stored entity, dropping null results. Stores split into partitions may scan them in parallel, so the mapper must be thread safe.
+     * Results are in no particular order
+     *
+     * @param mapper Function from key and entity to a result
+     * @param <R>    Result type
+     * @return Non null results
+     */
+    default <R> List<R> scan(final BiFunction<String, Versioned<T>, R> mapper) {
+        List<R> results = new ArrayList<>();
+        forEach((key, versioned) -> {
+            R result = mapper.apply(key, versioned);
+            if (null != result)
+                results.add(result);
+        });
+        return results;
+    }
+
+    /**
+     * @return Estimated heap used by the store in bytes
+     */
+    long heapBytes();
+
+    /**
+     * @return Off-heap memory reserved by the store in bytes
+     */
+    long offHeapBytes();
+
+    /**
+     * Highest version the store has ever held, including entities since deleted. Lets a repository resume its version sequence over a store
+     * that was loaded from elsewhere
+     *
+     * @return Highest version - 0 if never known
+     */
+    default long highestVersion() {
+        return 0;
+    }
+
+    /**
+     * Whether every change is kept beyond the life of the process - a removal is then lost data, not just a dropped copy
+     *
+     * @return True if changes are persisted
+     */
+    default boolean isDurable() {
+        return false;
+    }
+
+    /**
+     * Run a group of updates as one commit. Stores that make changes durable may defer doing so until the whole group is done, so the group costs
+     * one sync rather than one per update
+     *
+     * @param work Updates to run
+     * @param <R>  Result type
+     * @return Result of the work
+     */
+    default <R> R batch(final Supplier<R> work) {
+        return work.get();
+    }
+
+    /**
+     * Counters describing the inside of the store, for example the load on each partition
+     *
+     * @return Counter suppliers by name - empty if the store has none
+     */
+    default Map<String, Supplier<Long>> statistics() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Release any resources held by the store
+     */
+    default void close() {
+        // Nothing to release by default
+    }
+
+}
@@ -24,40 +24,193 @@
  */
 package com.codingrodent.microservice.template.repository.impl;
 
-import com.codingrodent.microservice.template.entity.EntityBase;
-import com.codingrodent.microservice.template.exception.ApplicationFaultException;
+import com.codingrodent.microservice.template.entity.*;
+import com.codingrodent.microservice.template.exception.*;
+import com.codingrodent.microservice.template.metrics.api.ITemplateMetrics;
 import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.data.domain.*;
 import org.springframework.data.repository.PagingAndSortingRepository;
+import rx.Observable;
 
-import java.lang.reflect.Field;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
 import java.util.stream.*;
 
+import static com.codingrodent.microservice.template.constants.SystemConstants.*;
+
 /**
  * In memory version of repository for when Couchbase is unavailable in the environment - common code
+ * <p>
+ * Entities are stored as a private copy wrapped with their version. By default every read returns a fresh copy. If the entity type is immutable
+ * the repository can be built to share the stored instance with all readers instead, which removes the per-read allocation
+ * <p>
+ * Versions follow Couchbase CAS semantics. Every write is stamped with a new value from a repository wide sequence, so the version of a key only
+ * ever increases, even across a delete and re-create. A save carrying version 0 is unconditional, any other version must match the stored one
+ * <p>
+ * Where the entities live is decided by the {@link IEntityStore} - on the heap, or serialized into off-heap slabs
+ * <p>
+ * Sorting on a single property with a sorted view, or on the key, is read from the view by rank. Any other sort is served by a comparator
+ * compiled once per distinct sort and applied to the matching entities
+ * <p>
+ * An entity saved with a time to live is removed once it has passed. Deadlines are held in a timing wheel turned by a background timer, so
+ * expiry never scans the store. Deadlines are not persisted, so a durable store refuses saves with a time to live rather than keep the entity
+ * for ever after a restart
+ * <p>
+ * The repository may be bounded to a total entity weight, in which case it behaves as a cache and entities the eviction policy drops are
+ * removed just as if deleted
+ * <p>
+ * Pages can be read from a snapshot, seeing the repository as it was when the snapshot was taken. While snapshots are held writes keep the
+ * values they replace, and those no snapshot can see are reclaimed
+ * <p>
+ * Every change is published on a change feed as it is made, so subscribers see the writes to a key in the order they happened
  */
 abstract class InMemoryRepository<T extends EntityBase> implements PagingAndSortingRepository<T, String> {
 
-    private final ConcurrentHashMap<String, T> store = new ConcurrentHashMap<>();
-    private final Field versionField;
+    final static long EXPIRY_TICK = 100;
+    final static long SNAPSHOT_LEASE = 60_000;
+    final static String SORT_ID = "id";
 
-    InMemoryRepository() {
-        try {
-            versionField = EntityBase.class.getDeclaredField("version");
-        } catch (NoSuchFieldException e) {
-            throw new ApplicationFaultException("Unable to gain access to the version field");
+    private final IEntityStore<T> store;
+    private final Map<String, Predicate<T>> indexDefinitions = new ConcurrentHashMap<>();
+    private final Map<String, KeyIndex> indexes = new ConcurrentHashMap<>();
+    private final KeyIndex keys = new KeyIndex();
+    private final SortedView<T> keyOrder = new SortedView<>(keys);
+    private final Map<String, SortedView<T>> views = new ConcurrentHashMap<>();
+    private final Map<Sort, Comparator<T>> comparators = new ConcurrentHashMap<>();
+    private final boolean shared;
+    private final ITemplateMetrics metrics;
+    private final AtomicLong sequence = new AtomicLong();
+    // Expiry deadlines of keys saved with a time to live - only changed under the key's lock in the store
+    private final Map<String, Long> deadlines = new ConcurrentHashMap<>();
+    private final TimingWheel expiries = new TimingWheel(System.currentTimeMillis(), EXPIRY_TICK);
+    private ScheduledExecutorService expiryTimer;
+    // Eviction policy and entity weight when bounded - only set while the repository is being built
+    private TinyLfuPolicy cache;
+    private final SnapshotHistory<T> history = new SnapshotHistory<>(SNAPSHOT_LEASE);
+    private final ChangeFeed<T> feed = new ChangeFeed<>();
+    private ToIntFunction<T> weigher;
+
+    InMemoryRepository(final IEntityStore<T> store, final ITemplateMetrics metrics) {
+        this(false, store, metrics);
+    }
+
+    /**
+     * Build a repository
+     *
+     * @param shared True to hand the stored entity instances to readers rather than a copy. Only safe if the entity type is immutable apart from
+     *               its version
+     * @param store   Storage engine holding the entities
+     * @param metrics Metrics service used to report save and conflict rates and the store footprint
+     */
+    InMemoryRepository(final boolean shared, final IEntityStore<T> store, final ITemplateMetrics metrics) {
+        this.shared = shared;
+        this.store = store;
+        this.metrics = metrics;
+        metrics.gauge(METRIC_REPOSITORY_HEAP, store::heapBytes);
+        metrics.gauge(METRIC_REPOSITORY_OFF_HEAP, store::offHeapBytes);
+        store.statistics().forEach((name, value) -> metrics.gauge(METRIC_REPOSITORY_STORE + "." + name, value));
+        // The store may already hold entities - index them and carry on the version sequence past anything it has seen
+        sequence.set(store.highestVersion());
+        store.forEach((key, versioned) -> {
+            keys.add(key);
+            sequence.accumulateAndGet(versioned.getVersion(), Math::max);
+        });
+    }
+
+    /**
+     * Release the store - for example to sync and close a durable log on shut down
+     */
+    @PreDestroy
+    public void close() {
+        synchronized (expiries) {
+            if (null != expiryTimer)
+                expiryTimer.shutdownNow();
         }
-        versionField.setAccessible(true);
+        store.close();
     }
 
     @Override
     public Page<T> findAll(final Pageable pageable) {
         if (null == pageable)
             throw new IllegalArgumentException();
-        List<T> list = store.keySet().stream().map(this::findOne).filter(Objects::nonNull).collect(Collectors.toList());
-        return getPage(pageable.getPageNumber(), pageable.getPageSize(), list);
+        if (null != pageable.getSort())
+            return new PageImpl<>(findSorted(null, pageable.getSort(), pageable.getOffset(), pageable.getPageSize()), pageable, keys.size());
+        return getPage(keys, pageable);
+    }
+
+    @Override
+    public Iterable<T> findAll(final Sort sort) {
+        if (null == sort)
+            throw new IllegalArgumentException();
+        return findSorted(null, sort, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Take a snapshot of the repository as it is now, for a series of reads that must agree with each other. Writers are not held up, and the
+     * snapshot is held until released or until unused for a minute
+     *
+     * @return Snapshot version
+     */
+    public long pinSnapshot() {
+        return history.pin(sequence::get, System.currentTimeMillis());
+    }
+
+    /**
+     * Give up a snapshot so the history it needs can be reclaimed
+     *
+     * @param snapshot Snapshot version
+     */
+    public void releaseSnapshot(final long snapshot) {
+        history.release(snapshot, sequence::get);
+    }
+
+    /**
+     * Returns a page of entities, in key order, as they were at a snapshot. Reading every page from one snapshot never skips or repeats an
+     * entity however the repository changes in between
+     *
+     * @param pageable Pagination information - sorting is not supported
+     * @param snapshot Snapshot version
+     * @return Entities on the page
+     * @throws SnapshotExpiredException if the snapshot is no longer held
+     */
+    public List<T> findAllAt(final Pageable pageable, final long snapshot) {
+        if (null == pageable)
+            throw new IllegalArgumentException();
+        if (null != pageable.getSort())
+            throw new IllegalArgumentException("Snapshot reads can not be sorted");
+        history.renew(snapshot, sequence::get, System.currentTimeMillis());
+        int end = (int) Math.min(Integer.MAX_VALUE, (long) pageable.getOffset() + pageable.getPageSize());
+        // Keys of the page are among the first keys present now that existed then, or keys changed since the snapshot such as deleted ones
+        TreeSet<String> candidates = new TreeSet<>(keyOrder.page(0, end, false, key -> null != at(key, snapshot)));
+        history.changed().stream().filter(key -> null != at(key, snapshot)).forEach(candidates::add);
+        return candidates.stream().skip(pageable.getOffset()).limit(pageable.getPageSize()).map(key -> at(key, snapshot)).filter(Objects::nonNull).map
+                (this::read).collect(Collectors.toList());
+    }
+
+    /**
+     * Stream of the changes made to the repository, starting at a position on its change feed. Recent changes are held in a ring, so a
+     * subscriber can resume from the last sequence it saw. One that falls too far behind is sent a gap event before the oldest change still held
+     *
+     * @param from Sequence of the first change wanted - 1 for the oldest held, or one past the last seen to resume
+     * @return Changes in the order they were made
+     */
+    public Observable<ChangeEvent<T>> changes(final long from) {
+        return feed.changes(from);
+    }
+
+    /**
+     * @return Sequence of the last change published on the change feed - 0 if none
+     */
+    public long changeSequence() {
+        return feed.head();
+    }
+
+    private Versioned<T> at(final String key, final long snapshot) {
+        return history.at(key, store.get(key), snapshot);
     }
 
     /**
@@ -69,22 +222,88 @@ abstract class InMemoryRepository<T extends EntityBase> implements PagingAndSort
      */
     @Override
     public <S extends T> S save(final S entity) {
+        return save(entity, 0);
+    }
+
+    /**
+     * Saves a given entity which is then removed once its time to live has passed. Saving it again without a time to live makes it permanent
+     *
+     * @param entity Entity to save
+     * @param ttl    Time to live
+     * @param <S>    Entity type
+     * @return the saved entity
+     * @throws UnsupportedOperationException if the store is durable
+     */
+    public <S extends T> S save(final S entity, final Duration ttl) {
+        if ((null == ttl) || ttl.isNegative() || ttl.isZero())
+            throw new IllegalArgumentException("Time to live must be positive");
+        if (store.isDurable())
+            throw new UnsupportedOperationException("Expiry not supported by a durable repository");
+        long deadline = System.currentTimeMillis() + ttl.toMillis();
+        S saved = save(entity, deadline);
+        startExpiryTimer();
+        expiries.schedule(saved.getId(), deadline);
+        return saved;
+    }
+
+    private <S extends T> S save(final S entity, final long deadline) {
         if (null == entity)
             throw new IllegalArgumentException();
-        T original = store.get(entity.getId());
-        long version = (null == original) ? 0L : entity.getVersion();
-        if ((null != original) && (original.getVersion() != version))
-            throw new OptimisticLockingFailureException("Original:" + original.getVersion() + " New:" + entity.getVersion());
-        //
-        original = copy(entity);
-        // No direct access to the version
+        final long expected = entity.getVersion();
+        final T candidate = copy(entity);
+        // Check, stamp and publish as one atomic step on the key. Throwing from the mapping function leaves the stored value untouched
+        final Versioned<T> saved;
+        final AtomicReference<List<String>> victims = new AtomicReference<>();
         try {
-            versionField.set(original, version);
-        } catch (IllegalAccessException e) {
-            throw new ApplicationFaultException("Unable to update version field");
+            final String key = entity.getId();
+            saved = history.write(() -> store.compute(key, (k, previous) -> {
+                if ((null != previous) && (0 != expected) && (previous.getVersion() != expected))
+                    throw new OptimisticLockingFailureException("Original:" + previous.getVersion() + " New:" + expected);
+                // The copy is private until published in the store, so this is the only time its version is written
+                long version = sequence.incrementAndGet();
+                return new Versioned<>(Versioned.withVersion(candidate, version), version);
+            }, (previous, current) -> {
+                // The store has accepted the write, so everything following it can now be told
+                reindex(key, previous, current);
+                history.record(key, current.getVersion(), previous, System.currentTimeMillis());
+                feed.publish(null == previous ? ChangeEvent.Type.INSERT : ChangeEvent.Type.UPDATE, key, current.getVersion(), read(current));
+                if (0 == deadline)
+                    deadlines.remove(key);
+                else
+                    deadlines.put(key, deadline);
+                if (null != cache)
+                    victims.set(cache.recordWrite(key, weigher.applyAsInt(candidate)));
+            }));
+        } catch (OptimisticLockingFailureException e) {
+            metrics.mark(METRIC_REPOSITORY_CONFLICT);
+            throw e;
         }
-        store.put(entity.getId(), original);
-        return (S) original;
+        metrics.mark(METRIC_REPOSITORY_SAVE);
+        // Other keys can only be removed once this key is unlocked
+        if (null != victims.get())
+            evict(victims.get());
+        return (S) saved.getEntity();
+    }
+
+    /**
+     * Save a batch of entities, each independently, as one commit to the store
+     *
+     * @param entities Entities to save
+     * @param <S>      Entity type
+     * @return One result per entity, in order - each completed with the saved entity or with the reason it could not be saved
+     */
+    public <S extends T> List<CompletableFuture<S>> saveEach(final List<S> entities) {
+        if (null == entities)
+            throw new IllegalArgumentException();
+        return store.batch(() -> entities.stream().map(entity -> {
+            CompletableFuture<S> result = new CompletableFuture<>();
+            try {
+                result.complete(save(entity));
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+            return result;
+        }).collect(Collectors.toList()));
     }
 
     @Override
@@ -100,10 +319,29 @@ abstract class InMemoryRepository<T extends EntityBase> implements PagingAndSort
     public T findOne(final String s) {
         if (null == s)
             throw new IllegalArgumentException();
-        T entity = store.get(s);
-        if (entity == null)
+        Versioned<T> versioned = store.get(s);
+        if (null != cache)
+            recordRead(s, versioned);
+        if (versioned == null)
+            return null;
+        return read(versioned);
+    }
+
+    /**
+     * Retrieve an entity by its UUID, avoiding the key string where the store allows
+     *
+     * @param id Entity id
+     * @return The entity or {@literal null} if none found
+     */
+    public T findOne(final UUID id) {
+        if (null == id)
+            throw new IllegalArgumentException();
+        Versioned<T> versioned = store.get(id);
+        if (null != cache)
+            recordRead(id.toString(), versioned);
+        if (versioned == null)
             return null;
-        return copy(entity);
+        return read(versioned);
     }
 
     @Override
@@ -115,7 +353,10 @@ abstract class InMemoryRepository<T extends EntityBase> implements PagingAndSort
 
     @Override
     public Iterable<T> findAll() {
-        return store.keySet().stream().map(this::findOne).filter(Objects::nonNull).collect(Collectors.toList());
+        // One pass over the store, which a partitioned store runs in parallel, rather than a lookup per key
+        List<T> all = store.scan((key, versioned) -> read(versioned));
+        all.sort(Comparator.comparing(EntityBase::getId));
+        return all;
     }
 
     @Override
@@ -127,12 +368,109 @@ abstract class InMemoryRepository<T extends EntityBase> implements PagingAndSort
     public void delete(final String s) {
         if (null == s)
             throw new IllegalArgumentException();
-        store.remove(s);
+        history.write(() -> store.compute(s, (key, previous) -> null, (previous, next) -> removed(s, previous)));
+    }
+
+    /**
+     * Update everything that follows the stored entities for the removal of one. Called with the key locked, within a history write
+     *
+     * @param key      Key removed
+     * @param previous Entity removed
+     */
+    private void removed(final String key, final Versioned<T> previous) {
+        reindex(key, previous, null);
+        deadlines.remove(key);
+        if (null != cache)
+            cache.remove(key);
+        // A removal is a write, so takes the next version for snapshot readers to order it by
+        long version = sequence.incrementAndGet();
+        history.record(key, version, previous, System.currentTimeMillis());
+        feed.publish(ChangeEvent.Type.DELETE, key, version, null);
+    }
+
+    /**
+     * Remove the entities whose time to live has passed. Called on each tick of the expiry timer
+     *
+     * @param now Current time in milliseconds
+     */
+    void expire(final long now) {
+        metrics.update(METRIC_REPOSITORY_EXPIRY_LAG, expiries.lag(now));
+        for (TimingWheel.Deadline due : expiries.advance(now)) {
+            final boolean[] expired = new boolean[1];
+            history.write(() -> store.compute(due.getKey(), (key, previous) -> {
+                // The key may have been deleted, or saved again with a new deadline or none, since this deadline was filed
+                if ((null == previous) || !Long.valueOf(due.getDeadline()).equals(deadlines.get(key)))
+                    return previous;
+                return null;
+            }, (previous, next) -> {
+                removed(due.getKey(), previous);
+                expired[0] = true;
+            }));
+            if (expired[0])
+                metrics.mark(METRIC_REPOSITORY_EXPIRED);
+        }
+    }
+
+    /**
+     * Remove the entities of keys dropped by the eviction policy. A key written again since it was dropped is tracked once more, so is kept
+     *
+     * @param victims Keys dropped
+     */
+    private void evict(final List<String> victims) {
+        for (String victim : victims) {
+            final boolean[] evicted = new boolean[1];
+            history.write(() -> store.compute(victim, (key, previous) -> {
+                if ((null == previous) || cache.contains(key))
+                    return previous;
+                return null;
+            }, (previous, next) -> {
+                removed(victim, previous);
+                evicted[0] = true;
+            }));
+            if (evicted[0])
+                metrics.inc(METRIC_CACHE_EVICTION);
+        }
+    }
+
+    /**
+     * Retrieve an entity by key without telling the eviction policy - for reads that walk many keys, such as pages, which should not make every
+     * entity they pass look popular
+     *
+     * @param key Key
+     * @return The entity or {@literal null} if none found
+     */
+    private T peek(final String key) {
+        Versioned<T> versioned = store.get(key);
+        return (null == versioned) ? null : read(versioned);
+    }
+
+    private void recordRead(final String key, final Versioned<T> versioned) {
+        cache.recordRead(key);
+        metrics.inc((null == versioned) ? METRIC_CACHE_MISS : METRIC_CACHE_HIT);
+    }
+
+    /**
+     * Start the expiry timer the first time an entity is saved with a time to live
+     */
+    private void startExpiryTimer() {
+        synchronized (expiries) {
+            if (null == expiryTimer) {
+                expiryTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "repository-expiry");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                expiryTimer.scheduleAtFixedRate(() -> expire(System.currentTimeMillis()), EXPIRY_TICK, EXPIRY_TICK, TimeUnit.MILLISECONDS);
+            }
+        }
     }
 
     @Override
     public void deleteAll() {
-        store.clear();
+        // Keeping every entity for snapshot readers would cost as much as a copy, so their snapshots end instead
+        history.releaseAll();
+        // Each key goes the way of a single delete, under its lock, so a save racing with this is either removed whole or kept whole
+        store.scan((key, versioned) -> key).forEach(this::delete);
     }
 
     @Override
@@ -159,30 +497,183 @@ abstract class InMemoryRepository<T extends EntityBase> implements PagingAndSort
     // Helper methods
 
     /**
-     * Extracting one page from a list and return
+     * Define a secondary index holding the keys of all entities matching a predicate. Indexes are maintained incrementally as entities are saved and
+     * deleted so that reading from them never requires a scan of the store
+     *
+     * @param name   Index name
+     * @param member Predicate deciding if an entity belongs in the index
+     */
+    void defineIndex(final String name, final Predicate<T> member) {
+        indexDefinitions.put(name, member);
+        KeyIndex index = new KeyIndex();
+        store.forEach((key, versioned) -> {
+            if (member.test(versioned.getEntity()))
+                index.add(key);
+        });
+        indexes.put(name, index);
+    }
+
+    /**
+     * Bound the repository to a total entity weight, turning it into a cache. Entities already stored are admitted as if just written. A durable
+     * store can not be bounded, as an eviction would be logged as a delete and the entity lost for good
+     *
+     * @param capacity        Total weight to hold
+     * @param expectedEntries Rough number of entities the capacity holds
+     * @param weight          Weight of an entity - at least one
+     */
+    void bound(final long capacity, final int expectedEntries, final ToIntFunction<T> weight) {
+        if (store.isDurable())
+            throw new IllegalStateException("A durable repository can not be bounded");
+        TinyLfuPolicy policy = new TinyLfuPolicy(capacity, expectedEntries);
+        List<String> victims = new ArrayList<>();
+        store.forEach((key, versioned) -> victims.addAll(policy.recordWrite(key, weight.applyAsInt(versioned.getEntity()))));
+        this.weigher = weight;
+        this.cache = policy;
+        evict(victims);
+        metrics.gauge(METRIC_CACHE_WEIGHT, policy::weight);
+    }
+
+    /**
+     * Define a sorted view holding the keys of all entities ordered on a property. Sorts on the property are then read from the view rather than
+     * by sorting entities
+     *
+     * @param property Property name as used in a {@link Sort}
+     * @param value    Property value of an entity
+     */
+    void defineSortedView(final String property, final Function<T, String> value) {
+        SortedView<T> view = new SortedView<>(value);
+        store.forEach((key, versioned) -> view.update(key, null, versioned.getEntity()));
+        views.put(property, view);
+    }
+
+    /**
+     * Read one page of entities from a secondary index. Only the entities on the requested page are read from the store
+     *
+     * @param name     Index name
+     * @param pageable Pagination information
+     * @return Entities on the page - may be empty if no data available at requested location
+     */
+    List<T> findIndexed(final String name, final Pageable pageable) {
+        if (null == pageable)
+            throw new IllegalArgumentException();
+        KeyIndex index = indexes.get(name);
+        if (null == index)
+            throw new ApplicationFaultException("Unknown index: " + name);
+        if (null != pageable.getSort())
+            return findSorted(name, pageable.getSort(), pageable.getOffset(), pageable.getPageSize());
+        return getPage(index, pageable).getContent();
+    }
+
+    /**
+     * Read entities in key order following a key. Used to resume a keyset scan from the last key seen without counting through earlier entries
      *
-     * @param page Page to return
-     * @param size Page size
-     * @param l    list to extract page from
+     * @param name     Index name - {@literal null} for the primary key index
+     * @param key      Last key seen - {@literal null} to start from the beginning
+     * @param pageable Pagination information. The page offset is applied after the seek
+     * @return Entities following the key
+     */
+    List<T> findIndexedAfter(final String name, final String key, final Pageable pageable) {
+        if (null == pageable)
+            throw new IllegalArgumentException();
+        KeyIndex index = (null == name) ? keys : indexes.get(name);
+        if (null == index)
+            throw new ApplicationFaultException("Unknown index: " + name);
+        return index.after(key, pageable.getOffset(), pageable.getPageSize()).stream().map(this::peek).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    /**
+     * Read one page of entities in sorted order. A sort on one property that has a sorted view, or on the key, is read from the view - filtered by
+     * a secondary index if one is named. Anything else is sorted with a compiled comparator
+     *
+     * @param name   Secondary index to filter by - {@literal null} for all entities
+     * @param sort   Sort order
+     * @param offset Entities to skip
+     * @param limit  Most entities to return
+     * @return Entities
+     */
+    List<T> findSorted(final String name, final Sort sort, final int offset, final int limit) {
+        KeyIndex index = (null == name) ? null : indexes.get(name);
+        Iterator<Sort.Order> orders = sort.iterator();
+        Sort.Order order = orders.next();
+        SortedView<T> view = SORT_ID.equals(order.getProperty()) ? keyOrder : views.get(order.getProperty());
+        if ((null != view) && !orders.hasNext() && !order.isIgnoreCase()) {
+            List<String> page = (null == index) ? view.page(offset, limit, order.isDescending()) : view.page(offset, limit, order.isDescending(),
+                    index::contains);
+            return page.stream().map(this::peek).filter(Objects::nonNull).collect(Collectors.toList());
+        }
+        Comparator<T> comparator = comparator(sort);
+        List<T> candidates = store.scan((key, versioned) -> ((null == index) || index.contains(key)) ? read(versioned) : null);
+        return candidates.stream().sorted(comparator).skip(offset).limit(limit).collect(Collectors.toList());
+    }
+
+    /**
+     * Compile a sort into a comparator, once per distinct sort. Ties are broken on the key so the order is stable between pages
+     *
+     * @param sort Sort order
+     * @return Comparator
+     */
+    private Comparator<T> comparator(final Sort sort) {
+        return comparators.computeIfAbsent(sort, s -> {
+            Comparator<T> comparator = null;
+            for (Sort.Order order : s) {
+                SortedView<T> view = SORT_ID.equals(order.getProperty()) ? keyOrder : views.get(order.getProperty());
+                if (null == view)
+                    throw new IllegalArgumentException("Unable to sort on: " + order.getProperty());
+                Comparator<T> next = Comparator.comparing(view.getValue(), order.isIgnoreCase() ? String.CASE_INSENSITIVE_ORDER : Comparator
+                        .naturalOrder());
+                if (order.isDescending())
+                    next = next.reversed();
+                comparator = (null == comparator) ? next : comparator.thenComparing(next);
+            }
+            return comparator.thenComparing(EntityBase::getId);
+        });
+    }
+
+    /**
+     * Move a key between secondary indexes as its entity changes. Called while the store holds the lock for the key so index updates for one key
+     * are applied in the same order as the writes to the store
+     *
+     * @param key      Entity key
+     * @param previous Entity being replaced (null if none)
+     * @param current  Entity replacing it (null if deleted)
+     */
+    private void reindex(final String key, final Versioned<T> previous, final Versioned<T> current) {
+        if (null == previous)
+            keys.add(key);
+        else if (null == current)
+            keys.remove(key);
+        indexDefinitions.forEach((name, member) -> {
+            boolean was = (null != previous) && member.test(previous.getEntity());
+            boolean is = (null != current) && member.test(current.getEntity());
+            if (was && !is)
+                indexes.get(name).remove(key);
+            else if (is && !was)
+                indexes.get(name).add(key);
+        });
+        views.values().forEach(view -> view.update(key, (null == previous) ? null : previous.getEntity(), (null == current) ? null : current.getEntity
+                ()));
+    }
+
+    /**
+     * Extract one page of entities from an index. The index is positioned by rank so only the entities on the page are read and copied
+     *
+     * @param index    Index holding the keys in page order
+     * @param pageable Pagination information
      * @return Page - may be empty if no data available at requested location
      */
-    PageImpl<T> getPage(final int page, final int size, final List<T> l) {
-        int start = page * size;
-        if (start >= l.size())
-            return new PageImpl<>(new ArrayList<>(0));
-        int last = start + size;
-        if (last > l.size())
-            last = l.size();
-        return new PageImpl<>(l.subList(start, last));
+    PageImpl<T> getPage(final KeyIndex index, final Pageable pageable) {
+        List<T> content = index.range(pageable.getOffset(), pageable.getPageSize()).stream().map(this::peek).filter(Objects::nonNull).collect(Collectors.toList());
+        return new PageImpl<>(content, pageable, index.size());
     }
 
     /**
-     * Get the underlying data store. Available if extended operations are required
+     * Hand a stored entity to a reader - either the shared instance or a private copy carrying the stored version
      *
-     * @return Key / value store as a hash map
+     * @param versioned Stored entity
+     * @return Entity for the reader
      */
-    ConcurrentHashMap<String, T> getStore() {
-        return store;
+    private T read(final Versioned<T> versioned) {
+        return shared ? versioned.getEntity() : Versioned.withVersion(copy(versioned.getEntity()), versioned.getVersion());
     }
 
     /**
@@ -193,11 +684,4 @@ abstract class InMemoryRepository<T extends EntityBase> implements PagingAndSort
      */
     abstract T copy(T original);
 
-    // Not Yet Implemented
-
-    @Override
-    public Iterable<T> findAll(final Sort sort) {
-        throw new UnsupportedOperationException("Not implemented - findAll");
-    }
-
 }
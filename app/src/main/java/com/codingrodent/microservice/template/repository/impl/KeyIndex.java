@@ -0,0 +1,288 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.*;
+
+/**
+ * Ordered set of keys supporting lookup by rank in O(log n). Used to serve pages of an in-memory store in a stable order without copying or
+ * sorting the whole store on every request
+ * <p>
+ * This is an indexable skip list - each link records how many entries it jumps so an offset can be found by walking down the levels. Readers
+ * share a read lock, writers take the write lock for the (short) time needed to splice a node in or out
+ */
+final class KeyIndex {
+
+    private static final int MAX_LEVEL = 32;
+    private static final int BRANCH = 4;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Node head = new Node(null, MAX_LEVEL);
+    private int level = 1;
+    private int size = 0;
+
+    /**
+     * Add a key to the index
+     *
+     * @param key Key to add
+     * @return True if the key was not already present
+     */
+    boolean add(final String key) {
+        Node[] update = new Node[MAX_LEVEL];
+        int[] rank = new int[MAX_LEVEL];
+        lock.writeLock().lock();
+        try {
+            Node x = head;
+            for (int i = level - 1; i >= 0; i--) {
+                rank[i] = (i == level - 1) ? 0 : rank[i + 1];
+                while ((null != x.next[i]) && (x.next[i].key.compareTo(key) < 0)) {
+                    rank[i] += x.span[i];
+                    x = x.next[i];
+                }
+                update[i] = x;
+            }
+            if ((null != x.next[0]) && x.next[0].key.equals(key))
+                return false;
+            int nodeLevel = randomLevel();
+            if (nodeLevel > level) {
+                for (int i = level; i < nodeLevel; i++) {
+                    rank[i] = 0;
+                    update[i] = head;
+                    head.span[i] = size;
+                }
+                level = nodeLevel;
+            }
+            x = new Node(key, nodeLevel);
+            for (int i = 0; i < nodeLevel; i++) {
+                x.next[i] = update[i].next[i];
+                update[i].next[i] = x;
+                x.span[i] = update[i].span[i] - (rank[0] - rank[i]);
+                update[i].span[i] = (rank[0] - rank[i]) + 1;
+            }
+            for (int i = nodeLevel; i < level; i++)
+                update[i].span[i]++;
+            size++;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove a key from the index
+     *
+     * @param key Key to remove
+     * @return True if the key was present
+     */
+    boolean remove(final String key) {
+        Node[] update = new Node[MAX_LEVEL];
+        lock.writeLock().lock();
+        try {
+            Node x = head;
+            for (int i = level - 1; i >= 0; i--) {
+                while ((null != x.next[i]) && (x.next[i].key.compareTo(key) < 0))
+                    x = x.next[i];
+                update[i] = x;
+            }
+            x = x.next[0];
+            if ((null == x) || !x.key.equals(key))
+                return false;
+            for (int i = 0; i < level; i++) {
+                if (update[i].next[i] == x) {
+                    update[i].span[i] += x.span[i] - 1;
+                    update[i].next[i] = x.next[i];
+                } else {
+                    update[i].span[i]--;
+                }
+            }
+            while ((level > 1) && (null == head.next[level - 1]))
+                level--;
+            size--;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Read a run of keys in index order starting at a given offset
+     *
+     * @param offset Zero based position of the first key
+     * @param limit  Maximum number of keys to return
+     * @return Keys - may be empty if the offset is beyond the end of the index
+     */
+    List<String> range(final int offset, final int limit) {
+        if ((offset < 0) || (limit < 0))
+            throw new IllegalArgumentException();
+        lock.readLock().lock();
+        try {
+            return rangeLocked(offset, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Read a run of keys in index order starting after a given key. The key itself need not be present, which lets a scan resume from the last
+     * key it returned even if that key has since been deleted
+     *
+     * @param key    Key to seek past - {@literal null} to start from the beginning
+     * @param offset Number of keys to skip after the seek position
+     * @param limit  Maximum number of keys to return
+     * @return Keys - may be empty if there is nothing after the key
+     */
+    List<String> after(final String key, final int offset, final int limit) {
+        if ((offset < 0) || (limit < 0))
+            throw new IllegalArgumentException();
+        lock.readLock().lock();
+        try {
+            if (null == key)
+                return rangeLocked(offset, limit);
+            // count the keys less than or equal to the seek key
+            int rank = 0;
+            Node x = head;
+            for (int i = level - 1; i >= 0; i--) {
+                while ((null != x.next[i]) && (x.next[i].key.compareTo(key) <= 0)) {
+                    rank += x.span[i];
+                    x = x.next[i];
+                }
+            }
+            return rangeLocked(rank + offset, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Read a run of keys - caller must hold the read lock
+     *
+     * @param offset Zero based position of the first key
+     * @param limit  Maximum number of keys to return
+     * @return Keys - may be empty if the offset is beyond the end of the index
+     */
+    private List<String> rangeLocked(final int offset, final int limit) {
+        if ((offset >= size) || (0 == limit))
+            return Collections.emptyList();
+        // rank is one based, head is rank zero
+        int rank = offset + 1;
+        int traversed = 0;
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while ((null != x.next[i]) && (traversed + x.span[i] <= rank)) {
+                traversed += x.span[i];
+                x = x.next[i];
+            }
+            if (traversed == rank)
+                break;
+        }
+        List<String> keys = new ArrayList<>(Math.min(limit, size - offset));
+        while ((null != x) && (keys.size() < limit)) {
+            keys.add(x.key);
+            x = x.next[0];
+        }
+        return keys;
+    }
+
+    /**
+     * Test if a key is present
+     *
+     * @param key Key to find
+     * @return True if present
+     */
+    boolean contains(final String key) {
+        lock.readLock().lock();
+        try {
+            Node x = head;
+            for (int i = level - 1; i >= 0; i--) {
+                while ((null != x.next[i]) && (x.next[i].key.compareTo(key) < 0))
+                    x = x.next[i];
+            }
+            x = x.next[0];
+            return (null != x) && x.key.equals(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Number of keys held
+     *
+     * @return Key count
+     */
+    int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Remove all keys
+     */
+    void clear() {
+        lock.writeLock().lock();
+        try {
+            Arrays.fill(head.next, null);
+            Arrays.fill(head.span, 0);
+            level = 1;
+            size = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Pick a level for a new node - each level is BRANCH times less likely than the one below it
+     *
+     * @return Level in the range 1 to MAX_LEVEL
+     */
+    private int randomLevel() {
+        int nodeLevel = 1;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while ((nodeLevel < MAX_LEVEL) && (0 == random.nextInt(BRANCH)))
+            nodeLevel++;
+        return nodeLevel;
+    }
+
+    /**
+     * Skip list node. span[i] is the number of level zero steps covered by next[i]
+     */
+    private static final class Node {
+        private final String key;
+        private final Node[] next;
+        private final int[] span;
+
+        private Node(final String key, final int level) {
+            this.key = key;
+            this.next = new Node[level];
+            this.span = new int[level];
+        }
+    }
+
+}
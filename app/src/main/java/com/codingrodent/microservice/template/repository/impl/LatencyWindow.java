@@ -0,0 +1,79 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.SlidingWindowReservoir;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A percentile of the latest operation latencies. Taking a percentile sorts the window, so it is only recalculated every {@link #REFRESH}
+ * samples and read from a field in between
+ */
+final class LatencyWindow {
+
+    // Latest latencies the percentile is taken over
+    static final int WINDOW = 1024;
+    // Samples between recalculations, and before there is any estimate at all
+    static final int REFRESH = 64;
+
+    private final double quantile;
+    private final Histogram latency = new Histogram(new SlidingWindowReservoir(WINDOW));
+    private final AtomicLong samples = new AtomicLong();
+    private volatile long percentile = -1;
+
+    /**
+     * Build a window
+     *
+     * @param percentile Percentile to track, greater than 0 and less than 100
+     */
+    LatencyWindow(final double percentile) {
+        if ((percentile <= 0) || (percentile >= 100))
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        this.quantile = percentile / 100;
+    }
+
+    /**
+     * Add a latency
+     *
+     * @param nanos Nanoseconds the operation took
+     */
+    void record(final long nanos) {
+        latency.update(nanos);
+        if (0 == (samples.incrementAndGet() % REFRESH))
+            percentile = (long) latency.getSnapshot().getValue(quantile);
+    }
+
+    /**
+     * Current percentile
+     *
+     * @return Nanoseconds, or -1 if there is no estimate yet
+     */
+    long percentile() {
+        return percentile;
+    }
+
+}
@@ -0,0 +1,304 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import com.codingrodent.microservice.template.entity.*;
+import com.codingrodent.microservice.template.metrics.api.ITemplateMetrics;
+import com.codingrodent.microservice.template.repository.api.IAsyncFortuneRepository;
+import org.springframework.context.annotation.*;
+import org.springframework.core.env.Environment;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+import rx.Observable;
+
+import javax.inject.Inject;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+import static com.codingrodent.microservice.template.constants.SystemConstants.*;
+
+/**
+ * Read-through near cache in front of the Couchbase async repository. Fortunes read by id are kept in process with their CAS and served locally
+ * until older than {@value com.codingrodent.microservice.template.constants.SystemConstants#PROPERTY_NEAR_CACHE_STALENESS} milliseconds. An
+ * older copy is then read again, or if {@value com.codingrodent.microservice.template.constants.SystemConstants#PROPERTY_NEAR_CACHE_REVALIDATE}
+ * is set, kept if a check of the CAS alone shows it has not changed. Writes made through this repository replace or drop the local copy. Writes
+ * made elsewhere are seen once the copy is out of date.
+ * <p>
+ * At most {@value com.codingrodent.microservice.template.constants.SystemConstants#PROPERTY_NEAR_CACHE_SIZE} fortunes are held, chosen by
+ * W-TinyLFU. Hits are buffered and handed to the policy in batches, so reads do not contend on its lock. A staleness of 0, the default, turns
+ * the cache off
+ */
+@Profile({"prod"})
+@Primary
+@Service
+public class NearCachedFortuneRepository implements IAsyncFortuneRepository<FortuneEntity> {
+
+    private final static int DEFAULT_SIZE = 10_000;
+
+    private final IAsyncFortuneRepository<FortuneEntity> repository;
+    private final ITemplateMetrics metrics;
+    private final long staleness;
+    private final boolean revalidate;
+    private final LongSupplier clock;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // Guards the pairing of keys in the policy with entries in the map
+    private final TinyLfuPolicy policy;
+    private final ReadBuffer<String> reads = new ReadBuffer<>();
+
+    /**
+     * A fortune as read, with its CAS and when it was last known to be current
+     */
+    private static final class Entry {
+        private final FortuneEntity entity;
+        private final long checked;
+
+        private Entry(final FortuneEntity entity, final long checked) {
+            this.entity = entity;
+            this.checked = checked;
+        }
+    }
+
+    @Inject
+    public NearCachedFortuneRepository(final AsyncFortuneRepository repository, final ITemplateMetrics metrics, final Environment environment) {
+        this(repository, metrics, environment.getProperty(PROPERTY_NEAR_CACHE_STALENESS, Long.class, 0L), environment.getProperty
+                (PROPERTY_NEAR_CACHE_SIZE, Integer.class, DEFAULT_SIZE), environment.getProperty(PROPERTY_NEAR_CACHE_REVALIDATE, Boolean.class,
+                false), System::currentTimeMillis);
+    }
+
+    /**
+     * Build a near cache
+     *
+     * @param repository Repository to cache
+     * @param metrics    Metrics service used to report hits, misses and the age of copies served
+     * @param staleness  Milliseconds a copy may be served without checking it - 0 to not cache
+     * @param size       Most fortunes to hold
+     * @param revalidate True to check the CAS of an out of date copy before reading it again
+     * @param clock      Current time in milliseconds
+     */
+    NearCachedFortuneRepository(final IAsyncFortuneRepository<FortuneEntity> repository, final ITemplateMetrics metrics, final long staleness,
+                                final int size, final boolean revalidate, final LongSupplier clock) {
+        if (staleness < 0)
+            throw new IllegalArgumentException("Staleness can not be negative");
+        this.repository = repository;
+        this.metrics = metrics;
+        this.staleness = staleness;
+        this.revalidate = revalidate;
+        this.clock = clock;
+        policy = new TinyLfuPolicy(size, size);
+        metrics.gauge(METRIC_NEAR_CACHE_SIZE, () -> (long) entries.size());
+    }
+
+    @Override
+    public Observable<FortuneEntity> findOne(final String id) {
+        if (0 == staleness)
+            return repository.findOne(id);
+        return Observable.defer(() -> {
+            Entry entry = entries.get(id);
+            if (null == entry) {
+                metrics.inc(METRIC_NEAR_CACHE_MISS);
+                return load(id);
+            }
+            long age = clock.getAsLong() - entry.checked;
+            if (age < staleness) {
+                served(id, age);
+                return Observable.just(entry.entity);
+            }
+            if (!revalidate) {
+                metrics.inc(METRIC_NEAR_CACHE_MISS);
+                return load(id);
+            }
+            long checked = clock.getAsLong();
+            return repository.version(id).firstOrDefault(0L).flatMap(version -> {
+                if (version != entry.entity.getVersion()) {
+                    metrics.inc(METRIC_NEAR_CACHE_MISS);
+                    return load(id);
+                }
+                entries.replace(id, entry, new Entry(entry.entity, checked));
+                metrics.inc(METRIC_NEAR_CACHE_REVALIDATED);
+                served(id, 0);
+                return Observable.just(entry.entity);
+            });
+        });
+    }
+
+    private void served(final String id, final long age) {
+        metrics.inc(METRIC_NEAR_CACHE_HIT);
+        metrics.update(METRIC_NEAR_CACHE_STALENESS, age);
+        if (reads.offer(id))
+            synchronized (policy) {
+                reads.drain(policy::recordRead);
+            }
+    }
+
+    /**
+     * Read a fortune from the repository, keeping a copy
+     *
+     * @param id Key
+     * @return Observable enclosing the fortune, or empty if there is none
+     */
+    private Observable<FortuneEntity> load(final String id) {
+        long checked = clock.getAsLong();
+        return repository.findOne(id).doOnNext(entity -> keep(entity, checked)).switchIfEmpty(Observable.defer(() -> {
+            drop(id);
+            return Observable.empty();
+        }));
+    }
+
+    /**
+     * Keep a copy of a fortune, unless a later version is already held. CAS values of a document only increase, so a slow read can not replace
+     * the result of a write that overtook it
+     *
+     * @param entity  Fortune
+     * @param checked When it was known to be current
+     */
+    private void keep(final FortuneEntity entity, final long checked) {
+        if (0 == staleness)
+            return;
+        List<String> victims;
+        synchronized (policy) {
+            Entry kept = entries.merge(entity.getId(), new Entry(entity, checked), (held, read) -> (read.entity.getVersion() >= held.entity
+                    .getVersion()) ? read : held);
+            if (kept.entity != entity)
+                return;
+            // Let the policy see recent hits before it picks victims
+            reads.drain(policy::recordRead);
+            victims = policy.recordWrite(entity.getId(), 1);
+            victims.forEach(entries::remove);
+        }
+    }
+
+    private void drop(final String id) {
+        synchronized (policy) {
+            entries.remove(id);
+            policy.remove(id);
+        }
+    }
+
+    private void dropAll() {
+        synchronized (policy) {
+            entries.clear();
+            policy.clear();
+        }
+    }
+
+    @Override
+    public Observable<FortuneEntity> save(final FortuneEntity entity) {
+        return Observable.defer(() -> {
+            drop(entity.getId());
+            long checked = clock.getAsLong();
+            return repository.save(entity).doOnNext(saved -> keep(saved, checked));
+        });
+    }
+
+    @Override
+    public Observable<FortuneEntity> save(final Iterable<FortuneEntity> entities) {
+        return Observable.from(entities).flatMap(this::save);
+    }
+
+    @Override
+    public Observable<Long> delete(final String id) {
+        // Dropped again afterwards in case a read running alongside put it back
+        return repository.delete(id).doOnSubscribe(() -> drop(id)).doOnTerminate(() -> drop(id));
+    }
+
+    @Override
+    public Observable<Long> delete(final FortuneEntity entity) {
+        if ((null == entity) || (null == entity.getId()))
+            throw new IllegalArgumentException();
+        return delete(entity.getId());
+    }
+
+    @Override
+    public Observable<Long> delete(final Iterable<? extends FortuneEntity> entities) {
+        if (null == entities)
+            throw new IllegalArgumentException();
+        return repository.delete(entities).doOnSubscribe(() -> entities.forEach(entity -> drop(entity.getId()))).doOnTerminate(() -> entities
+                .forEach(entity -> drop(entity.getId())));
+    }
+
+    @Override
+    public Observable<Long> deleteAll() {
+        return repository.deleteAll().doOnSubscribe(this::dropAll).doOnTerminate(this::dropAll);
+    }
+
+    // Everything else goes straight to the repository
+
+    @Override
+    public Observable<Long> version(final String id) {
+        return repository.version(id);
+    }
+
+    @Override
+    public Observable<Boolean> exists(final String id) {
+        return repository.exists(id);
+    }
+
+    @Override
+    public Observable<FortuneEntity> findAll(final Pageable pageable) {
+        return repository.findAll(pageable);
+    }
+
+    @Override
+    public Observable<FortuneEntity> findAllAfter(final String id, final int size) {
+        return repository.findAllAfter(id, size);
+    }
+
+    @Override
+    public Observable<FortuneEntity> findAll(final Pageable pageable, final Iterable<String> ids) {
+        return repository.findAll(pageable, ids);
+    }
+
+    @Override
+    public Observable<Long> count() {
+        return repository.count();
+    }
+
+    @Override
+    public Observable<ChangeEvent<FortuneEntity>> changes(final long from) {
+        return repository.changes(from);
+    }
+
+    @Override
+    public Observable<FortuneEntity> findAllNamed(final Pageable pageable) {
+        return repository.findAllNamed(pageable);
+    }
+
+    @Override
+    public Observable<FortuneEntity> findAllAnon(final Pageable pageable) {
+        return repository.findAllAnon(pageable);
+    }
+
+    @Override
+    public Observable<FortuneEntity> findAllNamedAfter(final String id, final int size) {
+        return repository.findAllNamedAfter(id, size);
+    }
+
+    @Override
+    public Observable<FortuneEntity> findAllAnonAfter(final String id, final int size) {
+        return repository.findAllAnonAfter(id, size);
+    }
+
+}
@@ -0,0 +1,364 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import com.codingrodent.microservice.template.entity.EntityBase;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * Store holding entities serialized into direct byte buffer slabs, with only an index of key to record location kept on the heap. Entities are
+ * decoded each time they are read, so the heap only holds the index and whatever readers are currently using
+ * <p>
+ * Slabs are append only. A record is never overwritten once written, so a reader holding a location can always decode it even if the entity is
+ * replaced while it reads. Replaced records become garbage and when garbage outweighs live data the sparsest slabs are compacted - their live
+ * records are moved to the current slab and the emptied slabs are released to the garbage collector. The number of a released slab is reused
+ * under a new generation, so the slab table stays as small as the live data
+ * <p>
+ * Record layout is [int length][long version][encoded entity] with the length covering the whole record. A location packs the slab generation,
+ * slab number and offset into a long
+ *
+ * @param <T> Entity type
+ */
+final class OffHeapEntityStore<T extends EntityBase> implements IEntityStore<T> {
+
+    final static int DEFAULT_SLAB_SIZE = 1 << 20;
+    private final static int HEADER = Integer.BYTES + Long.BYTES;
+    // Boxed location - the key is costed by the map
+    private final static long ENTRY_SIZE = 16;
+    private final static int SLAB_BITS = 20;
+    private final static int GENERATION_MASK = (1 << (Integer.SIZE - SLAB_BITS)) - 1;
+
+    private final UuidKeyMap<Long> index = new UuidKeyMap<>();
+    private final IEntityCodec<T> codec;
+    private final int slabSize;
+    private final AtomicLong indexBytes = new AtomicLong();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    // Slab table is replaced, never resized in place, so readers see a consistent array. Guarded by this for writes
+    private volatile Slab[] slabs = new Slab[16];
+    private int[] used = new int[16];
+    private int[] live = new int[16];
+    // Generation the next slab opened under each number gets
+    private int[] generations = new int[16];
+    private final Deque<Integer> freed = new ArrayDeque<>();
+    private int opened;
+    private int current = -1;
+    private long reserved;
+    private long garbage;
+
+    /**
+     * Build an off-heap store
+     *
+     * @param codec    Codec for the entity type
+     * @param slabSize Size of each slab in bytes. Records larger than this get a slab of their own
+     */
+    OffHeapEntityStore(final IEntityCodec<T> codec, final int slabSize) {
+        this.codec = codec;
+        this.slabSize = slabSize;
+    }
+
+    @Override
+    public Versioned<T> get(final String key) {
+        return read(() -> index.get(key));
+    }
+
+    @Override
+    public Versioned<T> get(final UUID key) {
+        return read(() -> index.get(key));
+    }
+
+    private Versioned<T> read(final Supplier<Long> lookup) {
+        while (true) {
+            Long location = lookup.get();
+            if (null == location)
+                return null;
+            Slab slab = slabs[slab(location)];
+            // A released or reused slab means the record was moved or replaced after the index was read - look again
+            if ((null != slab) && (slab.generation == generation(location)))
+                return decode(slab.buffer, offset(location));
+        }
+    }
+
+    @Override
+    public boolean containsKey(final String key) {
+        return index.containsKey(key);
+    }
+
+    @Override
+    public Versioned<T> compute(final String key, final BiFunction<String, Versioned<T>, Versioned<T>> remapping) {
+        final AtomicReference<Versioned<T>> result = new AtomicReference<>();
+        index.compute(key, (k, location) -> {
+            // The lock on the key is held, so the record at this location can not be released while it is decoded
+            Versioned<T> previous = (null == location) ? null : decode(slabs[slab(location)].buffer, offset(location));
+            Versioned<T> next = remapping.apply(k, previous);
+            result.set(next);
+            if ((null != next) && (next == previous))
+                return location;
+            Long written = (null == next) ? null : write(next);
+            if (null != location)
+                release(location);
+            if (null == location && null != written)
+                indexBytes.addAndGet(ENTRY_SIZE + UuidKeyMap.footprint(k));
+            else if (null != location && null == written)
+                indexBytes.addAndGet(-(ENTRY_SIZE + UuidKeyMap.footprint(k)));
+            return written;
+        });
+        // Compaction moves other keys so must not run while this key is locked
+        if (needsCompaction())
+            compact();
+        return result.get();
+    }
+
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    @Override
+    public void clear() {
+        // Remove key by key so each record is released under its own key lock, emptied slabs are then released as normal
+        index.forEach((key, location) -> compute(key, (k, previous) -> null));
+    }
+
+    @Override
+    public void forEach(final BiConsumer<String, Versioned<T>> action) {
+        index.forEach((key, location) -> {
+            Versioned<T> versioned = get(key);
+            if (null != versioned)
+                action.accept(key, versioned);
+        });
+    }
+
+    @Override
+    public long heapBytes() {
+        return indexBytes.get();
+    }
+
+    @Override
+    public synchronized long offHeapBytes() {
+        return reserved;
+    }
+
+    /**
+     * @return Bytes held by replaced or deleted records not yet reclaimed
+     */
+    synchronized long garbageBytes() {
+        return garbage;
+    }
+
+    /**
+     * @return Slab numbers handed out - freed numbers are reused, so this follows the most slabs ever held at once
+     */
+    synchronized int slabsOpened() {
+        return opened;
+    }
+
+    /**
+     * Move the live records out of every sealed slab that is less than half full of live data. Only one thread compacts at a time, others skip
+     */
+    void compact() {
+        if (!compacting.compareAndSet(false, true))
+            return;
+        try {
+            List<Slab> candidates = new ArrayList<>();
+            synchronized (this) {
+                for (int slab = 0; slab < opened; slab++)
+                    if ((null != slabs[slab]) && (slab != current) && (live[slab] < slabs[slab].buffer.capacity() / 2))
+                        candidates.add(slabs[slab]);
+            }
+            for (Slab slab : candidates)
+                evacuate(slab);
+        } finally {
+            compacting.set(false);
+        }
+    }
+
+    // Helper methods
+
+    /**
+     * Relocate every live record in a slab. Records are walked in order - each record is decoded only to find its key, and moved only if the
+     * index still points at it
+     *
+     * @param slab Slab to empty
+     */
+    private void evacuate(final Slab slab) {
+        ByteBuffer buffer = slab.buffer;
+        int end;
+        synchronized (this) {
+            end = used[slab.number];
+        }
+        int offset = 0;
+        // Stop once the slab is released, as its number may already belong to another
+        while ((offset < end) && (slab == slabs[slab.number])) {
+            final long location = location(slab.generation, slab.number, offset);
+            final int length = buffer.getInt(offset);
+            final ByteBuffer record = buffer.duplicate();
+            record.limit(offset + length).position(offset);
+            String key = decode(buffer, offset).getId();
+            index.computeIfPresent(key, (k, found) -> {
+                if (found != location)
+                    return found;
+                long moved = allocate(length);
+                copy(moved, record);
+                release(location);
+                return moved;
+            });
+            offset = offset + length;
+        }
+    }
+
+    private boolean needsCompaction() {
+        synchronized (this) {
+            return (garbage > slabSize) && (garbage > reserved / 2) && !compacting.get();
+        }
+    }
+
+    private Versioned<T> decode(final ByteBuffer slab, final int offset) {
+        ByteBuffer record = slab.duplicate();
+        int length = record.getInt(offset);
+        long version = record.getLong(offset + Integer.BYTES);
+        record.limit(offset + length).position(offset + HEADER);
+        return new Versioned<>(Versioned.withVersion(codec.decode(record), version), version);
+    }
+
+    private long write(final Versioned<T> versioned) {
+        byte[] entity = codec.encode(versioned.getEntity());
+        ByteBuffer record = ByteBuffer.allocate(HEADER + entity.length);
+        record.putInt(HEADER + entity.length).putLong(versioned.getVersion()).put(entity).flip();
+        long location = allocate(record.remaining());
+        copy(location, record);
+        return location;
+    }
+
+    /**
+     * Copy a record into space already allocated for it. The space is private to the caller until the location is published in the index
+     *
+     * @param location Allocated location
+     * @param record   Record bytes
+     */
+    private void copy(final long location, final ByteBuffer record) {
+        ByteBuffer target = slabs[slab(location)].buffer.duplicate();
+        target.position(offset(location));
+        target.put(record);
+    }
+
+    /**
+     * Reserve space for a record, opening a new slab if the current one is full
+     *
+     * @param length Record length
+     * @return Location of the space
+     */
+    private synchronized long allocate(final int length) {
+        if ((-1 == current) || (used[current] + length > slabs[current].buffer.capacity())) {
+            // A freed slab number comes back under a new generation, so a stale location can never resolve to a different slab
+            int slab = freed.isEmpty() ? opened++ : freed.pop();
+            if (slab >= 1 << SLAB_BITS)
+                throw new IllegalStateException("Off-heap slab table full");
+            if (slab == slabs.length) {
+                // Publish the larger table only after it is filled in
+                Slab[] grown = Arrays.copyOf(slabs, slabs.length * 2);
+                used = Arrays.copyOf(used, grown.length);
+                live = Arrays.copyOf(live, grown.length);
+                generations = Arrays.copyOf(generations, grown.length);
+                slabs = grown;
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(slabSize, length));
+            used[slab] = 0;
+            live[slab] = 0;
+            slabs[slab] = new Slab(slab, generations[slab], buffer);
+            reserved = reserved + buffer.capacity();
+            int sealed = current;
+            current = slab;
+            if ((-1 != sealed) && (0 == live[sealed]))
+                free(sealed);
+        }
+        long location = location(slabs[current].generation, current, used[current]);
+        used[current] = used[current] + length;
+        live[current] = live[current] + length;
+        return location;
+    }
+
+    /**
+     * Mark a record as garbage, releasing its slab once nothing in it is live
+     *
+     * @param location Record location
+     */
+    private synchronized void release(final long location) {
+        int slab = slab(location);
+        int length = slabs[slab].buffer.getInt(offset(location));
+        live[slab] = live[slab] - length;
+        garbage = garbage + length;
+        if ((0 == live[slab]) && (slab != current))
+            free(slab);
+    }
+
+    /**
+     * Drop an empty slab. Readers still holding it can finish decoding, the memory goes once they let go
+     *
+     * @param slab Slab number
+     */
+    private void free(final int slab) {
+        garbage = garbage - used[slab];
+        reserved = reserved - slabs[slab].buffer.capacity();
+        slabs[slab] = null;
+        generations[slab] = (generations[slab] + 1) & GENERATION_MASK;
+        freed.push(slab);
+    }
+
+    private static long location(final int generation, final int slab, final int offset) {
+        return ((long) generation << (Integer.SIZE + SLAB_BITS)) | ((long) slab << Integer.SIZE) | (offset & 0xFFFFFFFFL);
+    }
+
+    private static int generation(final long location) {
+        return (int) (location >>> (Integer.SIZE + SLAB_BITS));
+    }
+
+    private static int slab(final long location) {
+        return (int) (location >>> Integer.SIZE) & ((1 << SLAB_BITS) - 1);
+    }
+
+    private static int offset(final long location) {
+        return (int) location;
+    }
+
+    /**
+     * Slab buffer and the number and generation it was opened under
+     */
+    private static final class Slab {
+        private final int number;
+        private final int generation;
+        private final ByteBuffer buffer;
+
+        private Slab(final int number, final int generation, final ByteBuffer buffer) {
+            this.number = number;
+            this.generation = generation;
+            this.buffer = buffer;
+        }
+    }
+
+}
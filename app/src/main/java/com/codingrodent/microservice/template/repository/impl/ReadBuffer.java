@@ -0,0 +1,95 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import java.util.concurrent.atomic.*;
+import java.util.function.Consumer;
+
+/**
+ * Lossy buffer of read events, so readers can tell an eviction policy what they read without taking its lock on every read. Events go into one
+ * of several small rings picked by thread, and the owner drains every ring into the policy under its own lock. A read finding its ring full is
+ * dropped - the policy only needs a sample of reads to rank keys
+ * <p>
+ * Any thread may offer. Draining must be serialized by the owner
+ *
+ * @param <E> Event type
+ */
+final class ReadBuffer<E> {
+
+    private final static int STRIPES = 16;
+    private final static int SIZE = 16;
+    private final static int MASK = SIZE - 1;
+    // Ring positions are spread a cache line apart
+    private final static int PAD = 8;
+
+    private final AtomicReferenceArray<E> slots = new AtomicReferenceArray<>(STRIPES * SIZE);
+    // Events claimed and events drained, per ring
+    private final AtomicLongArray tails = new AtomicLongArray(STRIPES * PAD);
+    private final AtomicLongArray heads = new AtomicLongArray(STRIPES * PAD);
+
+    /**
+     * Add an event, or drop it if its ring is full
+     *
+     * @param event Event
+     * @return True if the ring is now full and should be drained
+     */
+    boolean offer(final E event) {
+        int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1));
+        long head = heads.get(stripe * PAD);
+        long tail = tails.get(stripe * PAD);
+        if (tail - head >= SIZE)
+            return true;
+        if (tails.compareAndSet(stripe * PAD, tail, tail + 1)) {
+            slots.lazySet(stripe * SIZE + (int) (tail & MASK), event);
+            return tail + 1 - head >= SIZE;
+        }
+        // Lost to another reader on the same ring - dropping is cheaper than retrying
+        return false;
+    }
+
+    /**
+     * Hand every buffered event to a consumer, ring by ring in the order offered. An event claimed but not yet written stops its ring until the
+     * next drain
+     *
+     * @param consumer Consumer of the events
+     */
+    void drain(final Consumer<E> consumer) {
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            long head = heads.get(stripe * PAD);
+            long tail = tails.get(stripe * PAD);
+            while (head < tail) {
+                int slot = stripe * SIZE + (int) (head & MASK);
+                E event = slots.get(slot);
+                if (null == event)
+                    break;
+                slots.lazySet(slot, null);
+                consumer.accept(event);
+                head++;
+            }
+            heads.lazySet(stripe * PAD, head);
+        }
+    }
+
+}
@@ -0,0 +1,228 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import com.codingrodent.microservice.template.metrics.api.ITemplateMetrics;
+import com.couchbase.client.core.*;
+import com.couchbase.client.java.error.*;
+import org.springframework.dao.*;
+import rx.*;
+import rx.Observable;
+import rx.functions.Func0;
+import rx.schedulers.Schedulers;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.*;
+
+import static com.codingrodent.microservice.template.constants.SystemConstants.METRIC_RETRY;
+
+/**
+ * Timeout and retry policy for one type of Couchbase operation.
+ * <p>
+ * Each attempt is timed out at a multiple of the recent 99th percentile latency, never less than {@link #TIMEOUT_FLOOR} and never more than
+ * the configured timeout for the operation, so a stuck request is abandoned long before the client library gives up on it. Timeouts, and the
+ * temporary failures and backpressure Couchbase reports when it is briefly overloaded, are retried after a decorrelated jitter backoff. Retries
+ * are paid for from a budget earned by operations, so when the cluster is in real trouble they stop rather than add to the load. Failures that
+ * run out of attempts or budget are raised as transient data access exceptions.
+ * <p>
+ * Only operations that answer with a single item are retried, and never once an item has been emitted
+ */
+final class RetryPolicy {
+
+    /**
+     * Types of operation, each with its own latency and budget
+     */
+    enum Operation {
+        READ, WRITE, VIEW;
+
+        String metric(final String name) {
+            return METRIC_RETRY + "." + name().toLowerCase() + "." + name;
+        }
+    }
+
+    static final double TIMEOUT_PERCENTILE = 99;
+    static final int TIMEOUT_MULTIPLIER = 3;
+    // Milliseconds
+    static final long TIMEOUT_FLOOR = 100;
+    static final long BACKOFF_BASE = 10;
+    static final long BACKOFF_CAP = 1000;
+    // Most retries that may be saved up for a burst
+    static final int BURST = 10;
+
+    private final Operation operation;
+    private final long ceiling;
+    private final int attempts;
+    private final ITemplateMetrics metrics;
+    private final Scheduler scheduler;
+    private final LongSupplier clock;
+    private final DoubleSupplier random;
+    private final LatencyWindow latency = new LatencyWindow(TIMEOUT_PERCENTILE);
+    private final TokenBudget budget;
+
+    /**
+     * Build a policy timed by the system clock
+     *
+     * @param operation Type of operation
+     * @param ceiling   Longest timeout in milliseconds, and the timeout used until latencies have been seen
+     * @param attempts  Most attempts at an operation, including the first
+     * @param percent   Most retries, as a percentage of operations
+     * @param metrics   Metrics service used to report retries, timeouts and failures, and the current timeout
+     */
+    RetryPolicy(final Operation operation, final long ceiling, final int attempts, final int percent, final ITemplateMetrics metrics) {
+        this(operation, ceiling, attempts, percent, metrics, Schedulers.computation(), System::nanoTime, () -> ThreadLocalRandom.current()
+                .nextDouble());
+    }
+
+    /**
+     * Build a policy
+     *
+     * @param operation Type of operation
+     * @param ceiling   Longest timeout in milliseconds, and the timeout used until latencies have been seen
+     * @param attempts  Most attempts at an operation, including the first
+     * @param percent   Most retries, as a percentage of operations
+     * @param metrics   Metrics service used to report retries, timeouts and failures, and the current timeout
+     * @param scheduler Scheduler timeouts and retries run on
+     * @param clock     Current time in nanoseconds
+     * @param random    Source of random numbers from 0 to 1 for the backoff jitter
+     */
+    RetryPolicy(final Operation operation, final long ceiling, final int attempts, final int percent, final ITemplateMetrics metrics, final
+    Scheduler scheduler, final LongSupplier clock, final DoubleSupplier random) {
+        if (ceiling < TIMEOUT_FLOOR)
+            throw new IllegalArgumentException("Timeout must be at least " + TIMEOUT_FLOOR + "ms");
+        if (attempts < 1)
+            throw new IllegalArgumentException("At least one attempt is needed");
+        this.operation = operation;
+        this.ceiling = ceiling;
+        this.attempts = attempts;
+        this.budget = new TokenBudget(percent, BURST);
+        this.metrics = metrics;
+        this.scheduler = scheduler;
+        this.clock = clock;
+        this.random = random;
+        metrics.gauge(operation.metric("limit"), this::timeout);
+    }
+
+    /**
+     * Run an operation under the policy
+     *
+     * @param call Source of the operation, called again for each attempt
+     * @param <R>  Result type
+     * @return Observable enclosing the result of the first successful attempt
+     */
+    <R> Observable<R> apply(final Func0<Observable<R>> call) {
+        return Observable.defer(() -> {
+            budget.earn();
+            return attempt(call, 1, BACKOFF_BASE);
+        });
+    }
+
+    /**
+     * Current timeout for an attempt
+     *
+     * @return Milliseconds
+     */
+    long timeout() {
+        long percentile = latency.percentile();
+        if (percentile < 0)
+            return ceiling;
+        return Math.min(ceiling, Math.max(TIMEOUT_FLOOR, TimeUnit.NANOSECONDS.toMillis(percentile * TIMEOUT_MULTIPLIER)));
+    }
+
+    /**
+     * Make an attempt, retrying it on failure if allowed
+     *
+     * @param call    Source of the operation
+     * @param attempt Attempt number, from 1
+     * @param backoff Milliseconds waited before this attempt, or the base backoff for the first
+     * @param <R>     Result type
+     * @return Observable enclosing the result
+     */
+    private <R> Observable<R> attempt(final Func0<Observable<R>> call, final int attempt, final long backoff) {
+        return Observable.defer(() -> {
+            long start = clock.getAsLong();
+            long timeout = timeout();
+            AtomicBoolean answered = new AtomicBoolean();
+            return call.call().
+                    doOnEach(notification -> {
+                        // Time to the first answer, not to the end of any stream
+                        if (!notification.isOnError() && answered.compareAndSet(false, true))
+                            latency.record(clock.getAsLong() - start);
+                    }).
+                    timeout(timeout, TimeUnit.MILLISECONDS, scheduler).
+                    onErrorResumeNext(e -> {
+                        if (e instanceof TimeoutException) {
+                            // A timed out attempt counts at the timeout, so a slowing cluster raises it
+                            latency.record(clock.getAsLong() - start);
+                            metrics.inc(operation.metric("timedout"));
+                        }
+                        if (answered.get() || !retryable(e))
+                            return Observable.error(e);
+                        if ((attempt >= attempts) || !budget.spend()) {
+                            metrics.inc(operation.metric("failed"));
+                            return Observable.error(translate(e, timeout));
+                        }
+                        metrics.inc(operation.metric("retried"));
+                        long sleep = jitter(backoff);
+                        return Observable.timer(sleep, TimeUnit.MILLISECONDS, scheduler).flatMap(tick -> attempt(call, attempt + 1, sleep));
+                    });
+        });
+    }
+
+    /**
+     * Decorrelated jitter - a random wait between the base and three times the last wait, capped
+     *
+     * @param last Milliseconds last waited
+     * @return Milliseconds to wait
+     */
+    long jitter(final long last) {
+        return Math.min(BACKOFF_CAP, BACKOFF_BASE + (long) (random.getAsDouble() * (last * 3 - BACKOFF_BASE)));
+    }
+
+    /**
+     * Is a failure worth trying again
+     *
+     * @param e Failure
+     * @return True if it is likely to be transient
+     */
+    private static boolean retryable(final Throwable e) {
+        return (e instanceof TimeoutException) || (e instanceof TemporaryFailureException) || (e instanceof TemporaryLockFailureException) ||
+                (e instanceof BackpressureException) || (e instanceof RequestCancelledException);
+    }
+
+    /**
+     * Raise a failure that could not be retried away as a transient data access exception
+     *
+     * @param e       Failure
+     * @param timeout Milliseconds the last attempt was allowed
+     * @return Translated failure
+     */
+    private RuntimeException translate(final Throwable e, final long timeout) {
+        if (e instanceof TimeoutException)
+            return new QueryTimeoutException("Couchbase " + operation.name().toLowerCase() + " timed out after " + timeout + "ms", e);
+        return new TransientDataAccessResourceException("Couchbase " + operation.name().toLowerCase() + " failed: " + e.getMessage(), e);
+    }
+
+}
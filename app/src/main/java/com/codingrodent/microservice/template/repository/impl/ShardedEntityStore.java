@@ -0,0 +1,148 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import com.codingrodent.microservice.template.entity.EntityBase;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.*;
+import java.util.stream.*;
+
+/**
+ * Store split into independent partitions, each a store of its own, with a key always held by the same partition. Updates to keys in different
+ * partitions never contend, and scans and bulk operations run over the partitions in parallel on the common fork join pool
+ * <p>
+ * Reads and writes are counted per partition so uneven load shows up in the store statistics
+ *
+ * @param <T> Entity type
+ */
+final class ShardedEntityStore<T extends EntityBase> implements IEntityStore<T> {
+
+    private final List<IEntityStore<T>> shards;
+    private final LongAdder[] reads;
+    private final LongAdder[] writes;
+
+    /**
+     * Build a sharded store
+     *
+     * @param count Number of partitions
+     * @param shard Factory for an empty partition
+     */
+    ShardedEntityStore(final int count, final Supplier<IEntityStore<T>> shard) {
+        if (count < 1)
+            throw new IllegalArgumentException("Shard count must be at least one");
+        shards = Collections.unmodifiableList(IntStream.range(0, count).mapToObj(i -> shard.get()).collect(Collectors.toList()));
+        reads = new LongAdder[count];
+        writes = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            reads[i] = new LongAdder();
+            writes[i] = new LongAdder();
+        }
+    }
+
+    @Override
+    public Versioned<T> get(final String key) {
+        int shard = shard(UuidKeyMap.hash(key));
+        reads[shard].increment();
+        return shards.get(shard).get(key);
+    }
+
+    @Override
+    public Versioned<T> get(final UUID key) {
+        int shard = shard(UuidKeyMap.hash(key));
+        reads[shard].increment();
+        return shards.get(shard).get(key);
+    }
+
+    @Override
+    public boolean containsKey(final String key) {
+        int shard = shard(UuidKeyMap.hash(key));
+        reads[shard].increment();
+        return shards.get(shard).containsKey(key);
+    }
+
+    @Override
+    public Versioned<T> compute(final String key, final BiFunction<String, Versioned<T>, Versioned<T>> remapping) {
+        int shard = shard(UuidKeyMap.hash(key));
+        writes[shard].increment();
+        return shards.get(shard).compute(key, remapping);
+    }
+
+    @Override
+    public int size() {
+        return shards.stream().mapToInt(IEntityStore::size).sum();
+    }
+
+    @Override
+    public void clear() {
+        shards.parallelStream().forEach(IEntityStore::clear);
+    }
+
+    @Override
+    public void forEach(final BiConsumer<String, Versioned<T>> action) {
+        shards.forEach(shard -> shard.forEach(action));
+    }
+
+    @Override
+    public <R> List<R> scan(final BiFunction<String, Versioned<T>, R> mapper) {
+        return shards.parallelStream().flatMap(shard -> shard.scan(mapper).stream()).collect(Collectors.toList());
+    }
+
+    @Override
+    public long heapBytes() {
+        return shards.stream().mapToLong(IEntityStore::heapBytes).sum();
+    }
+
+    @Override
+    public long offHeapBytes() {
+        return shards.stream().mapToLong(IEntityStore::offHeapBytes).sum();
+    }
+
+    @Override
+    public Map<String, Supplier<Long>> statistics() {
+        Map<String, Supplier<Long>> statistics = new LinkedHashMap<>();
+        for (int i = 0; i < shards.size(); i++) {
+            IEntityStore<T> shard = shards.get(i);
+            statistics.put("shard." + i + ".size", () -> (long) shard.size());
+            statistics.put("shard." + i + ".reads", reads[i]::sum);
+            statistics.put("shard." + i + ".writes", writes[i]::sum);
+        }
+        return statistics;
+    }
+
+    @Override
+    public void close() {
+        shards.forEach(IEntityStore::close);
+    }
+
+    /**
+     * Pick the partition for a key hash. Uses the high half of the hash as the low bits also pick the slot within a partition's own map
+     */
+    private int shard(final int hash) {
+        return (hash >>> 16) % shards.size();
+    }
+
+}
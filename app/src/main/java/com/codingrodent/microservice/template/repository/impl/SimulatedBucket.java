@@ -0,0 +1,667 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import com.couchbase.client.core.ClusterFacade;
+import com.couchbase.client.core.endpoint.kv.KeyValueStatus;
+import com.couchbase.client.core.lang.Tuple2;
+import com.couchbase.client.core.message.*;
+import com.couchbase.client.core.message.kv.subdoc.simple.*;
+import com.couchbase.client.deps.io.netty.buffer.*;
+import com.couchbase.client.java.*;
+import com.couchbase.client.java.document.*;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.error.*;
+import com.couchbase.client.java.subdoc.AsyncLookupInBuilder;
+import com.couchbase.client.java.transcoder.*;
+import com.couchbase.client.java.view.*;
+import rx.*;
+import rx.Observable;
+import rx.functions.Func0;
+import rx.schedulers.Schedulers;
+import rx.subjects.AsyncSubject;
+
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.*;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * In-process stand-in for a Couchbase bucket, so the async repository stack - transcoding, view paging, fetch modes, hedging, retries - can be
+ * load tested and regression tested without a cluster.
+ * <p>
+ * Documents are held encoded, as the server holds them, and pass through the bucket's transcoders on every read and write. Each mutation is
+ * given a new CAS, and replace and remove honour the CAS of the document passed in. Views are simple projections of the stored json keyed on
+ * the document id, with an optional _count reduce, and support the reduce, skip, limit and start key query options. As on the server, each view
+ * is kept as a sorted index brought up to date by every mutation, so a query reads rows rather than parsing every document.
+ * <p>
+ * Every operation is delayed by a sample from the configured latency distribution and may be failed at random with an injected error. The
+ * {@link AsyncBucket} and {@link Bucket} interfaces are large, so they are served by dynamic proxies; only the operations listed in
+ * {@link #invoke(Object, Method, Object[])} are simulated and anything else throws {@link UnsupportedOperationException}
+ */
+final class SimulatedBucket implements InvocationHandler {
+
+    private static final String REDUCE = "reduce";
+    private static final String SKIP = "skip";
+    private static final String LIMIT = "limit";
+    private static final String START_KEY = "startkey";
+    private static final String START_KEY_DOC_ID = "startkey_docid";
+
+    /**
+     * A stored document, in the form the transcoders produced it
+     */
+    private static final class Stored {
+        private final byte[] content;
+        private final int flags;
+        private final long cas;
+
+        private Stored(final byte[] content, final int flags, final long cas) {
+            this.content = content;
+            this.flags = flags;
+            this.cas = cas;
+        }
+    }
+
+    /**
+     * A view - the value emitted for each document, {@literal null} to emit nothing, whether it reduces to a count, and the rows emitted so far
+     * in key order
+     */
+    private static final class View {
+        private final Function<JsonObject, Object> map;
+        private final boolean count;
+        private final ConcurrentNavigableMap<String, Object> rows = new ConcurrentSkipListMap<>();
+
+        private View(final Function<JsonObject, Object> map, final boolean count) {
+            this.map = map;
+            this.count = count;
+        }
+    }
+
+    // Mutations of one id are serialized on a stripe, so the views see them in the order the documents do
+    private static final int STRIPES = 64;
+
+    private final String name;
+    private final Scheduler scheduler;
+    private final Map<Class<?>, Transcoder<? extends Document<?>, ?>> transcoders = new HashMap<>();
+    // Sorted by id, which is also the key every view emits
+    private final ConcurrentNavigableMap<String, Stored> documents = new ConcurrentSkipListMap<>();
+    private final Map<String, View> views = new ConcurrentHashMap<>();
+    private final Object[] stripes = new Object[STRIPES];
+    private final AtomicLong cas = new AtomicLong();
+    private final Map<String, LongAdder> calls = new ConcurrentHashMap<>();
+    private final AsyncBucket async;
+    private final Bucket bucket;
+    private final ClusterFacade core;
+    // Microseconds per operation
+    private volatile LongSupplier latency = constant(0);
+    private volatile double failure;
+    private volatile Supplier<? extends RuntimeException> error = TemporaryFailureException::new;
+
+    /**
+     * Build an empty bucket with no views
+     *
+     * @param name        Bucket name
+     * @param scheduler   Scheduler latency is simulated on
+     * @param transcoders Transcoders for custom document types, as passed when opening a real bucket
+     */
+    SimulatedBucket(final String name, final Scheduler scheduler, final List<Transcoder<? extends Document<?>, ?>> transcoders) {
+        this.name = name;
+        this.scheduler = scheduler;
+        for (int stripe = 0; stripe < STRIPES; stripe++)
+            stripes[stripe] = new Object();
+        Transcoder<JsonDocument, JsonObject> json = new JsonTranscoder();
+        this.transcoders.put(json.documentType(), json);
+        for (Transcoder<? extends Document<?>, ?> transcoder : transcoders)
+            this.transcoders.put(transcoder.documentType(), transcoder);
+        this.async = (AsyncBucket) Proxy.newProxyInstance(AsyncBucket.class.getClassLoader(), new Class<?>[]{AsyncBucket.class}, this);
+        this.bucket = (Bucket) Proxy.newProxyInstance(Bucket.class.getClassLoader(), new Class<?>[]{Bucket.class}, this::invokeBlocking);
+        this.core = new ClusterFacade() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <R extends CouchbaseResponse> Observable<R> send(final CouchbaseRequest request) {
+                // The client watches for the response on a subject, as the real core delivers it
+                AsyncSubject<R> response = AsyncSubject.create();
+                ((Observable<R>) subdoc(request)).subscribe(response);
+                return response;
+            }
+        };
+    }
+
+    /**
+     * Build a bucket of fortunes, with the views of docs/json/views.json
+     *
+     * @param types Entity classes documents may be read as
+     * @return Bucket
+     */
+    static SimulatedBucket fortunes(final TypeRegistry types) {
+        SimulatedBucket bucket = new SimulatedBucket("template", Schedulers.computation(), Collections.singletonList(new EntityTranscoder(types)));
+        Function<JsonObject, Object> fortune = doc -> JsonObject.create().
+                put("text", doc.getString("text")).
+                put("author", doc.getString("author")).
+                put("_class", doc.getString("_class"));
+        bucket.view("all", fortune, true);
+        bucket.view("named", doc -> "".equals(doc.getString("author")) ? null : fortune.apply(doc), false);
+        bucket.view("anon", doc -> "".equals(doc.getString("author")) ? fortune.apply(doc) : null, false);
+        return bucket;
+    }
+
+    // Configuration
+
+    /**
+     * Define a view
+     *
+     * @param view  View name - views are looked up by name alone, whatever the design document
+     * @param map   Value to emit for a document, or {@literal null} to leave it out
+     * @param count True if the view has a _count reduce
+     */
+    void view(final String view, final Function<JsonObject, Object> map, final boolean count) {
+        View defined = new View(map, count);
+        documents.forEach((id, stored) -> {
+            Object value = map.apply(json(stored));
+            if (null != value)
+                defined.rows.put(id, value);
+        });
+        views.put(view, defined);
+    }
+
+    /**
+     * Set the latency of each operation
+     *
+     * @param latency Source of latencies in microseconds
+     */
+    void latency(final LongSupplier latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * Fail a share of operations at random
+     *
+     * @param probability Chance an operation fails, from 0 to 1
+     * @param error       Source of the error to fail with
+     */
+    void failing(final double probability, final Supplier<? extends RuntimeException> error) {
+        this.failure = probability;
+        this.error = error;
+    }
+
+    /**
+     * A latency that never varies
+     *
+     * @param micros Microseconds
+     * @return Latency
+     */
+    static LongSupplier constant(final long micros) {
+        return () -> micros;
+    }
+
+    /**
+     * Log-normal latency, the usual shape of service times - most close to the median with a long tail
+     *
+     * @param median Median in microseconds
+     * @param sigma  Spread - 0.5 gives a 99th percentile around three times the median
+     * @return Latency
+     */
+    static LongSupplier logNormal(final long median, final double sigma) {
+        return () -> (long) (median * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian()));
+    }
+
+    /**
+     * A latency with occasional stalls, as seen behind a slow node or a pause
+     *
+     * @param usual       Usual latency
+     * @param probability Chance of a stall, from 0 to 1
+     * @param stall       Microseconds a stall adds
+     * @return Latency
+     */
+    static LongSupplier stalling(final LongSupplier usual, final double probability, final long stall) {
+        return () -> usual.getAsLong() + ((ThreadLocalRandom.current().nextDouble() < probability) ? stall : 0);
+    }
+
+    // Access
+
+    /**
+     * Bucket to hand to a repository. Only {@link Bucket#async()}, {@link Bucket#name()} and {@link Bucket#close()} are simulated
+     *
+     * @return Bucket
+     */
+    Bucket bucket() {
+        return bucket;
+    }
+
+    AsyncBucket async() {
+        return async;
+    }
+
+    /**
+     * Number of calls made to an operation
+     *
+     * @param operation Method name, for example get or query
+     * @return Calls so far
+     */
+    long calls(final String operation) {
+        LongAdder count = calls.get(operation);
+        return (null == count) ? 0 : count.sum();
+    }
+
+    /**
+     * Number of documents held
+     *
+     * @return Documents
+     */
+    int size() {
+        return documents.size();
+    }
+
+    // Dispatch
+
+    /**
+     * Serve a call on the {@link AsyncBucket} proxy. Simulated are get, getFromReplica (read from the one copy held), exists, insert, upsert,
+     * replace, remove, view query, lookupIn with a single exists of a top level field, name and close. Durability requirements are accepted and
+     * ignored
+     */
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+        Object[] a = (null == args) ? new Object[0] : args;
+        switch (method.getName()) {
+            case "toString":
+                return "SimulatedBucket(" + name + ")";
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == a[0];
+            case "name":
+                return name;
+            case "close":
+                return Observable.just(true);
+        }
+        calls.computeIfAbsent(method.getName(), key -> new LongAdder()).increment();
+        switch (method.getName()) {
+            case "get":
+            case "getFromReplica":
+                if (a[0] instanceof Document)
+                    return get(((Document<?>) a[0]).id(), a[0].getClass());
+                return get((String) a[0], (a[a.length - 1] instanceof Class) ? (Class<?>) a[a.length - 1] : JsonDocument.class);
+            case "exists":
+                return exists((a[0] instanceof Document) ? ((Document<?>) a[0]).id() : (String) a[0]);
+            case "insert":
+                return insert((Document<?>) a[0]);
+            case "upsert":
+                return upsert((Document<?>) a[0]);
+            case "replace":
+                return replace((Document<?>) a[0]);
+            case "remove":
+                if (a[0] instanceof Document)
+                    return remove(((Document<?>) a[0]).id(), ((Document<?>) a[0]).cas());
+                return remove((String) a[0], 0);
+            case "query":
+                if (a[0] instanceof ViewQuery)
+                    return query((ViewQuery) a[0]);
+                break;
+            case "lookupIn":
+                return new AsyncLookupInBuilder(core, name, null, null, (String) a[0]);
+        }
+        throw new UnsupportedOperationException("Not simulated: " + method);
+    }
+
+    /**
+     * Serve a call on the blocking {@link Bucket} proxy
+     */
+    private Object invokeBlocking(final Object proxy, final Method method, final Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "async":
+                return async;
+            case "close":
+                return true;
+            case "toString":
+            case "hashCode":
+            case "equals":
+            case "name":
+                return invoke(proxy, method, args);
+        }
+        throw new UnsupportedOperationException("Not simulated: " + method);
+    }
+
+    // Operations
+
+    /**
+     * Run an operation after a simulated latency, failing it instead if an error is injected. The operation itself takes effect once the
+     * latency has passed, as it would on the server
+     *
+     * @param body Operation
+     * @param <R>  Result type
+     * @return Observable enclosing the result
+     */
+    private <R> Observable<R> operation(final Func0<Observable<R>> body) {
+        return Observable.defer(() -> {
+            long delay = latency.getAsLong();
+            Observable<R> result = Observable.defer(() -> (ThreadLocalRandom.current().nextDouble() < failure) ? Observable.error(error.get()) :
+                    body.call());
+            return (delay <= 0) ? result : Observable.timer(delay, TimeUnit.MICROSECONDS, scheduler).flatMap(tick -> result);
+        });
+    }
+
+    private Observable<Document<?>> get(final String id, final Class<?> type) {
+        return operation(() -> {
+            Stored stored = documents.get(id);
+            return (null == stored) ? Observable.empty() : Observable.just(decode(id, stored, type));
+        });
+    }
+
+    private Observable<Boolean> exists(final String id) {
+        return operation(() -> Observable.just(documents.containsKey(id)));
+    }
+
+    private Observable<Document<?>> insert(final Document<?> document) {
+        return operation(() -> {
+            Stored stored = encode(document);
+            synchronized (stripe(document.id())) {
+                if (null != documents.putIfAbsent(document.id(), stored))
+                    return Observable.error(new DocumentAlreadyExistsException());
+                project(document.id(), stored);
+            }
+            return Observable.just(stamped(document, stored.cas));
+        });
+    }
+
+    private Observable<Document<?>> upsert(final Document<?> document) {
+        return operation(() -> {
+            Stored stored = encode(document);
+            synchronized (stripe(document.id())) {
+                documents.put(document.id(), stored);
+                project(document.id(), stored);
+            }
+            return Observable.just(stamped(document, stored.cas));
+        });
+    }
+
+    private Observable<Document<?>> replace(final Document<?> document) {
+        return operation(() -> {
+            Stored stored = encode(document);
+            synchronized (stripe(document.id())) {
+                Stored current = documents.get(document.id());
+                if (null == current)
+                    return Observable.error(new DocumentDoesNotExistException());
+                if ((0 != document.cas()) && (document.cas() != current.cas))
+                    return Observable.error(new CASMismatchException());
+                documents.put(document.id(), stored);
+                project(document.id(), stored);
+            }
+            return Observable.just(stamped(document, stored.cas));
+        });
+    }
+
+    private Observable<JsonDocument> remove(final String id, final long expected) {
+        return operation(() -> {
+            synchronized (stripe(id)) {
+                Stored current = documents.get(id);
+                if (null == current)
+                    return Observable.error(new DocumentDoesNotExistException());
+                if ((0 != expected) && (expected != current.cas))
+                    return Observable.error(new CASMismatchException());
+                documents.remove(id);
+                project(id, null);
+            }
+            return Observable.just(JsonDocument.create(id, null, cas.incrementAndGet()));
+        });
+    }
+
+    private Object stripe(final String id) {
+        return stripes[(id.hashCode() & Integer.MAX_VALUE) % STRIPES];
+    }
+
+    /**
+     * Bring every view up to date with a mutation. Called holding the stripe of the id
+     *
+     * @param id     Document id
+     * @param stored Stored form - {@literal null} if removed
+     */
+    private void project(final String id, final Stored stored) {
+        JsonObject content = (null == stored) ? null : json(stored);
+        for (View view : views.values()) {
+            Object value = (null == content) ? null : view.map.apply(content);
+            if (null == value)
+                view.rows.remove(id);
+            else
+                view.rows.put(id, value);
+        }
+    }
+
+    /**
+     * Run a view query over the rows of the view at the time. Rows are in key (document id) order
+     *
+     * @param query Query
+     * @return Observable enclosing the result
+     */
+    private Observable<AsyncViewResult> query(final ViewQuery query) {
+        return operation(() -> {
+            View view = views.get(query.getView());
+            if (null == view)
+                return Observable.error(new ViewDoesNotExistException("View " + query.getView() + " does not exist"));
+            Map<String, String> options = options(query);
+            String start = options.get(START_KEY);
+            if (null != options.get(START_KEY_DOC_ID))
+                start = options.get(START_KEY_DOC_ID);
+            NavigableMap<String, Object> rows = (null == start) ? view.rows : view.rows.tailMap(start, true);
+            int total = rows.size();
+            if (view.count && Boolean.parseBoolean(options.getOrDefault(REDUCE, "true"))) {
+                // As on the server, nothing to count gives no rows at all
+                List<AsyncViewRow> reduced = (0 == total) ? Collections.emptyList() : Collections.singletonList(new Row(null, total));
+                return Observable.just(new Result(reduced, total));
+            }
+            int skip = Integer.parseInt(options.getOrDefault(SKIP, "0"));
+            int limit = Integer.parseInt(options.getOrDefault(LIMIT, String.valueOf(Integer.MAX_VALUE)));
+            List<AsyncViewRow> page = new ArrayList<>();
+            Iterator<Map.Entry<String, Object>> entries = rows.entrySet().iterator();
+            for (int row = 0; entries.hasNext() && (row < (long) skip + limit); row++) {
+                Map.Entry<String, Object> entry = entries.next();
+                if (row >= skip)
+                    page.add(new Row(entry.getKey(), entry.getValue()));
+            }
+            return Observable.just(new Result(page, total));
+        });
+    }
+
+    /**
+     * Answer a sub-document exists lookup sent by an {@link AsyncLookupInBuilder}. Paths are top level field names
+     *
+     * @param request Request
+     * @return Observable enclosing the response
+     */
+    private Observable<CouchbaseResponse> subdoc(final CouchbaseRequest request) {
+        if (!(request instanceof SubExistRequest))
+            return Observable.error(new UnsupportedOperationException("Not simulated: " + request.getClass().getSimpleName()));
+        SubExistRequest lookup = (SubExistRequest) request;
+        return operation(() -> {
+            Stored stored = documents.get(lookup.key());
+            if (null == stored)
+                return Observable.just(new SimpleSubdocResponse(ResponseStatus.NOT_EXISTS, KeyValueStatus.ERR_NOT_FOUND.code(), name, Unpooled
+                        .EMPTY_BUFFER, lookup, 0, null));
+            JsonObject content = json(stored);
+            if (!content.containsKey(lookup.path()))
+                return Observable.just(new SimpleSubdocResponse(ResponseStatus.SUBDOC_PATH_NOT_FOUND, KeyValueStatus.ERR_SUBDOC_PATH_NOT_FOUND
+                        .code(), name, Unpooled.EMPTY_BUFFER, lookup, stored.cas, null));
+            return Observable.just(new SimpleSubdocResponse(ResponseStatus.SUCCESS, KeyValueStatus.SUCCESS.code(), name, Unpooled.EMPTY_BUFFER,
+                    lookup, stored.cas, null));
+        });
+    }
+
+    // Transcoding
+
+    @SuppressWarnings("rawtypes")
+    private Transcoder transcoder(final Class<?> type) {
+        Transcoder transcoder = transcoders.get(type);
+        if (null == transcoder)
+            throw new TranscodingException("No transcoder for " + type.getName());
+        return transcoder;
+    }
+
+    /**
+     * Encode a document as the client would before sending it, stamping it with a new CAS
+     *
+     * @param document Document
+     * @return Stored form
+     */
+    @SuppressWarnings("unchecked")
+    private Stored encode(final Document<?> document) {
+        Tuple2<ByteBuf, Integer> encoded = transcoder(document.getClass()).encode(document);
+        try {
+            byte[] content = new byte[encoded.value1().readableBytes()];
+            encoded.value1().readBytes(content);
+            return new Stored(content, encoded.value2(), cas.incrementAndGet());
+        } finally {
+            encoded.value1().release();
+        }
+    }
+
+    /**
+     * Decode a stored document as the client would on receiving it
+     *
+     * @param id     Document id
+     * @param stored Stored form
+     * @param type   Document type wanted
+     * @return Document
+     */
+    private Document<?> decode(final String id, final Stored stored, final Class<?> type) {
+        return transcoder(type).decode(id, Unpooled.wrappedBuffer(stored.content.clone()), stored.cas, 0, stored.flags, ResponseStatus.SUCCESS);
+    }
+
+    private static JsonObject json(final Stored stored) {
+        return JsonObject.fromJson(new String(stored.content, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The document a mutation returns - the content sent with the new CAS. There is no mutation token, as on a bucket whose environment has not
+     * enabled them
+     *
+     * @param document Document sent
+     * @param cas      New CAS
+     * @return Document returned
+     */
+    @SuppressWarnings("unchecked")
+    private Document<?> stamped(final Document<?> document, final long cas) {
+        return transcoder(document.getClass()).newDocument(document.id(), document.expiry(), document.content(), cas, null);
+    }
+
+    /**
+     * Query options, decoded
+     *
+     * @param query Query
+     * @return Option values by name, with json string keys unquoted
+     */
+    private static Map<String, String> options(final ViewQuery query) {
+        Map<String, String> options = new HashMap<>();
+        for (String option : query.toQueryString().split("&")) {
+            int split = option.indexOf('=');
+            if (split < 0)
+                continue;
+            try {
+                String value = URLDecoder.decode(option.substring(split + 1), StandardCharsets.UTF_8.name());
+                if (value.length() > 1 && value.startsWith("\"") && value.endsWith("\""))
+                    value = value.substring(1, value.length() - 1);
+                options.put(option.substring(0, split), value);
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return options;
+    }
+
+    // View results
+
+    private static final class Result implements AsyncViewResult {
+        private final List<AsyncViewRow> rows;
+        private final int total;
+
+        private Result(final List<AsyncViewRow> rows, final int total) {
+            this.rows = rows;
+            this.total = total;
+        }
+
+        @Override
+        public Observable<AsyncViewRow> rows() {
+            return Observable.from(rows);
+        }
+
+        @Override
+        public int totalRows() {
+            return total;
+        }
+
+        @Override
+        public boolean success() {
+            return true;
+        }
+
+        @Override
+        public Observable<JsonObject> error() {
+            return Observable.empty();
+        }
+
+        @Override
+        public JsonObject debug() {
+            return JsonObject.empty();
+        }
+    }
+
+    private final class Row implements AsyncViewRow {
+        private final String id;
+        private final Object value;
+
+        private Row(final String id, final Object value) {
+            this.id = id;
+            this.value = value;
+        }
+
+        @Override
+        public String id() {
+            return id;
+        }
+
+        @Override
+        public Object key() {
+            return id;
+        }
+
+        @Override
+        public Object value() {
+            return value;
+        }
+
+        @Override
+        public Observable<JsonDocument> document() {
+            return document(JsonDocument.class);
+        }
+
+        @Override
+        public <D extends Document<?>> Observable<D> document(final Class<D> target) {
+            return async.get(id, target);
+        }
+    }
+
+}
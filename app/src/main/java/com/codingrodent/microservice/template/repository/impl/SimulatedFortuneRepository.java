@@ -0,0 +1,97 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import com.codingrodent.microservice.template.entity.FortuneEntity;
+import com.codingrodent.microservice.template.metrics.api.ITemplateMetrics;
+import com.codingrodent.microservice.template.repository.api.IAsyncFortuneRepository;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.error.TemporaryFailureException;
+import org.springframework.context.annotation.*;
+import org.springframework.core.env.Environment;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+import rx.Observable;
+
+import javax.inject.Inject;
+
+import static com.codingrodent.microservice.template.constants.SystemConstants.*;
+
+/**
+ * The Couchbase async repository running against an in-process {@link SimulatedBucket}, for load testing the full async stack on one machine.
+ * Fetch modes, hedging and retries are configured as for the real repository. Add the <b>simulated</b> profile to one that supplies the sync
+ * repository, for example <i>aws,simulated</i>.
+ * <p>
+ * {@value com.codingrodent.microservice.template.constants.SystemConstants#PROPERTY_SIMULATED_LATENCY} is the median operation latency in
+ * microseconds and {@value com.codingrodent.microservice.template.constants.SystemConstants#PROPERTY_SIMULATED_SIGMA} the spread of its
+ * log-normal tail. {@value com.codingrodent.microservice.template.constants.SystemConstants#PROPERTY_SIMULATED_FAILURE} is the chance any
+ * operation fails with a temporary failure. The bucket starts empty
+ */
+@Profile({"simulated"})
+@Primary
+@Service
+public class SimulatedFortuneRepository extends AsyncRepository<FortuneEntity> implements IAsyncFortuneRepository<FortuneEntity> {
+
+    // Client library default timeouts in milliseconds, used as the retry timeout ceilings
+    private final static long TIMEOUT_KV = 2500;
+    private final static long TIMEOUT_VIEW = 75000;
+
+    private final SimulatedBucket bucket = SimulatedBucket.fortunes(AsyncFortuneRepository.TYPES);
+
+    @Inject
+    public SimulatedFortuneRepository(final Environment environment, final ITemplateMetrics metrics) {
+        super(AsyncFortuneRepository.fetch(environment), AsyncFortuneRepository.TYPES, AsyncFortuneRepository.hedge(environment, metrics),
+                AsyncFortuneRepository.retries(environment, metrics, TIMEOUT_KV, TIMEOUT_VIEW));
+        long latency = environment.getProperty(PROPERTY_SIMULATED_LATENCY, Long.class, 0L);
+        if (latency > 0)
+            bucket.latency(SimulatedBucket.logNormal(latency, environment.getProperty(PROPERTY_SIMULATED_SIGMA, Double.class, 0.5)));
+        bucket.failing(environment.getProperty(PROPERTY_SIMULATED_FAILURE, Double.class, 0.0), TemporaryFailureException::new);
+    }
+
+    protected Bucket getBucket() {
+        return bucket.bucket();
+    }
+
+    @Override
+    public Observable<FortuneEntity> findAllNamed(final Pageable pageable) {
+        return findByView(VIEW_NAMED, pageable);
+    }
+
+    @Override
+    public Observable<FortuneEntity> findAllAnon(final Pageable pageable) {
+        return findByView(VIEW_ANON, pageable);
+    }
+
+    @Override
+    public Observable<FortuneEntity> findAllNamedAfter(final String id, final int size) {
+        return findByViewAfter(VIEW_NAMED, id, size);
+    }
+
+    @Override
+    public Observable<FortuneEntity> findAllAnonAfter(final String id, final int size) {
+        return findByViewAfter(VIEW_ANON, id, size);
+    }
+
+}
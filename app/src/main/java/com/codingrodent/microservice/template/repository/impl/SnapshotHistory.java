@@ -0,0 +1,270 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import com.codingrodent.microservice.template.entity.EntityBase;
+import com.codingrodent.microservice.template.exception.SnapshotExpiredException;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.*;
+
+/**
+ * Multi-version history letting readers see the repository as it was at a snapshot while writers carry on. A snapshot is a point in the
+ * repository's version sequence. While any snapshot is held, each write to a key records the value it replaced, stamped with the version of the
+ * write, so the value of a key at snapshot S is the value replaced by its first write after S - or the current value if there has been none
+ * <p>
+ * Snapshots are leases that lapse unless used. Values replaced before the oldest held snapshot can no longer be read and are dropped, and once no
+ * snapshot is held nothing is recorded at all
+ * <p>
+ * Writes only share a lock while a snapshot is held. Otherwise each just counts itself in and out on a per thread slot, which taking the first
+ * snapshot waits to drain
+ *
+ * @param <T> Entity type
+ */
+final class SnapshotHistory<T extends EntityBase> {
+
+    // Writer counts are spread over slots a cache line apart, picked by thread
+    private final static int SLOTS = 32;
+    private final static int PAD = 8;
+
+    private final long leaseMillis;
+    // While guarded, writers share the gate so that a snapshot is only taken between writes, never part way through one
+    private final ReentrantReadWriteLock gate = new ReentrantReadWriteLock();
+    private final AtomicLongArray writers = new AtomicLongArray(SLOTS * PAD);
+    // Only changed holding the gate exclusively
+    private volatile boolean guarded;
+    // Snapshot version to lease deadline
+    private final ConcurrentSkipListMap<Long, Long> leases = new ConcurrentSkipListMap<>();
+    // Replaced values by key, oldest first. Each list is replaced, never changed, so readers need no lock
+    private final Map<String, List<Revision<T>>> revisions = new ConcurrentHashMap<>();
+
+    /**
+     * Build an empty history
+     *
+     * @param leaseMillis How long a snapshot is held after it was last used
+     */
+    SnapshotHistory(final long leaseMillis) {
+        this.leaseMillis = leaseMillis;
+    }
+
+    /**
+     * Run a write. Every write that stamps a version must run through here
+     *
+     * @param work Write to run
+     * @param <R>  Result type
+     * @return Result of the write
+     */
+    <R> R write(final Supplier<R> work) {
+        int slot = (int) (Thread.currentThread().getId() & (SLOTS - 1)) * PAD;
+        writers.incrementAndGet(slot);
+        if (!guarded) {
+            try {
+                return work.get();
+            } finally {
+                writers.decrementAndGet(slot);
+            }
+        }
+        writers.decrementAndGet(slot);
+        gate.readLock().lock();
+        try {
+            return work.get();
+        } finally {
+            gate.readLock().unlock();
+            if (leases.isEmpty())
+                unguard();
+        }
+    }
+
+    /**
+     * Take a snapshot of everything written so far. Waits only for writes already in progress
+     *
+     * @param sequence Latest version written
+     * @param now      Current time in milliseconds
+     * @return Snapshot version
+     */
+    long pin(final LongSupplier sequence, final long now) {
+        expire(sequence, now);
+        gate.writeLock().lock();
+        try {
+            if (!guarded) {
+                // Writers that counted themselves in before seeing the guard must finish first
+                guarded = true;
+                for (int slot = 0; slot < SLOTS * PAD; slot += PAD)
+                    while (0 != writers.get(slot))
+                        Thread.yield();
+            }
+            long snapshot = sequence.getAsLong();
+            leases.merge(snapshot, now + leaseMillis, Math::max);
+            return snapshot;
+        } finally {
+            gate.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Extend the lease on a snapshot about to be read
+     *
+     * @param snapshot Snapshot version
+     * @param sequence Latest version written
+     * @param now      Current time in milliseconds
+     * @throws SnapshotExpiredException if the snapshot is no longer held
+     */
+    void renew(final long snapshot, final LongSupplier sequence, final long now) {
+        expire(sequence, now);
+        if (null == leases.computeIfPresent(snapshot, (s, deadline) -> Math.max(deadline, now + leaseMillis)))
+            throw new SnapshotExpiredException(snapshot);
+    }
+
+    /**
+     * Give up a snapshot
+     *
+     * @param snapshot Snapshot version
+     * @param sequence Latest version written
+     */
+    void release(final long snapshot, final LongSupplier sequence) {
+        leases.remove(snapshot);
+        prune(sequence);
+        unguard();
+    }
+
+    /**
+     * Give up every snapshot - for when the history can not be kept, such as after removing everything
+     */
+    void releaseAll() {
+        leases.clear();
+        revisions.clear();
+        unguard();
+    }
+
+    /**
+     * Record the value a write replaced. Called with the key locked, within {@link #write(Supplier)}. Lapsed snapshots are given up first, so
+     * their history is reclaimed even if no reader comes back for them
+     *
+     * @param key      Key written
+     * @param stamp    Version of the write
+     * @param previous Value replaced - null if there was none
+     * @param now      Current time in milliseconds
+     */
+    void record(final String key, final long stamp, final Versioned<T> previous, final long now) {
+        if (leases.isEmpty())
+            return;
+        // Nothing later than this write can be pinned while it is in progress
+        expire(() -> stamp, now);
+        Map.Entry<Long, Long> first = leases.firstEntry();
+        if (null == first)
+            return;
+        long oldest = first.getKey();
+        revisions.compute(key, (k, list) -> {
+            List<Revision<T>> next = new ArrayList<>();
+            if (null != list)
+                list.stream().filter(revision -> revision.stamp > oldest).forEach(next::add);
+            next.add(new Revision<>(stamp, previous));
+            return Collections.unmodifiableList(next);
+        });
+    }
+
+    /**
+     * Value of a key at a snapshot
+     *
+     * @param key      Key
+     * @param current  Current value - null if none
+     * @param snapshot Snapshot version
+     * @return Value at the snapshot - null if the key did not exist then
+     */
+    Versioned<T> at(final String key, final Versioned<T> current, final long snapshot) {
+        List<Revision<T>> list = revisions.get(key);
+        if (null != list)
+            for (Revision<T> revision : list)
+                if (revision.stamp > snapshot)
+                    return revision.previous;
+        return ((null != current) && (current.getVersion() <= snapshot)) ? current : null;
+    }
+
+    /**
+     * @return Keys with recorded history - includes keys deleted since a held snapshot was taken
+     */
+    Set<String> changed() {
+        return revisions.keySet();
+    }
+
+    /**
+     * @return Number of snapshots held
+     */
+    int held() {
+        return leases.size();
+    }
+
+    private void expire(final LongSupplier sequence, final long now) {
+        if (leases.entrySet().removeIf(lease -> lease.getValue() < now))
+            prune(sequence);
+    }
+
+    /**
+     * Let writers skip the gate again once no snapshot is held
+     */
+    private void unguard() {
+        if (!guarded || !gate.writeLock().tryLock())
+            return;
+        try {
+            if (leases.isEmpty())
+                guarded = false;
+        } finally {
+            gate.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drop values no held snapshot can read. A snapshot taken while pruning is no older than the sequence at the start, so only needs values
+     * replaced after it
+     */
+    private void prune(final LongSupplier sequence) {
+        long start = sequence.getAsLong();
+        Map.Entry<Long, Long> first = leases.firstEntry();
+        long oldest = (null == first) ? start : Math.min(start, first.getKey());
+        for (String key : revisions.keySet())
+            revisions.computeIfPresent(key, (k, list) -> {
+                List<Revision<T>> next = new ArrayList<>();
+                list.stream().filter(revision -> revision.stamp > oldest).forEach(next::add);
+                return next.isEmpty() ? null : Collections.unmodifiableList(next);
+            });
+    }
+
+    /**
+     * Value replaced by a write, and the version of the write
+     */
+    private static final class Revision<T extends EntityBase> {
+        private final long stamp;
+        private final Versioned<T> previous;
+
+        private Revision(final long stamp, final Versioned<T> previous) {
+            this.stamp = stamp;
+            this.previous = previous;
+        }
+    }
+
+}
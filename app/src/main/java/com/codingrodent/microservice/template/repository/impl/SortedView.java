@@ -0,0 +1,173 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import com.codingrodent.microservice.template.entity.EntityBase;
+
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * Entity keys held in the order of one property, so pages sorted on that property are read by rank rather than by sorting the store
+ * <p>
+ * Each entry is the property value and the key joined by a separator that sorts before any other character, so entries order by value and then
+ * by key and stay unique when values repeat. A view can also wrap the primary key index, in which case entries are the keys themselves
+ *
+ * @param <T> Entity type
+ */
+final class SortedView<T extends EntityBase> {
+
+    private final static char SEPARATOR = '\0';
+    private final static int CHUNK = 64;
+
+    private final Function<T, String> value;
+    private final KeyIndex index;
+    private final boolean composite;
+
+    /**
+     * Build an empty view ordered on a property
+     *
+     * @param value Property value of an entity
+     */
+    SortedView(final Function<T, String> value) {
+        this.value = value;
+        this.index = new KeyIndex();
+        this.composite = true;
+    }
+
+    /**
+     * Wrap an index of keys to read it as a view in key order. The view is read only
+     *
+     * @param keys Key index
+     */
+    SortedView(final KeyIndex keys) {
+        this.value = EntityBase::getId;
+        this.index = keys;
+        this.composite = false;
+    }
+
+    /**
+     * @return Property value function the view is ordered on
+     */
+    Function<T, String> getValue() {
+        return value;
+    }
+
+    /**
+     * Move a key within the view as its entity changes
+     *
+     * @param key      Entity key
+     * @param previous Entity being replaced (null if none)
+     * @param current  Entity replacing it (null if deleted)
+     */
+    void update(final String key, final T previous, final T current) {
+        String was = (null == previous) ? null : entry(key, previous);
+        String is = (null == current) ? null : entry(key, current);
+        if (Objects.equals(was, is))
+            return;
+        if (null != was)
+            index.remove(was);
+        if (null != is)
+            index.add(is);
+    }
+
+    /**
+     * Read one page of keys in view order
+     *
+     * @param offset     Entries to skip
+     * @param limit      Most entries to return
+     * @param descending True to read from the highest value down
+     * @return Keys
+     */
+    List<String> page(final int offset, final int limit, final boolean descending) {
+        List<String> entries = range(offset, limit, descending);
+        List<String> keys = new ArrayList<>(entries.size());
+        for (String entry : entries)
+            keys.add(key(entry));
+        return keys;
+    }
+
+    /**
+     * Read one page of keys in view order, counting only keys accepted by a filter. The view is read in chunks until the page is full, so the cost
+     * grows with the offset divided by the fraction of keys accepted
+     *
+     * @param offset     Accepted keys to skip
+     * @param limit      Most keys to return
+     * @param descending True to read from the highest value down
+     * @param member     Filter on keys
+     * @return Keys
+     */
+    List<String> page(final int offset, final int limit, final boolean descending, final Predicate<String> member) {
+        List<String> keys = new ArrayList<>(Math.min(limit, CHUNK));
+        int skipped = 0;
+        int position = 0;
+        while (keys.size() < limit) {
+            List<String> entries = range(position, CHUNK, descending);
+            if (entries.isEmpty())
+                break;
+            for (String entry : entries) {
+                String key = key(entry);
+                if (member.test(key)) {
+                    if (skipped < offset)
+                        skipped++;
+                    else if (keys.size() < limit)
+                        keys.add(key);
+                }
+            }
+            position = position + entries.size();
+        }
+        return keys;
+    }
+
+    // Helper methods
+
+    private List<String> range(final int offset, final int limit, final boolean descending) {
+        if (!descending)
+            return index.range(offset, limit);
+        // Read the mirror image range in ascending order and reverse it
+        int size = index.size();
+        int from = size - offset - limit;
+        int count = limit;
+        if (from < 0) {
+            count = count + from;
+            from = 0;
+        }
+        if (count <= 0)
+            return Collections.emptyList();
+        List<String> entries = new ArrayList<>(index.range(from, count));
+        Collections.reverse(entries);
+        return entries;
+    }
+
+    private String entry(final String key, final T entity) {
+        String property = value.apply(entity);
+        return ((null == property) ? "" : property) + SEPARATOR + key;
+    }
+
+    private String key(final String entry) {
+        return composite ? entry.substring(entry.lastIndexOf(SEPARATOR) + 1) : entry;
+    }
+
+}
@@ -0,0 +1,181 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import java.util.*;
+
+/**
+ * Hierarchical hashed timing wheel holding key expiry deadlines. Time is divided into ticks and each level of the wheel has 64 slots, each slot
+ * covering 64 times the span of a slot on the level below. A deadline is filed in the lowest level that reaches it and moves down a level each
+ * time the wheel turns past the start of its slot, so scheduling and expiring are constant time however many deadlines are held
+ * <p>
+ * Nothing is ever cancelled - the owner checks a key is still due when its deadline comes round
+ */
+final class TimingWheel {
+
+    private final static int BITS = 6;
+    private final static int SLOTS = 1 << BITS;
+    private final static int MASK = SLOTS - 1;
+    private final static int LEVELS = 4;
+
+    private final long origin;
+    private final long tickMillis;
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final List<Deadline>[][] wheel = new List[LEVELS][SLOTS];
+    // Deadlines beyond the reach of the top level, refiled each time the top level wraps
+    private final List<Deadline> overflow = new ArrayList<>();
+    // Deadlines already reached when filed, returned by the next advance
+    private final List<Deadline> due = new ArrayList<>();
+    private long current;
+    private int size;
+
+    /**
+     * Build a timing wheel
+     *
+     * @param origin     Time of tick zero in milliseconds
+     * @param tickMillis Tick length in milliseconds - deadlines fire up to one tick late
+     */
+    TimingWheel(final long origin, final long tickMillis) {
+        this.origin = origin;
+        this.tickMillis = tickMillis;
+    }
+
+    /**
+     * File a deadline for a key
+     *
+     * @param key      Key
+     * @param deadline Time in milliseconds at which the key is due
+     */
+    synchronized void schedule(final String key, final long deadline) {
+        // Round up so a deadline never fires early
+        long tick = Math.max(0, deadline - origin + tickMillis - 1) / tickMillis;
+        place(new Deadline(key, deadline, tick));
+        size = size + 1;
+    }
+
+    /**
+     * Turn the wheel to a time, collecting every deadline passed on the way
+     *
+     * @param now Time in milliseconds
+     * @return Deadlines due, in no particular order
+     */
+    synchronized List<Deadline> advance(final long now) {
+        long target = (now - origin) / tickMillis;
+        List<Deadline> expired = new ArrayList<>(due);
+        due.clear();
+        while (current < target) {
+            current++;
+            cascade();
+            List<Deadline> slot = wheel[0][(int) (current & MASK)];
+            if (null != slot) {
+                expired.addAll(slot);
+                slot.clear();
+            }
+        }
+        expired.addAll(due);
+        due.clear();
+        size = size - expired.size();
+        return expired;
+    }
+
+    /**
+     * How late the wheel is - time since the next tick to be processed became due
+     *
+     * @param now Time in milliseconds
+     * @return Lag in milliseconds, 0 if up to date
+     */
+    synchronized long lag(final long now) {
+        return Math.max(0, now - (origin + (current + 1) * tickMillis));
+    }
+
+    /**
+     * @return Number of deadlines filed and not yet returned
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Move the slots whose span starts at the current tick down a level
+     */
+    private void cascade() {
+        for (int level = 1; level < LEVELS; level++) {
+            if (0 != (current & ((1L << (BITS * level)) - 1)))
+                return;
+            List<Deadline> slot = wheel[level][(int) ((current >>> (BITS * level)) & MASK)];
+            if (null != slot) {
+                List<Deadline> refile = new ArrayList<>(slot);
+                slot.clear();
+                refile.forEach(this::place);
+            }
+        }
+        if (0 == (current & ((1L << (BITS * LEVELS)) - 1)) && !overflow.isEmpty()) {
+            List<Deadline> refile = new ArrayList<>(overflow);
+            overflow.clear();
+            refile.forEach(this::place);
+        }
+    }
+
+    private void place(final Deadline deadline) {
+        long delta = deadline.tick - current;
+        if (delta <= 0) {
+            due.add(deadline);
+            return;
+        }
+        for (int level = 0; level < LEVELS; level++)
+            if (0 == (delta >>> (BITS * (level + 1)))) {
+                int slot = (int) ((deadline.tick >>> (BITS * level)) & MASK);
+                if (null == wheel[level][slot])
+                    wheel[level][slot] = new ArrayList<>();
+                wheel[level][slot].add(deadline);
+                return;
+            }
+        overflow.add(deadline);
+    }
+
+    /**
+     * A key and the time it falls due
+     */
+    static final class Deadline {
+        private final String key;
+        private final long deadline;
+        private final long tick;
+
+        private Deadline(final String key, final long deadline, final long tick) {
+            this.key = key;
+            this.deadline = deadline;
+            this.tick = tick;
+        }
+
+        String getKey() {
+            return key;
+        }
+
+        long getDeadline() {
+            return deadline;
+        }
+    }
+
+}
@@ -0,0 +1,197 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import java.util.*;
+
+/**
+ * Window TinyLFU eviction policy deciding which keys a size bounded repository keeps. New keys enter a small LRU window holding 1% of the
+ * capacity. Keys leaving the window compete with the least recently used key of the main space, and only the one seen more often according to
+ * a frequency sketch stays. The main space is a segmented LRU - keys read again move from probation to a protected segment holding 80% of it
+ * <p>
+ * Capacity is a total weight, so large entities count for more than small ones. The policy only tracks keys - the owner removes the entities of
+ * the keys it returns as victims
+ */
+final class TinyLfuPolicy {
+
+    private final long capacity;
+    private final long windowCapacity;
+    private final long protectedCapacity;
+    private final FrequencySketch sketch;
+    // Insertion ordered, so the first key is the least recently used. A use moves a key to the end
+    private final LinkedHashMap<String, Integer> window = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Integer> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Integer> protectedSegment = new LinkedHashMap<>();
+    private long windowWeight;
+    private long probationWeight;
+    private long protectedWeight;
+
+    /**
+     * Build a policy
+     *
+     * @param capacity        Total weight to hold
+     * @param expectedEntries Rough number of keys the capacity holds - sizes the frequency sketch
+     */
+    TinyLfuPolicy(final long capacity, final int expectedEntries) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be positive");
+        this.capacity = capacity;
+        windowCapacity = Math.max(1, capacity / 100);
+        protectedCapacity = (capacity - windowCapacity) * 4 / 5;
+        sketch = new FrequencySketch(expectedEntries);
+    }
+
+    /**
+     * Record a read of a key, whether or not it was found
+     *
+     * @param key Key
+     */
+    synchronized void recordRead(final String key) {
+        sketch.increment(key);
+        Integer weight;
+        if (null != (weight = window.remove(key)))
+            window.put(key, weight);
+        else if (null != (weight = protectedSegment.remove(key)))
+            protectedSegment.put(key, weight);
+        else if (null != (weight = probation.remove(key))) {
+            probationWeight = probationWeight - weight;
+            protectedSegment.put(key, weight);
+            protectedWeight = protectedWeight + weight;
+            demote();
+        }
+    }
+
+    /**
+     * Record a write of a key, adding it if new, and decide which keys no longer fit
+     *
+     * @param key    Key
+     * @param weight Weight of the written entity
+     * @return Keys to evict - may include the written key itself
+     */
+    synchronized List<String> recordWrite(final String key, final int weight) {
+        sketch.increment(key);
+        if (weight > capacity) {
+            remove(key);
+            return Collections.singletonList(key);
+        }
+        Integer previous;
+        if (null != (previous = protectedSegment.remove(key))) {
+            protectedSegment.put(key, weight);
+            protectedWeight = protectedWeight + weight - previous;
+            demote();
+        } else if (null != (previous = probation.remove(key))) {
+            probation.put(key, weight);
+            probationWeight = probationWeight + weight - previous;
+        } else {
+            previous = window.remove(key);
+            window.put(key, weight);
+            windowWeight = windowWeight + weight - ((null == previous) ? 0 : previous);
+        }
+        return evict();
+    }
+
+    /**
+     * Stop tracking a key that has been deleted
+     *
+     * @param key Key
+     */
+    synchronized void remove(final String key) {
+        Integer weight;
+        if (null != (weight = window.remove(key)))
+            windowWeight = windowWeight - weight;
+        else if (null != (weight = probation.remove(key)))
+            probationWeight = probationWeight - weight;
+        else if (null != (weight = protectedSegment.remove(key)))
+            protectedWeight = protectedWeight - weight;
+    }
+
+    synchronized boolean contains(final String key) {
+        return window.containsKey(key) || probation.containsKey(key) || protectedSegment.containsKey(key);
+    }
+
+    synchronized void clear() {
+        window.clear();
+        probation.clear();
+        protectedSegment.clear();
+        windowWeight = 0;
+        probationWeight = 0;
+        protectedWeight = 0;
+    }
+
+    /**
+     * @return Total weight of the tracked keys
+     */
+    synchronized long weight() {
+        return windowWeight + probationWeight + protectedWeight;
+    }
+
+    /**
+     * Move keys overflowing the window to probation as candidates, then evict until the total weight fits. Each eviction is a contest between
+     * the newest candidate and the least recently used key on probation, lost by the one less often seen
+     */
+    private List<String> evict() {
+        Deque<String> candidates = new ArrayDeque<>();
+        while ((windowWeight > windowCapacity) && (window.size() > 1)) {
+            Map.Entry<String, Integer> eldest = window.entrySet().iterator().next();
+            window.remove(eldest.getKey());
+            windowWeight = windowWeight - eldest.getValue();
+            probation.put(eldest.getKey(), eldest.getValue());
+            probationWeight = probationWeight + eldest.getValue();
+            candidates.push(eldest.getKey());
+        }
+        List<String> victims = new ArrayList<>();
+        while (weight() > capacity) {
+            String candidate = candidates.isEmpty() ? null : candidates.pop();
+            String victim = probation.isEmpty() ? null : probation.keySet().iterator().next();
+            String evicted;
+            if (null == victim)
+                evicted = (protectedSegment.isEmpty() ? window : protectedSegment).keySet().iterator().next();
+            else if ((null == candidate) || candidate.equals(victim))
+                evicted = victim;
+            else
+                evicted = (sketch.frequency(candidate) > sketch.frequency(victim)) ? victim : candidate;
+            // A candidate that beats the victim stays for the next round
+            if ((null != candidate) && !candidate.equals(evicted) && probation.containsKey(candidate))
+                candidates.push(candidate);
+            remove(evicted);
+            victims.add(evicted);
+        }
+        return victims;
+    }
+
+    /**
+     * Move keys overflowing the protected segment back to probation
+     */
+    private void demote() {
+        while (protectedWeight > protectedCapacity) {
+            Map.Entry<String, Integer> eldest = protectedSegment.entrySet().iterator().next();
+            protectedSegment.remove(eldest.getKey());
+            protectedWeight = protectedWeight - eldest.getValue();
+            probation.put(eldest.getKey(), eldest.getValue());
+            probationWeight = probationWeight + eldest.getValue();
+        }
+    }
+
+}
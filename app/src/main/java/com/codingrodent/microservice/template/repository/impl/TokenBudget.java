@@ -0,0 +1,78 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Budget for extra work, such as hedges or retries, earned as a share of ordinary work. Each operation earns a percentage of a token and each
+ * extra costs a whole one, so extras can never be more than that percentage of operations plus a small burst saved up while things were quiet.
+ * A new budget starts with the burst saved up
+ */
+final class TokenBudget {
+
+    private static final long COST = 100;
+
+    private final long earned;
+    private final long limit;
+    private final AtomicLong tokens = new AtomicLong();
+
+    /**
+     * Build a budget
+     *
+     * @param percent Extras allowed as a percentage of operations
+     * @param burst   Most extras that may be saved up
+     */
+    TokenBudget(final int percent, final int burst) {
+        if ((percent < 0) || (percent > 100))
+            throw new IllegalArgumentException("Budget must be a percentage");
+        this.earned = percent;
+        this.limit = burst * COST;
+        tokens.set(limit);
+    }
+
+    /**
+     * Credit the budget for an operation
+     */
+    void earn() {
+        tokens.getAndUpdate(current -> Math.min(current + earned, limit));
+    }
+
+    /**
+     * Pay for an extra
+     *
+     * @return True if it could be afforded
+     */
+    boolean spend() {
+        long current;
+        do {
+            current = tokens.get();
+            if (current < COST)
+                return false;
+        } while (!tokens.compareAndSet(current, current - COST));
+        return true;
+    }
+
+}
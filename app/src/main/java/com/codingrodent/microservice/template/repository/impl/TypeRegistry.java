@@ -0,0 +1,65 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import com.codingrodent.microservice.template.entity.EntityBase;
+import com.fasterxml.jackson.databind.*;
+
+import java.util.*;
+
+/**
+ * Registry of the entity classes documents may be read as, keyed by the class name stored in their _class field. Each class has its reader
+ * built up front, so decoding a document does no class lookup or reader construction, and a document naming any other class is turned away by
+ * a single map lookup
+ */
+final class TypeRegistry {
+
+    private final Map<String, ObjectReader> readers;
+
+    /**
+     * Build a registry
+     *
+     * @param mapper  Mapper to build the readers from
+     * @param allowed Entity classes documents may be read as
+     */
+    @SafeVarargs
+    TypeRegistry(final ObjectMapper mapper, final Class<? extends EntityBase>... allowed) {
+        Map<String, ObjectReader> readers = new HashMap<>();
+        for (Class<? extends EntityBase> type : allowed)
+            readers.put(type.getName(), mapper.readerFor(type));
+        this.readers = Collections.unmodifiableMap(readers);
+    }
+
+    /**
+     * Find the reader for a stored class
+     *
+     * @param type Class name as stored
+     * @return Reader, or null if the class is not allowed
+     */
+    ObjectReader reader(final String type) {
+        return (null == type) ? null : readers.get(type);
+    }
+
+}
@@ -0,0 +1,358 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.*;
+
+/**
+ * Concurrent map for string keys that are mostly UUIDs. Keys in the canonical lower case UUID form are held as their two {@code long} halves in
+ * open addressing tables, so a key costs 16 bytes rather than a string and a map node, and a lookup by {@link UUID} needs no string at all. Any
+ * other key falls back to an ordinary concurrent map
+ * <p>
+ * The tables are split into segments, each guarded by a stamped lock. Lookups read optimistically and only take the read lock if a writer got in
+ * the way. Updates to one key are atomic - the remapping function runs under the segment write lock, so it must not update this map itself.
+ * Removal shifts later entries of the probe sequence back rather than leaving tombstones
+ *
+ * @param <V> Value type
+ */
+final class UuidKeyMap<V> {
+
+    // Per key estimate - two longs and a reference in a table kept at most two thirds full
+    final static long ENTRY_SIZE = 36;
+    private final static int SEGMENTS = 32;
+    private final static int INITIAL_CAPACITY = 16;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final Segment<V>[] segments = new Segment[SEGMENTS];
+    private final ConcurrentHashMap<String, V> other = new ConcurrentHashMap<>();
+
+    UuidKeyMap() {
+        for (int i = 0; i < SEGMENTS; i++)
+            segments[i] = new Segment<>();
+    }
+
+    V get(final String key) {
+        if (!isUuid(key))
+            return other.get(key);
+        long msb = high(key), lsb = low(key);
+        return segment(msb, lsb).get(msb, lsb);
+    }
+
+    V get(final UUID key) {
+        long msb = key.getMostSignificantBits(), lsb = key.getLeastSignificantBits();
+        return segment(msb, lsb).get(msb, lsb);
+    }
+
+    boolean containsKey(final String key) {
+        return null != get(key);
+    }
+
+    /**
+     * Atomically replace the value for a key
+     *
+     * @param key       Key
+     * @param remapping Function from the key and current value (null if none) to the replacement (null to remove)
+     * @return The replacement value
+     */
+    V compute(final String key, final BiFunction<String, V, V> remapping) {
+        if (!isUuid(key))
+            return other.compute(key, remapping);
+        long msb = high(key), lsb = low(key);
+        return segment(msb, lsb).compute(key, msb, lsb, remapping);
+    }
+
+    /**
+     * Atomically replace the value for a key if present
+     *
+     * @param key       Key
+     * @param remapping Function from the key and current value to the replacement (null to remove)
+     * @return The replacement value - null if the key was not present
+     */
+    V computeIfPresent(final String key, final BiFunction<String, V, V> remapping) {
+        return compute(key, (k, value) -> (null == value) ? null : remapping.apply(k, value));
+    }
+
+    int size() {
+        int size = other.size();
+        for (Segment<V> segment : segments)
+            size = size + segment.size;
+        return size;
+    }
+
+    void clear() {
+        other.clear();
+        for (Segment<V> segment : segments)
+            segment.clear();
+    }
+
+    /**
+     * Visit every entry. Each segment is copied under its read lock and then visited without it, so the action may update the map. Not a snapshot
+     * of the whole map - concurrent updates may or may not be seen
+     *
+     * @param action Action to apply
+     */
+    void forEach(final BiConsumer<String, V> action) {
+        other.forEach(action);
+        for (Segment<V> segment : segments)
+            segment.copy().forEach(action);
+    }
+
+    /**
+     * Estimate the heap held for a key
+     *
+     * @param key Key
+     * @return Estimated size in bytes
+     */
+    static long footprint(final String key) {
+        // Map node plus the key string when not held as a UUID
+        return isUuid(key) ? ENTRY_SIZE : 32 + IEntityCodec.stringSize(key);
+    }
+
+    /**
+     * Test for the canonical form produced by {@link UUID#toString()}. Only these keys map one to one onto a UUID
+     *
+     * @param key Key
+     * @return True if the key is a canonical UUID
+     */
+    static boolean isUuid(final String key) {
+        if (36 != key.length())
+            return false;
+        for (int i = 0; i < 36; i++) {
+            char c = key.charAt(i);
+            if ((8 == i) || (13 == i) || (18 == i) || (23 == i)) {
+                if ('-' != c)
+                    return false;
+            } else if (!(((c >= '0') && (c <= '9')) || ((c >= 'a') && (c <= 'f'))))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Hash a key. A canonical UUID key hashes the same as the {@link UUID} itself, so either form can be used to pick a partition
+     *
+     * @param key Key
+     * @return Hash
+     */
+    static int hash(final String key) {
+        return isUuid(key) ? hash(high(key), low(key)) : key.hashCode();
+    }
+
+    /**
+     * Hash a key given as a UUID
+     *
+     * @param key Key
+     * @return Hash
+     */
+    static int hash(final UUID key) {
+        return hash(key.getMostSignificantBits(), key.getLeastSignificantBits());
+    }
+
+    // Helper methods
+
+    private static long high(final String key) {
+        return (hex(key, 0, 8) << 32) | (hex(key, 9, 13) << 16) | hex(key, 14, 18);
+    }
+
+    private static long low(final String key) {
+        return (hex(key, 19, 23) << 48) | hex(key, 24, 36);
+    }
+
+    private static long hex(final String key, final int from, final int to) {
+        long value = 0;
+        for (int i = from; i < to; i++)
+            value = (value << 4) | Character.digit(key.charAt(i), 16);
+        return value;
+    }
+
+    private static int hash(final long msb, final long lsb) {
+        long h = msb ^ (lsb * 0x9E3779B97F4A7C15L);
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        return (int) (h ^ (h >>> 29));
+    }
+
+    private Segment<V> segment(final long msb, final long lsb) {
+        return segments[(hash(msb, lsb) >>> 27) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * Arrays replaced together on resize so an optimistic reader never pairs keys from one table with values from another
+     */
+    private static final class Table {
+        private final long[] keys;
+        private final Object[] values;
+
+        Table(final int capacity) {
+            keys = new long[capacity * 2];
+            values = new Object[capacity];
+        }
+    }
+
+    private static final class Segment<V> {
+        private final StampedLock lock = new StampedLock();
+        private volatile Table table = new Table(INITIAL_CAPACITY);
+        private volatile int size;
+
+        V get(final long msb, final long lsb) {
+            long stamp = lock.tryOptimisticRead();
+            V value = find(table, msb, lsb);
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    value = find(table, msb, lsb);
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            return value;
+        }
+
+        @SuppressWarnings("unchecked")
+        V compute(final String key, final long msb, final long lsb, final BiFunction<String, V, V> remapping) {
+            long stamp = lock.writeLock();
+            try {
+                Table t = table;
+                int slot = slot(t, msb, lsb);
+                V previous = (V) t.values[slot];
+                V next = remapping.apply(key, previous);
+                if (null == next) {
+                    if (null != previous) {
+                        remove(t, slot);
+                        size = size - 1;
+                    }
+                } else if (null != previous)
+                    t.values[slot] = next;
+                else {
+                    if ((size + 1) * 3 > t.values.length * 2) {
+                        t = resize(t);
+                        slot = slot(t, msb, lsb);
+                    }
+                    t.keys[2 * slot] = msb;
+                    t.keys[2 * slot + 1] = lsb;
+                    t.values[slot] = next;
+                    size = size + 1;
+                }
+                return next;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        void clear() {
+            long stamp = lock.writeLock();
+            try {
+                table = new Table(INITIAL_CAPACITY);
+                size = 0;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        Map<String, V> copy() {
+            Map<String, V> entries = new LinkedHashMap<>();
+            long stamp = lock.readLock();
+            try {
+                Table t = table;
+                for (int slot = 0; slot < t.values.length; slot++)
+                    if (null != t.values[slot])
+                        entries.put(new UUID(t.keys[2 * slot], t.keys[2 * slot + 1]).toString(), (V) t.values[slot]);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+            return entries;
+        }
+
+        /**
+         * Probe for a key. May be called without a lock, so it bounds the probe and tolerates a table changing under it - the caller validates
+         */
+        @SuppressWarnings("unchecked")
+        private V find(final Table t, final long msb, final long lsb) {
+            int mask = t.values.length - 1;
+            int slot = hash(msb, lsb) & mask;
+            for (int probe = 0; probe <= mask; probe++) {
+                Object value = t.values[slot];
+                if (null == value)
+                    return null;
+                if ((t.keys[2 * slot] == msb) && (t.keys[2 * slot + 1] == lsb))
+                    return (V) value;
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        }
+
+        /**
+         * Find the slot holding a key, or the empty slot where it would go. Caller holds the write lock
+         */
+        private int slot(final Table t, final long msb, final long lsb) {
+            int mask = t.values.length - 1;
+            int slot = hash(msb, lsb) & mask;
+            while ((null != t.values[slot]) && ((t.keys[2 * slot] != msb) || (t.keys[2 * slot + 1] != lsb)))
+                slot = (slot + 1) & mask;
+            return slot;
+        }
+
+        /**
+         * Empty a slot, moving back any later entry of the probe run that could otherwise no longer be reached
+         */
+        private void remove(final Table t, final int removed) {
+            int mask = t.values.length - 1;
+            int gap = removed;
+            int slot = removed;
+            while (true) {
+                slot = (slot + 1) & mask;
+                if (null == t.values[slot])
+                    break;
+                int home = hash(t.keys[2 * slot], t.keys[2 * slot + 1]) & mask;
+                // Move the entry into the gap unless its home lies cyclically between the gap and its current slot
+                boolean reachable = (gap <= slot) ? ((gap < home) && (home <= slot)) : ((gap < home) || (home <= slot));
+                if (!reachable) {
+                    t.keys[2 * gap] = t.keys[2 * slot];
+                    t.keys[2 * gap + 1] = t.keys[2 * slot + 1];
+                    t.values[gap] = t.values[slot];
+                    gap = slot;
+                }
+            }
+            t.values[gap] = null;
+        }
+
+        private Table resize(final Table old) {
+            Table t = new Table(old.values.length * 2);
+            for (int slot = 0; slot < old.values.length; slot++)
+                if (null != old.values[slot]) {
+                    int target = slot(t, old.keys[2 * slot], old.keys[2 * slot + 1]);
+                    t.keys[2 * target] = old.keys[2 * slot];
+                    t.keys[2 * target + 1] = old.keys[2 * slot + 1];
+                    t.values[target] = old.values[slot];
+                }
+            table = t;
+            return t;
+        }
+    }
+
+}
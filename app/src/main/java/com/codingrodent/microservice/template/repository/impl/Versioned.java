@@ -0,0 +1,87 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import com.codingrodent.microservice.template.entity.EntityBase;
+import com.codingrodent.microservice.template.exception.ApplicationFaultException;
+
+import java.lang.reflect.Field;
+
+/**
+ * Immutable holder for a stored entity and its version. The version travels with the holder so it can be compared and replaced without touching
+ * the entity, and the entity is never modified once it has been wrapped - so one instance can be handed to any number of readers
+ */
+final class Versioned<T extends EntityBase> {
+
+    private final static Field versionField;
+
+    static {
+        try {
+            versionField = EntityBase.class.getDeclaredField("version");
+        } catch (NoSuchFieldException e) {
+            throw new ApplicationFaultException("Unable to gain access to the version field");
+        }
+        versionField.setAccessible(true);
+    }
+
+    private final T entity;
+    private final long version;
+
+    Versioned(final T entity, final long version) {
+        this.entity = entity;
+        this.version = version;
+    }
+
+    T getEntity() {
+        return entity;
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    String getId() {
+        return entity.getId();
+    }
+
+    /**
+     * Set the version of an entity that has not yet been published to any other thread
+     *
+     * @param entity  Private entity instance
+     * @param version Version to set
+     * @param <T>     Entity type
+     * @return The entity
+     */
+    static <T extends EntityBase> T withVersion(final T entity, final long version) {
+        // No direct access to the version
+        try {
+            versionField.set(entity, version);
+        } catch (IllegalAccessException e) {
+            throw new ApplicationFaultException("Unable to update version field");
+        }
+        return entity;
+    }
+
+}
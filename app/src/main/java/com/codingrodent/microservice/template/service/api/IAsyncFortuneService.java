@@ -26,6 +26,8 @@ package com.codingrodent.microservice.template.service.api;
 
 import rx.Observable;
 
+import java.util.Optional;
+
 /**
  * Fortune service interface - Async
  */
@@ -49,4 +51,22 @@ public interface IAsyncFortuneService<M> extends IAsyncService<M> {
      */
     Observable<M> findAnon(int page, int size);
 
+    /**
+     * Get the fortunes with named authors following a key, in key order
+     *
+     * @param uuid Last key seen - empty to start from the beginning
+     * @param size Maximum number of fortunes to return
+     * @return Model observable
+     */
+    Observable<M> findNamedAfter(Optional<String> uuid, int size);
+
+    /**
+     * Get the fortunes with anonymous authors following a key, in key order
+     *
+     * @param uuid Last key seen - empty to start from the beginning
+     * @param size Maximum number of fortunes to return
+     * @return Model observable
+     */
+    Observable<M> findAnonAfter(Optional<String> uuid, int size);
+
 }
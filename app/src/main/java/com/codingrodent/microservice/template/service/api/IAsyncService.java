@@ -65,8 +65,9 @@ public interface IAsyncService<M> {
      * Delete an entity by its key
      *
      * @param uuid Key
+     * @return Observable of the number of entities deleted - 0 if none found
      */
-    void delete(String uuid);
+    Observable<Long> delete(String uuid);
 
     /**
      * Get a page of entities
@@ -77,4 +78,13 @@ public interface IAsyncService<M> {
      */
     Observable<M> findAll(int page, int size);
 
+    /**
+     * Get the entities following a key, in key order. Used to resume a scan from the last entity returned
+     *
+     * @param uuid Last key seen - empty to start from the beginning
+     * @param size Maximum number of entities to return
+     * @return Model observable
+     */
+    Observable<M> findAllAfter(Optional<String> uuid, int size);
+
 }
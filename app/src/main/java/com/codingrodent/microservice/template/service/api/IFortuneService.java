@@ -24,7 +24,9 @@
  */
 package com.codingrodent.microservice.template.service.api;
 
-import java.util.List;
+import org.springframework.data.domain.Sort;
+
+import java.util.*;
 
 /**
  * Fortune service interface - Specific operations for handling Fortune entities
@@ -36,16 +38,36 @@ public interface IFortuneService<M> extends IService<M> {
      *
      * @param page Page to retrieve
      * @param size Size of page
+     * @param sort Sort order (if any)
      * @return Model list
      */
-    List<M> listNamed(int page, int size);
+    List<M> listNamed(int page, int size, Optional<Sort> sort);
 
     /**
      * Get a page of fortunes with anonymous authors
      *
      * @param page Page to retrieve
      * @param size Size of page
+     * @param sort Sort order (if any)
+     * @return Model list
+     */
+    List<M> listAnon(int page, int size, Optional<Sort> sort);
+
+    /**
+     * Get the fortunes with named authors following a key, in key order
+     *
+     * @param uuid Last key seen - empty to start from the beginning
+     * @param size Maximum number of fortunes to return
+     * @return Model list
+     */
+    List<M> listNamedAfter(Optional<String> uuid, int size);
+
+    /**
+     * Get the fortunes with anonymous authors following a key, in key order
+     *
+     * @param uuid Last key seen - empty to start from the beginning
+     * @param size Maximum number of fortunes to return
      * @return Model list
      */
-    List<M> listAnon(int page, int size);
+    List<M> listAnonAfter(Optional<String> uuid, int size);
 }
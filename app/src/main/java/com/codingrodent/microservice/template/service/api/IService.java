@@ -25,7 +25,9 @@
 package com.codingrodent.microservice.template.service.api;
 
 import com.codingrodent.microservice.template.model.ModelVersion;
+import org.springframework.data.domain.Sort;
 
+import java.time.Duration;
 import java.util.*;
 
 /**
@@ -43,6 +45,19 @@ public interface IService<M> {
      */
     ModelVersion<M> save(String uuid, M model, Optional<Long> version);
 
+    /**
+     * Create an entity that is removed once its time to live has passed
+     *
+     * @param uuid    UUID of model object to save
+     * @param model   Model to create as an entity
+     * @param version Version (if required)
+     * @param ttl     Time to live
+     * @return Saved model
+     */
+    default ModelVersion<M> save(final String uuid, final M model, final Optional<Long> version, final Duration ttl) {
+        throw new UnsupportedOperationException("Expiry not supported by this service");
+    }
+
     /**
      * Create an entity
      *
@@ -60,6 +75,16 @@ public interface IService<M> {
      */
     Optional<ModelVersion<M>> load(String uuid);
 
+    /**
+     * Load an entity by its UUID
+     *
+     * @param uuid Key
+     * @return The entity or an empty optional
+     */
+    default Optional<ModelVersion<M>> load(final UUID uuid) {
+        return load(uuid.toString());
+    }
+
     /**
      * Delete an entity by its key
      *
@@ -72,8 +97,39 @@ public interface IService<M> {
      *
      * @param page Page to retrieve
      * @param size Size of page
+     * @param sort Sort order (if any)
+     * @return Fortunes
+     */
+    List<M> listAll(int page, int size, Optional<Sort> sort);
+
+    /**
+     * Take a snapshot for paged reads that must agree with each other
+     *
+     * @return Snapshot version
+     */
+    default long snapshot() {
+        throw new UnsupportedOperationException("Snapshots not supported by this service");
+    }
+
+    /**
+     * Get a page of entities, in key order, as they were at a snapshot
+     *
+     * @param page     Page to retrieve
+     * @param size     Size of page
+     * @param snapshot Snapshot version
+     * @return Entities
+     */
+    default List<M> listAllAt(int page, int size, long snapshot) {
+        throw new UnsupportedOperationException("Snapshots not supported by this service");
+    }
+
+    /**
+     * Get the entities following a key, in key order. Used to resume a scan from the last entity returned
+     *
+     * @param uuid Last key seen - empty to start from the beginning
+     * @param size Maximum number of entities to return
      * @return Fortunes
      */
-    List<M> listAll(int page, int size);
+    List<M> listAllAfter(Optional<String> uuid, int size);
 
 }
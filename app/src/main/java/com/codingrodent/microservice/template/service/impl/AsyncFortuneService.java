@@ -94,10 +94,11 @@ public class AsyncFortuneService implements IAsyncFortuneService<Fortune> {
      * Delete an entity by its key
      *
      * @param uuid Key
+     * @return Observable of the number of entities deleted - 0 if none found
      */
     @Override
-    public void delete(final String uuid) {
-        throw new UnsupportedOperationException("Delete an entity not implemented");
+    public Observable<Long> delete(final String uuid) {
+        return repository.delete(uuid);
     }
 
     /**
@@ -136,4 +137,40 @@ public class AsyncFortuneService implements IAsyncFortuneService<Fortune> {
         return repository.findAllAnon(new PageRequest(page, size)).map(toFortuneModel::convert);
     }
 
+    /**
+     * Get the entities following a key
+     *
+     * @param uuid Last key seen - empty to start from the beginning
+     * @param size Maximum number of entities to return
+     * @return Model list observable
+     */
+    @Override
+    public Observable<Fortune> findAllAfter(final Optional<String> uuid, final int size) {
+        return repository.findAllAfter(uuid.orElse(null), size).map(toFortuneModel::convert);
+    }
+
+    /**
+     * Get the fortunes with named authors following a key
+     *
+     * @param uuid Last key seen - empty to start from the beginning
+     * @param size Maximum number of fortunes to return
+     * @return Model list observable
+     */
+    @Override
+    public Observable<Fortune> findNamedAfter(final Optional<String> uuid, final int size) {
+        return repository.findAllNamedAfter(uuid.orElse(null), size).map(toFortuneModel::convert);
+    }
+
+    /**
+     * Get the fortunes with anonymous authors following a key
+     *
+     * @param uuid Last key seen - empty to start from the beginning
+     * @param size Maximum number of fortunes to return
+     * @return Model list observable
+     */
+    @Override
+    public Observable<Fortune> findAnonAfter(final Optional<String> uuid, final int size) {
+        return repository.findAllAnonAfter(uuid.orElse(null), size).map(toFortuneModel::convert);
+    }
+
 }
@@ -25,34 +25,57 @@
 package com.codingrodent.microservice.template.service.impl;
 
 import com.codingrodent.microservice.template.entity.FortuneEntity;
+import com.codingrodent.microservice.template.metrics.api.ITemplateMetrics;
 import com.codingrodent.microservice.template.model.*;
 import com.codingrodent.microservice.template.repository.api.ISyncFortuneRepository;
 import com.codingrodent.microservice.template.service.api.*;
 import com.codingrodent.microservice.template.utility.Utility;
-import org.springframework.data.domain.PageRequest;
+import org.springframework.core.env.Environment;
+import org.springframework.data.domain.*;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import java.io.*;
+import java.time.Duration;
 import java.util.*;
+import java.util.function.*;
 import java.util.stream.Collectors;
 
+import static com.codingrodent.microservice.template.constants.SystemConstants.*;
 import static com.codingrodent.microservice.template.converter.Converter.*;
 
 /**
  * Fortune service implementation
+ * <p>
+ * Saves go straight to the repository unless {@value com.codingrodent.microservice.template.constants.SystemConstants#PROPERTY_BATCH_SIZE} is
+ * set above one, in which case concurrent saves are grouped into batches of up to that size, waiting at most
+ * {@value com.codingrodent.microservice.template.constants.SystemConstants#PROPERTY_BATCH_WAIT} microseconds (default 200) for a batch to fill
  */
 @Service
 public class FortuneService implements IFortuneService<Fortune> {
 
     private final ISyncFortuneRepository<FortuneEntity> repository;
     private final ILogger logger;
+    private final Function<FortuneEntity, FortuneEntity> writer;
 
-    @Inject
     public FortuneService(final ILogger logger, final ISyncFortuneRepository<FortuneEntity> repository) {
         this.repository = repository;
         this.logger = logger;
+        this.writer = repository::save;
+    }
+
+    @Inject
+    public FortuneService(final ILogger logger, final ISyncFortuneRepository<FortuneEntity> repository, final ITemplateMetrics metrics, final
+    Environment environment) {
+        this.repository = repository;
+        this.logger = logger;
+        int batchSize = environment.getProperty(PROPERTY_BATCH_SIZE, Integer.class, 0);
+        if (batchSize > 1)
+            this.writer = new WriteBatcher<FortuneEntity>(repository::saveEach, metrics, batchSize, environment.getProperty(PROPERTY_BATCH_WAIT, Long
+                    .class, 200L))::write;
+        else
+            this.writer = repository::save;
     }
 
     /**
@@ -96,8 +119,22 @@ public class FortuneService implements IFortuneService<Fortune> {
     @Override
     public ModelVersion<Fortune> save(final String uuid, final Fortune model, Optional<Long> version) {
 
-        FortuneEntity z = toFortuneEntity.convert(uuid, model, version);
-        FortuneEntity entity = repository.save(z);
+        FortuneEntity entity = writer.apply(toFortuneEntity.convert(uuid, model, version));
+        return new ModelVersion<>(toFortuneModel.convert(entity), Optional.of(entity.getVersion()));
+    }
+
+    /**
+     * Create an entity that is removed once its time to live has passed. Written directly rather than through any write batch
+     *
+     * @param uuid    UUID of model object to save
+     * @param model   Model to create as an entity
+     * @param version Version (if required)
+     * @param ttl     Time to live
+     * @return Saved model
+     */
+    @Override
+    public ModelVersion<Fortune> save(final String uuid, final Fortune model, final Optional<Long> version, final Duration ttl) {
+        FortuneEntity entity = repository.save(toFortuneEntity.convert(uuid, model, version), ttl);
         return new ModelVersion<>(toFortuneModel.convert(entity), Optional.of(entity.getVersion()));
     }
 
@@ -110,7 +147,7 @@ public class FortuneService implements IFortuneService<Fortune> {
      */
     @Override
     public ModelVersion<Fortune> create(final Fortune model, final Optional<Long> version) {
-        FortuneEntity entity = repository.save(toFortuneEntity.convert(UUID.randomUUID().toString(), model, version));
+        FortuneEntity entity = writer.apply(toFortuneEntity.convert(UUID.randomUUID().toString(), model, version));
         return new ModelVersion<>(toFortuneModel.convert(entity), Optional.of(entity.getVersion()));
     }
 
@@ -122,7 +159,21 @@ public class FortuneService implements IFortuneService<Fortune> {
      */
     @Override
     public Optional<ModelVersion<Fortune>> load(final String uuid) {
-        FortuneEntity entity = repository.findOne(uuid);
+        return toModel(repository.findOne(uuid));
+    }
+
+    /**
+     * Load an entity by its UUID, passing the UUID through to the repository rather than its string form
+     *
+     * @param uuid Key
+     * @return The entity or an empty optional
+     */
+    @Override
+    public Optional<ModelVersion<Fortune>> load(final UUID uuid) {
+        return toModel(repository.findOne(uuid));
+    }
+
+    private Optional<ModelVersion<Fortune>> toModel(final FortuneEntity entity) {
         if (null == entity)
             return Optional.empty();
         else
@@ -144,11 +195,47 @@ public class FortuneService implements IFortuneService<Fortune> {
      *
      * @param page Page to retrieve
      * @param size Size of page
+     * @param sort Sort order (if any)
+     * @return Fortunes
+     */
+    @Override
+    public List<Fortune> listAll(final int page, final int size, final Optional<Sort> sort) {
+        return getFortunes(repository.findAll(new PageRequest(page, size, sort.orElse(null))).getContent());
+    }
+
+    /**
+     * Take a snapshot for paged reads that must agree with each other
+     *
+     * @return Snapshot version
+     */
+    @Override
+    public long snapshot() {
+        return repository.pinSnapshot();
+    }
+
+    /**
+     * Get a page of fortunes, in key order, as they were at a snapshot
+     *
+     * @param page     Page to retrieve
+     * @param size     Size of page
+     * @param snapshot Snapshot version
+     * @return Fortunes
+     */
+    @Override
+    public List<Fortune> listAllAt(final int page, final int size, final long snapshot) {
+        return getFortunes(repository.findAllAt(new PageRequest(page, size), snapshot));
+    }
+
+    /**
+     * Get the fortunes following a key
+     *
+     * @param uuid Last key seen - empty to start from the beginning
+     * @param size Maximum number of fortunes to return
      * @return Fortunes
      */
     @Override
-    public List<Fortune> listAll(final int page, final int size) {
-        return getFortunes(repository.findAll(new PageRequest(page, size)).getContent());
+    public List<Fortune> listAllAfter(final Optional<String> uuid, final int size) {
+        return getFortunes(resume(uuid, size, pageable -> repository.findAll(pageable).getContent(), repository::findAllByIdGreaterThan));
     }
 
     // ASync Implementations
@@ -158,11 +245,13 @@ public class FortuneService implements IFortuneService<Fortune> {
      *
      * @param page Page to retrieve
      * @param size Size of page
+     * @param sort Sort order (if any)
      * @return Fortunes
+     * @throws IllegalArgumentException if sorted and the repository can not sort the view
      */
     @Override
-    public List<Fortune> listNamed(final int page, final int size) {
-        return getFortunes(repository.findAllNamed(new PageRequest(page, size)));
+    public List<Fortune> listNamed(final int page, final int size, final Optional<Sort> sort) {
+        return getFortunes(repository.findAllNamed(new PageRequest(page, size, viewSort(sort))));
     }
 
     /**
@@ -170,11 +259,65 @@ public class FortuneService implements IFortuneService<Fortune> {
      *
      * @param page Page to retrieve
      * @param size Size of page
+     * @param sort Sort order (if any)
+     * @return Fortunes
+     * @throws IllegalArgumentException if sorted and the repository can not sort the view
+     */
+    @Override
+    public List<Fortune> listAnon(final int page, final int size, final Optional<Sort> sort) {
+        return getFortunes(repository.findAllAnon(new PageRequest(page, size, viewSort(sort))));
+    }
+
+    /**
+     * Check a sort on a view read can be honoured rather than quietly returning key order
+     *
+     * @param sort Sort order (if any)
+     * @return Sort order - null if none
+     */
+    private Sort viewSort(final Optional<Sort> sort) {
+        if (sort.isPresent() && !repository.supportsSort())
+            throw new IllegalArgumentException("Sorting not supported by this repository");
+        return sort.orElse(null);
+    }
+
+    /**
+     * Get the fortunes with named authors following a key
+     *
+     * @param uuid Last key seen - empty to start from the beginning
+     * @param size Maximum number of fortunes to return
+     * @return Fortunes
+     */
+    @Override
+    public List<Fortune> listNamedAfter(final Optional<String> uuid, final int size) {
+        return getFortunes(resume(uuid, size, repository::findAllNamed, repository::findNamedByIdGreaterThan));
+    }
+
+    /**
+     * Get the fortunes with anonymous authors following a key
+     *
+     * @param uuid Last key seen - empty to start from the beginning
+     * @param size Maximum number of fortunes to return
      * @return Fortunes
      */
     @Override
-    public List<Fortune> listAnon(final int page, final int size) {
-        return getFortunes(repository.findAllAnon(new PageRequest(page, size)));
+    public List<Fortune> listAnonAfter(final Optional<String> uuid, final int size) {
+        return getFortunes(resume(uuid, size, repository::findAllAnon, repository::findAnonByIdGreaterThan));
+    }
+
+    /**
+     * Run a keyset scan - read the first page if no key is supplied, else seek past the key. A view may treat the start key as inclusive, so one
+     * extra entity is asked for and the key itself dropped, leaving a full page whichever way the repository behaves
+     *
+     * @param uuid  Last key seen
+     * @param size  Maximum number of entities to return
+     * @param first Query for the first page
+     * @param next  Query for entities following a key
+     * @return Entities
+     */
+    private List<FortuneEntity> resume(final Optional<String> uuid, final int size, final Function<Pageable, List<FortuneEntity>> first, final BiFunction<String,
+            Pageable, List<FortuneEntity>> next) {
+        return uuid.map(key -> next.apply(key, new PageRequest(0, size + 1)).stream().filter(entity -> !key.equals(entity.getId())).limit(size).collect
+                (Collectors.toList())).orElseGet(() -> first.apply(new PageRequest(0, size)));
     }
 
 }
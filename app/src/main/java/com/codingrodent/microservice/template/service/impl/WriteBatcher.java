@@ -0,0 +1,190 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.service.impl;
+
+import com.codingrodent.microservice.template.exception.ApplicationFaultException;
+import com.codingrodent.microservice.template.metrics.api.ITemplateMetrics;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import static com.codingrodent.microservice.template.constants.SystemConstants.*;
+
+/**
+ * Collects concurrent writes into small batches so they can be committed together. There is no background thread - the first caller to find no
+ * batch in progress becomes the leader, gathers whatever else arrives until the batch is full or the oldest write has waited long enough, commits
+ * the batch and hands each caller its own result. Callers arriving meanwhile queue for the next batch. The leader carries on only until the batch
+ * holding its own write is committed, then wakes the oldest write still queued to lead the next, so no one caller leads for ever and no queued
+ * write is left without a leader
+ * <p>
+ * Batch sizes and the time each write spends queued (in microseconds) are recorded as histograms
+ *
+ * @param <T> Type written
+ */
+class WriteBatcher<T> {
+
+    private final BlockingQueue<Pending<T>> queue = new LinkedBlockingQueue<>();
+    private final AtomicBoolean committing = new AtomicBoolean();
+    private final Function<List<T>, List<CompletableFuture<T>>> commit;
+    private final ITemplateMetrics metrics;
+    private final int maxSize;
+    private final long maxWait;
+
+    /**
+     * Build a batcher
+     *
+     * @param commit  Commits a batch, returning one result per write in order
+     * @param metrics Metrics service for the batch size and wait histograms
+     * @param maxSize Largest number of writes in one batch
+     * @param maxWait Longest time in microseconds the oldest write in a batch waits for others to join it
+     */
+    WriteBatcher(final Function<List<T>, List<CompletableFuture<T>>> commit, final ITemplateMetrics metrics, final int maxSize, final long maxWait) {
+        this.commit = commit;
+        this.metrics = metrics;
+        this.maxSize = maxSize;
+        this.maxWait = TimeUnit.MICROSECONDS.toNanos(maxWait);
+    }
+
+    /**
+     * Write through the next batch and wait for the result
+     *
+     * @param value Value to write
+     * @return Result of this write
+     */
+    T write(final T value) {
+        Pending<T> pending = new Pending<>(value);
+        queue.add(pending);
+        while (!pending.result.isDone()) {
+            if (!lead(pending))
+                try {
+                    // Woken when the write completes or a leader hands over, so waking now and again is only a backstop
+                    pending.wake.tryAcquire(Math.max(maxWait, TimeUnit.MILLISECONDS.toNanos(1)), TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ApplicationFaultException("Interrupted waiting for write");
+                }
+        }
+        try {
+            return pending.result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Take the lead if no one has it and commit batches until the one holding this caller's write. On letting go the oldest write still queued
+     * is woken to lead next, as it may have seen a leader and be waiting for it
+     *
+     * @param own This caller's write
+     * @return True if this thread led
+     */
+    private boolean lead(final Pending<T> own) {
+        if (own.committed || !committing.compareAndSet(false, true))
+            return false;
+        try {
+            while (!own.committed && !queue.isEmpty())
+                commitNext();
+        } finally {
+            committing.set(false);
+        }
+        Pending<T> next = queue.peek();
+        if (null != next)
+            next.wake.release();
+        return true;
+    }
+
+    /**
+     * Gather and commit one batch. Called by the leader only
+     */
+    private void commitNext() {
+        Pending<T> first = queue.poll();
+        if (null == first)
+            return;
+        List<Pending<T>> batch = new ArrayList<>(maxSize);
+        batch.add(first);
+        long deadline = first.queued + maxWait;
+        try {
+            while (batch.size() < maxSize) {
+                Pending<T> next = queue.poll();
+                if (null == next) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0)
+                        break;
+                    next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (null == next)
+                        break;
+                }
+                batch.add(next);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long start = System.nanoTime();
+        metrics.update(METRIC_BATCH_SIZE, batch.size());
+        List<T> values = new ArrayList<>(batch.size());
+        for (Pending<T> pending : batch) {
+            metrics.update(METRIC_BATCH_WAIT, TimeUnit.NANOSECONDS.toMicros(start - pending.queued));
+            values.add(pending.value);
+            pending.committed = true;
+        }
+        try {
+            List<CompletableFuture<T>> results = commit.apply(values);
+            for (int i = 0; i < batch.size(); i++) {
+                CompletableFuture<T> target = batch.get(i).result;
+                results.get(i).whenComplete((saved, failure) -> {
+                    if (null == failure)
+                        target.complete(saved);
+                    else
+                        target.completeExceptionally(failure);
+                });
+            }
+        } catch (RuntimeException e) {
+            // The commit as a whole failed - every write in it fails
+            batch.forEach(pending -> pending.result.completeExceptionally(e));
+        }
+    }
+
+    /**
+     * A queued write and its result. Its caller waits on the wake semaphore, released when the result is ready or it is handed the lead
+     */
+    private static final class Pending<T> {
+        private final T value;
+        private final long queued = System.nanoTime();
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final Semaphore wake = new Semaphore(0);
+        // Taken into a batch - set by the leader
+        private volatile boolean committed;
+
+        Pending(final T value) {
+            this.value = value;
+            result.whenComplete((saved, failure) -> wake.release());
+        }
+    }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.utility;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Encode / decode opaque continuation tokens used to resume a keyset scan. The token carries the last key returned to the client
+ */
+public class Continuation {
+
+    private Continuation() {
+        // Stop instantiation
+    }
+
+    /**
+     * Generate a continuation token from the last key returned
+     *
+     * @param key Last key returned
+     * @return Opaque token
+     */
+    public static String encode(final String key) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Recover the last key returned from a continuation token
+     *
+     * @param token Token supplied by the client (if any)
+     * @return Key to resume after - empty if no token supplied
+     * @throws IllegalArgumentException if the token is not valid
+     */
+    public static Optional<String> decode(final Optional<String> token) {
+        return token.map(t -> new String(Base64.getUrlDecoder().decode(t), StandardCharsets.UTF_8));
+    }
+
+}
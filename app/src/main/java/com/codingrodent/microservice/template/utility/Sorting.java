@@ -0,0 +1,68 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.utility;
+
+import org.springframework.data.domain.Sort;
+
+import java.util.*;
+
+/**
+ * Parse the sort request parameter. The format follows Spring Data - property names separated by commas, optionally followed by the direction
+ * asc or desc which applies to every property, e.g. author,text,desc
+ */
+public class Sorting {
+
+    private Sorting() {
+        // Stop instantiation
+    }
+
+    /**
+     * Convert a sort parameter into a sort order
+     *
+     * @param sort Parameter supplied by the client (if any)
+     * @return Sort order - empty if no parameter supplied
+     * @throws IllegalArgumentException if the parameter names no property
+     */
+    public static Optional<Sort> parse(final Optional<String> sort) {
+        return sort.map(s -> {
+            List<String> parts = new ArrayList<>();
+            for (String part : s.split(","))
+                if (!part.trim().isEmpty())
+                    parts.add(part.trim());
+            Sort.Direction direction = Sort.Direction.ASC;
+            if (!parts.isEmpty()) {
+                Optional<Sort.Direction> last = Optional.ofNullable(Sort.Direction.fromStringOrNull(parts.get(parts.size() - 1)));
+                if (last.isPresent()) {
+                    direction = last.get();
+                    parts.remove(parts.size() - 1);
+                }
+            }
+            if (parts.isEmpty())
+                throw new IllegalArgumentException("No sort property in: " + s);
+            return new Sort(direction, parts);
+        });
+    }
+
+}
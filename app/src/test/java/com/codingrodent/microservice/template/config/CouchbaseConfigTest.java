@@ -0,0 +1,89 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.config;
+
+import com.couchbase.client.java.env.DefaultCouchbaseEnvironment;
+import org.junit.*;
+import org.springframework.boot.autoconfigure.couchbase.CouchbaseProperties;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.Collections;
+
+import static com.codingrodent.microservice.template.constants.SystemConstants.*;
+import static org.junit.Assert.assertEquals;
+
+public class CouchbaseConfigTest {
+
+    private CouchbaseProperties properties;
+    private MockEnvironment environment;
+
+    @Before
+    public void setUp() throws Exception {
+        properties = new CouchbaseProperties();
+        properties.setBootstrapHosts(Collections.singletonList("127.0.0.1"));
+        properties.getEnv().getEndpoints().setKeyValue(4);
+        properties.getEnv().getTimeouts().setKeyValue(2500);
+        environment = new MockEnvironment();
+    }
+
+    private DefaultCouchbaseEnvironment build() {
+        return new CouchbaseConfig(properties, environment).initializeEnvironmentBuilder(properties).build();
+    }
+
+    @Test
+    public void tuned() throws Exception {
+        environment.setProperty(PROPERTY_COUCHBASE_IO_POOL, "6");
+        environment.setProperty(PROPERTY_COUCHBASE_COMPUTATION_POOL, "5");
+        environment.setProperty(PROPERTY_COUCHBASE_REQUEST_BUFFER, "4096");
+        DefaultCouchbaseEnvironment couchbase = build();
+        try {
+            assertEquals(6, couchbase.ioPoolSize());
+            assertEquals(5, couchbase.computationPoolSize());
+            assertEquals(4096, couchbase.requestBufferSize());
+            // Spring Boot's own settings still apply
+            assertEquals(4, couchbase.kvEndpoints());
+            assertEquals(2500, couchbase.kvTimeout());
+        } finally {
+            couchbase.shutdown();
+        }
+    }
+
+    @Test
+    public void defaults() throws Exception {
+        DefaultCouchbaseEnvironment couchbase = build();
+        try {
+            assertEquals(DefaultCouchbaseEnvironment.REQUEST_BUFFER_SIZE, couchbase.requestBufferSize());
+        } finally {
+            couchbase.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void requestBufferPowerOfTwo() throws Exception {
+        environment.setProperty(PROPERTY_COUCHBASE_REQUEST_BUFFER, "5000");
+        build();
+    }
+
+}
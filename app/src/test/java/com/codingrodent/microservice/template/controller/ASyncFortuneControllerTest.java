@@ -0,0 +1,70 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.controller;
+
+import com.codingrodent.microservice.template.MVCTestBase;
+import com.codingrodent.microservice.template.config.advice.RestAdvice;
+import com.codingrodent.microservice.template.metrics.*;
+import com.codingrodent.microservice.template.repository.impl.SimulatedFortuneRepository;
+import com.codingrodent.microservice.template.service.api.ILogger;
+import com.codingrodent.microservice.template.service.impl.AsyncFortuneService;
+import org.junit.*;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.web.servlet.*;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.UUID;
+
+import static com.codingrodent.microservice.template.constants.SystemConstants.*;
+import static org.mockito.Mockito.mock;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Async Fortune Controller unit tests against a failing simulated bucket
+ */
+public class ASyncFortuneControllerTest extends MVCTestBase {
+
+    private final static String BASE = "/async/fortune/" + API_VERSION;
+    //
+    private MockMvc mvc;
+
+    @Before
+    public void init() {
+        MockEnvironment environment = new MockEnvironment();
+        environment.setProperty(PROPERTY_SIMULATED_FAILURE, "1.0");
+        SimulatedFortuneRepository repository = new SimulatedFortuneRepository(environment, new TemplateMetrics(new AppMetricsRegistry()));
+        ASyncFortuneController controller = new ASyncFortuneController(new AsyncFortuneService(mock(ILogger.class), repository));
+        mvc = MockMvcBuilders.standaloneSetup(controller).setControllerAdvice(new RestAdvice()).setMessageConverters(new MappingJackson2HttpMessageConverter()).build();
+    }
+
+    @Test
+    public void transientFailureIsUnavailable() throws Exception {
+        MvcResult result = mvc.perform(get(BASE + "/" + UUID.randomUUID()).characterEncoding(CHAR_ENCODING)).andReturn();
+        mvc.perform(asyncDispatch(result)).andExpect(status().isServiceUnavailable());
+    }
+
+}
@@ -25,14 +25,18 @@
 package com.codingrodent.microservice.template.controller;
 
 import com.codingrodent.microservice.template.MVCTestBase;
+import com.codingrodent.microservice.template.exception.SnapshotExpiredException;
 import com.codingrodent.microservice.template.model.*;
 import com.codingrodent.microservice.template.service.api.IFortuneService;
+import com.codingrodent.microservice.template.utility.Continuation;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import org.junit.*;
 import org.mockito.Mock;
 import org.springframework.dao.*;
+import org.springframework.data.domain.Sort;
 import org.springframework.http.HttpHeaders;
 
+import java.time.Duration;
 import java.util.*;
 
 import static com.codingrodent.microservice.template.constants.SystemConstants.*;
@@ -73,7 +77,7 @@ public class FortuneControllerTest extends MVCTestBase {
     @Test
     public void getFortune() throws Exception {
 
-        when(fortuneService.load(any(String.class))).thenReturn(Optional.of(modelVersion), Optional.of(modelVersion), Optional.of(modelVersion), Optional.empty());
+        when(fortuneService.load(any(UUID.class))).thenReturn(Optional.of(modelVersion), Optional.of(modelVersion), Optional.of(modelVersion), Optional.empty());
 
         String url = BASE + randomUUID;
         String etag = "\"" + Etag.encodEtag(cas, url) + "\"";
@@ -118,12 +122,12 @@ public class FortuneControllerTest extends MVCTestBase {
                 .andExpect(status().isGone())
                 .andReturn();
         // @formatter:on
-        verify(fortuneService, times(4)).load(any());
+        verify(fortuneService, times(4)).load(any(UUID.class));
     }
 
     @Test
     public void headFortune() throws Exception {
-        when(fortuneService.load(any(String.class))).thenReturn(Optional.of(modelVersion), Optional.of(modelVersion), Optional.of(modelVersion), Optional.empty());
+        when(fortuneService.load(any(UUID.class))).thenReturn(Optional.of(modelVersion), Optional.of(modelVersion), Optional.of(modelVersion), Optional.empty());
         String url = BASE + randomUUID;
         String etag = "\"" + Etag.encodEtag(cas, url) + "\"";
         // @formatter:off
@@ -166,12 +170,12 @@ public class FortuneControllerTest extends MVCTestBase {
                 .andExpect(header().string(HttpHeaders.CONTENT_TYPE,CONTENT_TYPE))
                 .andReturn();
         // @formatter:on
-        verify(fortuneService, times(4)).load(any());
+        verify(fortuneService, times(4)).load(any(UUID.class));
     }
 
     @Test
     public void putFortune() throws Exception {
-        when(fortuneService.load(any(String.class))).thenReturn(Optional.empty(), Optional.of(modelVersion), Optional.of(modelVersion), Optional.of(modelVersion));
+        when(fortuneService.load(any(UUID.class))).thenReturn(Optional.empty(), Optional.of(modelVersion), Optional.of(modelVersion), Optional.of(modelVersion));
         when(fortuneService.save(any(String.class), any(Fortune.class), any(Optional.class))).thenThrow(OptimisticLockingFailureException.class).thenReturn(modelVersion,
                                                                                                                                                             modelVersion, null);
         String url = BASE + randomUUID;
@@ -232,10 +236,34 @@ public class FortuneControllerTest extends MVCTestBase {
                 .andReturn();
         // @formatter:on
 
-        verify(fortuneService, times(4)).load(any());
+        verify(fortuneService, times(4)).load(any(UUID.class));
         verify(fortuneService, times(4)).save(any(), any(), any());
     }
 
+    @Test
+    public void putFortuneExpiry() throws Exception {
+        when(fortuneService.save(any(String.class), any(Fortune.class), any(Optional.class), any(Duration.class))).thenReturn(modelVersion);
+        String url = BASE + randomUUID;
+
+        // @formatter:off
+        // Invalid expiry
+        performPut(controller, url + "?expiry=0", null, json)
+                .andExpect(status().isBadRequest())
+                .andReturn();
+        // @formatter:on
+
+        // @formatter:off
+        // Create with expiry
+        performPut(controller, url + "?expiry=60", null, json)
+                .andExpect(status().isCreated())
+                .andExpect(content().json(json))
+                .andReturn();
+        // @formatter:on
+
+        verify(fortuneService, times(1)).save(any(String.class), any(Fortune.class), any(Optional.class), eq(Duration.ofSeconds(60)));
+        verify(fortuneService, never()).save(any(), any(), any());
+    }
+
     @Test
     public void postFortune() throws Exception {
         when(fortuneService.create(any(Fortune.class), any(Optional.class))).thenThrow(DuplicateKeyException.class).thenReturn(new ModelVersion<>(fortuneWithUUID1, Optional.of
@@ -290,7 +318,7 @@ public class FortuneControllerTest extends MVCTestBase {
 
     @Test
     public void deleteFortune() throws Exception {
-        when(fortuneService.load(any())).thenReturn(Optional.of(modelVersion));
+        when(fortuneService.load(any(UUID.class))).thenReturn(Optional.of(modelVersion));
         String url = BASE + randomUUID;
         String etag = "\"" + Etag.encodEtag(cas, url) + "\"";
 
@@ -322,7 +350,7 @@ public class FortuneControllerTest extends MVCTestBase {
                 .andReturn();
         // @formatter:on
 
-        verify(fortuneService, times(2)).load(any());
+        verify(fortuneService, times(2)).load(any(UUID.class));
         verify(fortuneService, times(2)).delete(any());
     }
 
@@ -348,7 +376,7 @@ public class FortuneControllerTest extends MVCTestBase {
         list2.add(fortuneWithUUID2);
         List<Fortune> list3 = new LinkedList<>();
 
-        when(fortuneService.listAll(anyInt(), anyInt())).thenReturn(list1, list2, list3);
+        when(fortuneService.listAll(anyInt(), anyInt(), any())).thenReturn(list1, list2, list3);
 
         String url = BASE + "/list?page=0&size=99";
 
@@ -380,6 +408,110 @@ public class FortuneControllerTest extends MVCTestBase {
         // @formatter:on
     }
 
+    @Test
+    public void getAllFortunesSorted() throws Exception {
+
+        List<Fortune> list1 = new LinkedList<>();
+        list1.add(fortuneWithUUID2);
+        list1.add(fortuneWithUUID1);
+
+        when(fortuneService.listAll(anyInt(), anyInt(), any())).thenReturn(list1);
+
+        // @formatter:off
+        performGet(controller, BASE + "/list?page=0&size=99&sort=author,text,desc", null)
+                .andExpect(status().isOk())
+                .andExpect(content().json("["+jsonWithUUID2+","+jsonWithUUID1+"]"))
+                .andReturn();
+        // @formatter:on
+        verify(fortuneService).listAll(0, 99, Optional.of(new Sort(Sort.Direction.DESC, "author", "text")));
+
+        // @formatter:off
+        performGet(controller, BASE + "/list?page=0&size=99&sort=desc", null)
+                .andExpect(status().isBadRequest())
+                .andReturn();
+        // @formatter:on
+    }
+
+    @Test
+    public void getAllFortunesSnapshot() throws Exception {
+
+        List<Fortune> list1 = new LinkedList<>();
+        list1.add(fortuneWithUUID1);
+        list1.add(fortuneWithUUID2);
+
+        when(fortuneService.snapshot()).thenReturn(42L);
+        when(fortuneService.listAllAt(anyInt(), anyInt(), anyLong())).thenReturn(list1).thenThrow(new SnapshotExpiredException(42));
+
+        // @formatter:off
+        performGet(controller, BASE + "/list?page=0&size=2&snapshot=new", null)
+                .andExpect(status().isOk())
+                .andExpect(content().json("["+jsonWithUUID1+","+jsonWithUUID2+"]"))
+                .andExpect(header().string(SNAPSHOT_HEADER, "42"))
+                .andReturn();
+        // @formatter:on
+        verify(fortuneService).listAllAt(0, 2, 42);
+
+        // @formatter:off
+        performGet(controller, BASE + "/list?page=1&size=2&snapshot=42", null)
+                .andExpect(status().isGone())
+                .andReturn();
+        // @formatter:on
+        verify(fortuneService).listAllAt(1, 2, 42);
+        verify(fortuneService, times(1)).snapshot();
+
+        // @formatter:off
+        performGet(controller, BASE + "/list?page=0&size=2&snapshot=latest", null)
+                .andExpect(status().isBadRequest())
+                .andReturn();
+        performGet(controller, BASE + "/list?page=0&size=2&snapshot=42&sort=author", null)
+                .andExpect(status().isBadRequest())
+                .andReturn();
+        // @formatter:on
+        verify(fortuneService, never()).listAll(anyInt(), anyInt(), any());
+    }
+
+    @Test
+    public void getAllFortunesFrom() throws Exception {
+
+        List<Fortune> list1 = new LinkedList<>();
+        list1.add(fortuneWithUUID1);
+        list1.add(fortuneWithUUID2);
+        List<Fortune> list2 = new LinkedList<>();
+        list2.add(fortuneWithUUID1);
+
+        when(fortuneService.listAllAfter(any(), anyInt())).thenReturn(list1, list2);
+
+        String token = Continuation.encode(fortuneWithUUID2.getUUID().get().toString());
+
+        // @formatter:off
+        // full page - continuation returned
+        performGet(controller, BASE + "/list?size=2", null)
+                .andExpect(status().isOk())
+                .andExpect(content().json("["+jsonWithUUID1+","+jsonWithUUID2+"]"))
+                .andExpect(header().string(CONTINUATION_HEADER, token))
+                .andReturn();
+        // @formatter:on
+
+        // @formatter:off
+        // short page - end of data
+        performGet(controller, BASE + "/list?size=2&continuation=" + token, null)
+                .andExpect(status().isOk())
+                .andExpect(content().json("["+jsonWithUUID1+"]"))
+                .andExpect(header().doesNotExist(CONTINUATION_HEADER))
+                .andReturn();
+        // @formatter:on
+
+        // @formatter:off
+        // bad token
+        performGet(controller, BASE + "/list?size=2&continuation=!!!", null)
+                .andExpect(status().isBadRequest())
+                .andReturn();
+        // @formatter:on
+
+        verify(fortuneService).listAllAfter(Optional.empty(), 2);
+        verify(fortuneService).listAllAfter(fortuneWithUUID2.getUUID().map(UUID::toString), 2);
+    }
+
     @Test
     public void getNamedFortunes() throws Exception {
 
@@ -390,7 +522,7 @@ public class FortuneControllerTest extends MVCTestBase {
         list2.add(fortuneWithUUID2);
         List<Fortune> list3 = new LinkedList<>();
 
-        when(fortuneService.listNamed(anyInt(), anyInt())).thenReturn(list1, list2, list3);
+        when(fortuneService.listNamed(anyInt(), anyInt(), any())).thenReturn(list1, list2, list3);
 
         String url = BASE + "/list/named?page=0&size=0";
 
@@ -433,7 +565,7 @@ public class FortuneControllerTest extends MVCTestBase {
         list2.add(fortuneWithUUID2);
         List<Fortune> list3 = new LinkedList<>();
 
-        when(fortuneService.listAnon(anyInt(), anyInt())).thenReturn(list1, list2, list3);
+        when(fortuneService.listAnon(anyInt(), anyInt(), any())).thenReturn(list1, list2, list3);
 
         String url = BASE + "/list/anon?page=0&size=99";
 
@@ -0,0 +1,92 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import com.codingrodent.microservice.template.entity.FortuneEntity;
+import org.junit.*;
+import org.springframework.data.domain.PageRequest;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class AsyncInMemoryFortuneRepositoryTest {
+    private FortuneInMemoryRepository sync;
+    private AsyncInMemoryFortuneRepository repository;
+    private List<FortuneEntity> entities;
+
+    @Before
+    public void setUp() throws Exception {
+        sync = new FortuneInMemoryRepository();
+        repository = new AsyncInMemoryFortuneRepository(sync);
+        entities = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            entities.add(sync.save(new FortuneEntity(UUID.randomUUID().toString(), "text" + i, "author" + i)));
+    }
+
+    @Test
+    public void findAll() throws Exception {
+        List<String> keys = entities.stream().map(FortuneEntity::getId).sorted().collect(Collectors.toList());
+        List<FortuneEntity> page = repository.findAll(new PageRequest(1, 4)).toList().toBlocking().single();
+        assertEquals(keys.subList(4, 8), page.stream().map(FortuneEntity::getId).collect(Collectors.toList()));
+        assertEquals(2, repository.findAll(new PageRequest(2, 4)).count().toBlocking().single().intValue());
+    }
+
+    @Test
+    public void count() throws Exception {
+        assertEquals(10L, (long) repository.count().toBlocking().single());
+    }
+
+    @Test
+    public void delete() throws Exception {
+        assertEquals(1L, (long) repository.delete(entities.get(0).getId()).toBlocking().single());
+        assertEquals(0L, (long) repository.delete(entities.get(0).getId()).toBlocking().single());
+        assertEquals(1L, (long) repository.delete(entities.get(1)).toBlocking().single());
+        assertEquals(9L - 1, sync.count());
+        // Nothing happens until subscribed
+        repository.delete(entities.get(2).getId());
+        assertTrue(sync.exists(entities.get(2).getId()));
+    }
+
+    @Test
+    public void deleteEntities() throws Exception {
+        assertEquals(5L, (long) repository.delete(entities.subList(0, 5)).toBlocking().single());
+        assertEquals(5L, (long) repository.delete(entities).toBlocking().single());
+        assertEquals(0, sync.count());
+    }
+
+    @Test
+    public void deleteAll() throws Exception {
+        assertEquals(10L, (long) repository.deleteAll().toBlocking().single());
+        assertEquals(0L, (long) repository.count().toBlocking().single());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void deleteNull() throws Exception {
+        repository.delete((String) null);
+    }
+
+}
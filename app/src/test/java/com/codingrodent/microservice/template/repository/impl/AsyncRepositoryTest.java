@@ -0,0 +1,142 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import com.codingrodent.microservice.template.entity.FortuneEntity;
+import com.codingrodent.microservice.template.utility.Utility;
+import com.couchbase.client.core.message.ResponseStatus;
+import com.couchbase.client.deps.io.netty.buffer.Unpooled;
+import com.couchbase.client.java.*;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.transcoder.TranscoderUtils;
+import com.couchbase.client.java.view.*;
+import org.junit.*;
+import org.mockito.ArgumentMatcher;
+import org.springframework.data.domain.PageRequest;
+import rx.Observable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.*;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+public class AsyncRepositoryTest {
+    private final static int ROWS = 100;
+
+    private Bucket bucket;
+    private AsyncBucket async;
+    private List<String> keys;
+    private AtomicInteger gets;
+    private final TypeRegistry types = new TypeRegistry(Utility.getObjectMapper(), FortuneEntity.class);
+    private final EntityTranscoder transcoder = new EntityTranscoder(types);
+
+    @Before
+    public void setUp() throws Exception {
+        bucket = mock(Bucket.class);
+        async = mock(AsyncBucket.class);
+        when(bucket.async()).thenReturn(async);
+        keys = IntStream.range(0, ROWS).mapToObj(i -> String.format("key%03d", i)).collect(Collectors.toList());
+        List<AsyncViewRow> rows = keys.stream().map(key -> {
+            AsyncViewRow row = mock(AsyncViewRow.class);
+            when(row.id()).thenReturn(key);
+            when(row.value()).thenReturn(content(key));
+            when(row.document(EntityDocument.class)).thenAnswer(invocation -> async.get(key, EntityDocument.class));
+            return row;
+        }).collect(Collectors.toList());
+        AsyncViewResult result = mock(AsyncViewResult.class);
+        when(result.rows()).thenReturn(Observable.from(rows));
+        when(async.query(any(ViewQuery.class))).thenReturn(Observable.just(result));
+        gets = new AtomicInteger();
+        when(async.get(anyString(), eq(EntityDocument.class))).thenAnswer(invocation -> {
+            gets.incrementAndGet();
+            String key = (String) invocation.getArguments()[0];
+            EntityDocument document = transcoder.decode(key, Unpooled.copiedBuffer(content(key).toString(), StandardCharsets.UTF_8), 42, 0,
+                    TranscoderUtils.JSON_COMPAT_FLAGS, ResponseStatus.SUCCESS);
+            // Complete out of order
+            return Observable.just(document).delay(key.hashCode() & 7, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    private JsonObject content(final String key) {
+        return JsonObject.create().put("text", "text " + key).put("author", "").put("_class", FortuneEntity.class.getName());
+    }
+
+    private AsyncRepository<FortuneEntity> repository(final AsyncRepository.Fetch fetch) {
+        return new AsyncRepository<FortuneEntity>(fetch, types) {
+            @Override
+            protected Bucket getBucket() {
+                return bucket;
+            }
+        };
+    }
+
+    private List<FortuneEntity> findAll(final AsyncRepository.Fetch fetch) {
+        return repository(fetch).findAll(new PageRequest(0, ROWS)).toList().toBlocking().single();
+    }
+
+    private void check(final List<FortuneEntity> entities, final long version) {
+        assertEquals(keys, entities.stream().map(FortuneEntity::getId).collect(Collectors.toList()));
+        for (FortuneEntity entity : entities) {
+            assertEquals("text " + entity.getId(), entity.getText());
+            assertEquals(version, entity.getVersion());
+        }
+    }
+
+    @Test
+    public void row() throws Exception {
+        check(findAll(AsyncRepository.Fetch.ROW), 42);
+        assertEquals(ROWS, gets.get());
+    }
+
+    @Test
+    public void bulk() throws Exception {
+        check(findAll(AsyncRepository.Fetch.BULK), 42);
+        assertEquals(ROWS, gets.get());
+    }
+
+    @Test
+    public void covered() throws Exception {
+        check(findAll(AsyncRepository.Fetch.COVERED), 0);
+        assertEquals(0, gets.get());
+    }
+
+    @Test
+    public void pageInQuery() throws Exception {
+        repository(AsyncRepository.Fetch.BULK).findAll(new PageRequest(3, 20)).toList().toBlocking().single();
+        verify(async).query(argThat(new ArgumentMatcher<ViewQuery>() {
+            @Override
+            public boolean matches(final Object query) {
+                String text = query.toString();
+                return text.contains("skip=60") && text.contains("limit=20") && text.contains("reduce=false");
+            }
+        }));
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import com.codingrodent.microservice.template.entity.*;
+import org.junit.*;
+import rx.observers.TestSubscriber;
+import rx.schedulers.Schedulers;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class ChangeFeedTest {
+    private ChangeFeed<FortuneEntity> feed;
+
+    @Before
+    public void setUp() throws Exception {
+        feed = new ChangeFeed<>(8, Schedulers.immediate());
+    }
+
+    private void publish(final int count) {
+        for (int i = 0; i < count; i++)
+            feed.publish(ChangeEvent.Type.INSERT, "key" + i, i + 1, null);
+    }
+
+    private List<Long> sequences(final List<ChangeEvent<FortuneEntity>> events) {
+        return events.stream().map(ChangeEvent::getSequence).collect(Collectors.toList());
+    }
+
+    @Test
+    public void sequence() throws Exception {
+        assertEquals(0, feed.head());
+        publish(5);
+        assertEquals(5, feed.head());
+        TestSubscriber<ChangeEvent<FortuneEntity>> subscriber = new TestSubscriber<>();
+        feed.changes(1).subscribe(subscriber);
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L), sequences(subscriber.getOnNextEvents()));
+        assertEquals("key0", subscriber.getOnNextEvents().get(0).getKey());
+        // Later changes follow on
+        publish(2);
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L, 6L, 7L), sequences(subscriber.getOnNextEvents()));
+        subscriber.assertNoErrors();
+    }
+
+    @Test
+    public void resume() throws Exception {
+        publish(6);
+        TestSubscriber<ChangeEvent<FortuneEntity>> subscriber = new TestSubscriber<>();
+        feed.changes(5).subscribe(subscriber);
+        assertEquals(Arrays.asList(5L, 6L), sequences(subscriber.getOnNextEvents()));
+        // Resuming past the head waits for the next change
+        TestSubscriber<ChangeEvent<FortuneEntity>> waiting = new TestSubscriber<>();
+        feed.changes(7).subscribe(waiting);
+        waiting.assertNoValues();
+        publish(1);
+        assertEquals(Collections.singletonList(7L), sequences(waiting.getOnNextEvents()));
+    }
+
+    @Test
+    public void gap() throws Exception {
+        publish(20);
+        TestSubscriber<ChangeEvent<FortuneEntity>> subscriber = new TestSubscriber<>();
+        feed.changes(1).subscribe(subscriber);
+        List<ChangeEvent<FortuneEntity>> events = subscriber.getOnNextEvents();
+        // Only the last eight are held, so the subscriber is told where it picks up
+        assertEquals(ChangeEvent.Type.GAP, events.get(0).getType());
+        assertEquals(13, events.get(0).getSequence());
+        assertNull(events.get(0).getKey());
+        assertEquals(Arrays.asList(13L, 13L, 14L, 15L, 16L, 17L, 18L, 19L, 20L), sequences(events));
+    }
+
+    @Test
+    public void capacity() throws Exception {
+        // Rounded up to a power of two
+        feed = new ChangeFeed<>(5, Schedulers.immediate());
+        publish(10);
+        long[] next = {1};
+        List<ChangeEvent<FortuneEntity>> events = feed.read(next, 100);
+        assertEquals(ChangeEvent.Type.GAP, events.get(0).getType());
+        assertEquals(3, events.get(0).getSequence());
+        assertEquals(9, events.size());
+        assertEquals(11, next[0]);
+        assertTrue(feed.read(next, 100).isEmpty());
+    }
+
+    @Test
+    public void slowSubscriber() throws Exception {
+        feed = new ChangeFeed<>(1024, Schedulers.computation());
+        TestSubscriber<ChangeEvent<FortuneEntity>> subscriber = new TestSubscriber<>(0);
+        feed.changes(1).subscribe(subscriber);
+        publish(100);
+        // Nothing is delivered until asked for, and publishing does not wait
+        Thread.sleep(50);
+        subscriber.assertNoValues();
+        subscriber.requestMore(100);
+        subscriber.awaitValueCount(100, 5, TimeUnit.SECONDS);
+        List<Long> expected = new ArrayList<>();
+        for (long i = 1; i <= 100; i++)
+            expected.add(i);
+        assertEquals(expected, sequences(subscriber.getOnNextEvents()));
+        subscriber.unsubscribe();
+    }
+
+    @Test
+    public void catchUpInBatches() throws Exception {
+        feed = new ChangeFeed<>(4096, Schedulers.computation());
+        publish(1000);
+        // Several batches behind with nothing more published - each batch brings the next
+        TestSubscriber<ChangeEvent<FortuneEntity>> subscriber = new TestSubscriber<>();
+        feed.changes(1).subscribe(subscriber);
+        subscriber.awaitValueCount(1000, 5, TimeUnit.SECONDS);
+        List<Long> expected = new ArrayList<>();
+        for (long i = 1; i <= 1000; i++)
+            expected.add(i);
+        assertEquals(expected, sequences(subscriber.getOnNextEvents()));
+        subscriber.unsubscribe();
+    }
+
+}
@@ -0,0 +1,265 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import com.codingrodent.microservice.template.entity.FortuneEntity;
+import com.codingrodent.microservice.template.metrics.*;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.data.domain.PageRequest;
+
+import java.io.RandomAccessFile;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class DurableEntityStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private Path directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = folder.getRoot().toPath();
+    }
+
+    private DurableEntityStore<FortuneEntity> open(final long threshold) {
+        return new DurableEntityStore<>(new HeapEntityStore<>(new FortuneEntityCodec()), new FortuneEntityCodec(), directory, threshold);
+    }
+
+    private void put(final IEntityStore<FortuneEntity> store, final String key, final String text, final long version) {
+        store.compute(key, (k, previous) -> new Versioned<>(new FortuneEntity(k, text, "author"), version));
+    }
+
+    @Test
+    public void reopen() throws Exception {
+        DurableEntityStore<FortuneEntity> store = open(DurableEntityStore.DEFAULT_SNAPSHOT_THRESHOLD);
+        put(store, "a", "first", 1);
+        put(store, "b", "second", 2);
+        put(store, "a", "third", 3);
+        store.compute("b", (k, previous) -> null);
+        store.close();
+        // reopen without an orderly close of the second instance
+        store = open(DurableEntityStore.DEFAULT_SNAPSHOT_THRESHOLD);
+        assertEquals(1, store.size());
+        assertEquals("third", store.get("a").getEntity().getText());
+        assertEquals(3, store.get("a").getVersion());
+        assertNull(store.get("b"));
+        assertEquals(3, store.highestVersion());
+        put(store, "c", "fourth", 4);
+        store = open(DurableEntityStore.DEFAULT_SNAPSHOT_THRESHOLD);
+        assertEquals("fourth", store.get("c").getEntity().getText());
+        assertEquals(2, store.size());
+    }
+
+    @Test
+    public void snapshot() throws Exception {
+        DurableEntityStore<FortuneEntity> store = open(DurableEntityStore.DEFAULT_SNAPSHOT_THRESHOLD);
+        for (int i = 0; i < 50; i++)
+            put(store, "key" + (i % 10), "text" + i, i + 1);
+        store.snapshot();
+        put(store, "key0", "after", 100);
+        store.close();
+        // only the snapshot and the segments written since remain
+        assertTrue(Files.exists(directory.resolve("snapshot")));
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory, "log.*")) {
+            for (Path segment : segments)
+                assertTrue(Integer.parseInt(segment.getFileName().toString().substring(4)) >= 2);
+        }
+        store = open(DurableEntityStore.DEFAULT_SNAPSHOT_THRESHOLD);
+        assertEquals(10, store.size());
+        assertEquals("after", store.get("key0").getEntity().getText());
+        assertEquals("text49", store.get("key9").getEntity().getText());
+        assertEquals(100, store.highestVersion());
+    }
+
+    @Test
+    public void snapshotOnThreshold() throws Exception {
+        DurableEntityStore<FortuneEntity> store = open(1024);
+        for (int i = 0; i < 200; i++)
+            put(store, "key" + (i % 5), "text" + i, i + 1);
+        store.close();
+        assertTrue(Files.exists(directory.resolve("snapshot")));
+        store = open(1024);
+        assertEquals(5, store.size());
+        assertEquals("text199", store.get("key4").getEntity().getText());
+    }
+
+    @Test
+    public void damagedLength() throws Exception {
+        DurableEntityStore<FortuneEntity> store = open(DurableEntityStore.DEFAULT_SNAPSHOT_THRESHOLD);
+        put(store, "a", "first", 1);
+        put(store, "b", "second", 2);
+        store.close();
+        // a length far beyond the segment must be refused before anything is allocated for it
+        Path segment = directory.resolve("log.1");
+        long good;
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            good = file.length();
+            file.seek(good);
+            file.writeInt(Integer.MAX_VALUE);
+            file.writeInt(0);
+            file.write(new byte[64]);
+        }
+        store = open(DurableEntityStore.DEFAULT_SNAPSHOT_THRESHOLD);
+        assertEquals(2, store.size());
+        // the damaged tail is cut off
+        assertEquals(good, Files.size(segment));
+        store.close();
+    }
+
+    @Test
+    public void tornTail() throws Exception {
+        DurableEntityStore<FortuneEntity> store = open(DurableEntityStore.DEFAULT_SNAPSHOT_THRESHOLD);
+        put(store, "a", "first", 1);
+        put(store, "b", "second", 2);
+        store.close();
+        // damage the last record as if the machine stopped part way through writing it
+        Path segment = directory.resolve("log.1");
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.seek(file.length() - 2);
+            file.write(new byte[]{42, 42});
+        }
+        store = open(DurableEntityStore.DEFAULT_SNAPSHOT_THRESHOLD);
+        assertEquals("first", store.get("a").getEntity().getText());
+        assertNull(store.get("b"));
+        // later writes go to a new segment and survive
+        put(store, "c", "third", 3);
+        store.close();
+        store = open(DurableEntityStore.DEFAULT_SNAPSHOT_THRESHOLD);
+        assertEquals(2, store.size());
+        assertNotNull(store.get("c"));
+    }
+
+    @Test
+    public void concurrentWriters() throws Exception {
+        DurableEntityStore<FortuneEntity> store = open(4096);
+        final int threads = 4, writes = 100;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            results.add(executor.submit(() -> {
+                for (int i = 0; i < writes; i++)
+                    put(store, "key" + thread + "-" + (i % 20), "text" + i, thread * writes + i + 1);
+            }));
+        }
+        for (Future<?> result : results)
+            result.get();
+        executor.shutdown();
+        store.close();
+        DurableEntityStore<FortuneEntity> reopened = open(4096);
+        assertEquals(threads * 20, reopened.size());
+        for (int t = 0; t < threads; t++)
+            for (int i = 80; i < writes; i++)
+                assertEquals("text" + i, reopened.get("key" + t + "-" + (i % 20)).getEntity().getText());
+    }
+
+    @Test
+    public void batch() throws Exception {
+        DurableEntityStore<FortuneEntity> store = open(DurableEntityStore.DEFAULT_SNAPSHOT_THRESHOLD);
+        int count = store.batch(() -> {
+            for (int i = 0; i < 10; i++)
+                put(store, "key" + i, "text" + i, i + 1);
+            return store.size();
+        });
+        assertEquals(10, count);
+        store.close();
+        assertEquals(10, open(DurableEntityStore.DEFAULT_SNAPSHOT_THRESHOLD).size());
+    }
+
+    @Test
+    public void repositoryRestart() throws Exception {
+        FortuneInMemoryRepository repository = new FortuneInMemoryRepository(new TemplateMetrics(new AppMetricsRegistry()), open(DurableEntityStore
+                .DEFAULT_SNAPSHOT_THRESHOLD));
+        String named = UUID.randomUUID().toString();
+        String deleted = UUID.randomUUID().toString();
+        repository.save(new FortuneEntity(named, "text", "author"));
+        FortuneEntity last = repository.save(new FortuneEntity(deleted, "text", ""));
+        repository.delete(deleted);
+        repository.close();
+        repository = new FortuneInMemoryRepository(new TemplateMetrics(new AppMetricsRegistry()), open(DurableEntityStore.DEFAULT_SNAPSHOT_THRESHOLD));
+        assertEquals(1, repository.count());
+        assertEquals(1, repository.findAllNamed(new PageRequest(0, 10)).size());
+        assertEquals(named, repository.findAll().iterator().next().getId());
+        // versions carry on past everything seen before the restart, including deleted entities
+        assertTrue(repository.save(new FortuneEntity(deleted, "text", "")).getVersion() > last.getVersion());
+    }
+
+    @Test
+    public void repositoryRefusedWrite() throws Exception {
+        FortuneInMemoryRepository repository = new FortuneInMemoryRepository(new TemplateMetrics(new AppMetricsRegistry()), open(DurableEntityStore
+                .DEFAULT_SNAPSHOT_THRESHOLD));
+        String key = UUID.randomUUID().toString();
+        FortuneEntity saved = repository.save(new FortuneEntity(key, "text", ""));
+        long head = repository.changeSequence();
+        char[] large = new char[DurableEntityStore.MAX_RECORD];
+        Arrays.fill(large, 'x');
+        try {
+            repository.save(new FortuneEntity(key, new String(large), "author"));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Nothing followed a write the log would not take
+            assertEquals("text", repository.findOne(key).getText());
+            assertEquals(1, repository.findAllAnon(new PageRequest(0, 10)).size());
+            assertEquals(0, repository.findAllNamed(new PageRequest(0, 10)).size());
+            assertEquals(head, repository.changeSequence());
+            assertEquals(saved.getVersion(), repository.findOne(key).getVersion());
+        } finally {
+            repository.close();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void repositoryNotBounded() throws Exception {
+        FortuneInMemoryRepository repository = new FortuneInMemoryRepository(new TemplateMetrics(new AppMetricsRegistry()), open(DurableEntityStore
+                .DEFAULT_SNAPSHOT_THRESHOLD));
+        try {
+            // Evictions would be logged as deletes
+            repository.bound(100, 10, FortuneInMemoryRepository::weight);
+        } finally {
+            repository.close();
+        }
+    }
+
+    @Test
+    public void repositoryNoExpiry() throws Exception {
+        FortuneInMemoryRepository repository = new FortuneInMemoryRepository(new TemplateMetrics(new AppMetricsRegistry()), open(DurableEntityStore
+                .DEFAULT_SNAPSHOT_THRESHOLD));
+        try {
+            // The deadline would not survive a restart
+            repository.save(new FortuneEntity(UUID.randomUUID().toString(), "text", ""), Duration.ofMinutes(1));
+            fail();
+        } catch (UnsupportedOperationException e) {
+            assertEquals(0, repository.count());
+        } finally {
+            repository.close();
+        }
+    }
+
+}
@@ -0,0 +1,169 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import com.codingrodent.microservice.template.entity.*;
+import com.codingrodent.microservice.template.utility.Utility;
+import com.couchbase.client.core.lang.Tuple2;
+import com.couchbase.client.core.message.ResponseStatus;
+import com.couchbase.client.deps.io.netty.buffer.*;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.error.TranscodingException;
+import com.couchbase.client.java.transcoder.*;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.*;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class EntityTranscoderTest {
+    private final static String KEY = "6a0e1d6c-3b34-4e3e-9c7b-2b1d1c5d2f10";
+    private final static int OPS = 20_000;
+
+    private EntityTranscoder transcoder;
+
+    @Before
+    public void setUp() throws Exception {
+        transcoder = new EntityTranscoder(new TypeRegistry(Utility.getObjectMapper(), FortuneEntity.class));
+    }
+
+    private static ByteBuf buffer(final String json) {
+        return Unpooled.copiedBuffer(json, StandardCharsets.UTF_8);
+    }
+
+    private FortuneEntity decode(final ByteBuf content, final long cas) {
+        return (FortuneEntity) transcoder.decode(KEY, content, cas, 0, TranscoderUtils.JSON_COMPAT_FLAGS, ResponseStatus.SUCCESS).content();
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        FortuneEntity entity = Versioned.withVersion(new FortuneEntity(KEY, "Some \"text\"", "author"), 7);
+        Tuple2<ByteBuf, Integer> encoded = transcoder.encode(EntityDocument.create(entity));
+        assertEquals(TranscoderUtils.JSON_COMPAT_FLAGS, (int) encoded.value2());
+        String json = encoded.value1().toString(StandardCharsets.UTF_8);
+        // Class first, and the key and CAS are left to the document metadata
+        assertTrue(json.startsWith("{\"_class\":\"" + FortuneEntity.class.getName() + "\""));
+        JsonNode tree = Utility.getObjectMapper().readTree(json);
+        assertFalse(tree.has("id"));
+        assertFalse(tree.has("version"));
+        FortuneEntity decoded = decode(encoded.value1(), 99);
+        assertEquals(KEY, decoded.getId());
+        assertEquals(99, decoded.getVersion());
+        assertEquals("Some \"text\"", decoded.getText());
+        assertEquals("author", decoded.getAuthor());
+        assertEquals(0, encoded.value1().refCnt());
+        // Nothing changed for other users of the shared mapper
+        JsonNode shared = Utility.getObjectMapper().valueToTree(decoded);
+        assertEquals(KEY, shared.get("id").asText());
+        assertEquals(99, shared.get("version").asLong());
+        assertFalse(shared.has("_class"));
+        assertEquals("text", Utility.getObjectMapper().readValue("{\"text\":\"text\"}", FortuneEntity.class).getText());
+    }
+
+    @Test
+    public void directBuffer() throws Exception {
+        ByteBuf content = Unpooled.directBuffer();
+        content.writeBytes(("{\"_class\":\"" + FortuneEntity.class.getName() + "\",\"text\":\"text\",\"author\":\"\"}").getBytes(StandardCharsets.UTF_8));
+        FortuneEntity decoded = decode(content, 3);
+        assertEquals("text", decoded.getText());
+        assertEquals(3, decoded.getVersion());
+    }
+
+    @Test
+    public void classNotFirst() throws Exception {
+        // As written by other clients, including stale metadata which must not win
+        String json = "{\"text\":\"text\",\"version\":3,\"id\":\"other\",\"extra\":{\"id\":[1,2]},\"author\":\"a\",\"_class\":\"" + FortuneEntity.class
+                .getName() + "\"}";
+        FortuneEntity decoded = decode(buffer(json), 5);
+        assertEquals(KEY, decoded.getId());
+        assertEquals(5, decoded.getVersion());
+        assertEquals("text", decoded.getText());
+        assertEquals("a", decoded.getAuthor());
+    }
+
+    @Test(expected = TranscodingException.class)
+    public void noClass() throws Exception {
+        decode(buffer("{\"text\":\"text\",\"author\":\"a\"}"), 1);
+    }
+
+    @Test(expected = TranscodingException.class)
+    public void notEntity() throws Exception {
+        decode(buffer("{\"_class\":\"java.lang.String\"}"), 1);
+    }
+
+    @Test(expected = TranscodingException.class)
+    public void unknownClass() throws Exception {
+        decode(buffer("{\"_class\":\"com.example.Missing\",\"text\":\"text\"}"), 1);
+    }
+
+    @Test(expected = TranscodingException.class)
+    public void notJson() throws Exception {
+        transcoder.decode(KEY, buffer("{}"), 1, 0, TranscoderUtils.BINARY_COMPAT_FLAGS, ResponseStatus.SUCCESS);
+    }
+
+    /**
+     * Average bytes allocated by the current thread running an operation. Operations must be warmed up first so the JIT has removed what
+     * allocation it can
+     */
+    private static long allocated(final Runnable operation) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long start = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (int i = 0; i < OPS; i++)
+            operation.run();
+        return (threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - start) / OPS;
+    }
+
+    @Test
+    public void allocation() throws Exception {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        FortuneEntity entity = new FortuneEntity(KEY, "You will be successful in your work but only if you avoid the drain on your wallet", "author");
+        // Previous path - string, json tree, bytes, then back through json tree and string to the entity
+        JsonTranscoder json = new JsonTranscoder();
+        Runnable viaTree = () -> {
+            try {
+                JsonObject content = JsonObject.fromJson(Utility.getObjectMapper().writeValueAsString(entity));
+                ByteBuf encoded = json.encode(JsonDocument.create(KEY, content)).value1();
+                JsonObject decoded = json.decode(KEY, encoded, 42, 0, TranscoderUtils.JSON_COMPAT_FLAGS, ResponseStatus.SUCCESS).content();
+                decoded.put("id", KEY).put("version", 42L);
+                Utility.getObjectMapper().readValue(decoded.toString(), FortuneEntity.class);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        };
+        Runnable streaming = () -> decode(transcoder.encode(EntityDocument.create(entity)).value1(), 42);
+        for (int i = 0; i < 5 * OPS; i++) {
+            viaTree.run();
+            streaming.run();
+        }
+        long tree = allocated(viaTree);
+        long streamed = allocated(streaming);
+        assertTrue("Streamed " + streamed + " bytes per op against " + tree, streamed < tree);
+    }
+
+}
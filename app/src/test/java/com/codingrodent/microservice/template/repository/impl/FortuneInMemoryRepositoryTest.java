@@ -24,17 +24,33 @@
  */
 package com.codingrodent.microservice.template.repository.impl;
 
-import com.codingrodent.microservice.template.entity.FortuneEntity;
+import com.codingrodent.microservice.template.entity.*;
+import com.codingrodent.microservice.template.exception.SnapshotExpiredException;
+import com.codingrodent.microservice.template.metrics.*;
+import com.codingrodent.microservice.template.model.Fortune;
 import org.junit.*;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.data.domain.*;
 
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import static com.codingrodent.microservice.template.constants.SystemConstants.*;
+import static com.codingrodent.microservice.template.converter.Converter.toFortuneEntity;
 
 import static junit.framework.TestCase.assertFalse;
 import static junit.framework.TestCase.assertTrue;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 
 public class FortuneInMemoryRepositoryTest {
     private FortuneInMemoryRepository repository;
@@ -113,6 +129,27 @@ public class FortuneInMemoryRepositoryTest {
         assertEquals(0, list.size());
     }
 
+    @Test
+    public void indexesFollowUpdates() throws Exception {
+        int anon = uuids.size() - authors;
+        String uuid = repository.findAllAnon(new PageRequest(0, 1)).get(0).getId();
+        // anonymous to named
+        FortuneEntity entity = repository.findOne(uuid);
+        repository.save(new FortuneEntity(uuid, entity.getText(), "someone"));
+        assertEquals(authors + 1, repository.findAllNamed(new PageRequest(0, 999)).size());
+        assertEquals(anon - 1, repository.findAllAnon(new PageRequest(0, 999)).size());
+        // named to anonymous
+        repository.save(new FortuneEntity(uuid, entity.getText(), ""));
+        assertEquals(authors, repository.findAllNamed(new PageRequest(0, 999)).size());
+        assertEquals(anon, repository.findAllAnon(new PageRequest(0, 999)).size());
+        // delete
+        repository.delete(uuid);
+        assertEquals(anon - 1, repository.findAllAnon(new PageRequest(0, 999)).size());
+        repository.deleteAll();
+        assertEquals(0, repository.findAllNamed(new PageRequest(0, 999)).size());
+        assertEquals(0, repository.findAllAnon(new PageRequest(0, 999)).size());
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void findAllPageable1() throws Exception {
         repository.findAll((Pageable) null).getContent();
@@ -144,6 +181,42 @@ public class FortuneInMemoryRepositoryTest {
         assertEquals(0, list.size());
     }
 
+    @Test
+    public void findAllPageableStableOrder() throws Exception {
+        List<String> expected = new ArrayList<>(uuids);
+        Collections.sort(expected);
+        List<String> pages = new ArrayList<>();
+        for (int page = 0; page < 5; page++)
+            repository.findAll(new PageRequest(page, 4)).getContent().forEach(e -> pages.add(e.getId()));
+        assertEquals(expected, pages);
+        assertEquals(uuids.size(), repository.findAll(new PageRequest(1, 4)).getTotalElements());
+    }
+
+    @Test
+    public void findAfter() throws Exception {
+        List<String> expected = new ArrayList<>(uuids);
+        Collections.sort(expected);
+        List<String> scanned = new ArrayList<>();
+        List<FortuneEntity> page = repository.findAllByIdGreaterThan(null, new PageRequest(0, 3));
+        while (!page.isEmpty()) {
+            page.forEach(e -> scanned.add(e.getId()));
+            page = repository.findAllByIdGreaterThan(scanned.get(scanned.size() - 1), new PageRequest(0, 3));
+        }
+        assertEquals(expected, scanned);
+        //
+        int named = 0;
+        for (FortuneEntity entity : repository.findNamedByIdGreaterThan(null, new PageRequest(0, 999))) {
+            assertTrue(!"".equals(entity.getAuthor()));
+            named++;
+        }
+        assertEquals(authors, named);
+        for (FortuneEntity entity : repository.findAnonByIdGreaterThan(null, new PageRequest(0, 999)))
+            assertEquals("", entity.getAuthor());
+        // resume from a deleted key
+        repository.delete(expected.get(4));
+        assertEquals(expected.get(5), repository.findAllByIdGreaterThan(expected.get(4), new PageRequest(0, 1)).get(0).getId());
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void save1() throws Exception {
         repository.save((FortuneEntity) null);
@@ -155,10 +228,81 @@ public class FortuneInMemoryRepositoryTest {
         FortuneEntity entity = repository.save(new FortuneEntity(uuid, "text", "author"));
         assertEquals("author", entity.getAuthor());
         assertEquals("text", entity.getText());
-        assertEquals(0, entity.getVersion());
+        assertTrue(entity.getVersion() > 0);
         assertEquals(uuid, entity.getId());
     }
 
+    @Test
+    public void saveVersionIncrements() throws Exception {
+        String uuid = UUID.randomUUID().toString();
+        FortuneEntity first = repository.save(new FortuneEntity(uuid, "text", "author"));
+        FortuneEntity second = repository.save(versioned(uuid, "text2", first.getVersion()));
+        assertTrue(second.getVersion() > first.getVersion());
+        assertEquals(second.getVersion(), repository.findOne(uuid).getVersion());
+        // a delete and re-create never reuses an old version
+        repository.delete(uuid);
+        FortuneEntity third = repository.save(new FortuneEntity(uuid, "text3", "author"));
+        assertTrue(third.getVersion() > second.getVersion());
+    }
+
+    private FortuneEntity versioned(final String uuid, final String text, final long version) {
+        return toFortuneEntity.convert(uuid, new Fortune(text, Optional.of("author")), Optional.of(version));
+    }
+
+    @Test
+    public void saveConflict() throws Exception {
+        String uuid = UUID.randomUUID().toString();
+        FortuneEntity first = repository.save(new FortuneEntity(uuid, "text", "author"));
+        FortuneEntity second = repository.save(versioned(uuid, "text2", first.getVersion()));
+        try {
+            repository.save(versioned(uuid, "text3", first.getVersion()));
+            fail("Stale version accepted");
+        } catch (OptimisticLockingFailureException e) {
+            // expected
+        }
+        assertEquals("text2", repository.findOne(uuid).getText());
+        assertEquals(second.getVersion(), repository.findOne(uuid).getVersion());
+        // version 0 is unconditional
+        assertEquals("text4", repository.save(new FortuneEntity(uuid, "text4", "author")).getText());
+    }
+
+    @Test
+    public void saveConcurrent() throws Exception {
+        AppMetricsRegistry registry = new AppMetricsRegistry();
+        FortuneInMemoryRepository metered = new FortuneInMemoryRepository(new TemplateMetrics(registry), false);
+        String uuid = UUID.randomUUID().toString();
+        metered.save(new FortuneEntity(uuid, "text", "author"));
+        final int threads = 4, attempts = 500;
+        AtomicInteger conflicts = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            results.add(executor.submit(() -> {
+                int saved = 0;
+                for (int i = 0; i < attempts; i++) {
+                    FortuneEntity read = metered.findOne(uuid);
+                    try {
+                        metered.save(versioned(uuid, read.getText() + "x", read.getVersion()));
+                        saved++;
+                    } catch (OptimisticLockingFailureException e) {
+                        conflicts.incrementAndGet();
+                    }
+                }
+                return saved;
+            }));
+        }
+        int saved = 0;
+        for (Future<Integer> result : results)
+            saved = saved + result.get();
+        executor.shutdown();
+        // every successful read-modify-write is visible, none are lost
+        assertEquals(4 + saved, metered.findOne(uuid).getText().length());
+        assertEquals(threads * attempts, saved + conflicts.get());
+        assertEquals(conflicts.get(), registry.meter(METRIC_REPOSITORY_CONFLICT).getCount());
+        assertEquals(saved + 1, registry.meter(METRIC_REPOSITORY_SAVE).getCount());
+        assertEquals(1, metered.count());
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void saveIterable1() throws Exception {
         repository.save((Iterable<FortuneEntity>) null);
@@ -186,9 +330,30 @@ public class FortuneInMemoryRepositoryTest {
         assertEquals(size, count);
     }
 
+    @Test
+    public void saveEach() throws Exception {
+        String uuid = UUID.randomUUID().toString();
+        FortuneEntity first = repository.save(new FortuneEntity(uuid, "text", "author"));
+        String other = UUID.randomUUID().toString();
+        List<CompletableFuture<FortuneEntity>> results = repository.saveEach(Arrays.asList(versioned(uuid, "text2", first.getVersion()), versioned
+                (uuid, "text3", first.getVersion()), new FortuneEntity(other, "text", "")));
+        assertEquals(3, results.size());
+        assertEquals("text2", results.get(0).get().getText());
+        assertTrue(results.get(1).isCompletedExceptionally());
+        assertEquals(other, results.get(2).get().getId());
+        assertEquals("text2", repository.findOne(uuid).getText());
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void findOne1() throws Exception {
-        repository.findOne(null);
+        repository.findOne((String) null);
+    }
+
+    @Test
+    public void findOneUuid() throws Exception {
+        for (String uuid : uuids)
+            assertSame(repository.findOne(uuid), repository.findOne(UUID.fromString(uuid)));
+        assertNull(repository.findOne(UUID.randomUUID()));
     }
 
     @Test
@@ -198,6 +363,180 @@ public class FortuneInMemoryRepositoryTest {
         assertNull(repository.findOne(UUID.randomUUID().toString()));
     }
 
+    @Test
+    public void findOneShared() throws Exception {
+        String uuid = uuids.iterator().next();
+        assertSame(repository.findOne(uuid), repository.findOne(uuid));
+    }
+
+    @Test
+    public void findOneCopied() throws Exception {
+        InMemoryRepository<FortuneEntity> copying = new InMemoryRepository<FortuneEntity>(false, new HeapEntityStore<>(new FortuneEntityCodec()), new TemplateMetrics(new AppMetricsRegistry())) {
+            @Override
+            FortuneEntity copy(final FortuneEntity original) {
+                return new FortuneEntity(original.getId(), original.getText(), original.getAuthor());
+            }
+        };
+        String uuid = UUID.randomUUID().toString();
+        FortuneEntity saved = copying.save(new FortuneEntity(uuid, "text", "author"));
+        FortuneEntity read = copying.findOne(uuid);
+        assertNotSame(saved, read);
+        assertNotSame(read, copying.findOne(uuid));
+        assertEquals(saved.getVersion(), read.getVersion());
+        assertEquals("text", read.getText());
+    }
+
+    @Test
+    public void offHeap() throws Exception {
+        AppMetricsRegistry registry = new AppMetricsRegistry();
+        FortuneInMemoryRepository offHeap = new FortuneInMemoryRepository(new TemplateMetrics(registry), true);
+        String uuid = UUID.randomUUID().toString();
+        FortuneEntity first = offHeap.save(new FortuneEntity(uuid, "text", ""));
+        assertEquals("text", offHeap.findOne(uuid).getText());
+        assertEquals(first.getVersion(), offHeap.findOne(uuid).getVersion());
+        assertEquals(1, offHeap.findAllAnon(new PageRequest(0, 10)).size());
+        offHeap.save(versioned(uuid, "text2", first.getVersion()));
+        assertEquals("text2", offHeap.findOne(uuid).getText());
+        assertEquals(0, offHeap.findAllAnon(new PageRequest(0, 10)).size());
+        assertEquals(1, offHeap.findAllNamed(new PageRequest(0, 10)).size());
+        assertTrue((Long) registry.getGauges().get(METRIC_REPOSITORY_OFF_HEAP).getValue() > 0);
+        assertTrue((Long) registry.getGauges().get(METRIC_REPOSITORY_HEAP).getValue() > 0);
+        offHeap.delete(uuid);
+        assertNull(offHeap.findOne(uuid));
+        assertEquals(0L, registry.getGauges().get(METRIC_REPOSITORY_HEAP).getValue());
+    }
+
+    @Test
+    public void sharded() throws Exception {
+        AppMetricsRegistry registry = new AppMetricsRegistry();
+        FortuneInMemoryRepository sharded = new FortuneInMemoryRepository(new TemplateMetrics(registry), new ShardedEntityStore<>(4, () -> new
+                HeapEntityStore<>(new FortuneEntityCodec())));
+        for (int i = 0; i < 100; i++)
+            sharded.save(new FortuneEntity(UUID.randomUUID().toString(), "text" + (i % 10), (i % 2 == 0) ? "" : "author"));
+        List<FortuneEntity> all = new ArrayList<>();
+        sharded.findAll().forEach(all::add);
+        assertEquals(100, all.size());
+        for (int i = 1; i < all.size(); i++)
+            assertTrue(all.get(i - 1).getId().compareTo(all.get(i).getId()) < 0);
+        // Two orders can not come from a sorted view so are sorted from a parallel scan
+        List<FortuneEntity> page = sharded.findAllNamed(new PageRequest(0, 100, new Sort(new Sort.Order("text"), new Sort.Order(Sort.Direction
+                .DESC, "id"))));
+        assertEquals(50, page.size());
+        for (int i = 1; i < page.size(); i++) {
+            int text = page.get(i - 1).getText().compareTo(page.get(i).getText());
+            assertTrue(text < 0 || (text == 0 && page.get(i - 1).getId().compareTo(page.get(i).getId()) > 0));
+            assertEquals("author", page.get(i).getAuthor());
+        }
+        long size = 0;
+        for (int i = 0; i < 4; i++)
+            size = size + (Long) registry.getGauges().get(METRIC_REPOSITORY_STORE + ".shard." + i + ".size").getValue();
+        assertEquals(100, size);
+    }
+
+    @Test
+    public void expiry() throws Exception {
+        AppMetricsRegistry registry = new AppMetricsRegistry();
+        FortuneInMemoryRepository expiring = new FortuneInMemoryRepository(new TemplateMetrics(registry), false);
+        String temporary = UUID.randomUUID().toString();
+        String permanent = UUID.randomUUID().toString();
+        String deleted = UUID.randomUUID().toString();
+        String gone = UUID.randomUUID().toString();
+        expiring.save(new FortuneEntity(temporary, "text", ""), Duration.ofSeconds(60));
+        FortuneEntity saved = expiring.save(new FortuneEntity(permanent, "text", ""), Duration.ofSeconds(60));
+        expiring.save(new FortuneEntity(deleted, "text", ""), Duration.ofSeconds(60));
+        expiring.save(new FortuneEntity(gone, "text", ""), Duration.ofSeconds(60));
+        // Saving again without a time to live, or deleting, cancels the expiry
+        expiring.save(versioned(permanent, "text2", saved.getVersion()));
+        expiring.delete(deleted);
+        expiring.save(new FortuneEntity(deleted, "text", ""));
+        expiring.delete(gone);
+        assertEquals(2, expiring.findAllAnon(new PageRequest(0, 10)).size());
+        long now = System.currentTimeMillis();
+        expiring.expire(now);
+        assertEquals(3, expiring.count());
+        expiring.expire(now + 61_000);
+        assertNull(expiring.findOne(temporary));
+        assertNotNull(expiring.findOne(permanent));
+        assertNotNull(expiring.findOne(deleted));
+        assertNull(expiring.findOne(gone));
+        assertEquals(1, expiring.findAllAnon(new PageRequest(0, 10)).size());
+        assertEquals(1, registry.getMeters().get(METRIC_REPOSITORY_EXPIRED).getCount());
+        assertTrue(registry.getHistograms().get(METRIC_REPOSITORY_EXPIRY_LAG).getCount() > 0);
+        expiring.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void expiryNotPositive() throws Exception {
+        repository.save(new FortuneEntity(UUID.randomUUID().toString(), "text", ""), Duration.ZERO);
+    }
+
+    @Test
+    public void bounded() throws Exception {
+        AppMetricsRegistry registry = new AppMetricsRegistry();
+        FortuneInMemoryRepository bounded = new FortuneInMemoryRepository(new TemplateMetrics(registry), false);
+        bounded.bound(100, 10, FortuneInMemoryRepository::weight);
+        String hot = UUID.randomUUID().toString();
+        bounded.save(new FortuneEntity(hot, "0123456789", ""));
+        for (int i = 0; i < 5; i++)
+            assertNotNull(bounded.findOne(hot));
+        for (int i = 0; i < 100; i++)
+            bounded.save(new FortuneEntity(UUID.randomUUID().toString(), "0123456789", ""));
+        assertNotNull(bounded.findOne(UUID.fromString(hot)));
+        assertNull(bounded.findOne(UUID.randomUUID().toString()));
+        assertEquals(6, registry.getCounters().get(METRIC_CACHE_HIT).getCount());
+        assertEquals(1, registry.getCounters().get(METRIC_CACHE_MISS).getCount());
+        assertTrue(bounded.count() <= 10);
+        assertEquals(bounded.count(), bounded.findAllAnon(new PageRequest(0, 100)).size());
+        assertEquals(101 - bounded.count(), registry.getCounters().get(METRIC_CACHE_EVICTION).getCount());
+        assertTrue((Long) registry.getGauges().get(METRIC_CACHE_WEIGHT).getValue() <= 100);
+        // Reading pages does not count as reading every entity on them
+        bounded.findAll(new PageRequest(0, 100));
+        bounded.findAll(new PageRequest(0, 100, new Sort("text")));
+        bounded.findAnonByIdGreaterThan(hot, new PageRequest(0, 100));
+        assertEquals(6, registry.getCounters().get(METRIC_CACHE_HIT).getCount());
+        assertEquals(1, registry.getCounters().get(METRIC_CACHE_MISS).getCount());
+    }
+
+    @Test
+    public void snapshotPagesAgree() throws Exception {
+        List<String> before = new ArrayList<>();
+        repository.findAll().forEach(entity -> before.add(entity.getId()));
+        long snapshot = repository.pinSnapshot();
+        // Change the repository between every page - delete, update and insert around the pages already read
+        List<FortuneEntity> read = new ArrayList<>();
+        for (int page = 0; ; page++) {
+            List<FortuneEntity> content = repository.findAllAt(new PageRequest(page, 7), snapshot);
+            if (content.isEmpty())
+                break;
+            read.addAll(content);
+            repository.delete(before.get(page));
+            repository.save(new FortuneEntity(UUID.randomUUID().toString(), "new", ""));
+            String last = before.get(before.size() - 1 - page);
+            repository.save(versioned(last, "changed", repository.findOne(last).getVersion()));
+        }
+        assertEquals(before, read.stream().map(FortuneEntity::getId).collect(Collectors.toList()));
+        assertTrue(read.stream().noneMatch(entity -> "changed".equals(entity.getText()) || "new".equals(entity.getText())));
+        repository.releaseSnapshot(snapshot);
+        try {
+            repository.findAllAt(new PageRequest(0, 7), snapshot);
+            fail();
+        } catch (SnapshotExpiredException e) {
+            // Released
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void snapshotNotSorted() throws Exception {
+        repository.findAllAt(new PageRequest(0, 10, new Sort("author")), repository.pinSnapshot());
+    }
+
+    @Test(expected = SnapshotExpiredException.class)
+    public void snapshotEndsOnDeleteAll() throws Exception {
+        long snapshot = repository.pinSnapshot();
+        repository.deleteAll();
+        repository.findAllAt(new PageRequest(0, 10), snapshot);
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void exists1() throws Exception {
         assertTrue(repository.exists(null));
@@ -247,6 +586,29 @@ public class FortuneInMemoryRepositoryTest {
         }
     }
 
+    @Test
+    public void changes() throws Exception {
+        long head = repository.changeSequence();
+        assertEquals(uuids.size(), head);
+        String uuid = uuids.iterator().next();
+        FortuneEntity updated = repository.save(new FortuneEntity(uuid, "changed", "author"));
+        repository.delete(uuid);
+        List<ChangeEvent<FortuneEntity>> events = repository.changes(head + 1).take(2).toList().toBlocking().single();
+        assertEquals(ChangeEvent.Type.UPDATE, events.get(0).getType());
+        assertEquals(uuid, events.get(0).getKey());
+        assertEquals(updated.getVersion(), events.get(0).getVersion());
+        assertEquals("changed", events.get(0).getEntity().getText());
+        assertEquals(ChangeEvent.Type.DELETE, events.get(1).getType());
+        assertNull(events.get(1).getEntity());
+        assertTrue(events.get(1).getVersion() > updated.getVersion());
+        // Everything from the start, inserts first
+        List<ChangeEvent<FortuneEntity>> all = repository.changes(1).take(uuids.size() + 2).toList().toBlocking().single();
+        assertEquals(uuids, all.stream().limit(uuids.size()).filter(event -> ChangeEvent.Type.INSERT == event.getType()).map(ChangeEvent::getKey)
+                .collect(Collectors.toSet()));
+        repository.deleteAll();
+        assertEquals(head + 2 + uuids.size() - 1, repository.changeSequence());
+    }
+
     @Test
     public void deleteAll() throws Exception {
         assertEquals(uuids.size(), repository.count());
@@ -254,6 +616,49 @@ public class FortuneInMemoryRepositoryTest {
         assertEquals(0, repository.count());
     }
 
+    @Test
+    public void deleteAllChangesInKeyOrder() throws Exception {
+        List<String> keys = new ArrayList<>(uuids).subList(0, 8);
+        long head = repository.changeSequence();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> saves = executor.submit(() -> {
+            for (int i = 0; i < 1200; i++)
+                repository.save(new FortuneEntity(keys.get(i % keys.size()), "text" + i, "author"));
+        });
+        for (int i = 0; (i < 200) && !saves.isDone(); i++)
+            repository.deleteAll();
+        saves.get();
+        executor.shutdown();
+        // Replaying the feed gives each key's changes in the order they were made, ending where the repository is
+        int published = (int) (repository.changeSequence() - head);
+        Map<String, ChangeEvent<FortuneEntity>> last = new HashMap<>();
+        for (ChangeEvent<FortuneEntity> event : repository.changes(head + 1).take(published).toList().toBlocking().single()) {
+            ChangeEvent<FortuneEntity> before = last.put(event.getKey(), event);
+            if (null != before)
+                assertTrue(event.getVersion() > before.getVersion());
+        }
+        for (String key : keys)
+            assertEquals(repository.exists(key), ChangeEvent.Type.DELETE != last.get(key).getType());
+    }
+
+    @Test
+    public void deleteAllRacingSave() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> saves = executor.submit(() -> {
+            for (int i = 0; i < 2000; i++)
+                repository.save(new FortuneEntity(UUID.randomUUID().toString(), "text", (0 == i % 2) ? "" : "author"));
+        });
+        while (!saves.isDone())
+            repository.deleteAll();
+        saves.get();
+        executor.shutdown();
+        // Whatever survived is both stored and indexed
+        long count = repository.count();
+        assertEquals(count, repository.findAll(new PageRequest(0, 9999)).getTotalElements());
+        assertEquals(count, repository.findAll(new PageRequest(0, 9999)).getContent().size());
+        assertEquals(count, repository.findAllNamed(new PageRequest(0, 9999)).size() + repository.findAllAnon(new PageRequest(0, 9999)).size());
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void deleteEntity1() throws Exception {
         repository.delete((FortuneEntity) null);
@@ -306,14 +711,70 @@ public class FortuneInMemoryRepositoryTest {
         assertEquals(uuids.size() - 3, repository.count());
     }
 
-    @Test(expected = UnsupportedOperationException.class)
+    @Test(expected = IllegalArgumentException.class)
     public void findAllSort1() throws Exception {
         repository.findAll(new Sort(new Sort.Order("xyzzy")));
     }
 
-    @Test(expected = UnsupportedOperationException.class)
+    @Test(expected = IllegalArgumentException.class)
     public void findAllSort2() throws Exception {
-        repository.findAll(new Sort(new Sort.Order("xyzzy")));
+        repository.findAll((Sort) null);
+    }
+
+    private List<String> texts(final Iterable<FortuneEntity> entities) {
+        List<String> texts = new ArrayList<>();
+        entities.forEach(entity -> texts.add(entity.getText()));
+        return texts;
+    }
+
+    private List<String> expected(final Comparator<FortuneEntity> comparator, final Predicate<FortuneEntity> filter) {
+        List<FortuneEntity> all = new ArrayList<>();
+        repository.findAll().forEach(all::add);
+        all.sort(comparator.thenComparing(FortuneEntity::getId));
+        return texts(all.stream().filter(filter).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void findAllSort3() throws Exception {
+        // served from the sorted views
+        assertEquals(expected(Comparator.comparing(FortuneEntity::getText), e -> true), texts(repository.findAll(new Sort("text"))));
+        assertEquals(expected(Comparator.comparing(FortuneEntity::getText).reversed(), e -> true), texts(repository.findAll(new Sort(Sort.Direction
+                .DESC, "text"))));
+        assertEquals(expected(Comparator.comparing(FortuneEntity::getId), e -> true), texts(repository.findAll(new Sort("id"))));
+        // served by a compiled comparator
+        Sort both = new Sort(new Sort.Order(Sort.Direction.DESC, "author"), new Sort.Order("text"));
+        assertEquals(expected(Comparator.comparing(FortuneEntity::getAuthor).reversed().thenComparing(FortuneEntity::getText), e -> true), texts
+                (repository.findAll(both)));
+        assertEquals(uuids.size(), texts(repository.findAll(new Sort(new Sort.Order("author").ignoreCase()))).size());
+    }
+
+    @Test
+    public void findAllSortPaged() throws Exception {
+        List<String> ascending = expected(Comparator.comparing(FortuneEntity::getText), e -> true);
+        List<String> descending = expected(Comparator.comparing(FortuneEntity::getText).reversed(), e -> true);
+        for (int page = 0; page < 4; page++) {
+            int from = Math.min(page * 6, ascending.size()), to = Math.min(from + 6, ascending.size());
+            Page<FortuneEntity> asc = repository.findAll(new PageRequest(page, 6, new Sort("text")));
+            assertEquals(ascending.subList(from, to), texts(asc.getContent()));
+            assertEquals(uuids.size(), asc.getTotalElements());
+            assertEquals(descending.subList(from, to), texts(repository.findAll(new PageRequest(page, 6, Sort.Direction.DESC, "text")).getContent()));
+        }
+        // secondary index filtered through a sorted view, then through a comparator
+        List<String> named = expected(Comparator.comparing(FortuneEntity::getText).reversed(), e -> !"".equals(e.getAuthor()));
+        assertEquals(named.subList(5, 10), texts(repository.findAllNamed(new PageRequest(1, 5, Sort.Direction.DESC, "text"))));
+        List<String> anon = expected(Comparator.comparing(FortuneEntity::getText), e -> "".equals(e.getAuthor()));
+        assertEquals(anon, texts(repository.findAllAnon(new PageRequest(0, 20, new Sort(new Sort.Order("text").ignoreCase())))));
+    }
+
+    @Test
+    public void sortedViewFollowsUpdates() throws Exception {
+        String uuid = uuids.iterator().next();
+        FortuneEntity entity = repository.findOne(uuid);
+        repository.save(versioned(uuid, "0000", entity.getVersion()));
+        assertEquals("0000", repository.findAll(new PageRequest(0, 1, new Sort("text"))).getContent().get(0).getText());
+        repository.delete(uuid);
+        assertNotEquals("0000", repository.findAll(new PageRequest(0, 1, new Sort("text"))).getContent().get(0).getText());
+        assertEquals(uuids.size() - 1, texts(repository.findAll(new Sort("author"))).size());
     }
 
-}
\ No newline at end of file
+}
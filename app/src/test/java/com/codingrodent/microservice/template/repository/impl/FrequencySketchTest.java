@@ -0,0 +1,76 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import org.junit.*;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class FrequencySketchTest {
+
+    @Test
+    public void countsAndSaturates() throws Exception {
+        FrequencySketch sketch = new FrequencySketch(1024);
+        String key = UUID.randomUUID().toString();
+        assertEquals(0, sketch.frequency(key));
+        for (int i = 1; i <= 20; i++) {
+            sketch.increment(key);
+            assertEquals(Math.min(i, 15), sketch.frequency(key));
+        }
+    }
+
+    @Test
+    public void popularKeysStandOut() throws Exception {
+        FrequencySketch sketch = new FrequencySketch(1 << 14);
+        String popular = UUID.randomUUID().toString();
+        for (int i = 0; i < 5000; i++) {
+            sketch.increment(UUID.randomUUID().toString());
+            if (0 == i % 100)
+                sketch.increment(popular);
+        }
+        // Halving keeps counts recent, but a key seen repeatedly still beats a key seen once
+        assertTrue(sketch.frequency(popular) > 1);
+        assertTrue(sketch.frequency(UUID.randomUUID().toString()) <= 1);
+    }
+
+    @Test
+    public void ages() throws Exception {
+        FrequencySketch sketch = new FrequencySketch(1024);
+        Random random = new Random(1234);
+        String old = "old", recent = "recent";
+        for (int i = 0; i < 15; i++)
+            sketch.increment(old);
+        assertEquals(15, sketch.frequency(old));
+        // Three sample periods halve the old counts three times
+        for (int i = 0; i < 30 * 1024; i++)
+            sketch.increment(new UUID(random.nextLong(), random.nextLong()).toString());
+        for (int i = 0; i < 15; i++)
+            sketch.increment(recent);
+        assertTrue(sketch.frequency(old) < sketch.frequency(recent));
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import com.codingrodent.microservice.template.metrics.*;
+import org.junit.*;
+import rx.Observable;
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.codingrodent.microservice.template.constants.SystemConstants.*;
+import static org.junit.Assert.*;
+
+public class HedgePolicyTest {
+    private final static long PERCENTILE = 90;
+    private final static int BUDGET = 5;
+
+    private AppMetricsRegistry registry;
+    private TestScheduler scheduler;
+    private HedgePolicy policy;
+    private AtomicInteger backups;
+
+    @Before
+    public void setUp() throws Exception {
+        registry = new AppMetricsRegistry();
+        scheduler = new TestScheduler();
+        policy = new HedgePolicy(PERCENTILE, BUDGET, new TemplateMetrics(registry), scheduler, () -> TimeUnit.MILLISECONDS.toNanos(scheduler.now()));
+        backups = new AtomicInteger();
+    }
+
+    private TestSubscriber<String> read(final long primary, final Observable<String> backup) {
+        TestSubscriber<String> subscriber = new TestSubscriber<>();
+        policy.apply(Observable.just("primary").delay(primary, TimeUnit.MILLISECONDS, scheduler), () -> {
+            backups.incrementAndGet();
+            return backup;
+        }).subscribe(subscriber);
+        return subscriber;
+    }
+
+    private void warm(final long millis) {
+        for (int i = 0; i < LatencyWindow.REFRESH; i++) {
+            TestSubscriber<String> subscriber = read(millis, Observable.just("backup"));
+            scheduler.advanceTimeBy(millis, TimeUnit.MILLISECONDS);
+            subscriber.assertValue("primary");
+        }
+    }
+
+    private long count(final String name) {
+        return registry.getCounters().containsKey(name) ? registry.getCounters().get(name).getCount() : 0;
+    }
+
+    @Test
+    public void coldNeverHedges() throws Exception {
+        TestSubscriber<String> subscriber = read(1000, Observable.just("backup"));
+        scheduler.advanceTimeBy(1000, TimeUnit.MILLISECONDS);
+        subscriber.assertValue("primary");
+        assertEquals(-1, policy.delay());
+        assertEquals(0, backups.get());
+    }
+
+    @Test
+    public void slowReadHedged() throws Exception {
+        warm(10);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(10), policy.delay());
+        assertEquals(10_000L, registry.getGauges().get(METRIC_HEDGE_DELAY).getValue());
+        // Answered by the backup once the delay is up
+        TestSubscriber<String> subscriber = read(1000, Observable.just("backup"));
+        scheduler.advanceTimeBy(9, TimeUnit.MILLISECONDS);
+        subscriber.assertNoValues();
+        scheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+        subscriber.assertValue("backup");
+        subscriber.assertCompleted();
+        assertEquals(1, count(METRIC_HEDGE_SENT));
+        assertEquals(1, count(METRIC_HEDGE_WON));
+        // Quicker than the delay, so no backup
+        subscriber = read(5, Observable.just("backup"));
+        scheduler.advanceTimeBy(10, TimeUnit.MILLISECONDS);
+        subscriber.assertValue("primary");
+        assertEquals(1, backups.get());
+    }
+
+    @Test
+    public void backupFindsNothing() throws Exception {
+        warm(10);
+        TestSubscriber<String> empty = read(50, Observable.empty());
+        TestSubscriber<String> failed = read(50, Observable.error(new IllegalStateException()));
+        scheduler.advanceTimeBy(50, TimeUnit.MILLISECONDS);
+        empty.assertValue("primary");
+        failed.assertValue("primary");
+        failed.assertNoErrors();
+        assertEquals(2, count(METRIC_HEDGE_SENT));
+        assertEquals(0, count(METRIC_HEDGE_WON));
+    }
+
+    @Test
+    public void budgetCapped() throws Exception {
+        warm(10);
+        int reads = 1000;
+        for (int i = 0; i < reads; i++) {
+            read(1000, Observable.just("backup"));
+            scheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+        }
+        scheduler.advanceTimeBy(1000, TimeUnit.MILLISECONDS);
+        // Never more than the share earned, plus the burst saved up at the start
+        long earned = HedgePolicy.BURST + (LatencyWindow.REFRESH + reads) * BUDGET / 100;
+        assertTrue(count(METRIC_HEDGE_SENT) > 0);
+        assertTrue(count(METRIC_HEDGE_SENT) <= earned);
+        assertEquals(count(METRIC_HEDGE_SENT), backups.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void badPercentile() throws Exception {
+        new HedgePolicy(100, BUDGET, new TemplateMetrics(registry));
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import org.junit.*;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class KeyIndexTest {
+
+    private KeyIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        index = new KeyIndex();
+    }
+
+    @Test
+    public void addRemove() throws Exception {
+        assertTrue(index.add("b"));
+        assertTrue(index.add("a"));
+        assertFalse(index.add("a"));
+        assertEquals(2, index.size());
+        assertTrue(index.contains("a"));
+        assertTrue(index.remove("a"));
+        assertFalse(index.remove("a"));
+        assertFalse(index.contains("a"));
+        assertEquals(1, index.size());
+        index.clear();
+        assertEquals(0, index.size());
+        assertEquals(0, index.range(0, 10).size());
+    }
+
+    @Test
+    public void rangeMatchesSortedOrder() throws Exception {
+        Random random = new Random(1234);
+        TreeSet<String> reference = new TreeSet<>();
+        for (int i = 0; i < 5000; i++) {
+            String key = UUID.randomUUID().toString();
+            assertEquals(reference.add(key), index.add(key));
+            if (0 == random.nextInt(3)) {
+                String victim = reference.first();
+                assertEquals(reference.remove(victim), index.remove(victim));
+            }
+        }
+        assertEquals(reference.size(), index.size());
+        List<String> expected = new ArrayList<>(reference);
+        for (int offset : new int[]{0, 1, 7, 100, expected.size() - 3, expected.size() - 1}) {
+            int last = Math.min(offset + 10, expected.size());
+            assertEquals(expected.subList(offset, last), index.range(offset, 10));
+        }
+        assertEquals(expected, index.range(0, expected.size()));
+        assertEquals(0, index.range(expected.size(), 10).size());
+        assertEquals(0, index.range(0, 0).size());
+    }
+
+    @Test
+    public void after() throws Exception {
+        for (String key : new String[]{"b", "d", "f", "h"})
+            index.add(key);
+        assertEquals(Arrays.asList("b", "d"), index.after(null, 0, 2));
+        assertEquals(Arrays.asList("f", "h"), index.after("d", 0, 5));
+        assertEquals(Arrays.asList("f", "h"), index.after("e", 0, 5));
+        assertEquals(Collections.singletonList("h"), index.after("a", 3, 5));
+        assertEquals(Collections.emptyList(), index.after("h", 0, 5));
+        assertEquals(Collections.emptyList(), index.after("z", 0, 5));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rangeNegative() throws Exception {
+        index.range(-1, 1);
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import com.codingrodent.microservice.template.entity.FortuneEntity;
+import com.codingrodent.microservice.template.metrics.*;
+import org.junit.*;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.codingrodent.microservice.template.constants.SystemConstants.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class NearCachedFortuneRepositoryTest {
+    private final static long STALENESS = 1000;
+
+    private FortuneInMemoryRepository sync;
+    private AsyncInMemoryFortuneRepository repository;
+    private AppMetricsRegistry registry;
+    private AtomicLong now;
+    private String key;
+
+    @Before
+    public void setUp() throws Exception {
+        sync = new FortuneInMemoryRepository();
+        repository = spy(new AsyncInMemoryFortuneRepository(sync));
+        registry = new AppMetricsRegistry();
+        now = new AtomicLong(1_000_000);
+        key = UUID.randomUUID().toString();
+        sync.save(new FortuneEntity(key, "text", "author"));
+    }
+
+    private NearCachedFortuneRepository cache(final long staleness, final boolean revalidate) {
+        return new NearCachedFortuneRepository(repository, new TemplateMetrics(registry), staleness, 10, revalidate, now::get);
+    }
+
+    private String text(final NearCachedFortuneRepository cache, final String id) {
+        return cache.findOne(id).map(FortuneEntity::getText).toBlocking().singleOrDefault(null);
+    }
+
+    private long count(final String name) {
+        return registry.getCounters().containsKey(name) ? registry.getCounters().get(name).getCount() : 0;
+    }
+
+    @Test
+    public void servedWithinWindow() throws Exception {
+        NearCachedFortuneRepository cache = cache(STALENESS, false);
+        assertEquals("text", text(cache, key));
+        // Changed behind the cache's back
+        sync.save(new FortuneEntity(key, "changed", "author"));
+        now.addAndGet(STALENESS - 1);
+        assertEquals("text", text(cache, key));
+        verify(repository, times(1)).findOne(key);
+        now.incrementAndGet();
+        assertEquals("changed", text(cache, key));
+        verify(repository, times(2)).findOne(key);
+        assertEquals(1, count(METRIC_NEAR_CACHE_HIT));
+        assertEquals(2, count(METRIC_NEAR_CACHE_MISS));
+        assertEquals(1, registry.histogram(METRIC_NEAR_CACHE_STALENESS).getCount());
+        assertEquals(STALENESS - 1, registry.histogram(METRIC_NEAR_CACHE_STALENESS).getSnapshot().getMax());
+        assertEquals(1L, registry.getGauges().get(METRIC_NEAR_CACHE_SIZE).getValue());
+    }
+
+    @Test
+    public void revalidate() throws Exception {
+        NearCachedFortuneRepository cache = cache(STALENESS, true);
+        assertEquals("text", text(cache, key));
+        now.addAndGet(STALENESS);
+        // Unchanged, so kept for another window on the strength of the version alone
+        assertEquals("text", text(cache, key));
+        verify(repository, times(1)).findOne(key);
+        verify(repository, times(1)).version(key);
+        assertEquals(1, count(METRIC_NEAR_CACHE_REVALIDATED));
+        now.addAndGet(STALENESS - 1);
+        assertEquals("text", text(cache, key));
+        verify(repository, times(1)).version(key);
+        // Changed, so read again
+        sync.save(new FortuneEntity(key, "changed", "author"));
+        now.incrementAndGet();
+        assertEquals("changed", text(cache, key));
+        verify(repository, times(2)).findOne(key);
+        // Gone
+        sync.delete(key);
+        now.addAndGet(STALENESS);
+        assertNull(text(cache, key));
+        assertEquals(0L, registry.getGauges().get(METRIC_NEAR_CACHE_SIZE).getValue());
+    }
+
+    @Test
+    public void localWrites() throws Exception {
+        NearCachedFortuneRepository cache = cache(STALENESS, false);
+        assertEquals("text", text(cache, key));
+        FortuneEntity saved = cache.save(new FortuneEntity(key, "saved", "author")).toBlocking().single();
+        assertEquals("saved", text(cache, key));
+        assertEquals(saved.getVersion(), cache.findOne(key).toBlocking().single().getVersion());
+        verify(repository, times(1)).findOne(key);
+        assertEquals(1L, (long) cache.delete(key).toBlocking().single());
+        assertNull(text(cache, key));
+        cache.save(new FortuneEntity(key, "again", "author")).toBlocking().single();
+        assertEquals(1L, (long) cache.deleteAll().toBlocking().single());
+        assertNull(text(cache, key));
+    }
+
+    @Test
+    public void bounded() throws Exception {
+        NearCachedFortuneRepository cache = cache(STALENESS, false);
+        for (int i = 0; i < 100; i++) {
+            String id = UUID.randomUUID().toString();
+            sync.save(new FortuneEntity(id, "text" + i, "author"));
+            assertEquals("text" + i, text(cache, id));
+        }
+        assertTrue((Long) registry.getGauges().get(METRIC_NEAR_CACHE_SIZE).getValue() <= 10);
+    }
+
+    @Test
+    public void disabled() throws Exception {
+        NearCachedFortuneRepository cache = cache(0, false);
+        assertEquals("text", text(cache, key));
+        assertEquals("text", text(cache, key));
+        verify(repository, times(2)).findOne(key);
+        assertEquals(0, count(METRIC_NEAR_CACHE_HIT));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeStaleness() throws Exception {
+        cache(-1, false);
+    }
+
+}
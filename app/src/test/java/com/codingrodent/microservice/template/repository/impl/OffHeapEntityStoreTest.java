@@ -0,0 +1,162 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import com.codingrodent.microservice.template.entity.FortuneEntity;
+import org.junit.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class OffHeapEntityStoreTest {
+    private final static int SLAB_SIZE = 4096;
+    private OffHeapEntityStore<FortuneEntity> store;
+
+    @Before
+    public void setUp() throws Exception {
+        store = new OffHeapEntityStore<>(new FortuneEntityCodec(), SLAB_SIZE);
+    }
+
+    private Versioned<FortuneEntity> put(final String key, final String text, final long version) {
+        return store.compute(key, (k, previous) -> new Versioned<>(new FortuneEntity(k, text, "author"), version));
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        String uuid = UUID.randomUUID().toString();
+        assertNull(store.get(uuid));
+        assertFalse(store.containsKey(uuid));
+        put(uuid, "text \u00e9\u4e2d", 7);
+        Versioned<FortuneEntity> read = store.get(uuid);
+        assertEquals(uuid, read.getId());
+        assertEquals("text \u00e9\u4e2d", read.getEntity().getText());
+        assertEquals("author", read.getEntity().getAuthor());
+        assertEquals(7, read.getVersion());
+        assertEquals(7, read.getEntity().getVersion());
+        assertTrue(store.containsKey(uuid));
+        assertEquals(1, store.size());
+        // each read decodes a new instance
+        assertNotSame(read.getEntity(), store.get(uuid).getEntity());
+    }
+
+    @Test
+    public void replaceAndRemove() throws Exception {
+        String uuid = UUID.randomUUID().toString();
+        put(uuid, "first", 1);
+        put(uuid, "second", 2);
+        assertEquals("second", store.get(uuid).getEntity().getText());
+        assertEquals(1, store.size());
+        // previous value is handed to the function
+        store.compute(uuid, (k, previous) -> {
+            assertEquals(2, previous.getVersion());
+            return null;
+        });
+        assertNull(store.get(uuid));
+        assertEquals(0, store.size());
+        assertEquals(0, store.heapBytes());
+    }
+
+    @Test
+    public void failedUpdateLeavesEntity() throws Exception {
+        String uuid = UUID.randomUUID().toString();
+        put(uuid, "first", 1);
+        try {
+            store.compute(uuid, (k, previous) -> {
+                throw new IllegalStateException();
+            });
+            fail("Exception not propagated");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals("first", store.get(uuid).getEntity().getText());
+    }
+
+    @Test
+    public void compaction() throws Exception {
+        List<String> uuids = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String uuid = UUID.randomUUID().toString();
+            uuids.add(uuid);
+            put(uuid, "text" + i, i);
+        }
+        long reserved = store.offHeapBytes();
+        assertTrue(reserved > SLAB_SIZE);
+        // rewrite everything many times over - garbage must be reclaimed rather than growing without bound
+        for (int round = 0; round < 20; round++)
+            for (int i = 0; i < uuids.size(); i++)
+                put(uuids.get(i), "text" + i + "-" + round, round);
+        assertTrue(store.offHeapBytes() <= 3 * reserved);
+        // freed slab numbers are reused rather than the table growing with every slab ever opened
+        assertTrue(store.slabsOpened() <= 3 * reserved / SLAB_SIZE + 2);
+        assertTrue(store.garbageBytes() <= store.offHeapBytes());
+        for (int i = 0; i < uuids.size(); i++)
+            assertEquals("text" + i + "-19", store.get(uuids.get(i)).getEntity().getText());
+        // deleting everything releases all but the current slab
+        store.clear();
+        assertEquals(0, store.size());
+        assertTrue(store.offHeapBytes() <= SLAB_SIZE);
+    }
+
+    @Test
+    public void concurrentReadsDuringCompaction() throws Exception {
+        List<String> uuids = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            String uuid = UUID.randomUUID().toString();
+            uuids.add(uuid);
+            put(uuid, uuid, 0);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        Future<?> writer = executor.submit(() -> {
+            for (int round = 1; round < 200; round++)
+                for (String uuid : uuids)
+                    put(uuid, uuid, round);
+        });
+        List<Future<?>> readers = new ArrayList<>();
+        for (int r = 0; r < 2; r++)
+            readers.add(executor.submit(() -> {
+                while (!writer.isDone())
+                    for (String uuid : uuids)
+                        assertEquals(uuid, store.get(uuid).getEntity().getText());
+            }));
+        writer.get();
+        for (Future<?> reader : readers)
+            reader.get();
+        executor.shutdown();
+        for (String uuid : uuids)
+            assertEquals(199, store.get(uuid).getVersion());
+    }
+
+    @Test
+    public void largeRecord() throws Exception {
+        char[] text = new char[SLAB_SIZE * 2];
+        Arrays.fill(text, 'x');
+        String uuid = UUID.randomUUID().toString();
+        put(uuid, new String(text), 1);
+        assertEquals(SLAB_SIZE * 2, store.get(uuid).getEntity().getText().length());
+    }
+
+}
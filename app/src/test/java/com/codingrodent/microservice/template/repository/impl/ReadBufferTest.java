@@ -0,0 +1,94 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import org.junit.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class ReadBufferTest {
+
+    @Test
+    public void drainsInOrder() throws Exception {
+        ReadBuffer<String> buffer = new ReadBuffer<>();
+        for (int i = 0; i < 10; i++)
+            assertFalse(buffer.offer("key" + i));
+        List<String> drained = new ArrayList<>();
+        buffer.drain(drained::add);
+        assertEquals(10, drained.size());
+        assertEquals("key0", drained.get(0));
+        assertEquals("key9", drained.get(9));
+        drained.clear();
+        buffer.drain(drained::add);
+        assertTrue(drained.isEmpty());
+    }
+
+    @Test
+    public void fullRingDrops() throws Exception {
+        ReadBuffer<Integer> buffer = new ReadBuffer<>();
+        boolean full = false;
+        int offered = 0;
+        while (!full)
+            full = buffer.offer(offered++);
+        // Once full, further reads are dropped rather than waiting
+        assertTrue(buffer.offer(-1));
+        List<Integer> drained = new ArrayList<>();
+        buffer.drain(drained::add);
+        assertEquals(offered, drained.size());
+        assertFalse(drained.contains(-1));
+        // Draining makes room again
+        assertFalse(buffer.offer(-1));
+    }
+
+    @Test
+    public void concurrentReaders() throws Exception {
+        ReadBuffer<Integer> buffer = new ReadBuffer<>();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Integer> drained = Collections.synchronizedList(new ArrayList<>());
+        List<Future<?>> readers = new ArrayList<>();
+        for (int r = 0; r < 4; r++) {
+            final int reader = r;
+            readers.add(executor.submit(() -> {
+                for (int i = 0; i < 10_000; i++)
+                    if (buffer.offer(reader * 10_000 + i))
+                        synchronized (buffer) {
+                            buffer.drain(drained::add);
+                        }
+            }));
+        }
+        for (Future<?> future : readers)
+            future.get();
+        executor.shutdown();
+        buffer.drain(drained::add);
+        // Lossy, but every event drained was offered and none is drained twice
+        assertFalse(drained.isEmpty());
+        assertTrue(drained.stream().allMatch(event -> (event >= 0) && (event < 40_000)));
+        assertEquals(drained.size(), new HashSet<>(drained).size());
+    }
+
+}
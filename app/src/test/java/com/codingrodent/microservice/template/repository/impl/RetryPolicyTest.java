@@ -0,0 +1,158 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import com.codingrodent.microservice.template.metrics.*;
+import com.couchbase.client.core.BackpressureException;
+import com.couchbase.client.java.error.*;
+import org.junit.*;
+import org.springframework.dao.*;
+import rx.Observable;
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import static com.codingrodent.microservice.template.repository.impl.RetryPolicy.*;
+import static org.junit.Assert.*;
+
+public class RetryPolicyTest {
+    private final static long CEILING = 2500;
+    private final static int ATTEMPTS = 3;
+
+    private AppMetricsRegistry registry;
+    private TestScheduler scheduler;
+    private AtomicInteger calls;
+
+    @Before
+    public void setUp() throws Exception {
+        registry = new AppMetricsRegistry();
+        scheduler = new TestScheduler();
+        calls = new AtomicInteger();
+    }
+
+    private RetryPolicy policy(final int percent) {
+        return new RetryPolicy(Operation.READ, CEILING, ATTEMPTS, percent, new TemplateMetrics(registry), scheduler, () -> TimeUnit.MILLISECONDS
+                .toNanos(scheduler.now()), () -> 0.5);
+    }
+
+    private TestSubscriber<String> run(final RetryPolicy policy, final IntFunction<Observable<String>> attempt) {
+        TestSubscriber<String> subscriber = new TestSubscriber<>();
+        policy.apply(() -> attempt.apply(calls.incrementAndGet())).subscribe(subscriber);
+        scheduler.advanceTimeBy(1, TimeUnit.MINUTES);
+        return subscriber;
+    }
+
+    private long count(final String name) {
+        String metric = Operation.READ.metric(name);
+        return registry.getCounters().containsKey(metric) ? registry.getCounters().get(metric).getCount() : 0;
+    }
+
+    @Test
+    public void transientRetried() throws Exception {
+        TestSubscriber<String> subscriber = run(policy(10), call -> call < ATTEMPTS ? Observable.error(new TemporaryFailureException()) :
+                Observable.just("ok"));
+        subscriber.assertValue("ok");
+        assertEquals(ATTEMPTS, calls.get());
+        assertEquals(ATTEMPTS - 1, count("retried"));
+        assertEquals(0, count("failed"));
+    }
+
+    @Test
+    public void timeoutRetried() throws Exception {
+        TestSubscriber<String> subscriber = run(policy(10), call -> 1 == call ? Observable.never() : Observable.just("ok"));
+        subscriber.assertValue("ok");
+        assertEquals(1, count("timedout"));
+        assertEquals(1, count("retried"));
+    }
+
+    @Test
+    public void exhausted() throws Exception {
+        TestSubscriber<String> subscriber = run(policy(10), call -> Observable.error(new BackpressureException()));
+        subscriber.assertError(TransientDataAccessResourceException.class);
+        assertEquals(ATTEMPTS, calls.get());
+        assertEquals(1, count("failed"));
+        calls.set(0);
+        subscriber = run(policy(10), call -> Observable.never());
+        subscriber.assertError(QueryTimeoutException.class);
+        assertEquals(ATTEMPTS, calls.get());
+    }
+
+    @Test
+    public void permanentNotRetried() throws Exception {
+        TestSubscriber<String> subscriber = run(policy(10), call -> Observable.error(new DocumentDoesNotExistException()));
+        subscriber.assertError(DocumentDoesNotExistException.class);
+        assertEquals(1, calls.get());
+        // Nor once something has been emitted
+        calls.set(0);
+        subscriber = run(policy(10), call -> Observable.just("partial").concatWith(Observable.error(new TemporaryFailureException())));
+        subscriber.assertError(TemporaryFailureException.class);
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void budget() throws Exception {
+        RetryPolicy policy = policy(0);
+        for (int i = 0; i < 2 * BURST; i++)
+            run(policy, call -> Observable.error(new TemporaryFailureException()));
+        // Only the burst saved up at the start, as nothing is earned
+        assertEquals(BURST, count("retried"));
+        assertEquals(2 * BURST, count("failed"));
+    }
+
+    @Test
+    public void adaptiveTimeout() throws Exception {
+        RetryPolicy policy = policy(10);
+        assertEquals(CEILING, policy.timeout());
+        for (int i = 0; i < LatencyWindow.REFRESH; i++)
+            run(policy, call -> Observable.just("ok").delay(200, TimeUnit.MILLISECONDS, scheduler)).assertValue("ok");
+        assertEquals(200 * TIMEOUT_MULTIPLIER, policy.timeout());
+        assertEquals(200L * TIMEOUT_MULTIPLIER, registry.getGauges().get(Operation.READ.metric("limit")).getValue());
+        // A read well over the usual time is abandoned and retried
+        calls.set(0);
+        TestSubscriber<String> subscriber = run(policy, call -> Observable.just("ok").delay(1 == call ? 2000 : 10, TimeUnit.MILLISECONDS,
+                scheduler));
+        subscriber.assertValue("ok");
+        assertEquals(2, calls.get());
+        // Never below the floor
+        for (int i = 0; i < LatencyWindow.WINDOW; i++)
+            run(policy, call -> Observable.just("ok"));
+        assertEquals(TIMEOUT_FLOOR, policy.timeout());
+    }
+
+    @Test
+    public void jitter() throws Exception {
+        RetryPolicy low = new RetryPolicy(Operation.READ, CEILING, ATTEMPTS, 10, new TemplateMetrics(registry), scheduler, System::nanoTime, () -> 0);
+        RetryPolicy high = new RetryPolicy(Operation.READ, CEILING, ATTEMPTS, 10, new TemplateMetrics(registry), scheduler, System::nanoTime, () ->
+                0.999);
+        assertEquals(BACKOFF_BASE, low.jitter(BACKOFF_BASE));
+        assertEquals(BACKOFF_BASE, low.jitter(500));
+        assertEquals(BACKOFF_BASE * 3 - 1, high.jitter(BACKOFF_BASE), 1);
+        assertEquals(BACKOFF_CAP, high.jitter(BACKOFF_CAP));
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import com.codingrodent.microservice.template.entity.FortuneEntity;
+import org.junit.*;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+public class ShardedEntityStoreTest {
+    private final static int SHARDS = 4;
+    private ShardedEntityStore<FortuneEntity> store;
+
+    @Before
+    public void setUp() throws Exception {
+        store = new ShardedEntityStore<>(SHARDS, () -> new HeapEntityStore<>(new FortuneEntityCodec()));
+    }
+
+    private Versioned<FortuneEntity> put(final String key, final String text, final long version) {
+        return store.compute(key, (k, previous) -> new Versioned<>(new FortuneEntity(k, text, "author"), version));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noShards() throws Exception {
+        new ShardedEntityStore<FortuneEntity>(0, () -> new HeapEntityStore<>(new FortuneEntityCodec()));
+    }
+
+    @Test
+    public void keyAlwaysInSameShard() throws Exception {
+        List<UUID> uuids = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            UUID uuid = UUID.randomUUID();
+            uuids.add(uuid);
+            put(uuid.toString(), "text" + i, i);
+        }
+        put("key", "other", 1);
+        assertEquals(1001, store.size());
+        for (UUID uuid : uuids) {
+            assertTrue(store.containsKey(uuid.toString()));
+            assertSame(store.get(uuid.toString()), store.get(uuid));
+        }
+        assertEquals("other", store.get("key").getEntity().getText());
+        store.compute("key", (k, previous) -> null);
+        assertNull(store.get("key"));
+        assertEquals(1000, store.size());
+    }
+
+    @Test
+    public void statistics() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            String key = UUID.randomUUID().toString();
+            put(key, "text", 1);
+            store.get(key);
+        }
+        Map<String, Supplier<Long>> statistics = store.statistics();
+        assertEquals(3 * SHARDS, statistics.size());
+        long size = 0, reads = 0, writes = 0;
+        for (int i = 0; i < SHARDS; i++) {
+            long shardSize = statistics.get("shard." + i + ".size").get();
+            // Random keys should spread evenly
+            assertTrue(shardSize > 150);
+            size = size + shardSize;
+            reads = reads + statistics.get("shard." + i + ".reads").get();
+            writes = writes + statistics.get("shard." + i + ".writes").get();
+        }
+        assertEquals(1000, size);
+        assertEquals(1000, reads);
+        assertEquals(1000, writes);
+    }
+
+    @Test
+    public void scanAndClear() throws Exception {
+        Set<String> keys = new HashSet<>();
+        for (int i = 0; i < 500; i++) {
+            String key = UUID.randomUUID().toString();
+            keys.add(key);
+            put(key, (i % 2 == 0) ? "even" : "odd", i);
+        }
+        List<String> even = store.scan((key, versioned) -> "even".equals(versioned.getEntity().getText()) ? key : null);
+        assertEquals(250, even.size());
+        assertTrue(keys.containsAll(even));
+        Set<String> visited = new HashSet<>();
+        store.forEach((key, versioned) -> visited.add(key));
+        assertEquals(keys, visited);
+        assertTrue(store.heapBytes() > 0);
+        store.clear();
+        assertEquals(0, store.size());
+        assertEquals(0, store.heapBytes());
+        assertTrue(store.scan((key, versioned) -> key).isEmpty());
+    }
+
+}
@@ -0,0 +1,194 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import com.codingrodent.microservice.template.entity.FortuneEntity;
+import com.codingrodent.microservice.template.metrics.*;
+import com.codingrodent.microservice.template.utility.Utility;
+import com.couchbase.client.java.*;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.error.*;
+import org.junit.*;
+import org.springframework.data.domain.PageRequest;
+import rx.Observable;
+
+import java.util.*;
+import java.util.stream.*;
+
+import static org.junit.Assert.*;
+
+public class SimulatedBucketTest {
+    private final static int FORTUNES = 50;
+
+    private final TypeRegistry types = new TypeRegistry(Utility.getObjectMapper(), FortuneEntity.class);
+    private SimulatedBucket simulated;
+
+    @Before
+    public void setUp() throws Exception {
+        simulated = SimulatedBucket.fortunes(types);
+    }
+
+    private AsyncRepository<FortuneEntity> repository(final AsyncRepository.Fetch fetch, final Map<RetryPolicy.Operation, RetryPolicy> retries) {
+        return new AsyncRepository<FortuneEntity>(fetch, types, null, retries) {
+            @Override
+            protected Bucket getBucket() {
+                return simulated.bucket();
+            }
+        };
+    }
+
+    private AsyncRepository<FortuneEntity> repository(final AsyncRepository.Fetch fetch) {
+        return repository(fetch, Collections.emptyMap());
+    }
+
+    private List<String> fill(final AsyncRepository<FortuneEntity> repository) {
+        List<FortuneEntity> fortunes = IntStream.range(0, FORTUNES).mapToObj(i -> new FortuneEntity(String.format("key%03d", i), "text " + i, (0 ==
+                i % 2) ? "" : "author " + i)).collect(Collectors.toList());
+        repository.save(fortunes).toList().toBlocking().single();
+        return fortunes.stream().map(FortuneEntity::getId).collect(Collectors.toList());
+    }
+
+    private List<String> ids(final Observable<FortuneEntity> entities) {
+        return entities.map(FortuneEntity::getId).toList().toBlocking().single();
+    }
+
+    @Test
+    public void crud() throws Exception {
+        AsyncRepository<FortuneEntity> repository = repository(AsyncRepository.Fetch.BULK);
+        FortuneEntity saved = repository.save(new FortuneEntity("key", "text", "author")).toBlocking().single();
+        assertTrue(saved.getVersion() > 0);
+        FortuneEntity found = repository.findOne("key").toBlocking().single();
+        assertEquals("text", found.getText());
+        assertEquals("author", found.getAuthor());
+        assertEquals(saved.getVersion(), found.getVersion());
+        assertEquals(saved.getVersion(), (long) repository.version("key").toBlocking().single());
+        assertTrue(repository.exists("key").toBlocking().single());
+        // Each write moves the CAS on
+        FortuneEntity again = repository.save(new FortuneEntity("key", "changed", "author")).toBlocking().single();
+        assertTrue(again.getVersion() > saved.getVersion());
+        assertEquals(1L, (long) repository.delete("key").toBlocking().single());
+        assertEquals(0L, (long) repository.delete("key").toBlocking().single());
+        assertTrue(repository.findOne("key").isEmpty().toBlocking().single());
+        assertTrue(repository.version("key").isEmpty().toBlocking().single());
+        assertFalse(repository.exists("key").toBlocking().single());
+    }
+
+    @Test
+    public void views() throws Exception {
+        List<String> keys = fill(repository(AsyncRepository.Fetch.BULK));
+        for (AsyncRepository.Fetch fetch : AsyncRepository.Fetch.values()) {
+            AsyncRepository<FortuneEntity> repository = repository(fetch);
+            assertEquals(FORTUNES, (long) repository.count().toBlocking().single());
+            assertEquals(keys.subList(10, 20), ids(repository.findAll(new PageRequest(1, 10))));
+            assertEquals(keys.subList(40, 50), ids(repository.findAll(new PageRequest(2, 20))));
+            assertEquals(keys.subList(21, 26), ids(repository.findAllAfter(keys.get(20), 5)));
+            assertEquals(keys.subList(0, 5), ids(repository.findAllAfter(null, 5)));
+        }
+        AsyncRepository<FortuneEntity> repository = repository(AsyncRepository.Fetch.COVERED);
+        assertEquals(FORTUNES / 2, ids(repository.findByView("anon", new PageRequest(0, FORTUNES))).size());
+        assertEquals(FORTUNES / 2, ids(repository.findByView("named", new PageRequest(0, FORTUNES))).size());
+        // Views follow each mutation - a named fortune made anonymous moves between them
+        repository.save(new FortuneEntity(keys.get(1), "text 1", "")).toBlocking().single();
+        assertEquals(FORTUNES / 2 + 1, ids(repository.findByView("anon", new PageRequest(0, FORTUNES))).size());
+        assertEquals(keys.subList(3, 6).stream().filter(key -> !key.equals(keys.get(4))).collect(Collectors.toList()), ids(repository.findByView
+                ("named", new PageRequest(0, 2))));
+        // A view defined later covers the documents already held
+        simulated.view("named", doc -> "".equals(doc.getString("author")) ? null : doc, false);
+        assertEquals(FORTUNES / 2 - 1, ids(repository.findByView("named", new PageRequest(0, FORTUNES))).size());
+        assertEquals(FORTUNES, (long) repository.deleteAll().toBlocking().single());
+        assertEquals(0, simulated.size());
+        assertEquals(0, (long) repository.count().toBlocking().single());
+    }
+
+    @Test
+    public void cas() throws Exception {
+        AsyncBucket async = simulated.async();
+        JsonDocument first = async.insert(JsonDocument.create("key", JsonObject.create().put("a", 1))).toBlocking().single();
+        try {
+            async.insert(JsonDocument.create("key", JsonObject.create())).toBlocking().single();
+            fail("Duplicate insert");
+        } catch (DocumentAlreadyExistsException e) {
+            // Expected
+        }
+        JsonDocument second = async.replace(JsonDocument.create("key", JsonObject.create().put("a", 2), first.cas())).toBlocking().single();
+        try {
+            async.replace(JsonDocument.create("key", JsonObject.create().put("a", 3), first.cas())).toBlocking().single();
+            fail("Stale replace");
+        } catch (CASMismatchException e) {
+            // Expected
+        }
+        try {
+            async.remove(JsonDocument.create("key", null, first.cas())).toBlocking().single();
+            fail("Stale remove");
+        } catch (CASMismatchException e) {
+            // Expected
+        }
+        assertEquals(2, async.get("key").toBlocking().single().content().getInt("a").intValue());
+        assertEquals(second.cas(), async.getFromReplica("key", ReplicaMode.ALL).toBlocking().single().cas());
+        async.remove(JsonDocument.create("key", null, second.cas())).toBlocking().single();
+        assertEquals(0, simulated.size());
+    }
+
+    @Test
+    public void latency() throws Exception {
+        AsyncRepository<FortuneEntity> repository = repository(AsyncRepository.Fetch.BULK);
+        repository.save(new FortuneEntity("key", "text", "author")).toBlocking().single();
+        simulated.latency(SimulatedBucket.constant(20_000));
+        long start = System.nanoTime();
+        repository.findOne("key").toBlocking().single();
+        assertTrue(System.nanoTime() - start >= 20_000_000);
+        simulated.latency(SimulatedBucket.logNormal(100, 0.5));
+        assertEquals(100, Observable.range(0, 100).flatMap(i -> repository.findOne("key")).count().toBlocking().single().intValue());
+    }
+
+    @Test
+    public void injectedFailuresRetried() throws Exception {
+        TemplateMetrics metrics = new TemplateMetrics(new AppMetricsRegistry());
+        Map<RetryPolicy.Operation, RetryPolicy> retries = new EnumMap<>(RetryPolicy.Operation.class);
+        for (RetryPolicy.Operation operation : RetryPolicy.Operation.values())
+            retries.put(operation, new RetryPolicy(operation, 2500, 10, 100, metrics));
+        AsyncRepository<FortuneEntity> repository = repository(AsyncRepository.Fetch.BULK, retries);
+        List<String> keys = fill(repository);
+        simulated.failing(0.2, TemporaryFailureException::new);
+        assertEquals(keys, ids(Observable.from(keys).concatMapEager(repository::findOne)));
+        assertEquals(FORTUNES, (long) repository.count().toBlocking().single());
+        // Without retries the failures show through
+        simulated.failing(1, TemporaryFailureException::new);
+        try {
+            repository(AsyncRepository.Fetch.BULK).findOne(keys.get(0)).toBlocking().single();
+            fail("Failure not injected");
+        } catch (TemporaryFailureException e) {
+            // Expected
+        }
+        assertTrue(simulated.calls("get") > FORTUNES);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void notSimulated() throws Exception {
+        simulated.async().counter("key", 1);
+    }
+
+}
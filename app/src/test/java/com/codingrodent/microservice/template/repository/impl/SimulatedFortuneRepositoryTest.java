@@ -0,0 +1,57 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import com.codingrodent.microservice.template.entity.FortuneEntity;
+import com.codingrodent.microservice.template.metrics.*;
+import org.junit.Test;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.*;
+
+import static com.codingrodent.microservice.template.constants.SystemConstants.*;
+import static org.junit.Assert.assertEquals;
+
+public class SimulatedFortuneRepositoryTest {
+
+    @Test
+    public void fortunes() throws Exception {
+        MockEnvironment environment = new MockEnvironment();
+        environment.setProperty(PROPERTY_VIEW_FETCH, "covered");
+        environment.setProperty(PROPERTY_SIMULATED_LATENCY, "50");
+        SimulatedFortuneRepository repository = new SimulatedFortuneRepository(environment, new TemplateMetrics(new AppMetricsRegistry()));
+        List<FortuneEntity> fortunes = Arrays.asList(new FortuneEntity("a", "one", ""), new FortuneEntity("b", "two", "someone"), new
+                FortuneEntity("c", "three", ""));
+        repository.save(fortunes).toList().toBlocking().single();
+        assertEquals(3, (long) repository.count().toBlocking().single());
+        assertEquals("two", repository.findOne("b").toBlocking().single().getText());
+        assertEquals(Collections.singletonList("b"), repository.findAllNamed(new PageRequest(0, 10)).map(FortuneEntity::getId).toList()
+                .toBlocking().single());
+        assertEquals(Collections.singletonList("c"), repository.findAllAnonAfter("a", 10).map(FortuneEntity::getId).toList().toBlocking()
+                .single());
+    }
+
+}
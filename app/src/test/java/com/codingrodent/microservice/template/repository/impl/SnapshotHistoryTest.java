@@ -0,0 +1,159 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import com.codingrodent.microservice.template.entity.FortuneEntity;
+import com.codingrodent.microservice.template.exception.SnapshotExpiredException;
+import org.junit.*;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class SnapshotHistoryTest {
+    private final static long LEASE = 1000;
+    private final AtomicLong sequence = new AtomicLong();
+    private SnapshotHistory<FortuneEntity> history;
+
+    @Before
+    public void setUp() throws Exception {
+        history = new SnapshotHistory<>(LEASE);
+    }
+
+    private Versioned<FortuneEntity> value(final String text) {
+        long version = sequence.incrementAndGet();
+        return new Versioned<>(new FortuneEntity("key", text, ""), version);
+    }
+
+    @Test
+    public void nothingRecordedWithoutSnapshot() throws Exception {
+        history.record("key", 1, null, 0);
+        assertTrue(history.changed().isEmpty());
+        Versioned<FortuneEntity> first = value("first");
+        assertSame(first, history.at("key", first, sequence.get()));
+        assertNull(history.at("key", first, 0));
+    }
+
+    @Test
+    public void readsAtSnapshot() throws Exception {
+        Versioned<FortuneEntity> first = value("first");
+        long snapshot = history.pin(sequence::get, 0);
+        Versioned<FortuneEntity> second = value("second");
+        history.record("key", second.getVersion(), first, 0);
+        // Deleted, then created again
+        history.record("key", sequence.incrementAndGet(), second, 0);
+        Versioned<FortuneEntity> third = value("third");
+        history.record("key", third.getVersion(), null, 0);
+        assertSame(first, history.at("key", third, snapshot));
+        assertSame(second, history.at("key", third, second.getVersion()));
+        assertNull(history.at("key", third, second.getVersion() + 1));
+        assertSame(third, history.at("key", third, sequence.get()));
+        // A key created after the snapshot did not exist then
+        history.record("other", sequence.incrementAndGet(), null, 0);
+        assertNull(history.at("other", new Versioned<>(new FortuneEntity("other", "text", ""), sequence.get()), snapshot));
+    }
+
+    @Test
+    public void releaseReclaims() throws Exception {
+        Versioned<FortuneEntity> first = value("first");
+        long older = history.pin(sequence::get, 0);
+        Versioned<FortuneEntity> second = value("second");
+        history.record("key", second.getVersion(), first, 0);
+        long newer = history.pin(sequence::get, 0);
+        Versioned<FortuneEntity> third = value("third");
+        history.record("key", third.getVersion(), second, 0);
+        assertEquals(2, history.held());
+        history.release(older, sequence::get);
+        assertEquals(1, history.held());
+        assertSame(second, history.at("key", third, newer));
+        history.release(newer, sequence::get);
+        assertTrue(history.changed().isEmpty());
+    }
+
+    @Test
+    public void leaseLapses() throws Exception {
+        long snapshot = history.pin(sequence::get, 0);
+        history.renew(snapshot, sequence::get, LEASE / 2);
+        // Renewal pushed the deadline on
+        history.renew(snapshot, sequence::get, LEASE);
+        history.record("key", sequence.incrementAndGet(), null, LEASE);
+        try {
+            history.renew(snapshot, sequence::get, 3 * LEASE);
+            fail();
+        } catch (SnapshotExpiredException e) {
+            assertEquals(0, history.held());
+            assertTrue(history.changed().isEmpty());
+        }
+    }
+
+    @Test
+    public void writeExpiresLapsedLeases() throws Exception {
+        Versioned<FortuneEntity> first = value("first");
+        history.pin(sequence::get, 0);
+        Versioned<FortuneEntity> second = value("second");
+        history.record("key", second.getVersion(), first, 0);
+        history.record("other", sequence.incrementAndGet(), null, 0);
+        assertEquals(2, history.changed().size());
+        // No reader came back, so the next write gives the snapshot up and reclaims what it held
+        history.record("key", sequence.incrementAndGet(), second, 2 * LEASE);
+        assertEquals(0, history.held());
+        assertTrue(history.changed().isEmpty());
+    }
+
+    @Test
+    public void snapshotWaitsForUnguardedWrite() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch finish = new CountDownLatch(1);
+            Future<Long> write = executor.submit(() -> history.write(() -> {
+                started.countDown();
+                try {
+                    finish.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return sequence.incrementAndGet();
+            }));
+            started.await();
+            Future<Long> snapshot = executor.submit(() -> history.pin(sequence::get, 0));
+            try {
+                snapshot.get(100, TimeUnit.MILLISECONDS);
+                fail();
+            } catch (TimeoutException e) {
+                // Still waiting for the write
+            }
+            finish.countDown();
+            assertEquals(write.get(), snapshot.get());
+            // Once the snapshot is given up writers go unguarded again
+            history.release(snapshot.get(), sequence::get);
+            assertEquals(Long.valueOf(2), history.write(sequence::incrementAndGet));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
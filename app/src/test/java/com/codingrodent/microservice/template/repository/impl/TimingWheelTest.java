@@ -0,0 +1,101 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import org.junit.*;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class TimingWheelTest {
+    private final static long ORIGIN = 1_000_000;
+    private final static long TICK = 10;
+    private TimingWheel wheel;
+
+    @Before
+    public void setUp() throws Exception {
+        wheel = new TimingWheel(ORIGIN, TICK);
+    }
+
+    private Set<String> keys(final List<TimingWheel.Deadline> deadlines) {
+        return deadlines.stream().map(TimingWheel.Deadline::getKey).collect(Collectors.toSet());
+    }
+
+    @Test
+    public void neverEarlyAtMostOneTickLate() throws Exception {
+        Random random = new Random(1234);
+        Map<String, Long> deadlines = new HashMap<>();
+        // Spread over all levels of the wheel and beyond
+        for (int i = 0; i < 2000; i++) {
+            long deadline = ORIGIN + (long) Math.pow(2, random.nextDouble() * 30);
+            deadlines.put("key" + i, deadline);
+            wheel.schedule("key" + i, deadline);
+        }
+        assertEquals(2000, wheel.size());
+        long now = ORIGIN;
+        int expired = 0;
+        while (expired < 2000) {
+            now = now + 1 + random.nextInt(1 << random.nextInt(20));
+            for (TimingWheel.Deadline due : wheel.advance(now)) {
+                assertEquals((long) deadlines.get(due.getKey()), due.getDeadline());
+                assertTrue(due.getDeadline() <= now);
+                expired++;
+            }
+            // Anything left must not yet be due at the last whole tick
+            long processed = ORIGIN + ((now - ORIGIN) / TICK) * TICK;
+            assertEquals(2000 - expired, deadlines.values().stream().filter(deadline -> deadline > processed).count());
+        }
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void pastDeadline() throws Exception {
+        wheel.advance(ORIGIN + 100 * TICK);
+        wheel.schedule("late", ORIGIN);
+        assertEquals(Collections.singleton("late"), keys(wheel.advance(ORIGIN + 100 * TICK)));
+        assertTrue(wheel.advance(ORIGIN + 200 * TICK).isEmpty());
+    }
+
+    @Test
+    public void duplicatesAreKept() throws Exception {
+        wheel.schedule("key", ORIGIN + 5 * TICK);
+        wheel.schedule("key", ORIGIN + 500 * TICK);
+        assertEquals(1, wheel.advance(ORIGIN + 5 * TICK).size());
+        assertTrue(wheel.advance(ORIGIN + 499 * TICK).isEmpty());
+        assertEquals(Collections.singleton("key"), keys(wheel.advance(ORIGIN + 500 * TICK)));
+    }
+
+    @Test
+    public void lag() throws Exception {
+        assertEquals(0, wheel.lag(ORIGIN));
+        assertEquals(0, wheel.lag(ORIGIN + TICK));
+        assertEquals(3 * TICK, wheel.lag(ORIGIN + 4 * TICK));
+        wheel.advance(ORIGIN + 4 * TICK);
+        assertEquals(0, wheel.lag(ORIGIN + 4 * TICK));
+    }
+
+}
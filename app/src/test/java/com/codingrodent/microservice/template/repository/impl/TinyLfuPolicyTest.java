@@ -0,0 +1,90 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import org.junit.*;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TinyLfuPolicyTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noCapacity() throws Exception {
+        new TinyLfuPolicy(0, 10);
+    }
+
+    @Test
+    public void boundedByWeight() throws Exception {
+        TinyLfuPolicy policy = new TinyLfuPolicy(1000, 100);
+        Set<String> held = new HashSet<>();
+        Random random = new Random(1234);
+        for (int i = 0; i < 1000; i++) {
+            String key = "key" + i;
+            held.add(key);
+            held.removeAll(policy.recordWrite(key, 1 + random.nextInt(20)));
+            assertTrue(policy.weight() <= 1000);
+        }
+        for (String key : held)
+            assertTrue(policy.contains(key));
+        assertTrue(held.size() < 1000);
+        policy.remove(held.iterator().next());
+        assertEquals(held.size() - 1, held.stream().filter(policy::contains).count());
+        policy.clear();
+        assertEquals(0, policy.weight());
+    }
+
+    @Test
+    public void frequentKeysSurviveScan() throws Exception {
+        // Sketch sized for the keys seen rather than the keys held, so the scan does not swamp the counts
+        TinyLfuPolicy policy = new TinyLfuPolicy(100, 1000);
+        List<String> hot = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            hot.add("hot" + i);
+            assertTrue(policy.recordWrite("hot" + i, 1).isEmpty());
+        }
+        for (int round = 0; round < 3; round++)
+            hot.forEach(policy::recordRead);
+        // A scan of keys each seen once must not flush the popular ones
+        for (int i = 0; i < 1000; i++)
+            policy.recordWrite("cold" + i, 1);
+        for (String key : hot)
+            assertTrue(key, policy.contains(key));
+        assertTrue(policy.weight() <= 100);
+    }
+
+    @Test
+    public void reweigh() throws Exception {
+        TinyLfuPolicy policy = new TinyLfuPolicy(100, 100);
+        policy.recordWrite("key", 10);
+        policy.recordWrite("key", 30);
+        assertEquals(30, policy.weight());
+        assertEquals(Collections.singletonList("huge"), policy.recordWrite("huge", 101));
+        assertFalse(policy.contains("huge"));
+        assertEquals(30, policy.weight());
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import com.codingrodent.microservice.template.entity.FortuneEntity;
+import com.codingrodent.microservice.template.utility.Utility;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class TypeRegistryTest {
+    private TypeRegistry registry;
+
+    @Before
+    public void setUp() throws Exception {
+        registry = new TypeRegistry(Utility.getObjectMapper(), FortuneEntity.class);
+    }
+
+    @Test
+    public void allowed() throws Exception {
+        ObjectReader reader = registry.reader(FortuneEntity.class.getName());
+        assertNotNull(reader);
+        // Built once
+        assertSame(reader, registry.reader(FortuneEntity.class.getName()));
+        FortuneEntity entity = reader.readValue("{\"id\":\"key\",\"version\":3,\"text\":\"text\",\"author\":\"author\"}");
+        assertEquals("key", entity.getId());
+        assertEquals(3, entity.getVersion());
+        assertEquals("text", entity.getText());
+    }
+
+    @Test
+    public void notAllowed() throws Exception {
+        assertNull(registry.reader(null));
+        assertNull(registry.reader(""));
+        assertNull(registry.reader("java.lang.String"));
+        assertNull(registry.reader(FortuneEntity.class.getSimpleName()));
+        assertNull(new TypeRegistry(Utility.getObjectMapper()).reader(FortuneEntity.class.getName()));
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.repository.impl;
+
+import org.junit.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class UuidKeyMapTest {
+
+    private UuidKeyMap<String> map;
+
+    @Before
+    public void setUp() throws Exception {
+        map = new UuidKeyMap<>();
+    }
+
+    @Test
+    public void computeGetRemove() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        String key = uuid.toString();
+        assertNull(map.get(key));
+        assertEquals("a", map.compute(key, (k, v) -> "a"));
+        assertEquals("a", map.get(key));
+        assertEquals("a", map.get(uuid));
+        assertTrue(map.containsKey(key));
+        assertEquals(1, map.size());
+        assertEquals("ab", map.computeIfPresent(key, (k, v) -> v + "b"));
+        assertNull(map.compute(key, (k, v) -> null));
+        assertNull(map.get(uuid));
+        assertNull(map.computeIfPresent(key, (k, v) -> "c"));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    public void canonicalForm() throws Exception {
+        assertTrue(UuidKeyMap.isUuid(UUID.randomUUID().toString()));
+        assertFalse(UuidKeyMap.isUuid(UUID.randomUUID().toString().toUpperCase()));
+        assertFalse(UuidKeyMap.isUuid("0000000000000-0000-0000-000000000000"));
+        assertFalse(UuidKeyMap.isUuid("key"));
+    }
+
+    @Test
+    public void otherKeys() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        String upper = uuid.toString().toUpperCase();
+        map.compute("key", (k, v) -> "a");
+        map.compute(upper, (k, v) -> "b");
+        assertEquals("a", map.get("key"));
+        assertEquals("b", map.get(upper));
+        // Only the canonical form is the same key as the UUID
+        assertNull(map.get(uuid));
+        assertEquals(2, map.size());
+        Map<String, String> seen = new HashMap<>();
+        map.forEach(seen::put);
+        assertEquals(2, seen.size());
+        assertEquals("b", seen.get(upper));
+    }
+
+    @Test
+    public void matchesReference() throws Exception {
+        Random random = new Random(1234);
+        Map<String, String> reference = new HashMap<>();
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 2000; i++)
+            keys.add(new UUID(random.nextLong(), random.nextLong()).toString());
+        // Low variety keys force long probe runs, so removal has to shift entries back
+        for (int i = 0; i < 200; i++)
+            keys.add(new UUID(0, i).toString());
+        for (int i = 0; i < 50000; i++) {
+            String key = keys.get(random.nextInt(keys.size()));
+            if (random.nextInt(3) == 0) {
+                reference.remove(key);
+                map.compute(key, (k, v) -> null);
+            } else {
+                String value = Integer.toString(i);
+                reference.put(key, value);
+                map.compute(key, (k, v) -> value);
+            }
+        }
+        assertEquals(reference.size(), map.size());
+        for (String key : keys)
+            assertEquals(reference.get(key), map.get(key));
+        Map<String, String> seen = new HashMap<>();
+        map.forEach(seen::put);
+        assertEquals(reference, seen);
+        map.clear();
+        assertEquals(0, map.size());
+        assertNull(map.get(keys.get(0)));
+    }
+
+    @Test
+    public void concurrentUpdates() throws Exception {
+        UuidKeyMap<Integer> counters = new UuidKeyMap<>();
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+            keys.add(UUID.randomUUID().toString());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++)
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 1000; i++)
+                    for (String key : keys) {
+                        counters.compute(key, (k, v) -> (null == v) ? 1 : v + 1);
+                        assertNotNull(counters.get(key));
+                    }
+            }));
+        for (Future<?> future : futures)
+            future.get();
+        executor.shutdown();
+        for (String key : keys)
+            assertEquals(Integer.valueOf(4000), counters.get(key));
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.service.impl;
+
+import com.codingrodent.microservice.template.entity.FortuneEntity;
+import com.codingrodent.microservice.template.model.Fortune;
+import com.codingrodent.microservice.template.repository.api.ISyncFortuneRepository;
+import com.codingrodent.microservice.template.service.api.ILogger;
+import org.junit.*;
+import org.springframework.data.domain.*;
+
+import java.util.*;
+import java.util.stream.*;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+public class FortuneServiceTest {
+    private final static int FORTUNES = 25;
+    private final static int SIZE = 10;
+
+    private List<FortuneEntity> entities;
+    private ISyncFortuneRepository<FortuneEntity> repository;
+    private FortuneService service;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        entities = IntStream.range(0, FORTUNES).mapToObj(i -> {
+            // Ids in view order
+            String key = new UUID(0, i).toString();
+            return new FortuneEntity(key, key, "");
+        }).collect(Collectors.toList());
+        repository = mock(ISyncFortuneRepository.class);
+        // A Couchbase view query - the start key is inclusive
+        when(repository.findAllByIdGreaterThan(anyString(), any(Pageable.class))).thenAnswer(invocation -> {
+            String id = (String) invocation.getArguments()[0];
+            Pageable pageable = (Pageable) invocation.getArguments()[1];
+            return entities.stream().filter(entity -> entity.getId().compareTo(id) >= 0).limit(pageable.getPageSize()).collect(Collectors.toList());
+        });
+        service = new FortuneService(mock(ILogger.class), repository);
+    }
+
+    private List<String> texts(final List<Fortune> fortunes) {
+        return fortunes.stream().map(Fortune::getText).collect(Collectors.toList());
+    }
+
+    @Test
+    public void resumeFromInclusiveView() throws Exception {
+        List<String> expected = entities.stream().map(FortuneEntity::getId).collect(Collectors.toList());
+        // Full pages after the key, until the end
+        assertEquals(expected.subList(1, 1 + SIZE), texts(service.listAllAfter(Optional.of(expected.get(0)), SIZE)));
+        assertEquals(expected.subList(11, 11 + SIZE), texts(service.listAllAfter(Optional.of(expected.get(10)), SIZE)));
+        assertEquals(expected.subList(21, FORTUNES), texts(service.listAllAfter(Optional.of(expected.get(20)), SIZE)));
+        assertEquals(Collections.emptyList(), service.listAllAfter(Optional.of(expected.get(FORTUNES - 1)), SIZE));
+    }
+
+    @Test
+    public void viewSortRefused() throws Exception {
+        // Couchbase views are only read in key order
+        for (Runnable sorted : Arrays.<Runnable>asList(() -> service.listNamed(0, SIZE, Optional.of(new Sort("author"))), () -> service.listAnon(0,
+                SIZE, Optional.of(new Sort("text")))))
+            try {
+                sorted.run();
+                fail();
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        verify(repository, never()).findAllNamed(any(Pageable.class));
+        verify(repository, never()).findAllAnon(any(Pageable.class));
+        service.listNamed(0, SIZE, Optional.empty());
+        verify(repository).findAllNamed(new PageRequest(0, SIZE));
+    }
+
+    @Test
+    public void viewSortHonoured() throws Exception {
+        when(repository.supportsSort()).thenReturn(true);
+        service.listAnon(0, SIZE, Optional.of(new Sort("text")));
+        verify(repository).findAllAnon(new PageRequest(0, SIZE, new Sort("text")));
+    }
+
+}
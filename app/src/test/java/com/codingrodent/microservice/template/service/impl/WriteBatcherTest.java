@@ -0,0 +1,193 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.codingrodent.microservice.template.service.impl;
+
+import com.codingrodent.microservice.template.metrics.*;
+import org.junit.*;
+import org.springframework.dao.OptimisticLockingFailureException;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+import static com.codingrodent.microservice.template.constants.SystemConstants.*;
+import static org.junit.Assert.*;
+
+public class WriteBatcherTest {
+    private AppMetricsRegistry registry;
+    private List<Integer> batches;
+
+    @Before
+    public void setUp() throws Exception {
+        registry = new AppMetricsRegistry();
+        batches = Collections.synchronizedList(new ArrayList<>());
+    }
+
+    /**
+     * Commit that doubles each value, failing odd values with a conflict
+     */
+    private List<CompletableFuture<Integer>> commit(final List<Integer> values) {
+        batches.add(values.size());
+        return values.stream().map(value -> {
+            CompletableFuture<Integer> result = new CompletableFuture<>();
+            if (0 == value % 2)
+                result.complete(value * 2);
+            else
+                result.completeExceptionally(new OptimisticLockingFailureException("odd"));
+            return result;
+        }).collect(Collectors.toList());
+    }
+
+    @Test
+    public void single() throws Exception {
+        WriteBatcher<Integer> batcher = new WriteBatcher<>(this::commit, new TemplateMetrics(registry), 8, 100);
+        assertEquals(4, batcher.write(2).intValue());
+        assertEquals(Collections.singletonList(1), batches);
+        assertEquals(1, registry.histogram(METRIC_BATCH_SIZE).getCount());
+        assertEquals(1, registry.histogram(METRIC_BATCH_WAIT).getCount());
+    }
+
+    @Test(expected = OptimisticLockingFailureException.class)
+    public void conflict() throws Exception {
+        new WriteBatcher<>(this::commit, new TemplateMetrics(registry), 8, 100).write(3);
+    }
+
+    @Test
+    public void concurrent() throws Exception {
+        final int threads = 8, writes = 200, maxSize = 4;
+        WriteBatcher<Integer> batcher = new WriteBatcher<>(this::commit, new TemplateMetrics(registry), maxSize, 2000);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            results.add(executor.submit(() -> {
+                int conflicts = 0;
+                for (int i = 0; i < writes; i++) {
+                    int value = thread * writes + i;
+                    try {
+                        // each caller gets its own result back
+                        assertEquals(value * 2, batcher.write(value).intValue());
+                    } catch (OptimisticLockingFailureException e) {
+                        assertEquals(1, value % 2);
+                        conflicts++;
+                    }
+                }
+                return conflicts;
+            }));
+        }
+        int conflicts = 0;
+        for (Future<Integer> result : results)
+            conflicts = conflicts + result.get();
+        executor.shutdown();
+        assertEquals(threads * writes / 2, conflicts);
+        assertEquals(threads * writes, batches.stream().mapToInt(Integer::intValue).sum());
+        assertTrue(batches.stream().allMatch(size -> size <= maxSize));
+        // concurrent writers share batches
+        assertTrue(batches.size() < threads * writes);
+        assertEquals(batches.size(), registry.histogram(METRIC_BATCH_SIZE).getCount());
+        assertEquals(threads * writes, registry.histogram(METRIC_BATCH_WAIT).getCount());
+    }
+
+    @Test
+    public void leaderHandsOver() throws Exception {
+        CountDownLatch leading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        // One write per batch and a long wait, so a write left without a leader would sit out its whole wait
+        WriteBatcher<Integer> batcher = new WriteBatcher<>(values -> {
+            leading.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return commit(values);
+        }, new TemplateMetrics(registry), 1, TimeUnit.SECONDS.toMicros(10));
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Integer> leader = executor.submit(() -> batcher.write(2));
+            leading.await();
+            Future<Integer> follower = executor.submit(() -> batcher.write(4));
+            Thread.sleep(100);
+            release.countDown();
+            assertEquals(4, leader.get(1, TimeUnit.SECONDS).intValue());
+            assertEquals(8, follower.get(1, TimeUnit.SECONDS).intValue());
+            assertEquals(Arrays.asList(1, 1), batches);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void leaderLetsGo() throws Exception {
+        final int threads = 4;
+        CountDownLatch leading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        // One write per batch and a slow commit, so the other writers keep the queue from ever emptying
+        WriteBatcher<Integer> batcher = new WriteBatcher<>(values -> {
+            leading.countDown();
+            try {
+                release.await();
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return commit(values);
+        }, new TemplateMetrics(registry), 1, 100);
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        try {
+            Future<Integer> leader = executor.submit(() -> batcher.write(2));
+            leading.await();
+            for (int t = 0; t < threads; t++)
+                executor.submit(() -> {
+                    while (!Thread.currentThread().isInterrupted())
+                        batcher.write(4);
+                    return null;
+                });
+            Thread.sleep(100);
+            release.countDown();
+            // The leader returns once its own write is committed, however many are queued behind it
+            assertEquals(4, leader.get(5, TimeUnit.SECONDS).intValue());
+            int committed = batches.size();
+            Thread.sleep(100);
+            assertTrue(batches.size() > committed);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void commitFailure() throws Exception {
+        WriteBatcher<Integer> batcher = new WriteBatcher<>(values -> {
+            throw new IllegalStateException("down");
+        }, new TemplateMetrics(registry), 8, 100);
+        try {
+            batcher.write(2);
+            fail("Failure not reported");
+        } catch (IllegalStateException e) {
+            assertEquals("down", e.getMessage());
+        }
+    }
+
+}